@@ -0,0 +1,34 @@
+package com.example.deeptalk.modules.speech.config;
+
+import com.example.deeptalk.modules.speech.service.InMemoryMatchBroker;
+import com.example.deeptalk.modules.speech.service.MatchBroker;
+import com.example.deeptalk.modules.speech.service.PostgresMatchBroker;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+@Configuration
+public class SpeechMatchingConfig {
+
+    /**
+     * broker 模式使用的共享等待池，由 speech.matching.broker.type 选择实现；其他模式不创建，
+     * 也就不会建表或占用数据库连接
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = "speech.matching", name = "mode", havingValue = "broker")
+    public MatchBroker matchBroker(SpeechMatchingProperties properties, ObjectProvider<DataSource> dataSource) {
+        SpeechMatchingProperties.Broker broker = properties.getBroker();
+        switch (broker.getType()) {
+            case "postgres":
+                return new PostgresMatchBroker(dataSource.getObject(), broker.getPollIntervalMs(),
+                        broker.getLeaseMs(), broker.getMaxWaitMs());
+            case "memory":
+                return new InMemoryMatchBroker();
+            default:
+                throw new IllegalArgumentException("Unknown speech.matching.broker.type: " + broker.getType());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.deeptalk.modules.speech.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 语音对战匹配相关配置，对应 application.yml 中的 speech.matching.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "speech.matching")
+public class SpeechMatchingProperties {
+    /**
+     * 匹配模式: fifo - 先到先配对; skill - 按英语水平分桶配对; batch - 按节拍批量配对;
+     * broker - 通过共享的等待池与其他节点的用户配对，部署多个后端副本时使用
+     */
+    private String mode = "fifo";
+    /**
+     * fifo 模式的分片数，0 表示使用 CPU 核数
+     */
+    private int shards = 0;
+    /**
+     * 本节点在 broker 模式下的标识，为空时启动时随机生成
+     */
+    private String nodeId = "";
+    private Skill skill = new Skill();
+    private Batch batch = new Batch();
+    private Broker broker = new Broker();
+
+    @Data
+    public static class Skill {
+        /**
+         * 每等待这么久，可接受的等级差放宽一级（毫秒）
+         */
+        private long widenStepMs = 2000;
+        /**
+         * 可接受的最大等级差
+         */
+        private int maxRadius = 5;
+        /**
+         * 后台为等待者重新匹配的间隔（毫秒）
+         */
+        private long sweepIntervalMs = 200;
+    }
+
+    @Data
+    public static class Batch {
+        /**
+         * 收集到达用户的节拍长度（毫秒），每个节拍结束时统一配对
+         */
+        private long tickMs = 50;
+    }
+
+    @Data
+    public static class Broker {
+        /**
+         * 等待池的实现: memory - 进程内，仅限单个 JVM; postgres - 使用应用的数据源，多个副本共享
+         */
+        private String type = "memory";
+        /**
+         * postgres 等待池在没有通知时轮询信箱、补充配对的间隔（毫秒）
+         */
+        private long pollIntervalMs = 500;
+        /**
+         * postgres 等待池的节点租约（毫秒），由监听线程定期续约；节点崩溃后租约过期，它留下的等待者不再参与配对并被清理
+         */
+        private long leaseMs = 10000;
+        /**
+         * postgres 等待池中的等待者超过这么久未配对即视为过期（毫秒），应大于匹配的等待超时
+         */
+        private long maxWaitMs = 30000;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.deeptalk.modules.speech.config;
+
+import com.example.deeptalk.modules.speech.service.RecordingDurability;
+import com.example.deeptalk.modules.speech.service.RecordingMixdown;
+import com.example.deeptalk.modules.speech.service.RecordingStorage;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 录音相关配置，对应 application.yml 中的 speech.recording.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "speech.recording")
+public class SpeechRecordingProperties {
+    /**
+     * 录音文件的根目录，每个会话一个子目录
+     */
+    private String artifactPath = "deploy/artifact";
+    /**
+     * 转发线程和录音写线程之间环形队列的槽位数，向上取整到 2 的幂；写线程落后这么多块时新的数据块被丢弃
+     */
+    private int ringSlots = 4096;
+    /**
+     * 每个槽位复用的缓冲区大小（字节），更大的数据块单独分配。槽位数乘以该值即录音排队占用的内存上限
+     */
+    private int slotBytes = 4096;
+    /**
+     * 临时文件的写入方式：APPEND - 通道追加; MAPPED - 预分配固定大小的段并通过内存映射写入
+     */
+    private RecordingStorage storage = RecordingStorage.APPEND;
+    /**
+     * MAPPED 方式每段的大小（字节），默认 1MB，约 16kHz 16 位单声道 PCM 的 32 秒
+     */
+    private int segmentBytes = 1024 * 1024;
+    /**
+     * PCM 音轨的采样率（Hz），写入 WAV 头；转发路径上的 PCM 均为 16 位单声道
+     */
+    private int sampleRate = 16000;
+    /**
+     * PCM 音轨 seek 索引的间隔（毫秒采集时间），每隔这么久记录一个采集时间到数据偏移的索引项
+     */
+    private int seekIndexIntervalMs = 1000;
+    /**
+     * 会话混音轨：NONE - 不生成; STEREO - 两人分左右声道; MONO - 混成单声道。按采集时间对齐，缺失的部分填静音
+     */
+    private RecordingMixdown mixdown = RecordingMixdown.STEREO;
+    /**
+     * 混音窗口（毫秒），各音轨之间的到达先后不超过这个范围；更晚到达的部分已经写出，被丢弃。窗口即每个会话混音的固定内存
+     */
+    private int mixWindowMs = 500;
+    /**
+     * 同一音轨相邻数据块的采集时间偏差在这个范围（毫秒）内时视为连续，超过时按采集时间留出静音
+     */
+    private int mixToleranceMs = 60;
+    /**
+     * 一个数据块最多让混音跳过这么久（毫秒）的静音；采集时间向前跳得更远时（客户端时钟跳变或伪造的时间）
+     * 音轨接在原来的位置继续，记为一次不连续，不写出整段空白
+     */
+    private int mixMaxGapMs = 10000;
+    /**
+     * 会话录音最终化的后台线程数，结束会话的请求只提交任务，不等待文件写完
+     */
+    private int finalizeThreads = 2;
+    /**
+     * 等待最终化的会话数上限，队列满时任务被拒绝，临时文件保留在会话目录中
+     */
+    private int finalizeQueueSize = 1024;
+    /**
+     * 保留多少个已结束任务的状态供查询，超出后丢弃最早结束的
+     */
+    private int finalizeRetainedStatuses = 10000;
+    /**
+     * 启动时恢复上次运行遗留录音的后台线程数，启动本身不等待恢复
+     */
+    private int recoveryThreads = 4;
+    /**
+     * 录音日志中累计这么多条已完成的会话后压缩一次，只保留未完成的会话
+     */
+    private int journalCompactEntries = 10000;
+    /**
+     * 落盘策略：NONE - 不 fsync; GROUP - 后台线程定期对所有写过的音轨 fsync 一次; PER_FRAME - 每次写入后 fsync
+     */
+    private RecordingDurability durability = RecordingDurability.GROUP;
+    /**
+     * GROUP 方式的落盘间隔（毫秒），断电时最多丢失这么久的音频
+     */
+    private int groupCommitIntervalMs = 1000;
+}
@@ -0,0 +1,105 @@
+package com.example.deeptalk.modules.speech.config;
+
+import com.example.deeptalk.modules.speech.service.OverflowPolicy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 音频转发相关配置，对应 application.yml 中的 speech.relay.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "speech.relay")
+public class SpeechRelayProperties {
+    /**
+     * 每个连接的发送队列最多缓存的音频帧数，按 20ms 一帧计算，50 帧约为 1 秒
+     */
+    private int queueCapacity = 50;
+    /**
+     * 发送队列满时的处理方式: DROP_OLDEST - 丢弃最早的帧; DROP_NEWEST - 丢弃新到的帧; CLOSE - 关闭该连接
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    /**
+     * 执行发送的线程数，0 表示使用 CPU 核数的两倍
+     */
+    private int sendThreads = 0;
+    /**
+     * 帧缓冲区池中每个缓冲区的大小（字节），更大的帧不经过缓冲池
+     */
+    private int frameBufferBytes = 4096;
+    /**
+     * 帧缓冲区池最多保留的空闲缓冲区个数
+     */
+    private int maxPooledFrames = 4096;
+    /**
+     * 旁听连接的发送队列最多缓存的帧数，旁听者跟不上时总是丢弃最早的帧
+     */
+    private int spectatorQueueCapacity = 25;
+    private Coalesce coalesce = new Coalesce();
+    private Listener listener = new Listener();
+
+    @Data
+    public static class Coalesce {
+        /**
+         * 是否把客户端发来的零碎数据块拼成固定时长的帧后再转发和录音
+         */
+        private boolean enabled = false;
+        /**
+         * 每帧的时长（毫秒），建议 20~60
+         */
+        private int frameMs = 40;
+        /**
+         * 每毫秒音频的字节数，默认 16kHz、16bit、单声道 PCM
+         */
+        private int bytesPerMs = 32;
+        /**
+         * 不满一帧的数据最多等待多久就输出（毫秒），决定增加的延迟上界
+         */
+        private long maxDelayMs = 40;
+    }
+
+    @Data
+    public static class Listener {
+        /**
+         * 是否在独立端口上启动专用的音频转发监听器，与 Servlet 容器中的 /api/speech/ws 使用相同的协议
+         */
+        private boolean enabled = false;
+        /**
+         * 监听端口
+         */
+        private int port = 8090;
+        /**
+         * 事件循环线程数，0 表示 CPU 核数
+         */
+        private int eventLoops = 0;
+        /**
+         * 每个事件循环共享的读缓冲区大小（字节），连接本身不持有读缓冲区
+         */
+        private int readBufferBytes = 65536;
+        /**
+         * 单条消息的最大长度（字节），超过时以 1009 关闭连接
+         */
+        private int maxMessageBytes = 65536;
+        /**
+         * 每个连接未写出数据的上限（字节），达到后发送方等待，超时仍写不出则关闭连接
+         */
+        private int maxPendingWriteBytes = 262144;
+        /**
+         * 发送等待的超时时间（毫秒）
+         */
+        private long sendTimeoutMs = 5000;
+        /**
+         * 同时保持的连接数上限，达到后新连接收到 503 并被关闭
+         */
+        private int maxConnections = 10000;
+        /**
+         * 从接受连接起完成 WebSocket 握手的期限（毫秒），超时未完成则关闭连接，0 表示不限制
+         */
+        private long handshakeTimeoutMs = 5000;
+        /**
+         * 已建立的连接这么久没有收到任何数据（包括 ping）则关闭（毫秒），0 表示不限制
+         */
+        private long idleTimeoutMs = 120000;
+    }
+}
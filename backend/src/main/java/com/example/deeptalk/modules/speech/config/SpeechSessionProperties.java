@@ -0,0 +1,44 @@
+package com.example.deeptalk.modules.speech.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 语音会话相关配置，对应 application.yml 中的 speech.session.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "speech.session")
+public class SpeechSessionProperties {
+    /**
+     * 会话在没有任何音频或注册活动超过该时间后被自动关闭（毫秒）
+     */
+    private long idleTimeoutMs = 120000;
+    /**
+     * 空闲清理时间轮的节拍长度（毫秒）
+     */
+    private long reaperTickMs = 1000;
+    /**
+     * 多人房间最多的参与者人数
+     */
+    private int maxRoomSize = 8;
+    /**
+     * 每个会话最多的旁听连接数
+     */
+    private int maxSpectators = 10;
+    /**
+     * 连接意外断开后保留用户在会话中的宽限期（毫秒），期间用新连接重新注册即恢复会话，不需要重新匹配；
+     * 0 表示不保留，断线后立即通知其他人离开
+     */
+    private long resumeGraceMs = 15000;
+    /**
+     * 恢复时最多补发的错过音频时长（毫秒）。每名说话者一个按此时长和 replayBytesPerMs
+     * 计算大小的环形缓冲区，会话中有人断线后才创建
+     */
+    private long replayMs = 3000;
+    /**
+     * 计算补发缓冲区大小时使用的音频码率（每毫秒字节数），默认 16kHz、16bit、单声道 PCM
+     */
+    private int replayBytesPerMs = 32;
+}
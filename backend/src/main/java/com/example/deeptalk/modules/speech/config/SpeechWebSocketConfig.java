@@ -1,7 +1,10 @@
 package com.example.deeptalk.modules.speech.config;
 
-import com.example.deeptalk.modules.speech.service.ForwardingService;
+import com.example.deeptalk.modules.speech.service.RelayServer;
 import com.example.deeptalk.modules.speech.service.SpeechWebSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -10,9 +13,9 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 @EnableWebSocket
 @Configuration
 public class SpeechWebSocketConfig implements WebSocketConfigurer {
-    // 这里可以实现WebSocketConfigurer的具体方法
-    // 例如：registerWebSocketHandlers等
-    public static final SpeechWebSocketHandler speechWebSocketHandler = new SpeechWebSocketHandler(new ForwardingService());
+    // 处理器及其依赖的 ForwardingService 均由 Spring 管理，与 SpeechService 共享同一个会话注册表
+    @Autowired
+    private SpeechWebSocketHandler speechWebSocketHandler;
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
@@ -20,4 +23,13 @@ public class SpeechWebSocketConfig implements WebSocketConfigurer {
         registry.addHandler(speechWebSocketHandler, "/api/speech/ws")
                 .setAllowedOrigins("*");
     }
+
+    /**
+     * 独立端口上的专用转发监听器，默认关闭；开启后客户端可以任选其一连接，两边共享同一个处理器和会话注册表
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(prefix = "speech.relay.listener", name = "enabled", havingValue = "true")
+    public RelayServer relayServer(SpeechRelayProperties relayProperties) {
+        return new RelayServer(speechWebSocketHandler, relayProperties.getListener());
+    }
 }
@@ -1,19 +1,23 @@
 package com.example.deeptalk.modules.speech.controller;
 
 import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import com.example.deeptalk.modules.speech.service.RecordingPlaybackService;
 import com.example.deeptalk.modules.speech.service.SpeechService;
 import lombok.Data;
 import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The type Speech controller.
@@ -21,15 +25,20 @@ import java.util.concurrent.TimeUnit;
  * 一个完整的语音对战流程包括：
  * /match - 用户发起匹配请求，服务器返回一个token
  * /connect - 用户连接到指定的token上，开始对战
- * /disconnect - 用户断开连接，结束对战
+ * /disconnect - 用户断开连接，结束对战（房间中只是该用户离开），录音在后台最终化
+ * /recordings/{sessionId}/status - 查询会话录音最终化的进度
+ * /recordings/{sessionId}/{fileName} - 回放录音文件，支持 Range，浏览器可以直接拖动进度
+ * /room - 直接为一组用户创建多人房间（小组辩论练习），不经过匹配
  * /critique - 用户请求对对战进行评价，服务器返回评价结果
  */
 @RestController
 @RequestMapping("/api/speech")
 @CrossOrigin(origins = "*")
 public class SpeechController {
-    private final static int MAX_PENDING_TIME = 10; // maximum waiting time, in seconds
-    private final static Map<String, CompletableFuture<SpeechSessionInfo>> tokenNotifier = new ConcurrentHashMap<>();
+    @Autowired
+    private SpeechService speechService;
+    @Autowired
+    private RecordingPlaybackService recordingPlaybackService;
 
     /**
      * connect response entity.
@@ -41,51 +50,57 @@ public class SpeechController {
      * @return 得到的token
      */
     @PostMapping("/connect")
-    public ResponseEntity<?> connect(@RequestBody ConnectRequest request) {
+    public CompletableFuture<ResponseEntity<?>> connect(@RequestBody ConnectRequest request) {
         // 处理连接请求
         // First check if the user is already connected or pending
-        if (SpeechService.checkIsPending(request.getUserId())) {
-            return ResponseEntity.badRequest().body("用户已在请求中");
+        if (speechService.checkIsPending(request.getUserId())) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("用户已在请求中"));
         }
-        if (SpeechService.checkIsConnected(request.getUserId())) {
-            return ResponseEntity.badRequest().body("用户已连接");
+        if (speechService.checkIsConnected(request.getUserId())) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("用户已连接"));
         }
-        // Find a matching opponent
-        String opponentId = SpeechService.findMatching(request.getUserId());
-        SpeechSessionInfo sessionInfo;
-        if (opponentId == null) {
-            // no matching opponent found, pend the user into the waiting queue
-            opponentId = SpeechService.pendMatching(request.getUserId());
-            if (opponentId == null) {
-                return ResponseEntity.status(503).body("匹配失败，请稍后再试");
-            }
-            // 从动方等待主动方返回token
-            try {
-                CompletableFuture<SpeechSessionInfo> tokenFuture = new CompletableFuture<>();
-                tokenNotifier.put(request.getUserId(), tokenFuture);
-                sessionInfo = tokenFuture.get(MAX_PENDING_TIME, TimeUnit.SECONDS);
-            } catch (Exception e) {
+        // 匹配过程是异步的，等待对手期间请求线程会被释放回容器
+        return speechService.connect(request.getUserId(), request.getEnglishLevel()).handle((sessionInfo, e) -> {
+            if (e != null) {
+                if (e.getCause() instanceof IllegalStateException || e instanceof IllegalStateException) {
+                    return ResponseEntity.badRequest().body("用户已在请求中");
+                }
                 return ResponseEntity.status(503).body("匹配失败，请稍后再试");
             }
-            tokenNotifier.remove(request.getUserId());
-        } else {
-            // 主动方需要主动调用创建连接方法，生成实际的session
-            sessionInfo = SpeechService.makeConnection(request.getUserId(), opponentId);
-            CompletableFuture<SpeechSessionInfo> opponentFuture = tokenNotifier.get(opponentId);
-            if (opponentFuture == null) {
-                return ResponseEntity.status(503).body("对手未准备好，请稍后再试");
-            } else {
-                opponentFuture.complete(sessionInfo); // 将token发送给对手
+            if (sessionInfo != null) {
+                return ResponseEntity.ok(new ConnectResponse(
+                        sessionInfo.getSessionId(),
+                        sessionInfo.getOpponentInfo(request.getUserId()).getUserId()
+                )); // 这里应当返回一个可用的连接信息
             }
-        }
+            return ResponseEntity.status(503).body("匹配失败，请稍后再试");
+        });
+    }
 
-        if (sessionInfo != null) {
-            return ResponseEntity.ok(new ConnectResponse(
-                    sessionInfo.getSessionId(),
-                    sessionInfo.getOpponentInfo(request.getUserId()).getUserId()
-            )); // 这里应当返回一个可用的连接信息
+    /**
+     * 创建多人房间. 参与者随后像双人对战一样用返回的 sessionId 注册 WebSocket，
+     * 每个人的音频会转发给房间中的其他所有人.
+     *
+     * @param request 参与者列表
+     * @return 房间的 sessionId 和参与者
+     */
+    @PostMapping("/room")
+    public ResponseEntity<?> createRoom(@RequestBody RoomRequest request) {
+        if (request.getUserIds() == null) {
+            return ResponseEntity.badRequest().body("缺少参与者");
+        }
+        SpeechSessionInfo room;
+        try {
+            room = speechService.createRoom(request.getUserIds());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("参与者人数不合法或有重复");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body("用户已在请求中");
+        }
+        if (room == null) {
+            return ResponseEntity.badRequest().body("用户已连接");
         }
-        return ResponseEntity.status(503).body("匹配失败，请稍后再试");
+        return ResponseEntity.ok(new RoomResponse(room.getSessionId(), room.getParticipantIds()));
     }
 
     /**
@@ -98,14 +113,76 @@ public class SpeechController {
     public ResponseEntity<?> disconnect(@RequestBody ConnectRequest request) {
         // 处理断开连接请求
         // first check if the user is connected, if not, return error
-        if (!SpeechService.checkIsConnected(request.getUserId())) {
+        if (!speechService.checkIsConnected(request.getUserId())) {
             return ResponseEntity.badRequest().body("用户未连接");
         }
         // Disconnect the user
-        SpeechService.disconnect(request.getUserId(), request.getSessionId());
+        speechService.disconnect(request.getUserId(), request.getSessionId());
         return ResponseEntity.ok("断开连接成功");
     }
 
+    /**
+     * 各英语水平的匹配等待时间分位数，用于调整等级差放宽的速度.
+     *
+     * @return level -> {count, p50Ms, p90Ms, p99Ms, maxMs}
+     */
+    @GetMapping("/matching/stats")
+    public ResponseEntity<Map<String, Map<String, Object>>> matchingStats() {
+        return ResponseEntity.ok(speechService.getMatchWaitStats());
+    }
+
+    /**
+     * 音频转发发送队列的深度和丢帧统计.
+     *
+     * @return {connections, queuedFrames, maxDepth, dropped, pooledBuffers, lostFrames, lateFrames}
+     */
+    @GetMapping("/relay/stats")
+    public ResponseEntity<Map<String, Object>> relayStats() {
+        return ResponseEntity.ok(speechService.getRelayStats());
+    }
+
+    /**
+     * 会话录音最终化的进度. /disconnect 只提交最终化任务，客户端通过这里查询录音文件是否已经生成.
+     *
+     * @param sessionId 会话ID
+     * @return {sessionId, state, submittedAt, finishedAt, files}; 会话没有结束过时返回 404
+     */
+    @GetMapping("/recordings/{sessionId}/status")
+    public ResponseEntity<Map<String, Object>> recordingStatus(@PathVariable String sessionId) {
+        Map<String, Object> status = speechService.getRecordingStatus(sessionId);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * 会话中可以回放的录音文件.
+     *
+     * @param sessionId 会话ID
+     * @return [{name, size, lastModified, contentType}]; 会话没有录音时返回 404
+     */
+    @GetMapping("/recordings/{sessionId}")
+    public ResponseEntity<List<Map<String, Object>>> recordings(@PathVariable String sessionId) throws IOException {
+        List<Map<String, Object>> recordings = recordingPlaybackService.listRecordings(sessionId);
+        if (recordings == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(recordings);
+    }
+
+    /**
+     * 回放录音文件. 支持 Range/If-Range/If-None-Match，响应体由文件直接发送，不读入内存.
+     *
+     * @param sessionId 会话ID
+     * @param fileName  文件名，如 alice-{sessionId}.wav
+     */
+    @GetMapping("/recordings/{sessionId}/{fileName:.+}")
+    public void playRecording(@PathVariable String sessionId, @PathVariable String fileName,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        recordingPlaybackService.serve(sessionId, fileName, request, response);
+    }
+
     /**
      * Critique response entity.
      *
@@ -133,6 +210,7 @@ public class SpeechController {
 class ConnectRequest {
     private String userId;
     private String sessionId; // 连接的sessionId， 如果是匹配请求，则未定义
+    private String englishLevel; // 用户的英语水平（如 B1 或 初级/中级/高级），用于按水平匹配，可以为空
 }
 
 @Getter
@@ -146,6 +224,24 @@ class ConnectResponse {
     }
 }
 
+/**
+ * The type Room request.
+ */
+@Getter
+class RoomRequest {
+    private List<String> userIds;
+}
+
+@Data
+class RoomResponse {
+    private String sessionId;
+    private List<String> participants;
+    public RoomResponse(String sessionId, List<String> participants) {
+        this.sessionId = sessionId;
+        this.participants = participants;
+    }
+}
+
 /**
  * The type Critique request.
  */
@@ -0,0 +1,74 @@
+package com.example.deeptalk.modules.speech.entity;
+
+/**
+ * 客户端与服务器之间音频数据的传输编码，在 WebSocket 注册时协商。
+ * <p>
+ * RAW 是不透明的字节流（如浏览器录制的 webm），原样转发和录制，从不转码；
+ * 其余三种都是 16 位单声道采样，服务器可以在它们之间相互转换。
+ */
+public enum AudioCodec {
+    /** 原样转发，不做任何转换 */
+    RAW("raw"),
+    /** 16 位小端 PCM */
+    PCM16("pcm"),
+    /** G.711 µ-law，每个采样 1 字节 */
+    MULAW("mulaw"),
+    /** IMA ADPCM，每个采样 4 位，每帧自带 4 字节头，丢帧不影响后续帧的解码 */
+    IMA_ADPCM("adpcm");
+
+    // values() 每次都会复制数组，解析帧头时使用缓存
+    private static final AudioCodec[] BY_ID = values();
+
+    private final String wireName;
+
+    AudioCodec(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /**
+     * 注册消息和协商结果中使用的名称
+     */
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * 二进制帧头中使用的编号
+     */
+    public int getId() {
+        return ordinal();
+    }
+
+    /**
+     * @return 编号对应的编码，无法识别时返回 null
+     */
+    public static AudioCodec fromId(int id) {
+        return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+
+    /**
+     * 是否为可以相互转换的 PCM 系编码
+     */
+    public boolean isTranscodable() {
+        return this != RAW;
+    }
+
+    /**
+     * 解析注册消息中的编码名称，大小写不敏感，也接受枚举名
+     *
+     * @param value 原始取值
+     * @return 对应的编码，无法识别时返回 null
+     */
+    public static AudioCodec parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String normalized = value.trim();
+        for (AudioCodec codec : values()) {
+            if (codec.wireName.equalsIgnoreCase(normalized) || codec.name().equalsIgnoreCase(normalized)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.deeptalk.modules.speech.entity;
+
+/**
+ * 用户英语水平，对应 user_profiles.english_level，按 CEFR 由低到高排列。
+ * 匹配时以 {@link #ordinal()} 作为等级桶的下标。
+ */
+public enum EnglishLevel {
+    A1, A2, B1, B2, C1, C2;
+
+    /**
+     * 解析英语水平，支持 CEFR 等级（如 "B2"）以及前端使用的 "初级"/"中级"/"高级"。
+     *
+     * @param value 原始取值
+     * @return 对应的英语水平，无法识别时返回 null
+     */
+    public static EnglishLevel parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String normalized = value.trim().toUpperCase();
+        switch (normalized) {
+            case "初级":
+                return A2;
+            case "中级":
+                return B2;
+            case "高级":
+                return C2;
+            default:
+                break;
+        }
+        for (EnglishLevel level : values()) {
+            if (level.name().equals(normalized)) {
+                return level;
+            }
+        }
+        return null;
+    }
+}
@@ -1,44 +1,147 @@
 package com.example.deeptalk.modules.speech.entity;
 
+import com.example.deeptalk.modules.speech.service.OutboundQueue;
 import lombok.Getter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 一个语音会话：匹配产生的双人对战，或者多人的房间（小组辩论练习）。
+ * 参与者在创建时确定，列表不可变；房间中离开的参与者只做标记。
+ */
 @Getter
 public class SpeechSessionInfo {
     private final String sessionId;
-    private final SpeechUserInfo user1Info;
-    private final SpeechUserInfo user2Info;
+    private final List<SpeechUserInfo> participants;
+    // 最近一次有音频或注册活动的时间（毫秒），用于清理空闲会话
+    private volatile long lastActiveAt = System.currentTimeMillis();
+    // 会话已从注册表中移除
+    private volatile boolean closed;
+    // 旁听连接的发送队列，转发每帧时遍历，增删只在旁听者进出时发生
+    private final List<OutboundQueue> spectators = new CopyOnWriteArrayList<>();
 
     public SpeechSessionInfo(String sessionId, String user1Id, String user2Id) {
+        this(sessionId, List.of(user1Id, user2Id));
+    }
+
+    public SpeechSessionInfo(String sessionId, List<String> userIds) {
         this.sessionId = sessionId;
-        this.user1Info = new SpeechUserInfo(user1Id, sessionId);
-        this.user2Info = new SpeechUserInfo(user2Id, sessionId);
+        List<SpeechUserInfo> users = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            SpeechUserInfo userInfo = new SpeechUserInfo(userId, sessionId);
+            userInfo.setParticipantIndex(users.size());
+            users.add(userInfo);
+        }
+        this.participants = Collections.unmodifiableList(users);
+    }
+
+    public SpeechUserInfo getUser1Info() {
+        return participants.get(0);
+    }
+
+    public SpeechUserInfo getUser2Info() {
+        return participants.get(1);
     }
 
     public String getUser1Id() {
-        return user1Info.getUserId();
+        return getUser1Info().getUserId();
     }
 
     public String getUser2Id() {
-        return user2Info.getUserId();
+        return getUser2Info().getUserId();
+    }
+
+    /**
+     * 是否为超过两人的房间
+     */
+    public boolean isRoom() {
+        return participants.size() > 2;
+    }
+
+    public List<String> getParticipantIds() {
+        List<String> userIds = new ArrayList<>(participants.size());
+        for (SpeechUserInfo userInfo : participants) {
+            userIds.add(userInfo.getUserId());
+        }
+        return userIds;
+    }
+
+    /**
+     * 仍在会话中（没有离开房间）的参与者人数
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (SpeechUserInfo userInfo : participants) {
+            if (!userInfo.isLeft()) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public SpeechUserInfo getUserInfo(String userId) {
-        if (userId.equals(this.user1Info.getUserId())) {
-            return user1Info;
-        } else if (userId.equals(this.user2Info.getUserId())) {
-            return user2Info;
-        } else {
-            throw new IllegalArgumentException("Invalid user ID: " + userId);
+        for (SpeechUserInfo userInfo : participants) {
+            if (userInfo.getUserId().equals(userId)) {
+                return userInfo;
+            }
         }
+        throw new IllegalArgumentException("Invalid user ID: " + userId);
     }
 
+    /**
+     * 双人会话中的对手。房间没有唯一的对手，遍历 {@link #getParticipants()} 并跳过自己
+     */
     public SpeechUserInfo getOpponentInfo(String userId) {
-        if (userId.equals(this.user1Info.getUserId())) {
-            return user2Info;
-        } else if (userId.equals(this.user2Info.getUserId())) {
-            return user1Info;
+        if (isRoom()) {
+            throw new IllegalStateException("Room session " + sessionId + " has no single opponent");
+        }
+        if (userId.equals(getUser1Info().getUserId())) {
+            return getUser2Info();
+        } else if (userId.equals(getUser2Info().getUserId())) {
+            return getUser1Info();
         } else {
             throw new IllegalArgumentException("Invalid user ID: " + userId);
         }
     }
+
+    /**
+     * 记录一次会话活动
+     */
+    public void touch() {
+        lastActiveAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 加入一个旁听者
+     *
+     * @return 会话已结束或旁听人数已达上限时返回 false
+     */
+    public synchronized boolean addSpectator(OutboundQueue queue, int limit) {
+        if (closed || spectators.size() >= limit) {
+            return false;
+        }
+        spectators.add(queue);
+        return true;
+    }
+
+    public void removeSpectator(OutboundQueue queue) {
+        spectators.remove(queue);
+    }
+
+    /**
+     * 取出所有旁听者，之后不能再加入
+     */
+    public synchronized List<OutboundQueue> clearSpectators() {
+        closed = true;
+        List<OutboundQueue> removed = new ArrayList<>(spectators);
+        spectators.clear();
+        return removed;
+    }
+
+    public void markClosed() {
+        closed = true;
+    }
 }
@@ -1,15 +1,48 @@
 package com.example.deeptalk.modules.speech.entity;
 
+import com.example.deeptalk.modules.speech.service.FrameCoalescer;
+import com.example.deeptalk.modules.speech.service.OutboundQueue;
+import com.example.deeptalk.modules.speech.service.ReplayBuffer;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.web.socket.WebSocketSession;
 
+import java.util.concurrent.ScheduledFuture;
+
 @Getter
 @Setter
 public class SpeechUserInfo {
     private String userId;
     private String sessionId;
-    private WebSocketSession wsSession;
+    private volatile WebSocketSession wsSession;
+    // 发往该用户连接的有界发送队列，注册 WebSocket 时创建
+    private volatile OutboundQueue outboundQueue;
+    // 该用户说话的抖动缓冲，未开启拼帧时为 null
+    private volatile FrameCoalescer coalescer;
+    // 注册时协商的传输编码：客户端上传的音频编码和希望收到的音频编码
+    private volatile AudioCodec sendCodec = AudioCodec.RAW;
+    private volatile AudioCodec receiveCodec = AudioCodec.RAW;
+    // 该用户的音频编码为 ADPCM 时延续到下一帧的步长索引，只在转发该用户音频的线程中使用
+    private int adpcmStepIndex;
+    // 已经离开房间，不再接收和发送音频
+    private volatile boolean left;
+    // 在会话参与者中的序号，写入转发音频的帧头
+    private int participantIndex;
+    // 使用二进制分帧协议注册，收发的音频都带帧头
+    private volatile boolean framed;
+    // 客户端上一个音频帧的序号，用于检测丢帧和乱序，只在该用户的连接线程中使用
+    private boolean inboundStarted;
+    private int lastInboundSequence;
+    // 转发该用户音频时分配的序号，接收方据此发现服务器丢弃的帧
+    private int outboundSequence;
+    // 该用户最近说话的音频，供断线重连的其他参与者补发；会话中第一次有其他人断线时创建
+    private volatile ReplayBuffer replayBuffer;
+    // 连接意外断开的时间（毫秒），在恢复宽限期内不为 0
+    private volatile long disconnectedAt;
+    // 断线前从每名参与者（按序号）最后收到的帧序号，null 元素表示没有收到过
+    private volatile Integer[] resumeAfterSequences;
+    // 宽限期到期后通知其他人离开的定时任务
+    private volatile ScheduledFuture<?> resumeExpiry;
 
     public SpeechUserInfo(String userId, String sessionId) {
         this.userId = userId;
@@ -0,0 +1,151 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个归转发路径所有的音频帧，带引用计数。
+ * <p>
+ * 容器的缓冲区在回调返回后就会被复用，需要跨线程发送的数据先复制到帧里（每块只复制这一次）。
+ * 持有者：{@link AudioFramePool#copyOf} 的调用方持有一个引用；每个把帧放进发送队列的地方再持有一个，
+ * 发送完成或被丢弃时释放。最后一个引用释放后，缓冲区回到池中。帧的数据在创建后只读。
+ * <p>
+ * 缓冲区开头预留 {@link SpeechFrame#HEADER_BYTES} 字节的帧头，{@link #stamp} 写入后，
+ * 使用分帧协议的连接发送 {@link #framedView()}，其他连接发送 {@link #view()}，两者共享同一份数据。
+ */
+public final class AudioFrame {
+    private static final int PAYLOAD_OFFSET = SpeechFrame.HEADER_BYTES;
+
+    private final ByteBuffer buffer;
+    private final AudioFramePool pool;
+    private final AtomicInteger refCount = new AtomicInteger();
+    // 说话者采集这帧音频的时间（微秒），没有分帧头的客户端为服务器收到的时间
+    private long captureMicros;
+
+    AudioFrame(ByteBuffer buffer, AudioFramePool pool) {
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * 将数据复制进帧，只在帧刚从池中取出、还没有其他持有者时调用
+     */
+    void fill(ByteBuffer source) {
+        buffer.clear();
+        buffer.position(PAYLOAD_OFFSET);
+        buffer.put(source.duplicate());
+        buffer.flip();
+        buffer.position(PAYLOAD_OFFSET);
+        refCount.set(1);
+    }
+
+    /**
+     * 清空帧，准备逐段追加数据，调用方持有一个引用
+     */
+    void reset() {
+        buffer.clear();
+        buffer.limit(PAYLOAD_OFFSET);
+        buffer.position(PAYLOAD_OFFSET);
+        captureMicros = 0;
+        refCount.set(1);
+    }
+
+    /**
+     * 从 source 追加 length 字节，source 的 position 前移，不产生新的缓冲区对象。
+     * 只在帧还没有交给其他持有者之前调用。
+     */
+    void append(ByteBuffer source, int length) {
+        int offset = buffer.limit();
+        buffer.limit(offset + length);
+        buffer.put(offset, source, source.position(), length);
+        source.position(source.position() + length);
+    }
+
+    /**
+     * 清空帧并返回可写的底层缓冲区，从数据区的开头写起，写完后调用 {@link #endWrite()}。
+     * 只在帧还没有交给其他持有者之前调用。
+     */
+    ByteBuffer beginWrite() {
+        buffer.clear();
+        buffer.position(PAYLOAD_OFFSET);
+        return buffer;
+    }
+
+    void endWrite() {
+        buffer.flip();
+        buffer.position(PAYLOAD_OFFSET);
+    }
+
+    /**
+     * 写入帧头，只在帧还没有放进任何发送队列之前调用
+     *
+     * @param source 说话者在会话中的序号
+     */
+    void stamp(AudioCodec codec, int source, int sequence) {
+        SpeechFrame.writeHeader(buffer, 0, SpeechFrame.TYPE_AUDIO, codec, source, sequence, captureMicros);
+    }
+
+    /**
+     * {@link #stamp} 写入的说话者序号
+     */
+    public int source() {
+        return buffer.get(3) & 0xFF;
+    }
+
+    /**
+     * {@link #stamp} 写入的帧序号
+     */
+    public int sequence() {
+        return buffer.getInt(4);
+    }
+
+    public AudioFrame retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("AudioFrame released too many times");
+        }
+    }
+
+    /**
+     * 帧数据（不含帧头）的只读视图，每个使用者拿到独立的 position
+     */
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 帧头加数据的只读视图，发给使用分帧协议的连接
+     */
+    public ByteBuffer framedView() {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.position(0);
+        return view;
+    }
+
+    public int length() {
+        return buffer.limit() - PAYLOAD_OFFSET;
+    }
+
+    public int capacity() {
+        return buffer.capacity() - PAYLOAD_OFFSET;
+    }
+
+    public long getCaptureMicros() {
+        return captureMicros;
+    }
+
+    void setCaptureMicros(long captureMicros) {
+        this.captureMicros = captureMicros;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 音频帧缓冲区池。稳定运行时每个转发的数据块只复制一次数据，不再分配新的缓冲区。
+ * 超过缓冲区大小的帧单独分配，用完后交给 GC。每个缓冲区另外预留帧头的空间。
+ */
+public class AudioFramePool {
+    private final int frameBytes;
+    private final ArrayBlockingQueue<AudioFrame> free;
+
+    public AudioFramePool(int frameBytes, int maxPooled) {
+        this.frameBytes = frameBytes;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * 复制 source 中剩余的数据到一个新帧，不改变 source 的 position。调用方持有返回帧的一个引用。
+     */
+    public AudioFrame copyOf(ByteBuffer source) {
+        AudioFrame frame;
+        if (source.remaining() > frameBytes) {
+            frame = new AudioFrame(ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + source.remaining()), null);
+        } else {
+            frame = free.poll();
+            if (frame == null) {
+                frame = new AudioFrame(ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + frameBytes), this);
+            }
+        }
+        frame.fill(source);
+        return frame;
+    }
+
+    /**
+     * 取一个至少能容纳 capacity 字节的空帧，调用方持有返回帧的一个引用
+     */
+    public AudioFrame acquire(int capacity) {
+        AudioFrame frame;
+        if (capacity > frameBytes) {
+            frame = new AudioFrame(ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + capacity), null);
+        } else {
+            frame = free.poll();
+            if (frame == null) {
+                frame = new AudioFrame(ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + frameBytes), this);
+            }
+        }
+        frame.reset();
+        return frame;
+    }
+
+    void recycle(AudioFrame frame) {
+        // 池满时丢给 GC
+        free.offer(frame);
+    }
+
+    public int getPooledCount() {
+        return free.size();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import com.example.deeptalk.modules.speech.entity.SpeechUserInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在 PCM 系传输编码之间转换音频帧，输出写入池化的 {@link AudioFrame}，稳定运行时不分配缓冲区。
+ * 返回的帧由调用方持有一个引用。
+ */
+public class AudioTranscoder {
+    private final AudioFramePool framePool;
+
+    public AudioTranscoder(AudioFramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * 把 codec 编码的帧解码为 16 位小端 PCM
+     */
+    public AudioFrame toPcm(AudioFrame frame, AudioCodec codec) {
+        ByteBuffer source = frame.view();
+        switch (codec) {
+            case MULAW: {
+                AudioFrame pcm = framePool.acquire(source.remaining() * 2);
+                MuLawCodec.decode(source, pcm.beginWrite());
+                pcm.endWrite();
+                pcm.setCaptureMicros(frame.getCaptureMicros());
+                return pcm;
+            }
+            case IMA_ADPCM: {
+                AudioFrame pcm = framePool.acquire(ImaAdpcmCodec.decodedLength(source.remaining()));
+                ImaAdpcmCodec.decode(source, pcm.beginWrite());
+                pcm.endWrite();
+                pcm.setCaptureMicros(frame.getCaptureMicros());
+                return pcm;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot decode " + codec + " to PCM");
+        }
+    }
+
+    /**
+     * 把 16 位小端 PCM 帧编码为 codec
+     *
+     * @param speaker 音频的说话者，ADPCM 的步长索引在它的连续帧之间延续
+     */
+    public AudioFrame fromPcm(AudioFrame pcm, AudioCodec codec, SpeechUserInfo speaker) {
+        return fromPcm(pcm, codec, speaker, 0);
+    }
+
+    /**
+     * 把 16 位小端 PCM 帧编码为 codec，ADPCM 的步长索引从 adpcmStepIndex 开始，不延续到其他帧。
+     * 用于补发等脱离说话者实时音频流的场合。
+     */
+    public AudioFrame fromPcm(AudioFrame pcm, AudioCodec codec, int adpcmStepIndex) {
+        return fromPcm(pcm, codec, null, adpcmStepIndex);
+    }
+
+    private AudioFrame fromPcm(AudioFrame pcm, AudioCodec codec, SpeechUserInfo speaker, int adpcmStepIndex) {
+        ByteBuffer source = pcm.view();
+        switch (codec) {
+            case MULAW: {
+                AudioFrame encoded = framePool.acquire(source.remaining() / 2);
+                MuLawCodec.encode(source, encoded.beginWrite());
+                encoded.endWrite();
+                encoded.setCaptureMicros(pcm.getCaptureMicros());
+                return encoded;
+            }
+            case IMA_ADPCM: {
+                AudioFrame encoded = framePool.acquire(ImaAdpcmCodec.encodedLength(source.remaining()));
+                if (speaker != null) {
+                    speaker.setAdpcmStepIndex(ImaAdpcmCodec.encode(source, encoded.beginWrite(), speaker.getAdpcmStepIndex()));
+                } else {
+                    ImaAdpcmCodec.encode(source, encoded.beginWrite(), adpcmStepIndex);
+                }
+                encoded.endWrite();
+                encoded.setCaptureMicros(pcm.getCaptureMicros());
+                return encoded;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot encode PCM to " + codec);
+        }
+    }
+}
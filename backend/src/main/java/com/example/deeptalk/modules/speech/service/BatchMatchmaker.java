@@ -0,0 +1,161 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按固定节拍批量配对的匹配器，适合大量用户同时发起匹配的场景（例如整个班级同时点击“连接”）。
+ * <p>
+ * 到达的用户只是被放入一个无锁队列；单独的匹配线程每个节拍取出这段时间内到达的全部用户，
+ * 按英语水平排序后两两配对，并在同一个线程里依次完成所有回调。
+ * 请求线程之间没有锁交接，也不需要逐个唤醒，突发流量下的上下文切换大大减少。
+ * 人数为奇数时剩下的用户留到下一个节拍。
+ */
+@Slf4j
+public class BatchMatchmaker implements Matchmaker {
+    private static final int WAITING = 0;
+    private static final int RESERVED = 1; // 匹配线程已选中，正在确认对手
+    private static final int MATCHED = 2;
+    private static final int CANCELLED = 3;
+
+    // 等级未知的用户排在中间
+    private static final Comparator<Ticket> BY_LEVEL = Comparator.comparingInt(
+            ticket -> ticket.level == null ? EnglishLevel.values().length / 2 : ticket.level.ordinal());
+
+    private final ConcurrentLinkedQueue<Ticket> arrivals = new ConcurrentLinkedQueue<>();
+    // userId -> 正在匹配中的票据
+    private final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final MatchListener listener;
+    private final ScheduledExecutorService matcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "speech-batch-matcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 上一个节拍未能配对的用户，只在匹配线程中访问
+    private final List<Ticket> carryOver = new ArrayList<>();
+
+    public BatchMatchmaker(MatchListener listener, long tickMillis) {
+        this.listener = listener;
+        long tick = Math.max(1, tickMillis);
+        matcher.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void enqueue(String userId, EnglishLevel level) {
+        Ticket ticket = new Ticket(userId, level);
+        if (tickets.putIfAbsent(userId, ticket) != null) {
+            throw new IllegalStateException("User is already pending: " + userId);
+        }
+        arrivals.add(ticket);
+    }
+
+    @Override
+    public boolean cancel(String userId) {
+        Ticket ticket = tickets.get(userId);
+        if (ticket == null) {
+            return false;
+        }
+        while (true) {
+            int state = ticket.state.get();
+            if (state == WAITING) {
+                if (ticket.state.compareAndSet(WAITING, CANCELLED)) {
+                    // 票据由匹配线程在下一个节拍丢弃
+                    tickets.remove(userId, ticket);
+                    return true;
+                }
+            } else if (state == RESERVED) {
+                Thread.onSpinWait();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean isPending(String userId) {
+        return tickets.containsKey(userId);
+    }
+
+    @Override
+    public void shutdown() {
+        matcher.shutdownNow();
+    }
+
+    /**
+     * 一个节拍：取出本批到达的用户并全部配对。只在匹配线程中执行。
+     */
+    void tick() {
+        try {
+            List<Ticket> batch = new ArrayList<>(carryOver);
+            carryOver.clear();
+            Ticket arrival;
+            while ((arrival = arrivals.poll()) != null) {
+                batch.add(arrival);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            // 稳定排序，同一水平内仍保持先到先配
+            batch.sort(BY_LEVEL);
+
+            int pairs = 0;
+            Ticket first = null;
+            for (Ticket ticket : batch) {
+                if (first == null) {
+                    if (ticket.state.compareAndSet(WAITING, RESERVED)) {
+                        first = ticket;
+                    }
+                    continue;
+                }
+                if (ticket.state.compareAndSet(WAITING, MATCHED)) {
+                    first.state.set(MATCHED);
+                    pair(first, ticket);
+                    pairs++;
+                    first = null;
+                }
+            }
+            if (first != null) {
+                first.state.set(WAITING);
+                carryOver.add(first);
+            }
+            if (pairs > 0) {
+                log.debug("[BatchMatchmaker] 本批 {} 人，配对 {} 组", batch.size(), pairs);
+            }
+        } catch (Exception e) {
+            log.error("[BatchMatchmaker] 批量匹配失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void pair(Ticket initiator, Ticket waiting) {
+        tickets.remove(initiator.userId, initiator);
+        tickets.remove(waiting.userId, waiting);
+        try {
+            listener.onMatched(initiator.userId, waiting.userId, UUID.randomUUID().toString());
+        } catch (Exception e) {
+            // 单个配对的失败不能影响同一批次中的其他用户
+            log.error("[BatchMatchmaker] 处理配对 {} <-> {} 失败: {}", initiator.userId, waiting.userId, e.getMessage(), e);
+        }
+    }
+
+    private static class Ticket {
+        private final String userId;
+        private final EnglishLevel level;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(String userId, EnglishLevel level) {
+            this.userId = userId;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过 {@link MatchBroker} 在多个节点之间配对的匹配器（broker 模式）。
+ * 等待池由 broker 维护，本节点只记录自己发布出去、尚未得到结果的用户。
+ */
+@Slf4j
+public class BrokeredMatchmaker implements Matchmaker {
+    private final String nodeId;
+    private final MatchBroker broker;
+    private final MatchListener listener;
+    // 本节点发布到 broker 上、尚未配对或撤回的用户
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    public BrokeredMatchmaker(String nodeId, MatchBroker broker, MatchListener listener) {
+        this.nodeId = nodeId;
+        this.broker = broker;
+        this.listener = listener;
+        broker.register(nodeId, this::onMatched);
+    }
+
+    @Override
+    public void enqueue(String userId, EnglishLevel level) {
+        if (!pending.add(userId)) {
+            throw new IllegalStateException("User is already pending: " + userId);
+        }
+        try {
+            broker.offer(nodeId, userId, level);
+        } catch (RuntimeException e) {
+            pending.remove(userId);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean cancel(String userId) {
+        if (!pending.contains(userId) || !broker.withdraw(nodeId, userId)) {
+            return false;
+        }
+        pending.remove(userId);
+        return true;
+    }
+
+    @Override
+    public boolean isPending(String userId) {
+        return pending.contains(userId);
+    }
+
+    @Override
+    public void shutdown() {
+        broker.unregister(nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private void onMatched(String initiatorId, String waitingId, String sessionId) {
+        pending.remove(initiatorId);
+        pending.remove(waitingId);
+        log.debug("[BrokeredMatchmaker] 节点 {} 收到配对: {} <-> {}", nodeId, initiatorId, waitingId);
+        listener.onMatched(initiatorId, waitingId, sessionId);
+    }
+}
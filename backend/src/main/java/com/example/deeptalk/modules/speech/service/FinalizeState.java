@@ -0,0 +1,31 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 会话录音最终化任务的状态
+ */
+public enum FinalizeState {
+    /**
+     * 已进入队列，等待最终化线程
+     */
+    QUEUED,
+    /**
+     * 正在等待写线程写完并封装音轨文件
+     */
+    RUNNING,
+    /**
+     * 所有音轨都已生成最终文件
+     */
+    COMPLETED,
+    /**
+     * 有音轨最终化失败，临时文件保留在会话目录中
+     */
+    FAILED,
+    /**
+     * 队列已满，没有执行；临时文件保留在会话目录中
+     */
+    REJECTED;
+
+    public boolean isFinished() {
+        return this != QUEUED && this != RUNNING;
+    }
+}
@@ -1,126 +1,1101 @@
 package com.example.deeptalk.modules.speech.service;
 
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
 import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
 import com.example.deeptalk.modules.speech.entity.SpeechUserInfo;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @Service
 @Slf4j
 public class ForwardingService {
-    // 用于存储用户会话信息, wsSessionId -> SpeechUserInfo
-    private final ConcurrentHashMap<String, SpeechUserInfo> connectedUsers = new ConcurrentHashMap<>();
-    // 用于存储语音会话信息, sessionId -> SpeechSessionInfo
-    private final ConcurrentHashMap<String, SpeechSessionInfo> activeSessions = new ConcurrentHashMap<>();
-
-    // 实例化并持有RecordingHandler的引用
-    private final RecordingHandler recordingHandler = new RecordingHandler();
-
-    public SpeechSessionInfo makeConnection(String user1Id, String user2Id) {
-        String sessionId = java.util.UUID.randomUUID().toString();
-        SpeechSessionInfo session = new SpeechSessionInfo(sessionId, user1Id, user2Id);
-        activeSessions.put(sessionId, session);
-        log.info("[ForwardingService] 创建新会话: {}，用户1: {}, 用户2: {}", sessionId, user1Id, user2Id);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final SpeechSessionRegistry sessionRegistry;
+    private final RecordingHandler recordingHandler;
+    private final IdleSessionReaper idleSessionReaper;
+    private final SpeechRelayProperties relayProperties;
+    private final int maxRoomSize;
+    private final int maxSpectators;
+    private final AudioFramePool framePool;
+    private final AudioTranscoder transcoder;
+    // 所有连接共享的发送线程池，每个连接的发送循环同一时刻只占用其中一个线程
+    private final ExecutorService sender;
+    private final Counter droppedFrames;
+    // 旁听者跟不上而丢弃的帧，与参与者的丢帧分开统计
+    private final Counter spectatorDroppedFrames;
+    // 按分帧协议的序号检测到的客户端丢帧和迟到帧
+    private final Counter lostFrames;
+    private final Counter lateFrames;
+    // 当前所有打开的发送队列，用于统计队列深度
+    private final Set<OutboundQueue> outboundQueues = ConcurrentHashMap.newKeySet();
+    // 开启拼帧时的所有抖动缓冲和按截止时间输出不满帧数据的定时线程，未开启时 flusher 为 null
+    private final Set<FrameCoalescer> coalescers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService coalesceFlusher;
+    // 旁听连接，按 WebSocket 连接 ID 索引
+    private final Map<String, Spectator> spectators = new ConcurrentHashMap<>();
+    // 会话恢复：断线后保留的宽限期、每名说话者补发缓冲区的字节数和宽限期到期的定时线程，未开启时 resumeTimer 为 null
+    private final long resumeGraceMs;
+    private final int replayBytes;
+    private final ScheduledExecutorService resumeTimer;
+    private final Counter resumedSessions;
+    private final Counter expiredResumes;
+
+    @Autowired
+    public ForwardingService(SpeechSessionRegistry sessionRegistry, RecordingHandler recordingHandler,
+                             SpeechSessionProperties sessionProperties, SpeechRelayProperties relayProperties,
+                             MeterRegistry meterRegistry) {
+        this.sessionRegistry = sessionRegistry;
+        this.recordingHandler = recordingHandler;
+        this.idleSessionReaper = new IdleSessionReaper(sessionProperties.getIdleTimeoutMs(),
+                sessionProperties.getReaperTickMs(), this::expireIdleSession);
+        this.relayProperties = relayProperties;
+        this.maxRoomSize = sessionProperties.getMaxRoomSize();
+        this.maxSpectators = sessionProperties.getMaxSpectators();
+        this.framePool = new AudioFramePool(relayProperties.getFrameBufferBytes(), relayProperties.getMaxPooledFrames());
+        this.transcoder = new AudioTranscoder(framePool);
+        int threads = relayProperties.getSendThreads() > 0
+                ? relayProperties.getSendThreads() : Runtime.getRuntime().availableProcessors() * 2;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "speech-relay-sender-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.droppedFrames = Counter.builder("speech.relay.dropped")
+                .description("Audio frames dropped because the receiver's send queue was full")
+                .tag("policy", relayProperties.getOverflowPolicy().name())
+                .register(meterRegistry);
+        this.spectatorDroppedFrames = Counter.builder("speech.spectator.dropped")
+                .description("Audio frames dropped because a spectator's send queue was full")
+                .register(meterRegistry);
+        this.lostFrames = Counter.builder("speech.frame.lost")
+                .description("Client audio frames missing from the sequence")
+                .register(meterRegistry);
+        this.lateFrames = Counter.builder("speech.frame.late")
+                .description("Client audio frames that arrived duplicated or out of order and were discarded")
+                .register(meterRegistry);
+        Gauge.builder("speech.relay.queue.depth", this, ForwardingService::getQueuedFrames)
+                .description("Audio frames waiting in all per-connection send queues")
+                .register(meterRegistry);
+        Gauge.builder("speech.relay.queue.max.depth", this, ForwardingService::getMaxQueueDepth)
+                .description("Deepest per-connection send queue")
+                .register(meterRegistry);
+        SpeechRelayProperties.Coalesce coalesce = relayProperties.getCoalesce();
+        if (coalesce.isEnabled()) {
+            this.coalesceFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "speech-coalesce-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // 以截止时间的 1/4 为周期检查，不满帧数据的实际等待不超过 maxDelay 的 1.25 倍
+            long tickMs = Math.max(1, coalesce.getMaxDelayMs() / 4);
+            coalesceFlusher.scheduleAtFixedRate(this::flushDueFrames, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.coalesceFlusher = null;
+        }
+        this.resumeGraceMs = sessionProperties.getResumeGraceMs();
+        this.replayBytes = resumeGraceMs > 0
+                ? (int) Math.min(Integer.MAX_VALUE, sessionProperties.getReplayMs() * sessionProperties.getReplayBytesPerMs()) : 0;
+        if (resumeGraceMs > 0) {
+            this.resumeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "speech-resume-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.resumeTimer = null;
+        }
+        this.resumedSessions = Counter.builder("speech.session.resumed")
+                .description("Participants that reconnected within the resume grace period")
+                .register(meterRegistry);
+        this.expiredResumes = Counter.builder("speech.session.resume.expired")
+                .description("Participants that did not reconnect before the resume grace period ended")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        idleSessionReaper.shutdown();
+        if (coalesceFlusher != null) {
+            coalesceFlusher.shutdownNow();
+        }
+        if (resumeTimer != null) {
+            resumeTimer.shutdownNow();
+        }
+        sender.shutdownNow();
+    }
+
+    /**
+     * 为两名用户创建语音会话
+     *
+     * @param sessionId 会话ID，由匹配器分配
+     * @return 新会话，任一用户已经在其他会话中时返回 null
+     */
+    public SpeechSessionInfo makeConnection(String sessionId, String user1Id, String user2Id) {
+        SpeechSessionInfo session = sessionRegistry.create(sessionId, user1Id, user2Id);
+        if (session == null) {
+            log.warn("[ForwardingService] 用户 {} 或 {} 已在其他会话中，无法创建会话", user1Id, user2Id);
+            return null;
+        }
+        idleSessionReaper.track(session);
+        log.info("[ForwardingService] 创建新会话: {}，用户1: {}, 用户2: {}", session.getSessionId(), user1Id, user2Id);
         return session;
     }
 
+    /**
+     * 创建多人房间，每名参与者的音频转发给其他所有人
+     *
+     * @param sessionId 会话ID
+     * @param userIds 参与者，2 到 maxRoomSize 人，不能重复
+     * @return 新房间，任一用户已经在其他会话中时返回 null
+     * @throws IllegalArgumentException 人数不合法或有重复的用户
+     */
+    public SpeechSessionInfo makeRoom(String sessionId, List<String> userIds) {
+        if (userIds.size() < 2 || userIds.size() > maxRoomSize) {
+            throw new IllegalArgumentException("Room size must be between 2 and " + maxRoomSize + ": " + userIds.size());
+        }
+        if (new HashSet<>(userIds).size() != userIds.size()) {
+            throw new IllegalArgumentException("Duplicate participants: " + userIds);
+        }
+        SpeechSessionInfo session = sessionRegistry.create(sessionId, userIds);
+        if (session == null) {
+            log.warn("[ForwardingService] 用户 {} 中有人已在其他会话中，无法创建房间", userIds);
+            return null;
+        }
+        idleSessionReaper.track(session);
+        log.info("[ForwardingService] 创建新房间: {}，参与者: {}", sessionId, userIds);
+        return session;
+    }
+
+    /**
+     * 房间中的一名参与者离开，其他人继续对话并收到离开通知；剩下不到两人时结束房间
+     */
+    public void leaveRoom(String sessionId, String userId) {
+        SpeechSessionInfo session = sessionRegistry.getSession(sessionId);
+        if (session == null) {
+            return;
+        }
+        SpeechUserInfo userInfo = sessionRegistry.leave(session, userId);
+        if (userInfo == null) {
+            return;
+        }
+        detachRelay(userInfo);
+        log.info("[ForwardingService] 用户 {} 离开房间 {}", userId, sessionId);
+        if (session.getActiveCount() < 2) {
+            terminateConnection(sessionId);
+        } else {
+            notifyPeers(userInfo, "left");
+        }
+    }
+
     public void terminateConnection(String sessionId) {
-        // 在这里实现终止连接的逻辑
-        // 例如：从数据库或缓存中删除会话信息
         log.info("[ForwardingService] 终止会话: {}", sessionId);
         try {
-            // 首先结束录制
-            recordingHandler.finalizeSessionRecordings(sessionId);
-            activeSessions.remove(sessionId);
+            // 先从注册表中移除，之后到达的音频不会再被转发或录制；只有第一次移除的调用者负责结束录制。
+            // 最终化在录音器的后台线程中执行，这里不等待文件系统
+            SpeechSessionInfo session = sessionRegistry.remove(sessionId);
+            if (session != null) {
+                for (SpeechUserInfo userInfo : session.getParticipants()) {
+                    detachRelay(userInfo);
+                }
+                for (OutboundQueue queue : session.clearSpectators()) {
+                    detachSpectator(queue, CloseStatus.NORMAL);
+                }
+                recordingHandler.submitFinalization(sessionId);
+            }
         } catch (Exception e) {
             log.error("[ForwardingService] 终止会话 {} 时发生错误: {}", sessionId, e.getMessage());
         }
     }
 
     /**
-     * 转发音频流的抽象方法。
-     * 你需要在这里填充你自己的具体业务逻辑。
-     *
-     * @param wsSessionId WebSocket 连接的会话 ID
-     * @param audioData 从客户端接收到的音频数据块
+     * 客户端消失且没有调用 /disconnect 的会话，由空闲清理器在超时后关闭
      */
-    public void forwardAudioStream(String wsSessionId, byte[] audioData) {
-        System.out.println("[ForwardingService] 正在处理用户 " + wsSessionId + " 的音频数据，数据长度: " + audioData.length + " 字节");
+    private void expireIdleSession(SpeechSessionInfo session) {
+        for (SpeechUserInfo userInfo : session.getParticipants()) {
+            WebSocketSession wsSession = userInfo.getWsSession();
+            if (wsSession != null && wsSession.isOpen()) {
+                try {
+                    wsSession.close(CloseStatus.GOING_AWAY);
+                } catch (IOException e) {
+                    log.warn("[ForwardingService] 关闭空闲连接 {} 失败: {}", wsSession.getId(), e.getMessage());
+                }
+            }
+        }
+        terminateConnection(session.getSessionId());
+    }
 
-        // check if the user is registered
-        SpeechUserInfo userInfo = connectedUsers.get(wsSessionId);
+    /**
+     * 处理连接收到的一条二进制消息。
+     * <p>
+     * 未注册的连接只接受分帧协议的 REGISTER 帧；用 JSON 注册的连接发来的是裸音频；
+     * 用分帧协议注册的连接按帧头分派：AUDIO 检查序号后转发，PING 立即回复 PONG。
+     * 帧头只用绝对读解析，不经过 Jackson，也不产生新的缓冲区对象。
+     *
+     * @param message 容器收到的缓冲区，只在本方法返回前有效
+     */
+    public void receiveBinary(WebSocketSession wsSession, ByteBuffer message) {
+        SpeechUserInfo userInfo = sessionRegistry.getUserByWsId(wsSession.getId());
         if (userInfo == null) {
-            log.warn("[ForwardingService] 会话 {} 的用户信息未找到，无法转发音频数据", wsSessionId);
+            if (spectators.containsKey(wsSession.getId())) {
+                return; // 旁听者只能收听
+            }
+            SpeechFrame.Register register = SpeechFrame.Register.parse(message);
+            if (register != null) {
+                registerUserSession(register.getUserId(), register.getSessionId(), wsSession,
+                        register.getSendCodec(), register.getReceiveCodec(), true);
+                return;
+            }
+            log.warn("[ForwardingService] 会话 {} 的用户信息未找到，无法转发音频数据", wsSession.getId());
             return; // 用户未注册，无法转发
         }
+        if (!userInfo.isFramed()) {
+            forwardAudio(userInfo, message, System.currentTimeMillis() * 1000);
+            return;
+        }
+        if (!SpeechFrame.isFramed(message)) {
+            log.warn("[ForwardingService] 连接 {} 发来了没有帧头的消息，已丢弃", wsSession.getId());
+            return;
+        }
+        switch (SpeechFrame.type(message)) {
+            case SpeechFrame.TYPE_AUDIO:
+                if (acceptSequence(userInfo, SpeechFrame.sequence(message))) {
+                    long captureMicros = SpeechFrame.captureMicros(message);
+                    int position = message.position();
+                    message.position(position + SpeechFrame.HEADER_BYTES);
+                    try {
+                        forwardAudio(userInfo, message, captureMicros);
+                    } finally {
+                        message.position(position);
+                    }
+                }
+                break;
+            case SpeechFrame.TYPE_PING:
+                pong(userInfo, message);
+                break;
+            default:
+                log.debug("[ForwardingService] 连接 {} 发来了未处理的帧类型 {}", wsSession.getId(), SpeechFrame.type(message));
+                break;
+        }
+    }
+
+    /**
+     * 检查客户端音频帧的序号：跳过的序号计为丢失；重复或迟到的帧已经错过播放时间，计数后丢弃
+     */
+    private boolean acceptSequence(SpeechUserInfo userInfo, int sequence) {
+        if (userInfo.isInboundStarted()) {
+            int gap = sequence - userInfo.getLastInboundSequence();
+            if (gap <= 0) {
+                lateFrames.increment();
+                return false;
+            }
+            if (gap > 1) {
+                lostFrames.increment(gap - 1);
+            }
+        }
+        userInfo.setInboundStarted(true);
+        userInfo.setLastInboundSequence(sequence);
+        return true;
+    }
+
+    /**
+     * 原样回复 PING 的帧头，附上服务器收到的时间，客户端据此计算往返延迟和时钟偏差
+     */
+    private void pong(SpeechUserInfo userInfo, ByteBuffer ping) {
+        OutboundQueue queue = userInfo.getOutboundQueue();
+        if (queue == null) {
+            return;
+        }
+        ByteBuffer pong = ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + Long.BYTES);
+        SpeechFrame.writeHeader(pong, 0, SpeechFrame.TYPE_PONG, SpeechFrame.codec(ping), userInfo.getParticipantIndex(),
+                SpeechFrame.sequence(ping), SpeechFrame.captureMicros(ping));
+        pong.putLong(SpeechFrame.HEADER_BYTES, System.currentTimeMillis() * 1000);
+        queue.offerControl(new BinaryMessage(pong));
+    }
+
+    /**
+     * 转发一个音频数据块，并交给录音器记录。
+     * <p>
+     * audio 是容器收到的缓冲区，只在本方法返回前有效，数据被复制一次到池化的 {@link AudioFrame} 中：
+     * 未开启拼帧时每个数据块单独成帧；开启拼帧时追加到说话者的 {@link FrameCoalescer}，攒满固定时长才成帧。
+     * 本方法只负责入队，不等待发送完成。
+     *
+     * @param audio 从客户端接收到的音频数据块，不含帧头
+     * @param captureMicros 采集时间，没有帧头的客户端为收到的时间
+     */
+    private void forwardAudio(SpeechUserInfo userInfo, ByteBuffer audio, long captureMicros) {
         // check if the session is active
-        SpeechSessionInfo sessionInfo = activeSessions.get(userInfo.getSessionId());
+        SpeechSessionInfo sessionInfo = sessionRegistry.getSession(userInfo.getSessionId());
         if (sessionInfo == null) {
             log.warn("[ForwardingService] 会话 {} 的语音会话信息未找到，无法转发音频数据", userInfo.getSessionId());
             return; // 会话未激活，无法转发
         }
-        // find the opponent user
-        SpeechUserInfo opponentUserInfo = sessionInfo.getOpponentInfo(userInfo.getUserId());
-        if (opponentUserInfo == null) {
-            log.warn("[ForwardingService] 会话 {} 的对手用户未找到，无法转发音频数据", userInfo.getSessionId());
-            return; // 对手用户未找到，无法转发
+        sessionInfo.touch();
+        FrameCoalescer coalescer = userInfo.getCoalescer();
+        if (coalescer != null) {
+            coalescer.append(audio, captureMicros);
+            return;
+        }
+        AudioFrame frame = framePool.copyOf(audio);
+        frame.setCaptureMicros(captureMicros);
+        try {
+            relayFrame(userInfo, frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * 把一个完整的音频帧放入会话中其他所有参与者的发送队列，然后交给录音器。未开启拼帧时在说话者的连接线程中调用，
+     * 开启拼帧时在说话者的抖动缓冲锁内调用（连接线程或定时线程）。
+     * <p>
+     * 所有接收者共享同一个只读帧，每个发送队列只增加一次引用计数，不按接收者复制数据；
+     * 需要转码时每种目标编码只转换一次。
+     */
+    private void relayFrame(SpeechUserInfo userInfo, AudioFrame frame) {
+        SpeechSessionInfo sessionInfo = sessionRegistry.getSession(userInfo.getSessionId());
+        if (sessionInfo == null) {
+            return; // 会话已结束
         }
-        // check if the opponent user is registered
-        WebSocketSession opponentSession = opponentUserInfo.getWsSession();
-        if (opponentSession == null) {
-            log.warn("[ForwardingService] 对手用户 {} 的 WebSocket 会话未找到，无法转发音频数据", opponentUserInfo.getUserId());
-            return; // 对手用户未注册，无法转发
+        ReplayBuffer replay = userInfo.getReplayBuffer();
+        if (replay == null) {
+            fanOut(sessionInfo, userInfo, frame, null);
+            return;
         }
-        if (!opponentSession.isOpen()) {
-            log.warn("[ForwardingService] 对手用户 {} 的 WebSocket 会话已关闭，无法转发音频数据", opponentUserInfo.getUserId());
-            return; // 对手用户的 WebSocket 会话已关闭，无法转发
+        // 写补发缓冲区和放入发送队列在同一把锁内：重连的接收者在这把锁内取补发数据并换上新队列，
+        // 每一帧要么在补发中，要么直接进新队列，不会漏掉也不会重复。平时只有说话者自己的线程获取，没有竞争
+        synchronized (replay) {
+            fanOut(sessionInfo, userInfo, frame, replay);
         }
-        // 转发音频数据到对手用户的 WebSocket 会话
-        try {
-            // 只记录能够成功转发的音频数据
-            // 调用RecordingHandler来记录音频块
-            recordingHandler.recordAudioChunk(userInfo.getSessionId(), userInfo.getUserId(), audioData);
+    }
 
-            opponentSession.sendMessage(new org.springframework.web.socket.BinaryMessage(audioData));
-            log.info("[ForwardingService] 已成功转发音频数据到对手用户 {} 的 WebSocket 会话 {}", opponentUserInfo.getUserId(), opponentUserInfo.getWsSession().getId());
+    private void fanOut(SpeechSessionInfo sessionInfo, SpeechUserInfo userInfo, AudioFrame frame, ReplayBuffer replay) {
+        List<OutboundQueue> spectatorQueues = sessionInfo.getSpectators();
+        // check if any other participant is registered
+        if (!hasListener(sessionInfo, userInfo) && spectatorQueues.isEmpty()) {
+            log.warn("[ForwardingService] 会话 {} 中没有其他已注册的用户，无法转发音频数据", userInfo.getSessionId());
+            return; // 没有接收者，无法转发
+        }
+        AudioCodec sendCodec = userInfo.getSendCodec();
+        int source = userInfo.getParticipantIndex();
+        int sequence = userInfo.getOutboundSequence();
+        userInfo.setOutboundSequence(sequence + 1);
+        // 压缩上传的音频解码后录制；原样转发的数据不做转换
+        AudioFrame pcm = sendCodec.isTranscodable() && sendCodec != AudioCodec.PCM16
+                ? transcoder.toPcm(frame, sendCodec) : frame;
+        AudioFrame muLaw = null;
+        AudioFrame adpcm = null;
+        int receivers = 0;
+        try {
+            // 帧头在放进任何发送队列之前写好，之后所有接收者只读
+            frame.stamp(sendCodec, source, sequence);
+            if (pcm != frame) {
+                pcm.stamp(AudioCodec.PCM16, source, sequence);
+            }
+            ByteBuffer pcmView = pcm.view();
+            if (replay != null) {
+                // 补发缓冲区保存解码后的 PCM，重连时再按接收者的编码转换
+                replay.write(pcmView, pcm != frame ? AudioCodec.PCM16 : sendCodec, sequence, pcm.getCaptureMicros());
+            }
+            // 参与者列表不可变且支持随机访问，按下标遍历，逐帧不创建迭代器
+            List<SpeechUserInfo> participants = sessionInfo.getParticipants();
+            for (int i = 0; i < participants.size(); i++) {
+                SpeechUserInfo peer = participants.get(i);
+                OutboundQueue queue = peer.getOutboundQueue();
+                if (peer == userInfo || queue == null || queue.isClosed()) {
+                    continue;
+                }
+                AudioCodec receiveCodec = peer.getReceiveCodec();
+                AudioFrame out;
+                if (receiveCodec == sendCodec || !sendCodec.isTranscodable() || !receiveCodec.isTranscodable()) {
+                    out = frame;
+                } else if (receiveCodec == AudioCodec.PCM16) {
+                    out = pcm;
+                } else if (receiveCodec == AudioCodec.MULAW) {
+                    if (muLaw == null) {
+                        muLaw = transcoder.fromPcm(pcm, AudioCodec.MULAW, userInfo);
+                        muLaw.stamp(AudioCodec.MULAW, source, sequence);
+                    }
+                    out = muLaw;
+                } else {
+                    if (adpcm == null) {
+                        adpcm = transcoder.fromPcm(pcm, AudioCodec.IMA_ADPCM, userInfo);
+                        adpcm.stamp(AudioCodec.IMA_ADPCM, source, sequence);
+                    }
+                    out = adpcm;
+                }
+                queue.offer(out);
+                receivers++;
+            }
+            // 旁听者收到解码后的 PCM（无法转码时为原始数据），帧头的 source 区分说话者
+            if (!spectatorQueues.isEmpty()) {
+                for (OutboundQueue spectator : spectatorQueues) {
+                    spectator.offer(pcm);
+                }
+            }
+            // 所有接收者入队之后才录音；录音器只把数据复制进环形队列，不等待磁盘
+            // 只记录能够转发的音频数据，每名参与者一条音轨，带采集时间用于对齐；解码后的 PCM 写成 WAV
+            recordingHandler.recordAudioChunk(userInfo.getSessionId(), userInfo.getUserId(), pcmView,
+                    pcm.getCaptureMicros(), pcm != frame ? AudioCodec.PCM16 : sendCodec);
+            if (log.isDebugEnabled()) {
+                // 先判断级别，避免逐帧装箱参数
+                log.debug("[ForwardingService] 已转发 {} 字节音频数据到 {} 名用户和 {} 名旁听者", frame.length(), receivers,
+                        spectatorQueues.size());
+            }
         } catch (Exception e) {
-            log.error("[ForwardingService] 转发音频数据到对手用户 {} 的 WebSocket 会话失败: {}", opponentUserInfo.getUserId(), e.getMessage());
+            log.error("[ForwardingService] 转发用户 {} 的音频数据失败: {}", userInfo.getUserId(), e.getMessage());
+        } finally {
+            if (pcm != frame) {
+                pcm.release();
+            }
+            if (muLaw != null) {
+                muLaw.release();
+            }
+            if (adpcm != null) {
+                adpcm.release();
+            }
+        }
+    }
+
+    /**
+     * 是否有其他参与者在听，在恢复宽限期内断线的参与者也算：这期间的音频要进补发缓冲区
+     */
+    private static boolean hasListener(SpeechSessionInfo sessionInfo, SpeechUserInfo speaker) {
+        List<SpeechUserInfo> participants = sessionInfo.getParticipants();
+        for (int i = 0; i < participants.size(); i++) {
+            SpeechUserInfo peer = participants.get(i);
+            OutboundQueue queue = peer.getOutboundQueue();
+            if (peer != speaker && ((queue != null && !queue.isClosed()) || peer.getDisconnectedAt() > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushDueFrames() {
+        long now = System.nanoTime();
+        for (FrameCoalescer coalescer : coalescers) {
+            try {
+                coalescer.flushIfDue(now);
+            } catch (RuntimeException e) {
+                log.error("[ForwardingService] 输出抖动缓冲失败: {}", e.getMessage(), e);
+            }
         }
     }
 
     public void registerUserSession(String userId, String sessionId, WebSocketSession wsSession) {
+        registerUserSession(userId, sessionId, wsSession, null, null);
+    }
+
+    /**
+     * 注册 WebSocket 连接并协商传输编码。
+     * 客户端声明了编码时，通过控制消息 {"type":"codec","sendCodec","receiveCodec"} 回复服务器采用的编码。
+     *
+     * @param sendCodec 客户端上传的音频编码，null 表示原样转发
+     * @param receiveCodec 客户端希望收到的音频编码，null 表示原样转发；只有对手上传 PCM 系编码时才会转码
+     */
+    public void registerUserSession(String userId, String sessionId, WebSocketSession wsSession,
+                                    AudioCodec sendCodec, AudioCodec receiveCodec) {
+        registerUserSession(userId, sessionId, wsSession, sendCodec, receiveCodec, false);
+    }
+
+    /**
+     * @param framed 使用二进制分帧协议，之后双向的音频都带 {@link SpeechFrame} 帧头
+     */
+    public void registerUserSession(String userId, String sessionId, WebSocketSession wsSession,
+                                    AudioCodec sendCodec, AudioCodec receiveCodec, boolean framed) {
         // 检查用户是否已经注册
-        if (connectedUsers.containsKey(wsSession.getId())) {
+        if (sessionRegistry.getUserByWsId(wsSession.getId()) != null) {
             log.warn("[ForwardingService] 用户 {} 已经注册到 WebSocket 会话 {}", userId, wsSession.getId());
             return; // 用户已注册，直接返回
         }
-        // 从 activeSessions 中获取会话信息
-        SpeechSessionInfo sessionInfo = activeSessions.get(sessionId);
-        if (sessionInfo == null) {
-            log.error("[ForwardingService] 会话 ID {} 未找到，无法注册用户 {}", sessionId, userId);
-            return; // 会话未找到，无法注册用户
-        }
-        // 从 sessionInfo 中获取用户信息
-        SpeechUserInfo userInfo = sessionInfo.getUserInfo(userId);
+        // 将 WebSocket 会话绑定到会话中的用户
+        SpeechUserInfo userInfo = sessionRegistry.bindWebSocket(userId, sessionId, wsSession);
         if (userInfo == null) {
-            log.error("[ForwardingService] 用户 ID {} 在会话 {} 中未找到，无法注册", userId, sessionId);
-            return; // 用户未找到，无法注册
+            log.error("[ForwardingService] 会话 ID {} 中未找到用户 {}，无法注册", sessionId, userId);
+            return; // 会话或用户未找到，无法注册
+        }
+        OutboundQueue queue = new OutboundQueue(wsSession, relayProperties.getQueueCapacity(),
+                relayProperties.getOverflowPolicy(), sender, droppedFrames, framed);
+        FrameCoalescer coalescer = newCoalescer(userInfo);
+        SpeechSessionInfo session = sessionRegistry.getSession(sessionId);
+        List<SpeechUserInfo> participants = session != null ? session.getParticipants() : List.of(userInfo);
+        Installation installation = withReplayLocked(participants, 0, userInfo, () -> {
+            synchronized (userInfo) {
+                if (userInfo.getWsSession() != wsSession) {
+                    // 注册期间连接已经关闭，或者又换了新连接
+                    return null;
+                }
+                Installation installed = new Installation(userInfo.getOutboundQueue(), userInfo.getCoalescer());
+                userInfo.setSendCodec(sendCodec != null ? sendCodec : AudioCodec.RAW);
+                userInfo.setReceiveCodec(receiveCodec != null ? receiveCodec : AudioCodec.RAW);
+                userInfo.setAdpcmStepIndex(0);
+                userInfo.setFramed(framed);
+                userInfo.setInboundStarted(false);
+                if (userInfo.getDisconnectedAt() > 0) {
+                    // 宽限期内重连：新队列还没有对其他人可见，先放入错过的音频
+                    installed.resumeExpiry = userInfo.getResumeExpiry();
+                    installed.missedMs = System.currentTimeMillis() - userInfo.getDisconnectedAt();
+                    installed.replayFrames = replayMissed(participants, userInfo, queue);
+                    clearResume(userInfo);
+                }
+                userInfo.setOutboundQueue(queue);
+                userInfo.setCoalescer(coalescer);
+                return installed;
+            }
+        });
+        if (installation == null) {
+            queue.close();
+            return;
+        }
+        OutboundQueue previous = installation.previousQueue;
+        FrameCoalescer previousCoalescer = installation.previousCoalescer;
+        outboundQueues.add(queue);
+        if (coalescer != null) {
+            coalescers.add(coalescer);
+        }
+        if (previous != null) {
+            // 用户换了一个新连接重新注册
+            previous.close();
+            outboundQueues.remove(previous);
+        }
+        if (previousCoalescer != null) {
+            // 旧连接已经收到的数据照常发出
+            previousCoalescer.close(true);
+            coalescers.remove(previousCoalescer);
+        }
+        if (framed || sendCodec != null || receiveCodec != null) {
+            sendCodecAck(userInfo, queue);
+        }
+        if (installation.missedMs >= 0) {
+            finishResume(userInfo, queue, installation);
         }
-        // 设置 WebSocket 会话
-        userInfo.setWsSession(wsSession);
-        // 将用户信息存储到 connectedUsers 中
-        connectedUsers.put(wsSession.getId(), userInfo);
         log.info("[ForwardingService] 用户 {} 已注册到 WebSocket 会话 {}", userId, wsSession.getId());
     }
 
+    /**
+     * 依次锁住其他参与者的补发缓冲区再执行 action，期间这些说话者的音频暂停转发。
+     * 总是按参与者序号加锁，同时重连的多名用户之间不会死锁
+     */
+    private static <T> T withReplayLocked(List<SpeechUserInfo> participants, int index, SpeechUserInfo listener,
+                                          Supplier<T> action) {
+        if (index == participants.size()) {
+            return action.get();
+        }
+        SpeechUserInfo speaker = participants.get(index);
+        ReplayBuffer replay = speaker != listener ? speaker.getReplayBuffer() : null;
+        if (replay == null) {
+            return withReplayLocked(participants, index + 1, listener, action);
+        }
+        synchronized (replay) {
+            return withReplayLocked(participants, index + 1, listener, action);
+        }
+    }
+
+    /**
+     * 把其他参与者在断线后说的话放入重连用户的新队列：从断线前最后发出的帧之后开始，
+     * 同一说话者的连续记录合并成不超过一个池化帧大小的帧，按接收者的编码转换
+     *
+     * @return 放入的帧数
+     */
+    private int replayMissed(List<SpeechUserInfo> participants, SpeechUserInfo listener, OutboundQueue queue) {
+        Integer[] resumeAfter = listener.getResumeAfterSequences();
+        List<AudioFrame> frames = new ArrayList<>();
+        for (int i = 0; i < participants.size(); i++) {
+            SpeechUserInfo speaker = participants.get(i);
+            ReplayBuffer replay = speaker.getReplayBuffer();
+            if (speaker == listener || replay == null) {
+                continue;
+            }
+            Integer after = resumeAfter != null && i < resumeAfter.length ? resumeAfter[i] : null;
+            ReplayBatcher batcher = new ReplayBatcher(speaker.getParticipantIndex(), listener.getReceiveCodec(), frames);
+            replay.replay(after, batcher);
+            batcher.flush();
+        }
+        for (AudioFrame frame : frames) {
+            queue.offer(frame);
+            frame.release();
+        }
+        return frames.size();
+    }
+
+    /**
+     * 重连完成：取消宽限期定时任务，告诉重连的用户错过了多久、补发了多少帧，并通知其他人
+     */
+    private void finishResume(SpeechUserInfo userInfo, OutboundQueue queue, Installation installation) {
+        if (installation.resumeExpiry != null) {
+            installation.resumeExpiry.cancel(false);
+        }
+        resumedSessions.increment();
+        try {
+            Map<String, Object> ack = new LinkedHashMap<>();
+            ack.put("type", "resumed");
+            ack.put("sessionId", userInfo.getSessionId());
+            ack.put("missedMs", installation.missedMs);
+            ack.put("replayFrames", installation.replayFrames);
+            queue.offerControl(new TextMessage(OBJECT_MAPPER.writeValueAsString(ack)));
+        } catch (JsonProcessingException e) {
+            log.error("[ForwardingService] 生成恢复确认失败: {}", e.getMessage());
+        }
+        log.info("[ForwardingService] 用户 {} 在断线 {} ms 后恢复会话 {}，补发 {} 帧", userInfo.getUserId(),
+                installation.missedMs, userInfo.getSessionId(), installation.replayFrames);
+        notifyPeers(userInfo, "resumed");
+    }
+
+    /**
+     * 把连接作为旁听者挂到会话上：只接收会话中所有参与者的音频，不能发送。
+     * 旁听连接总是使用二进制分帧协议，帧头的 source 是说话者在确认消息 participants 中的序号。
+     * <p>
+     * 每个旁听者有自己的小发送队列，跟不上时丢弃最早的帧；转发线程对每个旁听者只多做一次入队，
+     * 旁听者再慢也不会拖慢参与者。
+     *
+     * @return 是否成功；会话不存在或旁听人数已满时回复 {"type":"spectate-rejected"} 并关闭连接
+     */
+    public boolean registerSpectator(String sessionId, WebSocketSession wsSession) {
+        if (sessionRegistry.getUserByWsId(wsSession.getId()) != null || spectators.containsKey(wsSession.getId())) {
+            log.warn("[ForwardingService] 连接 {} 已经注册，不能再旁听", wsSession.getId());
+            return false;
+        }
+        SpeechSessionInfo session = sessionRegistry.getSession(sessionId);
+        OutboundQueue queue = new OutboundQueue(wsSession, relayProperties.getSpectatorQueueCapacity(),
+                OverflowPolicy.DROP_OLDEST, sender, spectatorDroppedFrames, true);
+        if (session == null || !session.addSpectator(queue, maxSpectators)) {
+            String reason = session == null ? "session-not-found" : "spectator-limit";
+            log.warn("[ForwardingService] 连接 {} 无法旁听会话 {}: {}", wsSession.getId(), sessionId, reason);
+            rejectSpectator(wsSession, sessionId, reason);
+            return false;
+        }
+        spectators.put(wsSession.getId(), new Spectator(session, queue));
+        outboundQueues.add(queue);
+        if (!wsSession.isOpen()) {
+            // 注册期间连接已经关闭
+            removeUserSession(wsSession);
+            return false;
+        }
+        try {
+            Map<String, Object> ack = new LinkedHashMap<>();
+            ack.put("type", "spectating");
+            ack.put("sessionId", sessionId);
+            ack.put("participants", session.getParticipantIds());
+            queue.offerControl(new TextMessage(OBJECT_MAPPER.writeValueAsString(ack)));
+        } catch (JsonProcessingException e) {
+            log.error("[ForwardingService] 生成旁听确认失败: {}", e.getMessage());
+        }
+        log.info("[ForwardingService] 连接 {} 开始旁听会话 {}", wsSession.getId(), sessionId);
+        return true;
+    }
+
+    private void rejectSpectator(WebSocketSession wsSession, String sessionId, String reason) {
+        try {
+            Map<String, Object> notice = new LinkedHashMap<>();
+            notice.put("type", "spectate-rejected");
+            notice.put("sessionId", sessionId);
+            notice.put("reason", reason);
+            wsSession.sendMessage(new TextMessage(OBJECT_MAPPER.writeValueAsString(notice)));
+            wsSession.close(CloseStatus.POLICY_VIOLATION);
+        } catch (IOException e) {
+            log.warn("[ForwardingService] 拒绝旁听连接 {} 失败: {}", wsSession.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭旁听者的发送队列
+     *
+     * @param closeStatus 不为 null 时同时在发送线程中关闭连接（会话结束时）
+     */
+    private void detachSpectator(OutboundQueue queue, CloseStatus closeStatus) {
+        WebSocketSession wsSession = queue.getWsSession();
+        spectators.remove(wsSession.getId());
+        queue.close();
+        outboundQueues.remove(queue);
+        if (closeStatus == null) {
+            return;
+        }
+        try {
+            sender.execute(() -> {
+                try {
+                    wsSession.close(closeStatus);
+                } catch (IOException e) {
+                    log.warn("[ForwardingService] 关闭旁听连接 {} 失败: {}", wsSession.getId(), e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 服务正在关闭，连接会随容器一起关闭
+        }
+    }
+
+    private void sendCodecAck(SpeechUserInfo userInfo, OutboundQueue queue) {
+        try {
+            Map<String, Object> ack = new LinkedHashMap<>();
+            ack.put("type", "codec");
+            ack.put("sendCodec", userInfo.getSendCodec().getWireName());
+            ack.put("receiveCodec", userInfo.getReceiveCodec().getWireName());
+            queue.offerControl(new TextMessage(OBJECT_MAPPER.writeValueAsString(ack)));
+        } catch (JsonProcessingException e) {
+            log.error("[ForwardingService] 生成编码协商结果失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 连接关闭时的清理：按连接 ID 直接找到用户，把连接从会话中摘除并关闭它的发送队列，
+     * 然后通知仍在线的对手。会话本身保留，由 /disconnect 或空闲清理器结束。
+     */
     public void removeUserSession(WebSocketSession wsSession) {
-        // 从 connectedUsers 中移除用户
-        connectedUsers.values().removeIf(userInfo -> userInfo.getWsSession().getId().equals(wsSession.getId()));
-        log.info("[ForwardingService] WebSocket 会话 {} 已关闭，用户信息已移除", wsSession.getId());
+        Spectator spectator = spectators.get(wsSession.getId());
+        if (spectator != null) {
+            spectator.session.removeSpectator(spectator.queue);
+            detachSpectator(spectator.queue, null);
+            log.info("[ForwardingService] 旁听连接 {} 已离开会话 {}", wsSession.getId(), spectator.session.getSessionId());
+            return;
+        }
+        SpeechUserInfo userInfo = sessionRegistry.unbindWebSocket(wsSession);
+        if (userInfo == null) {
+            log.debug("[ForwardingService] WebSocket 会话 {} 已关闭，未注册任何用户", wsSession.getId());
+            return;
+        }
+        OutboundQueue queue;
+        FrameCoalescer coalescer;
+        synchronized (userInfo) {
+            queue = userInfo.getOutboundQueue();
+            if (queue == null || queue.getWsSession() != wsSession) {
+                // 用户已经换用新连接，新连接的队列不受影响
+                return;
+            }
+            coalescer = userInfo.getCoalescer();
+            userInfo.setOutboundQueue(null);
+            userInfo.setCoalescer(null);
+        }
+        if (resumeTimer != null && !userInfo.isLeft()) {
+            // 在关闭队列之前开始保存其他人的音频，之后转发的帧都能补发
+            ensureReplayBuffers(userInfo);
+        }
+        queue.close();
+        // 关闭之后发送循环不再发出新帧，这时记下的序号就是用户最后收到的
+        boolean holding = holdForResume(userInfo, queue);
+        outboundQueues.remove(queue);
+        if (coalescer != null) {
+            // 说话者离开前最后不满一帧的数据仍然发给对手
+            coalescer.close(true);
+            coalescers.remove(coalescer);
+        }
+        log.info("[ForwardingService] WebSocket 会话 {} 已关闭，用户 {} 已从会话 {} 中移除",
+                wsSession.getId(), userInfo.getUserId(), userInfo.getSessionId());
+        notifyPeers(userInfo, holding ? "reconnecting" : "left");
+    }
+
+    /**
+     * 为会话中其他参与者创建补发缓冲区。只在有人断线时创建，之后保留到会话结束，
+     * 没有人断过线的会话不占用这部分内存
+     */
+    private void ensureReplayBuffers(SpeechUserInfo listener) {
+        SpeechSessionInfo session = sessionRegistry.getSession(listener.getSessionId());
+        if (session == null || replayBytes <= 0) {
+            return;
+        }
+        List<SpeechUserInfo> participants = session.getParticipants();
+        for (int i = 0; i < participants.size(); i++) {
+            SpeechUserInfo speaker = participants.get(i);
+            if (speaker == listener || speaker.getReplayBuffer() != null) {
+                continue;
+            }
+            synchronized (speaker) {
+                if (speaker.getReplayBuffer() == null) {
+                    speaker.setReplayBuffer(new ReplayBuffer(replayBytes));
+                }
+            }
+        }
+    }
+
+    /**
+     * 连接意外断开时在宽限期内保留用户：记下断线前从每名参与者收到的最后一帧，到期仍未重连才算离开
+     *
+     * @param closedQueue 已经关闭的旧发送队列
+     * @return 是否进入宽限期；未开启会话恢复、会话已结束或用户已离开时返回 false
+     */
+    private boolean holdForResume(SpeechUserInfo userInfo, OutboundQueue closedQueue) {
+        if (resumeTimer == null || userInfo.isLeft()) {
+            return false;
+        }
+        SpeechSessionInfo session = sessionRegistry.getSession(userInfo.getSessionId());
+        if (session == null || session.isClosed()) {
+            return false;
+        }
+        List<SpeechUserInfo> participants = session.getParticipants();
+        Integer[] resumeAfter = new Integer[participants.size()];
+        for (int i = 0; i < resumeAfter.length; i++) {
+            resumeAfter[i] = closedQueue.getLastSentSequence(participants.get(i).getParticipantIndex());
+        }
+        long disconnectedAt = System.currentTimeMillis();
+        synchronized (userInfo) {
+            if (userInfo.getWsSession() != null) {
+                return false; // 已经用新连接重新注册
+            }
+            try {
+                userInfo.setResumeExpiry(resumeTimer.schedule(() -> expireResume(userInfo, disconnectedAt),
+                        resumeGraceMs, TimeUnit.MILLISECONDS));
+            } catch (RejectedExecutionException e) {
+                return false; // 服务正在关闭
+            }
+            userInfo.setResumeAfterSequences(resumeAfter);
+            userInfo.setDisconnectedAt(disconnectedAt);
+        }
+        return true;
+    }
+
+    /**
+     * 宽限期到期仍未重连，通知其他人离开
+     */
+    private void expireResume(SpeechUserInfo userInfo, long disconnectedAt) {
+        synchronized (userInfo) {
+            if (userInfo.getDisconnectedAt() != disconnectedAt) {
+                return; // 已经重连或会话已结束
+            }
+            clearResume(userInfo);
+        }
+        expiredResumes.increment();
+        log.info("[ForwardingService] 用户 {} 未在 {} ms 内重连会话 {}", userInfo.getUserId(), resumeGraceMs,
+                userInfo.getSessionId());
+        notifyPeers(userInfo, "left");
+    }
+
+    /**
+     * 清除宽限期状态，调用方持有 userInfo 的锁
+     */
+    private static void clearResume(SpeechUserInfo userInfo) {
+        userInfo.setDisconnectedAt(0);
+        userInfo.setResumeAfterSequences(null);
+        userInfo.setResumeExpiry(null);
+    }
+
+    /**
+     * 通知会话中其他在线的用户和旁听者某名参与者的状态变化：双人会话为 opponent-{event}，房间为 participant-{event}。
+     * event 为 left、reconnecting（宽限期内断线，附带宽限期 graceMs）或 resumed。所有接收者共享同一条消息。
+     */
+    private void notifyPeers(SpeechUserInfo userInfo, String event) {
+        SpeechSessionInfo session = sessionRegistry.getSession(userInfo.getSessionId());
+        if (session == null || session.isClosed()) {
+            return;
+        }
+        TextMessage message;
+        try {
+            Map<String, Object> notice = new LinkedHashMap<>();
+            notice.put("type", (session.isRoom() ? "participant-" : "opponent-") + event);
+            notice.put("userId", userInfo.getUserId());
+            notice.put("sessionId", userInfo.getSessionId());
+            if ("reconnecting".equals(event)) {
+                notice.put("graceMs", resumeGraceMs);
+            }
+            message = new TextMessage(OBJECT_MAPPER.writeValueAsString(notice));
+        } catch (JsonProcessingException e) {
+            log.error("[ForwardingService] 生成{}通知失败: {}", event, e.getMessage());
+            return;
+        }
+        for (SpeechUserInfo peer : session.getParticipants()) {
+            OutboundQueue queue = peer.getOutboundQueue();
+            if (peer != userInfo && queue != null) {
+                queue.offerControl(message);
+            }
+        }
+        for (OutboundQueue spectator : session.getSpectators()) {
+            spectator.offerControl(message);
+        }
+    }
+
+    /**
+     * 发送队列统计，用于观察慢连接
+     *
+     * @return {connections, queuedFrames, maxDepth, dropped, pooledBuffers, lostFrames, lateFrames,
+     *         spectators, spectatorDropped, resumed, resumeExpired}
+     */
+    public Map<String, Object> getRelayStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connections", outboundQueues.size());
+        stats.put("queuedFrames", getQueuedFrames());
+        stats.put("maxDepth", getMaxQueueDepth());
+        stats.put("dropped", (long) droppedFrames.count());
+        stats.put("pooledBuffers", framePool.getPooledCount());
+        stats.put("lostFrames", (long) lostFrames.count());
+        stats.put("lateFrames", (long) lateFrames.count());
+        stats.put("spectators", spectators.size());
+        stats.put("spectatorDropped", (long) spectatorDroppedFrames.count());
+        stats.put("resumed", (long) resumedSessions.count());
+        stats.put("resumeExpired", (long) expiredResumes.count());
+        return stats;
+    }
+
+    /**
+     * 会话录音最终化的状态
+     *
+     * @return {sessionId, state, submittedAt, finishedAt, files}，会话没有结束过或状态已被淘汰时返回 null
+     */
+    public Map<String, Object> getRecordingStatus(String sessionId) {
+        return recordingHandler.getFinalizationStatus(sessionId);
+    }
+
+    private int getQueuedFrames() {
+        int total = 0;
+        for (OutboundQueue queue : outboundQueues) {
+            total += queue.getDepth();
+        }
+        return total;
+    }
+
+    private int getMaxQueueDepth() {
+        int max = 0;
+        for (OutboundQueue queue : outboundQueues) {
+            max = Math.max(max, queue.getDepth());
+        }
+        return max;
+    }
+
+    private FrameCoalescer newCoalescer(SpeechUserInfo userInfo) {
+        if (coalesceFlusher == null) {
+            return null;
+        }
+        SpeechRelayProperties.Coalesce coalesce = relayProperties.getCoalesce();
+        return new FrameCoalescer(coalesce.getFrameMs() * coalesce.getBytesPerMs(), coalesce.getMaxDelayMs(),
+                framePool, frame -> relayFrame(userInfo, frame));
+    }
 
-        // 这里可以添加更多的清理逻辑，例如通知其他服务等
+    /**
+     * 会话结束时关闭用户的发送队列和抖动缓冲，未发出的数据直接丢弃
+     */
+    private void detachRelay(SpeechUserInfo userInfo) {
+        OutboundQueue queue;
+        FrameCoalescer coalescer;
+        ScheduledFuture<?> resumeExpiry;
+        synchronized (userInfo) {
+            queue = userInfo.getOutboundQueue();
+            coalescer = userInfo.getCoalescer();
+            resumeExpiry = userInfo.getResumeExpiry();
+            userInfo.setOutboundQueue(null);
+            userInfo.setCoalescer(null);
+            clearResume(userInfo);
+        }
+        if (resumeExpiry != null) {
+            resumeExpiry.cancel(false);
+        }
+        if (queue != null) {
+            queue.close();
+            outboundQueues.remove(queue);
+        }
+        if (coalescer != null) {
+            coalescer.close(false);
+            coalescers.remove(coalescer);
+        }
+    }
+
+    /**
+     * 注册时换下的旧队列和抖动缓冲；宽限期内重连时还有恢复的结果，否则 missedMs 为 -1
+     */
+    private static final class Installation {
+        private final OutboundQueue previousQueue;
+        private final FrameCoalescer previousCoalescer;
+        private long missedMs = -1;
+        private int replayFrames;
+        private ScheduledFuture<?> resumeExpiry;
+
+        private Installation(OutboundQueue previousQueue, FrameCoalescer previousCoalescer) {
+            this.previousQueue = previousQueue;
+            this.previousCoalescer = previousCoalescer;
+        }
+    }
+
+    /**
+     * 把一名说话者补发缓冲区中的连续记录合并成帧：编码相同且放得下时追加到当前帧，
+     * 帧头的序号和采集时间取第一条记录的
+     */
+    private final class ReplayBatcher implements ReplayBuffer.Consumer {
+        private final int source;
+        private final AudioCodec receiveCodec;
+        private final List<AudioFrame> frames;
+        private AudioFrame current;
+        private AudioCodec currentCodec;
+        private int currentSequence;
+
+        private ReplayBatcher(int source, AudioCodec receiveCodec, List<AudioFrame> frames) {
+            this.source = source;
+            this.receiveCodec = receiveCodec;
+            this.frames = frames;
+        }
+
+        @Override
+        public void accept(AudioCodec codec, int sequence, long captureMicros, ByteBuffer payload) {
+            int length = payload.remaining();
+            if (current != null && (codec != currentCodec || current.length() + length > current.capacity())) {
+                flush();
+            }
+            if (current == null) {
+                current = framePool.acquire(Math.max(length, relayProperties.getFrameBufferBytes()));
+                current.setCaptureMicros(captureMicros);
+                currentCodec = codec;
+                currentSequence = sequence;
+            }
+            current.append(payload, length);
+        }
+
+        private void flush() {
+            if (current == null) {
+                return;
+            }
+            AudioFrame frame = current;
+            current = null;
+            frame.stamp(currentCodec, source, currentSequence);
+            if (currentCodec == AudioCodec.PCM16
+                    && (receiveCodec == AudioCodec.MULAW || receiveCodec == AudioCodec.IMA_ADPCM)) {
+                AudioFrame encoded = transcoder.fromPcm(frame, receiveCodec, 0);
+                encoded.stamp(receiveCodec, source, currentSequence);
+                frame.release();
+                frame = encoded;
+            }
+            frames.add(frame);
+        }
+    }
+
+    /**
+     * 一个旁听连接和它旁听的会话
+     */
+    private static final class Spectator {
+        private final SpeechSessionInfo session;
+        private final OutboundQueue queue;
+
+        private Spectator(SpeechSessionInfo session, OutboundQueue queue) {
+            this.session = session;
+            this.queue = queue;
+        }
     }
-}
\ No newline at end of file
+}
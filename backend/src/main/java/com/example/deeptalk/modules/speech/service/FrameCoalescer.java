@@ -0,0 +1,104 @@
+package com.example.deeptalk.modules.speech.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * 一名说话者的抖动缓冲：把客户端发来的零碎数据块拼成固定时长的帧，再交给转发和录音。
+ * <p>
+ * 攒满一帧立即输出；不满一帧的数据从第一个字节到达起最多停留 maxDelay，
+ * 由后台线程调用 {@link #flushIfDue} 按截止时间输出，增加的延迟有上界。
+ * 追加来自说话者的 WebSocket 线程，按时输出来自定时线程，两者通过对象锁串行化，
+ * 输出回调也在锁内执行，所以同一说话者的帧总是按顺序交给下游。
+ */
+@Slf4j
+public class FrameCoalescer {
+    private final int frameBytes;
+    private final long maxDelayNanos;
+    private final AudioFramePool framePool;
+    private final Consumer<AudioFrame> sink;
+    // 正在拼装的帧和它第一个字节到达的时间，由 this 保护
+    private AudioFrame pending;
+    private long pendingSince;
+    private boolean closed;
+
+    /**
+     * @param sink 接收完整帧的回调，回调返回后帧的引用由本类释放，需要保留时自行 retain
+     */
+    public FrameCoalescer(int frameBytes, long maxDelayMillis, AudioFramePool framePool, Consumer<AudioFrame> sink) {
+        this.frameBytes = Math.max(1, frameBytes);
+        this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+        this.framePool = framePool;
+        this.sink = sink;
+    }
+
+    /**
+     * 追加一个数据块，不改变 chunk 的 position
+     *
+     * @param captureMicros 数据块的采集时间，作为从它开始的帧的采集时间
+     */
+    public synchronized void append(ByteBuffer chunk, long captureMicros) {
+        if (closed) {
+            return;
+        }
+        int position = chunk.position();
+        try {
+            while (chunk.hasRemaining()) {
+                if (pending == null) {
+                    pending = framePool.acquire(frameBytes);
+                    pending.setCaptureMicros(captureMicros);
+                    pendingSince = System.nanoTime();
+                }
+                pending.append(chunk, Math.min(chunk.remaining(), frameBytes - pending.length()));
+                if (pending.length() == frameBytes) {
+                    emit();
+                }
+            }
+        } finally {
+            chunk.position(position);
+        }
+    }
+
+    /**
+     * 不满一帧的数据等待超过 maxDelay 时立即输出
+     */
+    public synchronized void flushIfDue(long nowNanos) {
+        if (pending != null && nowNanos - pendingSince >= maxDelayNanos) {
+            emit();
+        }
+    }
+
+    /**
+     * 关闭缓冲
+     *
+     * @param flush 是否先把剩余数据输出，否则直接丢弃
+     */
+    public synchronized void close(boolean flush) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (pending != null) {
+            if (flush) {
+                emit();
+            } else {
+                pending.release();
+                pending = null;
+            }
+        }
+    }
+
+    private void emit() {
+        AudioFrame frame = pending;
+        pending = null;
+        try {
+            sink.accept(frame);
+        } catch (RuntimeException e) {
+            log.error("[FrameCoalescer] 输出音频帧失败: {}", e.getMessage(), e);
+        } finally {
+            frame.release();
+        }
+    }
+}
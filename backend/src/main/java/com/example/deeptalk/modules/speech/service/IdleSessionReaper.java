@@ -0,0 +1,108 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 基于时间轮的空闲会话清理器。
+ * <p>
+ * 会话按“最近活动时间 + 空闲超时”放入时间轮对应的槽位。会话有新活动时只更新时间戳，不需要重新调度；
+ * 指针转到该槽位时再检查：仍然活跃的会话按新的截止时间重新入槽，真正空闲的会话交给回调处理。
+ * 因此每次活动的开销只是一次 volatile 写，每个节拍只处理一个槽位。
+ */
+@Slf4j
+public class IdleSessionReaper {
+    private static final int WHEEL_SIZE = 64;
+
+    private final List<ConcurrentLinkedQueue<SpeechSessionInfo>> wheel;
+    private final long tickMillis;
+    private final long idleTimeoutMillis;
+    private final Consumer<SpeechSessionInfo> onExpired;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "speech-session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 已经处理过的最后一个节拍，只在 ticker 线程中写入
+    private volatile long processedTick;
+
+    public IdleSessionReaper(long idleTimeoutMillis, long tickMillis, Consumer<SpeechSessionInfo> onExpired) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.onExpired = onExpired;
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this.processedTick = System.currentTimeMillis() / this.tickMillis;
+        ticker.scheduleWithFixedDelay(this::advance, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始跟踪一个会话的空闲时间
+     */
+    public void track(SpeechSessionInfo session) {
+        schedule(session, session.getLastActiveAt() + idleTimeoutMillis);
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void schedule(SpeechSessionInfo session, long deadline) {
+        // 截止时间所在的节拍已经处理过时，放到下一个节拍
+        long tick = Math.max(deadline / tickMillis, processedTick + 1);
+        wheel.get((int) (tick % WHEEL_SIZE)).add(session);
+    }
+
+    /**
+     * 处理从上次到现在之间的所有节拍。只在 ticker 线程中执行。
+     */
+    void advance() {
+        try {
+            long now = System.currentTimeMillis();
+            long nowTick = now / tickMillis;
+            // 落后超过一圈时，每个槽位处理一次就足够了
+            long from = Math.max(processedTick + 1, nowTick - WHEEL_SIZE + 1);
+            for (long tick = from; tick <= nowTick; tick++) {
+                processedTick = tick;
+                expire(wheel.get((int) (tick % WHEEL_SIZE)), now);
+            }
+            processedTick = nowTick;
+        } catch (Exception e) {
+            log.error("[IdleSessionReaper] 清理空闲会话失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void expire(ConcurrentLinkedQueue<SpeechSessionInfo> slot, long now) {
+        List<SpeechSessionInfo> due = new ArrayList<>();
+        SpeechSessionInfo session;
+        while ((session = slot.poll()) != null) {
+            due.add(session);
+        }
+        for (SpeechSessionInfo candidate : due) {
+            if (candidate.isClosed()) {
+                continue;
+            }
+            long deadline = candidate.getLastActiveAt() + idleTimeoutMillis;
+            if (deadline > now) {
+                schedule(candidate, deadline);
+                continue;
+            }
+            log.info("[IdleSessionReaper] 会话 {} 已空闲 {} ms，自动关闭", candidate.getSessionId(), now - candidate.getLastActiveAt());
+            try {
+                onExpired.accept(candidate);
+            } catch (Exception e) {
+                log.error("[IdleSessionReaper] 关闭空闲会话 {} 失败: {}", candidate.getSessionId(), e.getMessage(), e);
+            }
+        }
+    }
+}
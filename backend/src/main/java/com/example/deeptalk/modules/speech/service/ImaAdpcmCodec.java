@@ -0,0 +1,169 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM 编解码，16 位小端 PCM 压缩为每采样 4 位。
+ * <p>
+ * 每帧单独成块，格式与 WAV 的 IMA ADPCM 块相同：4 字节头（第一个采样的原值、步长索引、标志），
+ * 之后每字节两个采样，低 4 位在前。解码只依赖本帧的头，发送队列丢帧时后续帧仍能正确解码；
+ * 编码端把上一帧结束时的步长索引带入下一帧，帧与帧之间不需要重新适应音量。
+ * 标志的最低位为 1 表示最后一个字节的高 4 位是填充。只使用缓冲区的绝对读和相对写，不分配任何对象。
+ */
+public final class ImaAdpcmCodec {
+    public static final int HEADER_BYTES = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+    private static final int FLAG_PADDED = 0x01;
+
+    private ImaAdpcmCodec() {
+    }
+
+    /**
+     * 编码 pcmBytes 字节的 PCM 需要的最大字节数
+     */
+    public static int encodedLength(int pcmBytes) {
+        int samples = pcmBytes >> 1;
+        return samples == 0 ? 0 : HEADER_BYTES + samples / 2;
+    }
+
+    /**
+     * 解码 adpcmBytes 字节的数据最多产生的 PCM 字节数
+     */
+    public static int decodedLength(int adpcmBytes) {
+        return adpcmBytes < HEADER_BYTES ? 0 : 2 * (1 + 2 * (adpcmBytes - HEADER_BYTES));
+    }
+
+    /**
+     * 把 pcm 中 position 到 limit 的采样编码为一个块写入 out，不改变 pcm 的 position
+     *
+     * @param stepIndex 起始步长索引，通常为上一帧编码结束时的返回值，第一帧传 0
+     * @return 编码结束时的步长索引
+     */
+    public static int encode(ByteBuffer pcm, ByteBuffer out, int stepIndex) {
+        int start = pcm.position();
+        int samples = pcm.remaining() >> 1;
+        if (samples == 0) {
+            return stepIndex;
+        }
+        int index = Math.max(0, Math.min(88, stepIndex));
+        int predictor = sampleAt(pcm, start);
+        boolean padded = ((samples - 1) & 1) != 0;
+        out.put((byte) predictor);
+        out.put((byte) (predictor >> 8));
+        out.put((byte) index);
+        out.put((byte) (padded ? FLAG_PADDED : 0));
+
+        int packed = 0;
+        boolean high = false;
+        for (int s = 1; s < samples; s++) {
+            int sample = sampleAt(pcm, start + 2 * s);
+            int step = STEP_TABLE[index];
+            int diff = sample - predictor;
+            int nibble = 0;
+            if (diff < 0) {
+                nibble = 8;
+                diff = -diff;
+            }
+            int delta = step >> 3;
+            if (diff >= step) {
+                nibble |= 4;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 2;
+                diff -= step;
+                delta += step;
+            }
+            step >>= 1;
+            if (diff >= step) {
+                nibble |= 1;
+                delta += step;
+            }
+            predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+            index = Math.max(0, Math.min(88, index + INDEX_TABLE[nibble]));
+
+            if (high) {
+                out.put((byte) (packed | (nibble << 4)));
+            } else {
+                packed = nibble;
+            }
+            high = !high;
+        }
+        if (high) {
+            out.put((byte) packed);
+        }
+        return index;
+    }
+
+    /**
+     * 解码一个块，把 16 位小端 PCM 写入 out，不改变 adpcm 的 position；不足一个块头的数据被忽略
+     *
+     * @return 写入 out 的字节数
+     */
+    public static int decode(ByteBuffer adpcm, ByteBuffer out) {
+        int start = adpcm.position();
+        if (adpcm.remaining() < HEADER_BYTES) {
+            return 0;
+        }
+        int predictor = sampleAt(adpcm, start);
+        int index = Math.max(0, Math.min(88, adpcm.get(start + 2) & 0xFF));
+        boolean padded = (adpcm.get(start + 3) & FLAG_PADDED) != 0;
+        putSample(out, predictor);
+        int written = 2;
+        for (int i = start + HEADER_BYTES; i < adpcm.limit(); i++) {
+            int packed = adpcm.get(i) & 0xFF;
+            for (int shift = 0; shift <= 4; shift += 4) {
+                if (shift == 4 && padded && i == adpcm.limit() - 1) {
+                    break;
+                }
+                int nibble = (packed >> shift) & 0x0F;
+                int step = STEP_TABLE[index];
+                int delta = step >> 3;
+                if ((nibble & 4) != 0) {
+                    delta += step;
+                }
+                if ((nibble & 2) != 0) {
+                    delta += step >> 1;
+                }
+                if ((nibble & 1) != 0) {
+                    delta += step >> 2;
+                }
+                predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+                index = Math.max(0, Math.min(88, index + INDEX_TABLE[nibble]));
+                putSample(out, predictor);
+                written += 2;
+            }
+        }
+        return written;
+    }
+
+    private static int sampleAt(ByteBuffer buffer, int index) {
+        return (short) ((buffer.get(index) & 0xFF) | (buffer.get(index + 1) << 8));
+    }
+
+    private static void putSample(ByteBuffer out, int sample) {
+        out.put((byte) sample);
+        out.put((byte) (sample >> 8));
+    }
+
+    private static int clamp(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的匹配等待池，供测试和单副本部署使用：同一 JVM 中的多个节点共享一个实例即可互相配对。
+ * 先到先配对，不考虑英语水平。临界区只包含对等待队列的一次查找和修改，回调在锁外执行。
+ */
+@Slf4j
+public class InMemoryMatchBroker implements MatchBroker {
+    private final ConcurrentHashMap<String, MatchListener> nodes = new ConcurrentHashMap<>();
+    // userId -> 等待中的用户，按到达顺序排列，由 this 保护
+    private final LinkedHashMap<String, Waiting> waiting = new LinkedHashMap<>();
+
+    @Override
+    public void register(String nodeId, MatchListener listener) {
+        nodes.put(nodeId, listener);
+    }
+
+    @Override
+    public void unregister(String nodeId) {
+        nodes.remove(nodeId);
+        synchronized (this) {
+            waiting.values().removeIf(w -> w.nodeId.equals(nodeId));
+        }
+    }
+
+    @Override
+    public void offer(String nodeId, String userId, EnglishLevel level) {
+        Waiting opponent;
+        synchronized (this) {
+            if (waiting.containsKey(userId)) {
+                throw new IllegalStateException("User is already pending: " + userId);
+            }
+            Iterator<Waiting> it = waiting.values().iterator();
+            if (it.hasNext()) {
+                opponent = it.next();
+                it.remove();
+            } else {
+                opponent = null;
+                waiting.put(userId, new Waiting(nodeId, userId));
+            }
+        }
+        if (opponent != null) {
+            deliver(nodeId, userId, opponent);
+        }
+    }
+
+    @Override
+    public synchronized boolean withdraw(String nodeId, String userId) {
+        Waiting w = waiting.get(userId);
+        if (w == null || !w.nodeId.equals(nodeId)) {
+            return false;
+        }
+        waiting.remove(userId);
+        return true;
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void deliver(String initiatorNode, String initiatorId, Waiting opponent) {
+        String sessionId = UUID.randomUUID().toString();
+        notifyNode(initiatorNode, initiatorId, opponent.userId, sessionId);
+        if (!opponent.nodeId.equals(initiatorNode)) {
+            notifyNode(opponent.nodeId, initiatorId, opponent.userId, sessionId);
+        }
+    }
+
+    private void notifyNode(String nodeId, String initiatorId, String waitingId, String sessionId) {
+        MatchListener listener = nodes.get(nodeId);
+        if (listener == null) {
+            log.warn("[InMemoryMatchBroker] 节点 {} 已下线，丢弃配对 {} <-> {}", nodeId, initiatorId, waitingId);
+            return;
+        }
+        try {
+            listener.onMatched(initiatorId, waitingId, sessionId);
+        } catch (Exception e) {
+            log.error("[InMemoryMatchBroker] 节点 {} 处理配对 {} <-> {} 失败: {}", nodeId, initiatorId, waitingId, e.getMessage(), e);
+        }
+    }
+
+    private static class Waiting {
+        private final String nodeId;
+        private final String userId;
+
+        Waiting(String nodeId, String userId) {
+            this.nodeId = nodeId;
+            this.userId = userId;
+        }
+    }
+}
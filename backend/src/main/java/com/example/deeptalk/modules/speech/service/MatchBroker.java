@@ -0,0 +1,35 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+
+/**
+ * 跨节点共享的匹配等待池，多个后端副本通过它把各自的等待用户配对在一起。
+ * <p>
+ * 每个节点用自己的 nodeId 注册回调。配对完成后，结果会投递给双方用户所在的节点，
+ * 两个用户在同一节点时该节点只收到一次回调；双方节点收到的会话ID相同。
+ */
+public interface MatchBroker {
+    /**
+     * 注册节点，之后发给该节点用户的配对结果通过 listener 投递
+     */
+    void register(String nodeId, MatchListener listener);
+
+    void unregister(String nodeId);
+
+    /**
+     * 发布一名等待中的用户。池中有可配对的用户时立即配对，否则等待其他节点的用户到来。
+     *
+     * @throws IllegalStateException 用户已经在等待池中
+     */
+    void offer(String nodeId, String userId, EnglishLevel level);
+
+    /**
+     * 撤回本节点发布的用户。
+     *
+     * @return 撤回成功返回 true；用户已经被配对时返回 false，配对结果会通过回调投递
+     */
+    boolean withdraw(String nodeId, String userId);
+
+    default void shutdown() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 配对成功的回调，由 {@link Matchmaker} 在完成配对的线程中调用。
+ */
+@FunctionalInterface
+public interface MatchListener {
+    /**
+     * @param initiatorId 主动方用户ID，负责创建语音会话
+     * @param waitingId   被配对的等待方用户ID
+     * @param sessionId   匹配器为这一对用户分配的会话ID，参与配对的各个节点使用同一个ID
+     */
+    void onMatched(String initiatorId, String waitingId, String sessionId);
+}
@@ -0,0 +1,39 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+
+/**
+ * 匹配器，负责维护等待中的用户并把他们两两配对。
+ * 配对可能在 {@link #enqueue} 的调用线程中立即完成，也可能稍后在其他线程中完成，
+ * 两种情况都会通过 {@link MatchListener} 通知调用方，且每个用户最多被配对一次。
+ */
+public interface Matchmaker {
+    /**
+     * 将用户加入匹配。
+     *
+     * @param userId 用户ID
+     * @param level  用户的英语水平，未知时为 null
+     * @throws IllegalStateException 用户已经在匹配中
+     */
+    void enqueue(String userId, EnglishLevel level);
+
+    /**
+     * 取消等待中的匹配（例如等待超时）。
+     *
+     * @param userId 用户ID
+     * @return true 表示成功取消；false 表示用户已经被配对或者不在匹配中
+     */
+    boolean cancel(String userId);
+
+    /**
+     * @param userId 用户ID
+     * @return 用户是否仍在等待匹配
+     */
+    boolean isPending(String userId);
+
+    /**
+     * 停止匹配器持有的后台任务。
+     */
+    default void shutdown() {
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * G.711 µ-law 编解码，16 位小端 PCM 与每采样 1 字节的 µ-law 相互转换。
+ * 只使用缓冲区的绝对读和相对写，不分配任何对象。
+ */
+public final class MuLawCodec {
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+    private static final short[] DECODE_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            DECODE_TABLE[i] = decodeSample((byte) i);
+        }
+    }
+
+    private MuLawCodec() {
+    }
+
+    /**
+     * 把 pcm 中 position 到 limit 的采样编码后写入 out，不改变 pcm 的 position，末尾不足一个采样的字节被忽略
+     *
+     * @return 写入 out 的字节数
+     */
+    public static int encode(ByteBuffer pcm, ByteBuffer out) {
+        int end = pcm.position() + (pcm.remaining() & ~1);
+        for (int i = pcm.position(); i < end; i += 2) {
+            out.put(encodeSample((short) ((pcm.get(i) & 0xFF) | (pcm.get(i + 1) << 8))));
+        }
+        return (end - pcm.position()) >> 1;
+    }
+
+    /**
+     * 把 mulaw 中 position 到 limit 的数据解码为 16 位小端 PCM 写入 out，不改变 mulaw 的 position
+     *
+     * @return 写入 out 的字节数
+     */
+    public static int decode(ByteBuffer mulaw, ByteBuffer out) {
+        for (int i = mulaw.position(); i < mulaw.limit(); i++) {
+            short sample = DECODE_TABLE[mulaw.get(i) & 0xFF];
+            out.put((byte) sample);
+            out.put((byte) (sample >> 8));
+        }
+        return mulaw.remaining() << 1;
+    }
+
+    static byte encodeSample(int sample) {
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) {
+            sample = -sample;
+        }
+        if (sample > CLIP) {
+            sample = CLIP;
+        }
+        sample += BIAS;
+        // 加上偏置后 sample >> 7 在 1~255 之间，最高位的位置就是段号
+        int exponent = 31 - Integer.numberOfLeadingZeros(sample >> 7);
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    static short decodeSample(byte encoded) {
+        int value = ~encoded & 0xFF;
+        int exponent = (value >> 4) & 0x07;
+        int sample = ((((value & 0x0F) << 3) + BIAS) << exponent) - BIAS;
+        return (short) ((value & 0x80) != 0 ? -sample : sample);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.deeptalk.modules.speech.service;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 WebSocket 连接的有界发送队列。
+ * <p>
+ * 转发线程只把帧放进队列就返回，实际发送由共享线程池中的发送循环完成。
+ * 每个连接同一时刻最多只有一个发送循环在运行，所以不会对同一个连接并发调用 sendMessage；
+ * 每轮最多发送 {@link #MAX_BATCH} 帧后让出线程，慢连接不会长期占住线程池。
+ * 队列满时按 {@link OverflowPolicy} 处理，跟不上的连接只会丢自己的帧，不会拖慢说话的一方或其他连接。
+ * 控制消息（例如对方离开的通知）数量很少，单独排队且不受容量限制，先于音频帧发送。
+ */
+@Slf4j
+public class OutboundQueue {
+    private static final int MAX_BATCH = 16;
+
+    private final WebSocketSession wsSession;
+    private final ArrayBlockingQueue<AudioFrame> frames;
+    private final ConcurrentLinkedQueue<WebSocketMessage<?>> controls = new ConcurrentLinkedQueue<>();
+    private final OverflowPolicy overflowPolicy;
+    private final Executor sender;
+    private final Counter droppedCounter;
+    // 连接使用二进制分帧协议，音频连同帧头一起发送
+    private final boolean framed;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // 复用同一个发送任务，每次调度不再创建新的 Runnable
+    private final Runnable drainTask = this::drain;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // 按说话者序号记录最后成功发出的帧序号加一，0 表示还没有发出过；第一次发出音频时创建
+    private volatile AtomicIntegerArray lastSentSequences;
+    private volatile boolean closed;
+
+    public OutboundQueue(WebSocketSession wsSession, int capacity, OverflowPolicy overflowPolicy,
+                         Executor sender, Counter droppedCounter) {
+        this(wsSession, capacity, overflowPolicy, sender, droppedCounter, false);
+    }
+
+    public OutboundQueue(WebSocketSession wsSession, int capacity, OverflowPolicy overflowPolicy,
+                         Executor sender, Counter droppedCounter, boolean framed) {
+        this.wsSession = wsSession;
+        this.framed = framed;
+        this.frames = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.overflowPolicy = overflowPolicy;
+        this.sender = sender;
+        this.droppedCounter = droppedCounter;
+    }
+
+    /**
+     * 将帧放入队列，队列为帧增加一个引用，调用方仍需释放自己持有的引用。
+     *
+     * @return 帧是否进入了队列
+     */
+    public boolean offer(AudioFrame frame) {
+        if (closed) {
+            return false;
+        }
+        frame.retain();
+        while (!frames.offer(frame)) {
+            if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                AudioFrame oldest = frames.poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+                continue;
+            }
+            drop(frame);
+            if (overflowPolicy == OverflowPolicy.CLOSE) {
+                closeSlowConnection();
+            }
+            return false;
+        }
+        if (closed) {
+            // 与 close() 并发时，刚放入的帧可能没有被清理
+            close();
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * 放入一条控制消息，与音频帧经过同一个发送循环，不会与其并发发送
+     *
+     * @return 队列已关闭时返回 false
+     */
+    public boolean offerControl(WebSocketMessage<?> message) {
+        if (closed) {
+            return false;
+        }
+        controls.add(message);
+        schedule();
+        return true;
+    }
+
+    /**
+     * 关闭队列并释放所有未发送的帧，之后放入的帧会被直接拒绝
+     */
+    public void close() {
+        closed = true;
+        controls.clear();
+        AudioFrame frame;
+        while ((frame = frames.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    public int getDepth() {
+        return frames.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 最后成功发出的来自某个说话者的帧序号，用于断线重连时确定从哪里开始补发
+     *
+     * @param source 说话者在会话中的序号
+     * @return 帧序号，还没有发出过该说话者的帧时返回 null
+     */
+    public Integer getLastSentSequence(int source) {
+        AtomicIntegerArray sequences = lastSentSequences;
+        if (sequences == null) {
+            return null;
+        }
+        int value = sequences.get(source);
+        return value == 0 ? null : value - 1;
+    }
+
+    private void recordSent(AudioFrame frame) {
+        AtomicIntegerArray sequences = lastSentSequences;
+        if (sequences == null) {
+            // 只在发送循环中创建，同一时刻只有一个发送循环
+            sequences = new AtomicIntegerArray(256);
+            lastSentSequences = sequences;
+        }
+        sequences.lazySet(frame.source(), frame.sequence() + 1);
+    }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public WebSocketSession getWsSession() {
+        return wsSession;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                sender.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // 服务正在关闭
+                scheduled.set(false);
+                close();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> control;
+            while ((control = controls.poll()) != null) {
+                send(control);
+            }
+            AudioFrame frame;
+            int batch = 0;
+            while (batch++ < MAX_BATCH && (frame = frames.poll()) != null) {
+                try {
+                    if (send(new BinaryMessage(framed ? frame.framedView() : frame.view()))) {
+                        sent.incrementAndGet();
+                        recordSent(frame);
+                    }
+                } finally {
+                    frame.release();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // 让出线程期间可能有新帧到达，没有其他发送循环接手时重新调度
+            if (!frames.isEmpty() || !controls.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private boolean send(WebSocketMessage<?> message) {
+        if (closed || !wsSession.isOpen()) {
+            return false;
+        }
+        try {
+            wsSession.sendMessage(message);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("[OutboundQueue] 向连接 {} 发送消息失败: {}", wsSession.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void drop(AudioFrame frame) {
+        frame.release();
+        dropped.incrementAndGet();
+        droppedCounter.increment();
+    }
+
+    private void closeSlowConnection() {
+        if (closed) {
+            return;
+        }
+        close();
+        log.warn("[OutboundQueue] 连接 {} 的发送队列已满，关闭连接", wsSession.getId());
+        // 关闭时也要向对方写关闭帧，放到发送线程中执行，不占用转发线程
+        try {
+            sender.execute(() -> {
+                try {
+                    wsSession.close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (IOException e) {
+                    log.warn("[OutboundQueue] 关闭连接 {} 失败: {}", wsSession.getId(), e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 服务正在关闭，连接会随容器一起关闭
+        }
+    }
+}
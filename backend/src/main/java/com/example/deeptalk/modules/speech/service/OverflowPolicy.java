@@ -0,0 +1,19 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 连接的发送队列已满时如何处理新到的音频帧
+ */
+public enum OverflowPolicy {
+    /**
+     * 丢弃队列中最早的帧，保证对方听到的是最新的声音
+     */
+    DROP_OLDEST,
+    /**
+     * 丢弃新到的帧，已经排队的帧按顺序发完
+     */
+    DROP_NEWEST,
+    /**
+     * 关闭跟不上的连接，由客户端重连
+     */
+    CLOSE
+}
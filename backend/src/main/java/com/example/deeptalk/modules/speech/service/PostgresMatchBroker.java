@@ -0,0 +1,433 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于 PostgreSQL 的匹配等待池，使用应用已有的数据源，多个后端副本共享同一张等待表。
+ * <p>
+ * 配对：发布用户时在同一个事务里用 {@code FOR UPDATE SKIP LOCKED} 取走最早的等待者，
+ * 正在被其他事务配对的行会被直接跳过，各节点之间不会互相阻塞，也不会把同一个用户配给两个人；
+ * 取不到时把自己写入等待表。两个节点同时发布时可能都没看到对方，由各节点的后台线程定期
+ * 以同样方式两两配对表中剩下的用户。
+ * <p>
+ * 投递：配对结果写入对方节点的信箱表，并在同一事务中 {@code NOTIFY}，提交后对方节点立即被唤醒取信。
+ * 通知只用于唤醒，信箱表才是结果的来源，监听连接断开期间丢失的通知会在下一次轮询时补上。
+ * <p>
+ * 存活：每个注册的节点在节点表中持有一个租约，由后台线程定期续约。只有租约有效、且等待时间
+ * 不超过上限的行才会被取走；崩溃的节点不再续约，它留下的等待者不会被配给在线用户，并在之后被清理。
+ */
+@Slf4j
+public class PostgresMatchBroker implements MatchBroker {
+    private static final String CHANNEL = "speech_match";
+    private static final int MAX_SWEEP_PAIRS = 100;
+    /**
+     * 等待表中仍可配对的行：所在节点的租约有效，且等待时间未超过上限（参数为上限毫秒数）
+     */
+    private static final String LIVE = "q.enqueued_at > clock_timestamp() - ? * INTERVAL '1 millisecond' " +
+            "AND EXISTS (SELECT 1 FROM speech_match_node n WHERE n.node_id = q.node_id AND n.expires_at > clock_timestamp())";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS speech_match_node (" +
+                    "node_id VARCHAR(64) PRIMARY KEY, " +
+                    "expires_at TIMESTAMPTZ NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS speech_match_queue (" +
+                    "user_id VARCHAR(64) PRIMARY KEY, " +
+                    "node_id VARCHAR(64) NOT NULL, " +
+                    "english_level VARCHAR(8), " +
+                    "enqueued_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp())",
+            "CREATE INDEX IF NOT EXISTS idx_speech_match_queue_enqueued_at ON speech_match_queue (enqueued_at)",
+            "CREATE TABLE IF NOT EXISTS speech_match_mailbox (" +
+                    "session_id VARCHAR(64) NOT NULL, " +
+                    "user_id VARCHAR(64) NOT NULL, " +
+                    "node_id VARCHAR(64) NOT NULL, " +
+                    "initiator_id VARCHAR(64) NOT NULL, " +
+                    "waiting_id VARCHAR(64) NOT NULL, " +
+                    "PRIMARY KEY (session_id, user_id))",
+            "CREATE INDEX IF NOT EXISTS idx_speech_match_mailbox_node ON speech_match_mailbox (node_id)"
+    };
+
+    private final DataSource dataSource;
+    private final long pollIntervalMillis;
+    private final long leaseMillis;
+    private final long maxWaitMillis;
+    private final ConcurrentHashMap<String, MatchListener> nodes = new ConcurrentHashMap<>();
+    private final Thread listenerThread;
+    private volatile boolean running = true;
+    // 只在监听线程中使用
+    private long nextRenewMillis;
+
+    /**
+     * @param leaseMillis   节点租约的长度，每三分之一个租约续约一次，应明显大于 pollIntervalMillis
+     * @param maxWaitMillis 等待者最长的等待时间，超过后不再参与配对
+     */
+    public PostgresMatchBroker(DataSource dataSource, long pollIntervalMillis, long leaseMillis, long maxWaitMillis) {
+        this.dataSource = dataSource;
+        this.pollIntervalMillis = Math.max(1, pollIntervalMillis);
+        this.leaseMillis = Math.max(this.pollIntervalMillis * 3, leaseMillis);
+        this.maxWaitMillis = maxWaitMillis;
+        createSchema();
+        this.listenerThread = new Thread(this::listen, "speech-match-listener");
+        this.listenerThread.setDaemon(true);
+        this.listenerThread.start();
+    }
+
+    @Override
+    public void register(String nodeId, MatchListener listener) {
+        nodes.put(nodeId, listener);
+        // 注册后立即持有租约，本节点发布的用户马上可以被配对
+        try (Connection conn = dataSource.getConnection()) {
+            renew(conn, new String[]{nodeId});
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to register node " + nodeId, e);
+        }
+    }
+
+    @Override
+    public void unregister(String nodeId) {
+        nodes.remove(nodeId);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM speech_match_queue WHERE node_id = ?");
+             PreparedStatement lease = conn.prepareStatement("DELETE FROM speech_match_node WHERE node_id = ?")) {
+            ps.setString(1, nodeId);
+            ps.executeUpdate();
+            lease.setString(1, nodeId);
+            lease.executeUpdate();
+        } catch (SQLException e) {
+            log.warn("[PostgresMatchBroker] 清理节点 {} 的等待用户失败: {}", nodeId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void offer(String nodeId, String userId, EnglishLevel level) {
+        String[] match = null;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // 同一用户在两个节点上同时发起匹配时串行化，避免他被配对两次
+                try (PreparedStatement ps = conn.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+                    ps.setString(1, userId);
+                    ps.execute();
+                }
+                // 崩溃节点留下的同一用户不妨碍他在本节点重新等待
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "DELETE FROM speech_match_queue q WHERE q.user_id = ? AND NOT (" + LIVE + ")")) {
+                    ps.setString(1, userId);
+                    ps.setLong(2, maxWaitMillis);
+                    ps.executeUpdate();
+                }
+                if (exists(conn, userId)) {
+                    throw new IllegalStateException("User is already pending: " + userId);
+                }
+                Waiting opponent = claimOldest(conn);
+                if (opponent == null) {
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO speech_match_queue (user_id, node_id, english_level) VALUES (?, ?, ?)")) {
+                        ps.setString(1, userId);
+                        ps.setString(2, nodeId);
+                        ps.setString(3, level == null ? null : level.name());
+                        ps.executeUpdate();
+                    }
+                } else {
+                    match = new String[]{userId, opponent.userId, UUID.randomUUID().toString()};
+                    // 发起方就在本节点，直接回调；只有对方在其他节点时才需要投递
+                    if (!opponent.nodeId.equals(nodeId)) {
+                        post(conn, opponent, match);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to offer user " + userId, e);
+        }
+        if (match != null) {
+            dispatch(nodeId, match[0], match[1], match[2]);
+        }
+    }
+
+    @Override
+    public boolean withdraw(String nodeId, String userId) {
+        // 该行正在被配对事务锁定时，这里会等到对方提交，然后因为行已被删除而返回 false
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "DELETE FROM speech_match_queue WHERE user_id = ? AND node_id = ?")) {
+            ps.setString(1, userId);
+            ps.setString(2, nodeId);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to withdraw user " + userId, e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        listenerThread.interrupt();
+    }
+
+    private void createSchema() {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            for (String ddl : SCHEMA) {
+                st.execute(ddl);
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Failed to create match broker tables", e);
+        }
+    }
+
+    private static boolean exists(Connection conn, String userId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM speech_match_queue WHERE user_id = ?")) {
+            ps.setString(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * 取走最早的一名等待者。必须在事务中调用，被其他事务锁定的行会被跳过。
+     */
+    private Waiting claimOldest(Connection conn) throws SQLException {
+        List<Waiting> claimed = claim(conn, 1);
+        return claimed.isEmpty() ? null : claimed.get(0);
+    }
+
+    private List<Waiting> claim(Connection conn, int limit) throws SQLException {
+        List<Waiting> claimed = new ArrayList<>(limit);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT q.user_id, q.node_id FROM speech_match_queue q WHERE " + LIVE +
+                        " ORDER BY q.enqueued_at LIMIT ? FOR UPDATE OF q SKIP LOCKED")) {
+            ps.setLong(1, maxWaitMillis);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    claimed.add(new Waiting(rs.getString(2), rs.getString(1)));
+                }
+            }
+        }
+        if (claimed.size() < limit) {
+            return claimed;
+        }
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM speech_match_queue WHERE user_id = ?")) {
+            for (Waiting waiting : claimed) {
+                ps.setString(1, waiting.userId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        return claimed;
+    }
+
+    /**
+     * 把配对结果投递到收件人所在节点的信箱，提交时通知该节点
+     *
+     * @param match {initiatorId, waitingId, sessionId}
+     */
+    private static void post(Connection conn, Waiting recipient, String[] match) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO speech_match_mailbox (session_id, user_id, node_id, initiator_id, waiting_id) VALUES (?, ?, ?, ?, ?)")) {
+            ps.setString(1, match[2]);
+            ps.setString(2, recipient.userId);
+            ps.setString(3, recipient.nodeId);
+            ps.setString(4, match[0]);
+            ps.setString(5, match[1]);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT pg_notify(?, ?)")) {
+            ps.setString(1, CHANNEL);
+            ps.setString(2, recipient.nodeId);
+            ps.execute();
+        }
+    }
+
+    /**
+     * 后台线程：监听通知并取信；每个轮询周期还会配对表中剩下的等待者，并补取可能漏掉的信；
+     * 每三分之一个租约为本 JVM 中的节点续约并清理过期的行。
+     */
+    private void listen() {
+        while (running) {
+            try (Connection conn = dataSource.getConnection()) {
+                PGConnection pgConnection = conn.unwrap(PGConnection.class);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                try {
+                    boolean poll = true;
+                    while (running) {
+                        if (System.currentTimeMillis() >= nextRenewMillis) {
+                            renewAndExpire(conn);
+                            nextRenewMillis = System.currentTimeMillis() + leaseMillis / 3;
+                        }
+                        if (poll) {
+                            sweep();
+                        }
+                        drainMailbox();
+                        PGNotification[] notifications = pgConnection.getNotifications((int) pollIntervalMillis);
+                        poll = notifications == null || notifications.length == 0;
+                    }
+                } finally {
+                    try (Statement st = conn.createStatement()) {
+                        st.execute("UNLISTEN *");
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("[PostgresMatchBroker] 监听连接异常，{} ms 后重连: {}", pollIntervalMillis, e.getMessage());
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                log.error("[PostgresMatchBroker] 处理配对结果失败: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void renew(Connection conn, String[] nodeIds) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO speech_match_node (node_id, expires_at) " +
+                        "SELECT unnest(?), clock_timestamp() + ? * INTERVAL '1 millisecond' " +
+                        "ON CONFLICT (node_id) DO UPDATE SET expires_at = EXCLUDED.expires_at")) {
+            ps.setArray(1, conn.createArrayOf("varchar", nodeIds));
+            ps.setLong(2, leaseMillis);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 为本 JVM 中的节点续约，并清理不再可配对的等待者。过期一个租约以上的节点连同它没取走的信一起删除，
+     * 只是短暂停顿的节点续约后仍能取到信
+     */
+    void renewAndExpire(Connection conn) throws SQLException {
+        if (!nodes.isEmpty()) {
+            renew(conn, nodes.keySet().toArray(new String[0]));
+        }
+        int expired;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM speech_match_queue q WHERE NOT (" + LIVE + ")")) {
+            ps.setLong(1, maxWaitMillis);
+            expired = ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "DELETE FROM speech_match_node WHERE expires_at < clock_timestamp() - ? * INTERVAL '1 millisecond'")) {
+            ps.setLong(1, leaseMillis);
+            ps.executeUpdate();
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("DELETE FROM speech_match_mailbox m " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM speech_match_node n WHERE n.node_id = m.node_id)");
+        }
+        if (expired > 0) {
+            log.info("[PostgresMatchBroker] 清理过期的等待者 {} 名", expired);
+        }
+    }
+
+    /**
+     * 两两配对等待表中剩下的用户
+     */
+    void sweep() throws SQLException {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < MAX_SWEEP_PAIRS; i++) {
+                try {
+                    List<Waiting> pair = claim(conn, 2);
+                    if (pair.size() < 2) {
+                        conn.rollback();
+                        return;
+                    }
+                    // 后到者作为发起方
+                    Waiting waiting = pair.get(0);
+                    Waiting initiator = pair.get(1);
+                    String[] match = {initiator.userId, waiting.userId, UUID.randomUUID().toString()};
+                    post(conn, initiator, match);
+                    // 同一节点的两名用户只投递一次
+                    if (!waiting.nodeId.equals(initiator.nodeId)) {
+                        post(conn, waiting, match);
+                    }
+                    conn.commit();
+                    log.debug("[PostgresMatchBroker] 补充配对: {} <-> {}", match[0], match[1]);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 取出发给本 JVM 中各节点的配对结果并回调
+     */
+    void drainMailbox() throws SQLException {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        // nodeId + sessionId -> {nodeId, initiatorId, waitingId, sessionId}
+        Map<String, String[]> deliveries = new LinkedHashMap<>();
+        try (Connection conn = dataSource.getConnection()) {
+            Array nodeIds = conn.createArrayOf("varchar", nodes.keySet().toArray());
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "DELETE FROM speech_match_mailbox WHERE node_id = ANY (?) " +
+                            "RETURNING node_id, initiator_id, waiting_id, session_id")) {
+                ps.setArray(1, nodeIds);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String[] delivery = {rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)};
+                        deliveries.putIfAbsent(delivery[0] + "/" + delivery[3], delivery);
+                    }
+                }
+            }
+        }
+        for (String[] delivery : deliveries.values()) {
+            dispatch(delivery[0], delivery[1], delivery[2], delivery[3]);
+        }
+    }
+
+    private void dispatch(String nodeId, String initiatorId, String waitingId, String sessionId) {
+        MatchListener listener = nodes.get(nodeId);
+        if (listener == null) {
+            log.warn("[PostgresMatchBroker] 节点 {} 已下线，丢弃配对 {} <-> {}", nodeId, initiatorId, waitingId);
+            return;
+        }
+        try {
+            listener.onMatched(initiatorId, waitingId, sessionId);
+        } catch (Exception e) {
+            log.error("[PostgresMatchBroker] 节点 {} 处理配对 {} <-> {} 失败: {}", nodeId, initiatorId, waitingId, e.getMessage(), e);
+        }
+    }
+
+    private static class Waiting {
+        private final String nodeId;
+        private final String userId;
+
+        Waiting(String nodeId, String userId) {
+            this.nodeId = nodeId;
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 录音文件的容器格式。
+ * <p>
+ * PCM 音轨写成流式 WAV：打开音轨时先写 44 字节的 WAV 头，RIFF 和 data 的长度填 0xFFFFFFFF（流式 WAV 的约定，
+ * 未结束的文件也能播放），音频数据直接追加在后面。录音期间每隔一段采集时间记录一个 (采集时间, 数据偏移) 索引项，
+ * 流式写入旁边的 "{userId}.idx"。会话结束时 {@link #finish} 先回填 data 的长度，再在数据之后追加一个 "seek" 块
+ * （从索引文件原样拷贝），最后回填 RIFF 的长度；只做定位读写和文件间拷贝，内存占用与录音长度无关。
+ * 播放器会跳过不认识的块。RIFF 长度是最后一步，中途崩溃后重新结束时按已回填的 data 长度找到数据末尾，
+ * 已经完整写出的 seek 块不再追加，写了一半的截掉重写。
+ * <p>
+ * RAW 音轨是客户端自己封装的字节流（如浏览器 MediaRecorder 的 webm），原样保存，按文件头的魔数确定扩展名。
+ */
+final class RecordingContainer {
+    /** WAV 头的长度，音频数据从这里开始 */
+    static final int WAV_HEADER_BYTES = 44;
+    /** 每个 seek 索引项的长度：采集时间（微秒）和数据偏移各 8 字节，小端 */
+    static final int SEEK_ENTRY_BYTES = 16;
+
+    private static final int RIFF = 0x46464952; // "RIFF"
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int DATA = 0x61746164; // "data"
+    private static final int SEEK = 0x6b656573; // "seek"
+    private static final int STREAMING_SIZE = 0xFFFFFFFF;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private RecordingContainer() {
+    }
+
+    /**
+     * 流式 WAV 头：16 位小端 PCM，长度字段待会话结束时回填
+     */
+    static ByteBuffer wavHeader(int sampleRate, int channels) {
+        int blockAlign = channels * 2;
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(RIFF).putInt(STREAMING_SIZE).putInt(WAVE);
+        header.putInt(0x20746d66).putInt(16); // "fmt "
+        header.putShort((short) 1).putShort((short) channels).putInt(sampleRate).putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign).putShort((short) 16);
+        header.putInt(DATA).putInt(STREAMING_SIZE);
+        return header.flip();
+    }
+
+    /**
+     * 写入一个 seek 索引项
+     *
+     * @param dataOffset 数据块在音频数据中的偏移（不含 WAV 头）
+     */
+    static void putSeekEntry(ByteBuffer index, long captureMicros, long dataOffset) {
+        index.order(ByteOrder.LITTLE_ENDIAN).putLong(captureMicros).putLong(dataOffset);
+    }
+
+    /**
+     * 结束一条音轨：流式 WAV 追加 seek 块并回填长度，之后删除索引文件。可以重复调用，包括上一次在中途崩溃，
+     * 已经结束的文件保持不变
+     *
+     * @param track 音轨文件
+     * @param index 录音期间写出的索引文件，可以不存在
+     * @return 最终文件的扩展名
+     */
+    static String finish(Path track, Path index) throws IOException {
+        if (!Files.isRegularFile(track)) {
+            Files.deleteIfExists(index);
+            return "raw"; // 不是普通文件（如命名管道）时不读取内容
+        }
+        try (FileChannel channel = FileChannel.open(track, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, head, 0);
+            if (!isWav(head)) {
+                Files.deleteIfExists(index);
+                return sniff(head);
+            }
+            if (head.getInt(4) == STREAMING_SIZE) {
+                patchWav(channel, head, index);
+            }
+        }
+        Files.deleteIfExists(index);
+        return "wav";
+    }
+
+    /**
+     * 在已经结束的 WAV 文件中查找采集时间 captureMicros 处的数据位置：不晚于它的最后一个索引项，
+     * 在 seek 块中二分查找，每次只读一个索引项
+     *
+     * @return 该位置在文件中的偏移；没有索引或早于第一个索引项时为音频数据的起点
+     */
+    static long seek(FileChannel channel, long captureMicros) throws IOException {
+        long seekBody = -1;
+        long seekBytes = 0;
+        long dataStart = WAV_HEADER_BYTES;
+        ByteBuffer chunk = ByteBuffer.allocate(SEEK_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 12;
+        while (position + 8 <= channel.size()) {
+            chunk.clear().limit(8);
+            readFully(channel, chunk, position);
+            int id = chunk.getInt(0);
+            long size = Integer.toUnsignedLong(chunk.getInt(4));
+            if (id == DATA) {
+                dataStart = position + 8;
+            } else if (id == SEEK) {
+                seekBody = position + 8;
+                seekBytes = size;
+            }
+            position += 8 + size + (size & 1);
+        }
+        long low = 0;
+        long high = seekBody < 0 ? -1 : seekBytes / SEEK_ENTRY_BYTES - 1;
+        long offset = 0;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            chunk.clear();
+            readFully(channel, chunk, seekBody + middle * SEEK_ENTRY_BYTES);
+            if (chunk.getLong(0) <= captureMicros) {
+                offset = chunk.getLong(8);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return dataStart + offset;
+    }
+
+    /**
+     * 回填 data 的长度，data 之后按 RIFF 的偶数对齐补一个字节并追加 seek 块，最后回填 RIFF 的长度。
+     * data 的长度已经回填时（上一次在追加 seek 块的过程中崩溃），数据之后完整的 seek 块保留，否则截掉重写
+     */
+    private static void patchWav(FileChannel channel, ByteBuffer head, Path index) throws IOException {
+        long indexBytes = 0;
+        if (Files.exists(index)) {
+            indexBytes = Files.size(index) - Files.size(index) % SEEK_ENTRY_BYTES;
+        }
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long dataBytes;
+        if (head.getInt(40) == STREAMING_SIZE) {
+            dataBytes = channel.size() - WAV_HEADER_BYTES;
+            long seekChunk = indexBytes > 0 ? 8 + indexBytes : 0;
+            if (WAV_HEADER_BYTES + dataBytes + (dataBytes & 1) + seekChunk - 8 > MAX_RIFF_SIZE) {
+                return; // 超过 4GB 的 WAV 无法表示长度，保留流式长度，也不追加 seek 块
+            }
+            size.putInt(0, (int) dataBytes);
+            writeFully(channel, size, 40);
+        } else {
+            dataBytes = Integer.toUnsignedLong(head.getInt(40));
+        }
+        long end = WAV_HEADER_BYTES + dataBytes + (dataBytes & 1);
+        if (!hasSeekChunk(channel, end)) {
+            channel.truncate(WAV_HEADER_BYTES + dataBytes);
+            if ((dataBytes & 1) != 0) {
+                channel.write(ByteBuffer.allocate(1), WAV_HEADER_BYTES + dataBytes);
+            }
+            if (indexBytes > 0) {
+                try (FileChannel in = FileChannel.open(index, StandardOpenOption.READ)) {
+                    ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                    chunkHeader.putInt(SEEK).putInt((int) indexBytes).flip();
+                    writeFully(channel, chunkHeader, end);
+                    long copied = 0;
+                    while (copied < indexBytes) {
+                        copied += channel.transferFrom(in, end + 8 + copied, indexBytes - copied);
+                    }
+                }
+            }
+        }
+        size.clear().putInt(0, (int) (channel.size() - 8));
+        writeFully(channel, size, 4);
+    }
+
+    /**
+     * 数据末尾 end 处是否已经有一个完整的 seek 块，并且是文件中的最后一块
+     */
+    private static boolean hasSeekChunk(FileChannel channel, long end) throws IOException {
+        if (channel.size() < end + 8) {
+            return false;
+        }
+        ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, chunkHeader, end);
+        return chunkHeader.getInt(0) == SEEK
+                && channel.size() == end + 8 + Integer.toUnsignedLong(chunkHeader.getInt(4));
+    }
+
+    /**
+     * 文件是否是还没有结束的流式 WAV（data 的长度没有回填）
+     */
+    static boolean isStreamingWav(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, head, 0);
+        return isWav(head) && head.getInt(40) == STREAMING_SIZE;
+    }
+
+    private static boolean isWav(ByteBuffer head) {
+        return head.position() >= WAV_HEADER_BYTES && head.getInt(0) == RIFF && head.getInt(8) == WAVE;
+    }
+
+    /**
+     * 按客户端封装格式的魔数确定扩展名
+     */
+    private static String sniff(ByteBuffer head) {
+        int length = head.position();
+        if (length >= 4 && head.getInt(0) == 0xA3DF451A) {
+            return "webm"; // EBML 1A 45 DF A3
+        }
+        if (length >= 4 && head.getInt(0) == 0x5367674F) {
+            return "ogg"; // "OggS"
+        }
+        if (length >= 8 && head.getInt(4) == 0x70797466) {
+            return "mp4"; // "ftyp"
+        }
+        return "raw";
+    }
+
+    /**
+     * 从 position 开始读满 buffer 或读到文件末尾
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 录音数据落盘（fsync）的策略，决定断电时最多丢失多少已经写出的音频
+ */
+public enum RecordingDurability {
+    /**
+     * 从不 fsync，由操作系统决定何时写回磁盘；进程崩溃不丢数据，断电可能丢失几十秒
+     */
+    NONE,
+    /**
+     * 组提交：一个后台线程每隔 groupCommitIntervalMs 对期间写过的所有音轨 fsync 一次，断电最多丢失一个间隔
+     */
+    GROUP,
+    /**
+     * 写线程每次写入后立即 fsync，写完才处理后续数据块；写线程落后时一次写入包含多个数据块
+     */
+    PER_FRAME
+}
@@ -1,79 +1,916 @@
 package com.example.deeptalk.modules.speech.service;
 
 
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.FileOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
+/**
+ * 录音器：每名参与者一条音轨，先追加到会话目录下的 "{userId}.tmp"，会话结束时改名为最终文件。
+ * PCM 音轨写成带 seek 索引的 WAV，客户端封装的 RAW 音轨原样保存，见 {@link RecordingContainer}；
+ * 同一会话的 PCM 音轨同时按采集时间流式混成一条 "mixdown"，见 {@link RecordingMixer}。
+ * <p>
+ * 调用线程只把数据复制进 {@link RecordingRing} 的槽位，不加锁、不分配内存，磁盘操作全部由一个后台写线程完成：
+ * 每条音轨打开一次 {@link TrackFile} 并保持到会话结束，写线程每次取走环形队列中连续已发布的全部数据块，
+ * 按音轨合并成一次写入（通道追加或内存映射，见 {@link RecordingStorage}）。写线程跟不上（磁盘卡顿）时环形队列写满，新的数据块直接丢弃并计数，
+ * 转发线程永远不等待磁盘。
+ * <p>
+ * 何时落盘由 {@link RecordingDurability} 决定，见 {@link RecordingSyncer}：默认每隔一个间隔对所有写过的音轨组提交一次。
+ * <p>
+ * 会话结束时的最终化（等待写线程写完、封装、改名）提交给有界队列的后台线程执行，结束会话的请求不等待文件系统，
+ * 每个会话的进度通过 {@link #getFinalizationStatus} 查询。
+ * <p>
+ * 音轨打开和会话最终化都记入 {@link RecordingJournal}。启动时读取日志，上次运行没有最终化的会话（进程崩溃、
+ * 重启或最终化被拒绝）在后台由多个线程并行恢复：能封装的音轨照常最终化，空文件、无法读取或封装失败的音轨
+ * 移到 ".quarantine/{sessionId}/" 保留原样。启动只读取日志，不扫描录音目录，也不等待恢复完成。
+ */
 @Component // 将其声明为Spring组件，方便注入和管理
 @Slf4j
 public class RecordingHandler {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CLOSE_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // 无法恢复的音轨移到录音目录下的这个子目录，以 '.' 开头，不会被当作会话回放
+    static final String QUARANTINE_DIR = ".quarantine";
 
     // 定义存放录音文件的根目录
-    private final Path artifactBasePath = Paths.get("deploy", "artifact");
+    private final Path artifactBasePath;
+    private final RecordingStorage storage;
+    private final int segmentBytes;
+    private final int sampleRate;
+    private final long seekIntervalMicros;
+    private final SpeechRecordingProperties properties;
+    // sessionId -> (userId -> 音轨第一个数据块的采集时间，微秒)，会话结束时写入 tracks.properties 用于对齐各音轨
+    private final ConcurrentHashMap<String, Map<String, Long>> trackStartMicros = new ConcurrentHashMap<>();
+
+    // 等待写线程处理的数据块和关闭会话音轨的请求，按序号顺序处理
+    private final RecordingRing ring;
+    // 环形队列已满而丢弃的数据块
+    private final Counter droppedChunks;
+    // 第一次录音时启动；空闲时写线程 park，parked 为 true 时生产者发布后唤醒它
+    private volatile Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean stopped;
+    // 最终化被拒绝、环形队列又没有空槽位时推迟的关闭请求，写线程每批数据之后处理
+    private final ConcurrentLinkedQueue<String> deferredCloses = new ConcurrentLinkedQueue<>();
+    // 写线程独占：sessionId -> (userId -> 打开的音轨)
+    private final Map<String, Map<String, Track>> tracks = new HashMap<>();
+    // 写线程独占：sessionId -> 会话的混音
+    private final Map<String, RecordingMixer> mixers = new HashMap<>();
+    // 混音时到达太晚而丢弃的帧
+    private final Counter lateMixFrames;
+    // 混音时采集时间跳得太远而重新锚定的次数
+    private final Counter mixDiscontinuities;
+
+    // 会话录音最终化的后台线程，空闲时退出
+    private final ThreadPoolExecutor finalizer;
+    // sessionId -> 最近一次最终化任务；已结束的任务按结束顺序保留 finalizeRetainedStatuses 个
+    private final ConcurrentHashMap<String, FinalizeJob> finalizeJobs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> finishedJobs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedJobCount = new AtomicInteger();
+    private final int finalizeRetainedStatuses;
+    // 队列已满而没有执行的最终化任务
+    private final Counter rejectedFinalizations;
+
+    // 打开的音轨和已最终化的会话
+    private final RecordingJournal journal;
+    // 按 durability 把音轨文件、目录和日志落盘
+    private final RecordingSyncer syncer;
+    // 日志中上次运行遗留的会话：sessionId -> (userId -> 起始采集时间)，恢复线程或重新录音的写线程取走
+    private final ConcurrentHashMap<String, Map<String, Long>> orphans = new ConcurrentHashMap<>();
+    // 写线程取走的遗留会话中还没有重新打开的音轨：sessionId -> userId，只在写线程中访问
+    private final Map<String, Set<String>> reclaimedTracks = new HashMap<>();
+    private final int recoveryThreads;
+    private volatile CountDownLatch recovery = new CountDownLatch(0);
+    // 恢复时最终化和隔离的音轨
+    private final Counter recoveredTracks;
+    private final Counter quarantinedTracks;
+
+    public RecordingHandler() {
+        this(new SpeechRecordingProperties(), new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public RecordingHandler(SpeechRecordingProperties properties, MeterRegistry meterRegistry) {
+        this.artifactBasePath = Paths.get(properties.getArtifactPath());
+        this.storage = properties.getStorage();
+        this.segmentBytes = properties.getSegmentBytes();
+        this.sampleRate = properties.getSampleRate();
+        this.seekIntervalMicros = TimeUnit.MILLISECONDS.toMicros(properties.getSeekIndexIntervalMs());
+        this.properties = properties;
+        this.ring = new RecordingRing(properties.getRingSlots(), properties.getSlotBytes());
+        this.droppedChunks = Counter.builder("speech.recording.dropped")
+                .description("Audio chunks dropped because the recording writer fell behind")
+                .register(meterRegistry);
+        Gauge.builder("speech.recording.ring.depth", ring, RecordingRing::getDepth)
+                .description("Audio chunks waiting for the recording writer")
+                .register(meterRegistry);
+        this.lateMixFrames = Counter.builder("speech.recording.mixdown.late")
+                .description("Sample frames left out of the session mixdown because they arrived after the mix window")
+                .register(meterRegistry);
+        this.mixDiscontinuities = Counter.builder("speech.recording.mixdown.discontinuity")
+                .description("Mixdown lanes re-anchored because a chunk's capture time jumped beyond the maximum gap")
+                .register(meterRegistry);
+
+        AtomicInteger finalizerIds = new AtomicInteger();
+        this.finalizer = new ThreadPoolExecutor(properties.getFinalizeThreads(), properties.getFinalizeThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(properties.getFinalizeQueueSize()), r -> {
+            Thread thread = new Thread(r, "speech-recording-finalizer-" + finalizerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        finalizer.allowCoreThreadTimeOut(true);
+        this.finalizeRetainedStatuses = properties.getFinalizeRetainedStatuses();
+        this.rejectedFinalizations = Counter.builder("speech.recording.finalize.rejected")
+                .description("Session finalizations rejected because the finalize queue was full")
+                .register(meterRegistry);
+        Gauge.builder("speech.recording.finalize.queue", finalizer, executor -> executor.getQueue().size())
+                .description("Session finalizations waiting for a finalizer thread")
+                .register(meterRegistry);
+
+        this.recoveryThreads = properties.getRecoveryThreads();
+        this.recoveredTracks = Counter.builder("speech.recording.recovery.finalized")
+                .description("Orphaned tracks finalized at startup")
+                .register(meterRegistry);
+        this.quarantinedTracks = Counter.builder("speech.recording.recovery.quarantined")
+                .description("Orphaned tracks moved to quarantine at startup because they could not be finalized")
+                .register(meterRegistry);
+        this.journal = new RecordingJournal(artifactBasePath, properties.getJournalCompactEntries());
+        this.syncer = new RecordingSyncer(properties.getDurability(), properties.getGroupCommitIntervalMs(), journal,
+                meterRegistry);
+        try {
+            orphans.putAll(journal.load());
+        } catch (IOException e) {
+            log.error("[RecordingHandler] 读取录音日志失败，无法恢复上次运行遗留的录音: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 在后台并行恢复日志中上次运行没有最终化的会话，立即返回
+     */
+    @PostConstruct
+    public void recoverOrphanedRecordings() {
+        if (orphans.isEmpty()) {
+            return;
+        }
+        ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>(orphans.keySet());
+        int threads = Math.max(1, Math.min(recoveryThreads, pending.size()));
+        CountDownLatch done = new CountDownLatch(threads);
+        recovery = done;
+        log.info("[RecordingHandler] 有 {} 个会话的录音在上次运行中没有最终化，使用 {} 个后台线程恢复", pending.size(), threads);
+        long startNanos = System.nanoTime();
+        AtomicInteger sessions = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    String sessionId;
+                    while ((sessionId = pending.poll()) != null) {
+                        Map<String, Long> trackStarts = orphans.remove(sessionId);
+                        if (trackStarts != null) {
+                            recoverSession(sessionId, trackStarts);
+                            sessions.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    // 最后一个结束的线程压缩日志，之后才放行等待者
+                    if (running.decrementAndGet() == 0) {
+                        try {
+                            journal.compact();
+                        } catch (IOException e) {
+                            log.warn("[RecordingHandler] 压缩录音日志失败: {}", e.getMessage());
+                        }
+                        log.info("[RecordingHandler] 已恢复 {} 个会话：最终化 {} 条音轨，隔离 {} 条，用时 {} ms", sessions.get(),
+                                (long) recoveredTracks.count(), (long) quarantinedTracks.count(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    }
+                    done.countDown();
+                }
+            }, "speech-recording-recovery-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
 
     /**
-     * 记录一个音频数据块。
-     * 它会负责创建目录并将数据追加到用户的临时文件中。
+     * 等待启动时的恢复结束
+     *
+     * @return 是否在超时前结束
+     */
+    public boolean awaitRecovery(long timeout, TimeUnit unit) throws InterruptedException {
+        return recovery.await(timeout, unit);
+    }
+
+    /**
+     * 执行完已经提交的最终化任务，写完已经入队的数据，关闭所有音轨文件
+     */
+    @PreDestroy
+    public void shutdown() {
+        finalizer.shutdown();
+        try {
+            if (!finalizer.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("[RecordingHandler] 还有 {} 个会话没有完成录音最终化，临时文件保留在会话目录中",
+                        finalizer.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopped = true;
+        Thread writerThread = writer;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        syncer.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("[RecordingHandler] 关闭录音日志失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一个客户端自己封装的音频数据块（RAW），没有采集时间
+     */
+    public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio) {
+        recordAudioChunk(sessionId, userId, audio, -1, AudioCodec.RAW);
+    }
+
+    /**
+     * 记录一个音频数据块，并记下每条音轨的起始时间。
+     * 数据被复制进环形队列后由写线程追加到用户的临时文件中，调用线程不做磁盘操作，也从不等待；
+     * 写线程跟不上、队列已满时丢弃这一块，计入 speech.recording.dropped。
      * @param sessionId 当前的会话ID
      * @param userId 发送数据的用户ID
-     * @param audioData 音频数据
+     * @param audio 音频数据，只在调用期间有效，不能被保留
+     * @param captureMicros 数据块的采集时间（微秒），未知时为 -1
+     * @param codec 数据的编码：PCM16 写成 WAV，其余原样保存；音轨的第一个数据块决定整条音轨的格式
      */
-    public void recordAudioChunk(String sessionId, String userId, byte[] audioData) {
+    public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                                 AudioCodec codec) {
+        if (captureMicros >= 0) {
+            trackStartMicros.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>()).putIfAbsent(userId, captureMicros);
+        }
+        if (stopped) {
+            log.warn("[RecordingHandler] 录音器已关闭，丢弃用户 {} 在会话 {} 中的 {} 字节音频", userId, sessionId,
+                    audio.remaining());
+            return;
+        }
+        if (writer == null) {
+            startWriter();
+        }
+        long sequence = ring.tryClaim();
+        if (sequence < 0) {
+            droppedChunks.increment();
+            return;
+        }
+        ring.slot(sequence).fill(sessionId, userId, audio, captureMicros, codec, ring.getSlotBytes());
+        publish(sequence);
+    }
+
+    /**
+     * 已丢弃的数据块数
+     */
+    public long getDroppedChunks() {
+        return (long) droppedChunks.count();
+    }
+
+    private void publish(long sequence) {
+        ring.publish(sequence);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * 提交会话的录音最终化任务，立即返回。同一会话再次提交时覆盖之前的状态
+     *
+     * @return 提交后的状态：QUEUED，或队列已满时 REJECTED
+     */
+    public FinalizeState submitFinalization(String sessionId) {
+        FinalizeJob job = new FinalizeJob();
+        finalizeJobs.put(sessionId, job);
+        if (writer == null) {
+            finish(sessionId, job, FinalizeState.COMPLETED); // 从未录音，没有需要最终化的文件
+            return job.state;
+        }
         try {
-            // 拼接出当前会话的目录路径
-            Path sessionPath = artifactBasePath.resolve(sessionId);
-            // 如果目录不存在，则创建它
-            Files.createDirectories(sessionPath);
+            finalizer.execute(() -> runFinalization(sessionId, job));
+        } catch (RejectedExecutionException e) {
+            rejectedFinalizations.increment();
+            log.error("[RecordingHandler] 录音最终化队列已满，会话 {} 的临时文件保留在录音目录中，下次启动时恢复", sessionId);
+            // 只推迟改名：音轨文件和混音照样关闭，不占用文件句柄和内存
+            trackStartMicros.remove(sessionId);
+            releaseTracks(sessionId);
+            finish(sessionId, job, FinalizeState.REJECTED);
+        }
+        return job.state;
+    }
 
-            // 定义用户的临时录音文件路径
-            Path tempFilePath = sessionPath.resolve(userId + ".tmp");
-            // 使用追加模式将数据写入文件
-            try (OutputStream os = new FileOutputStream(tempFilePath.toFile(), true)) {
-                os.write(audioData);
+    /**
+     * 会话最近一次最终化任务的状态
+     *
+     * @return {sessionId, state, submittedAt, finishedAt, files}，没有提交过或状态已被淘汰时返回 null
+     */
+    public Map<String, Object> getFinalizationStatus(String sessionId) {
+        FinalizeJob job = finalizeJobs.get(sessionId);
+        if (job == null) {
+            return null;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("sessionId", sessionId);
+        status.put("state", job.state);
+        status.put("submittedAt", job.submittedAt);
+        status.put("finishedAt", job.finishedAt > 0 ? job.finishedAt : null);
+        status.put("files", job.files);
+        return status;
+    }
+
+    private void runFinalization(String sessionId, FinalizeJob job) {
+        job.state = FinalizeState.RUNNING;
+        FinalizeState result = FinalizeState.FAILED;
+        try {
+            if (finalizeSession(sessionId, job.files)) {
+                result = FinalizeState.COMPLETED;
             }
-        } catch (IOException e) {
-            log.error("[RecordingHandler] 为用户 {} 在会话 {} 中写入音频数据失败: {}", userId, sessionId, e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("[RecordingHandler] 会话 {} 的录音最终化失败: {}", sessionId, e.getMessage());
+        } finally {
+            finish(sessionId, job, result);
         }
     }
 
     /**
-     * 在会话结束时，将该会话的所有临时录音文件（.tmp）重命名为最终的MP4文件。
+     * 记录任务结果，淘汰最早结束的状态
+     */
+    private void finish(String sessionId, FinalizeJob job, FinalizeState state) {
+        job.finishedAt = System.currentTimeMillis();
+        job.state = state;
+        finishedJobs.add(sessionId);
+        if (finishedJobCount.incrementAndGet() > finalizeRetainedStatuses) {
+            String oldest = finishedJobs.poll();
+            if (oldest != null) {
+                finishedJobCount.decrementAndGet();
+                // 会话可能又提交了新的任务，只淘汰已经结束的
+                finalizeJobs.computeIfPresent(oldest, (k, existing) -> existing.state.isFinished() ? null : existing);
+            }
+        }
+    }
+
+    /**
+     * 在会话结束时，将该会话的所有临时录音文件（.tmp）结束封装并重命名为最终文件，在调用线程中执行。
+     * 先等待写线程写完该会话已经入队的数据并关闭音轨文件。
      * @param sessionId 需要处理的会话ID
      */
     public void finalizeSessionRecordings(String sessionId) {
+        finalizeSession(sessionId, new ArrayList<>());
+    }
+
+    /**
+     * @param files 收集生成的最终文件名
+     * @return 是否所有音轨都处理成功
+     */
+    private boolean finalizeSession(String sessionId, List<String> files) {
         Path sessionPath = artifactBasePath.resolve(sessionId);
+        Map<String, Long> trackStarts = trackStartMicros.remove(sessionId);
+        closeTracks(sessionId);
         if (!Files.exists(sessionPath)) {
             log.warn("[RecordingHandler] 找不到会话 {} 的录音目录，无需进行最终化处理。", sessionId);
-            return;
+            journalFinished(sessionId);
+            return true;
         }
 
         log.info("[RecordingHandler] 正在为会话 {} 进行录音文件最终化处理...", sessionId);
+        boolean succeeded = true;
+        List<Path> tempFiles;
         try (var stream = Files.list(sessionPath)) {
-            stream.filter(path -> path.toString().endsWith(".tmp"))
-                    .forEach(tempFile -> {
-                        try {
-                            String tempFileName = tempFile.getFileName().toString();
-                            // 从 "someUserId.tmp" 中提取出 "someUserId"
-                            String baseName = tempFileName.substring(0, tempFileName.lastIndexOf('.'));
-                            // 格式化成最终文件名: "[用户ID]-[会话ID].mp4"
-                            String finalFileName = String.format("%s-%s.mp4", baseName, sessionId);
-                            Path finalPath = sessionPath.resolve(finalFileName);
-
-                            Files.move(tempFile, finalPath);
-                            log.info("[RecordingHandler] 已完成录音文件: {}", finalPath);
-                        } catch (IOException e) {
-                            log.error("[RecordingHandler] 最终化处理文件 {} 失败: {}", tempFile, e.getMessage());
-                        }
-                    });
+            tempFiles = stream.filter(path -> path.toString().endsWith(".tmp")).collect(Collectors.toList());
         } catch (IOException e) {
             log.error("[RecordingHandler] 访问会话 {} 的录音目录失败: {}", sessionId, e.getMessage());
+            return false;
+        }
+        for (Path tempFile : tempFiles) {
+            try {
+                files.add(finalizeTrack(sessionPath, sessionId, tempFile));
+            } catch (IOException e) {
+                succeeded = false;
+                log.error("[RecordingHandler] 最终化处理文件 {} 失败: {}", tempFile, e.getMessage());
+            }
+        }
+        writeTrackStarts(sessionPath, sessionId, trackStarts);
+        if (succeeded) {
+            syncer.renamed(sessionPath);
+            journalFinished(sessionId); // 失败的音轨留在日志中，下次启动时恢复
+        }
+        return succeeded;
+    }
+
+    /**
+     * 结束一条音轨的封装并改名为最终文件
+     *
+     * @return 最终文件名
+     */
+    private String finalizeTrack(Path sessionPath, String sessionId, Path tempFile) throws IOException {
+        String tempFileName = tempFile.getFileName().toString();
+        // 从 "someUserId.tmp" 中提取出 "someUserId"
+        String baseName = tempFileName.substring(0, tempFileName.lastIndexOf('.'));
+        // WAV 回填长度并追加 seek 索引，其余按魔数确定扩展名
+        String extension = RecordingContainer.finish(tempFile, sessionPath.resolve(baseName + ".idx"));
+        // 格式化成最终文件名: "[用户ID]-[会话ID].[扩展名]"
+        String finalFileName = String.format("%s-%s.%s", baseName, sessionId, extension);
+        Path finalPath = sessionPath.resolve(finalFileName);
+
+        Files.move(tempFile, finalPath);
+        log.info("[RecordingHandler] 已完成录音文件: {}", finalPath);
+        return finalFileName;
+    }
+
+    /**
+     * 恢复上次运行遗留的一个会话：逐条最终化音轨，无法最终化的移入隔离目录，写出日志中记录的起始时间
+     */
+    private void recoverSession(String sessionId, Map<String, Long> trackStarts) {
+        Path sessionPath = artifactBasePath.resolve(sessionId);
+        if (!Files.isDirectory(sessionPath)) {
+            journalFinished(sessionId); // 音轨打开前就中断了，没有文件
+            return;
+        }
+        List<Path> tempFiles;
+        try (var stream = Files.list(sessionPath)) {
+            tempFiles = stream.filter(path -> path.toString().endsWith(".tmp")).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.error("[RecordingHandler] 访问会话 {} 的录音目录失败，下次启动时重试: {}", sessionId, e.getMessage());
+            return;
+        }
+        boolean succeeded = true;
+        for (Path tempFile : tempFiles) {
+            succeeded &= recoverTrack(sessionPath, sessionId, tempFile);
+        }
+        trackStarts.values().removeIf(startMicros -> startMicros < 0);
+        if (!Files.exists(sessionPath.resolve("tracks.properties"))) {
+            writeTrackStarts(sessionPath, sessionId, trackStarts);
+        }
+        if (succeeded) {
+            syncer.renamed(sessionPath);
+            journalFinished(sessionId);
+        }
+    }
+
+    /**
+     * @return 音轨是否已经最终化或隔离
+     */
+    private boolean recoverTrack(Path sessionPath, String sessionId, Path tempFile) {
+        try {
+            if (Files.isRegularFile(tempFile) && Files.size(tempFile) > 0) {
+                if (storage == RecordingStorage.MAPPED) {
+                    trimSegmentPadding(tempFile);
+                }
+                finalizeTrack(sessionPath, sessionId, tempFile);
+                recoveredTracks.increment();
+                return true;
+            }
+            log.warn("[RecordingHandler] 遗留的录音文件 {} 为空或不是普通文件，移入隔离目录", tempFile);
+        } catch (IOException e) {
+            log.warn("[RecordingHandler] 最终化遗留的录音文件 {} 失败，移入隔离目录: {}", tempFile, e.getMessage());
+        }
+        String tempFileName = tempFile.getFileName().toString();
+        Path index = sessionPath.resolve(tempFileName.substring(0, tempFileName.lastIndexOf('.')) + ".idx");
+        try {
+            Path quarantine = Files.createDirectories(artifactBasePath.resolve(QUARANTINE_DIR).resolve(sessionId));
+            Files.move(tempFile, quarantine.resolve(tempFileName), StandardCopyOption.REPLACE_EXISTING);
+            if (Files.exists(index)) {
+                Files.move(index, quarantine.resolve(index.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+            quarantinedTracks.increment();
+            return true;
+        } catch (IOException e) {
+            log.error("[RecordingHandler] 隔离录音文件 {} 失败，下次启动时重试: {}", tempFile, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * MAPPED 方式崩溃时最后一段没有截断，末尾是未写的 0。从末尾向前最多检查一段，截掉连续的 0，
+     * 长度向上对齐到 4 字节（单声道和双声道 16 位 PCM 的整帧）。
+     * 只处理还没有结束的 WAV：PCM 末尾的 0 是静音，多截掉的最多是一段末尾的静音；客户端封装的 RAW 数据末尾的 0
+     * 可能是容器的一部分，保持原样
+     */
+    private void trimSegmentPadding(Path tempFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (!RecordingContainer.isStreamingWav(channel)) {
+                return;
+            }
+            long size = channel.size();
+            long floor = Math.max(0, size - segmentBytes);
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            long end = size;
+            scan:
+            while (end > floor) {
+                int length = (int) Math.min(chunk.capacity(), end - floor);
+                chunk.clear().limit(length);
+                while (chunk.hasRemaining() && channel.read(chunk, end - length + chunk.position()) >= 0) {
+                    // 读满这一块
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (chunk.get(i) != 0) {
+                        end = end - length + i + 1;
+                        break scan;
+                    }
+                }
+                end -= length;
+            }
+            long trimmed = Math.min(size, (end + 3) & ~3L);
+            if (trimmed < size) {
+                channel.truncate(trimmed);
+            }
+        }
+    }
+
+    private void journalFinished(String sessionId) {
+        try {
+            journal.finished(sessionId);
+            syncer.journaled();
+        } catch (IOException e) {
+            log.warn("[RecordingHandler] 写入录音日志失败，下次启动时会再次检查会话 {}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 请求写线程关闭会话的所有音轨，并等待它处理完排在前面的数据
+     */
+    private void closeTracks(String sessionId) {
+        Thread writerThread = writer;
+        if (writerThread == null || stopped) {
+            return; // 从未录音，或写线程退出前会关闭所有音轨
+        }
+        long sequence;
+        while ((sequence = ring.tryClaim()) < 0) {
+            // 关闭请求不能丢弃，等写线程腾出槽位；这里是结束会话的线程，不在转发路径上
+            if (stopped) {
+                return;
+            }
+            LockSupport.parkNanos(CLOSE_RETRY_NANOS);
+        }
+        CountDownLatch closed = new CountDownLatch(1);
+        ring.slot(sequence).close(sessionId, closed);
+        publish(sequence);
+        try {
+            while (!closed.await(100, TimeUnit.MILLISECONDS)) {
+                if (!writerThread.isAlive()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 请求写线程关闭会话的所有音轨和混音，不等待；环形队列已满时推迟到写线程处理完当前这批数据
+     */
+    private void releaseTracks(String sessionId) {
+        Thread writerThread = writer;
+        if (writerThread == null || stopped) {
+            return;
+        }
+        long sequence = ring.tryClaim();
+        if (sequence < 0) {
+            deferredCloses.add(sessionId);
+            return;
+        }
+        ring.slot(sequence).close(sessionId, new CountDownLatch(1));
+        publish(sequence);
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        syncer.start();
+        Thread thread = new Thread(this::writeLoop, "speech-recording-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * 写线程：每次取走从 next 开始连续已发布的全部槽位，写完后才释放，槽位中的缓冲区在写入期间不会被覆盖。
+     * 没有数据时 park，生产者发布后唤醒；park 带超时，错过唤醒也只多等一个周期
+     */
+    private void writeLoop() {
+        long next = 0;
+        while (true) {
+            long last = ring.highestPublished(next);
+            if (last < next) {
+                if (stopped && ring.getClaimed() == next) {
+                    break; // 已关闭且全部写完
+                }
+                writerParked = true;
+                if (ring.highestPublished(next) < next && !stopped) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+                continue;
+            }
+            writeBatch(next, last);
+            next = last + 1;
+            ring.release(next);
+            String sessionId;
+            while ((sessionId = deferredCloses.poll()) != null) {
+                closeSession(sessionId);
+            }
+        }
+        for (Map<String, Track> sessionTracks : tracks.values()) {
+            for (Track track : sessionTracks.values()) {
+                track.close();
+            }
+        }
+        tracks.clear();
+        for (Map.Entry<String, RecordingMixer> entry : mixers.entrySet()) {
+            closeMixer(entry.getKey(), entry.getValue());
+        }
+        mixers.clear();
+    }
+
+    /**
+     * 按音轨合并序号 from 到 to 的槽位，每条音轨一次聚集写入；遇到关闭请求时先写完它之前的数据
+     */
+    private void writeBatch(long from, long to) {
+        Map<Track, List<ByteBuffer>> writes = new LinkedHashMap<>();
+        for (long sequence = from; sequence <= to; sequence++) {
+            RecordingRing.Slot item = ring.slot(sequence);
+            if (item.closed != null) {
+                flush(writes);
+                closeSession(item.sessionId);
+                item.closed.countDown();
+                continue;
+            }
+            Track track = tracks.computeIfAbsent(item.sessionId, k -> new HashMap<>())
+                    .computeIfAbsent(item.userId, k -> new Track(item.sessionId, item.userId));
+            if (track.prepare(item)) {
+                writes.computeIfAbsent(track, k -> new ArrayList<>()).add(ByteBuffer.wrap(item.data, 0, item.length));
+            }
+            if (properties.getMixdown() != RecordingMixdown.NONE && item.codec == AudioCodec.PCM16
+                    && item.captureMicros >= 0) {
+                mix(item);
+            }
+        }
+        flush(writes);
+    }
+
+    /**
+     * 关闭会话的所有音轨和混音，只在写线程中调用
+     */
+    private void closeSession(String sessionId) {
+        reclaimedTracks.remove(sessionId);
+        Map<String, Track> sessionTracks = tracks.remove(sessionId);
+        if (sessionTracks != null) {
+            for (Track track : sessionTracks.values()) {
+                track.close();
+            }
+        }
+        RecordingMixer mixer = mixers.remove(sessionId);
+        if (mixer != null) {
+            closeMixer(sessionId, mixer);
+        }
+    }
+
+    /**
+     * 把 PCM 数据块混入会话的混音，写入失败时放弃该会话的混音，单独的音轨不受影响
+     */
+    private void mix(RecordingRing.Slot item) {
+        RecordingMixer mixer = mixers.computeIfAbsent(item.sessionId, sessionId -> new RecordingMixer(
+                artifactBasePath.resolve(sessionId), storage, syncer, segmentBytes, sampleRate,
+                properties.getMixdown() == RecordingMixdown.STEREO ? 2 : 1, properties.getMixWindowMs(),
+                properties.getMixToleranceMs(), properties.getSeekIndexIntervalMs(), properties.getMixMaxGapMs(),
+                mixDiscontinuities));
+        try {
+            int late = mixer.mix(item.userId, item.data, item.length, item.captureMicros);
+            if (late > 0) {
+                lateMixFrames.increment(late);
+            }
+        } catch (IOException e) {
+            log.error("[RecordingHandler] 写入会话 {} 的混音失败，不再混音: {}", item.sessionId, e.getMessage());
+            mixer.fail();
+        }
+    }
+
+    private static void closeMixer(String sessionId, RecordingMixer mixer) {
+        try {
+            mixer.close();
+        } catch (IOException e) {
+            log.warn("[RecordingHandler] 关闭会话 {} 的混音失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private static void flush(Map<Track, List<ByteBuffer>> writes) {
+        for (Map.Entry<Track, List<ByteBuffer>> entry : writes.entrySet()) {
+            entry.getKey().write(entry.getValue());
+        }
+        writes.clear();
+    }
+
+    /**
+     * 写出各音轨的起始采集时间，格式为 "userId=微秒"，按相对时间差对齐各音轨
+     */
+    private void writeTrackStarts(Path sessionPath, String sessionId, Map<String, Long> trackStarts) {
+        if (trackStarts == null || trackStarts.isEmpty()) {
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, Long> entry : new TreeMap<>(trackStarts).entrySet()) {
+            content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        try {
+            Files.writeString(sessionPath.resolve("tracks.properties"), content);
+        } catch (IOException e) {
+            log.error("[RecordingHandler] 写入会话 {} 的音轨起始时间失败: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 一个会话的最终化任务，状态由最终化线程写入，查询线程读取
+     */
+    private static final class FinalizeJob {
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile FinalizeState state = FinalizeState.QUEUED;
+        private volatile long finishedAt;
+        // 执行任务的线程逐个加入，任务结束前查询到的是已经完成的部分
+        private final List<String> files = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * 一条音轨的临时文件，只在写线程中使用；第一个数据块到达时创建目录并打开，写入失败后关闭，下一批数据重新打开。
+     * PCM 音轨在空文件开头写 WAV 头，每隔 seekIntervalMicros 的采集时间记录一个索引项到 "{userId}.idx"
+     */
+    private final class Track {
+        private final String sessionId;
+        private final String userId;
+        private TrackFile file;
+        // PCM 音轨的索引，其余为 null
+        private SeekIndex seekIndex;
+        // 已写入和已排队的音频数据长度（不含 WAV 头），即下一个数据块在数据中的偏移
+        private long dataBytes;
+        // 下一个索引项的最早采集时间
+        private long nextSeekMicros = Long.MIN_VALUE;
+
+        private Track(String sessionId, String userId) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+        }
+
+        /**
+         * 打开文件并为数据块记录索引项
+         *
+         * @return 数据块是否可以写入
+         */
+        boolean prepare(RecordingRing.Slot item) {
+            if (file == null && !open(item)) {
+                return false;
+            }
+            if (seekIndex != null && item.captureMicros >= nextSeekMicros && item.captureMicros >= 0) {
+                try {
+                    seekIndex.add(item.captureMicros, dataBytes);
+                } catch (IOException e) {
+                    log.warn("[RecordingHandler] 写入用户 {} 在会话 {} 中的 seek 索引失败: {}", userId, sessionId, e.getMessage());
+                }
+                nextSeekMicros = item.captureMicros + seekIntervalMicros;
+            }
+            dataBytes += item.length;
+            return true;
+        }
+
+        private boolean open(RecordingRing.Slot item) {
+            AudioCodec codec = item.codec;
+            boolean reclaimed = claimOrphan();
+            try {
+                journal.opened(sessionId, userId, item.captureMicros);
+                syncer.journaled();
+            } catch (IOException e) {
+                log.warn("[RecordingHandler] 写入录音日志失败，崩溃后无法恢复用户 {} 在会话 {} 中的录音: {}", userId, sessionId,
+                        e.getMessage());
+            }
+            try {
+                Path sessionPath = artifactBasePath.resolve(sessionId);
+                if (!Files.isDirectory(sessionPath)) {
+                    Files.createDirectories(sessionPath);
+                    syncer.created(artifactBasePath);
+                }
+                Path tempFile = sessionPath.resolve(userId + ".tmp");
+                if (reclaimed && storage == RecordingStorage.MAPPED && Files.isRegularFile(tempFile)) {
+                    // 崩溃时最后一段没有截断，不截掉的话新数据接在未写的 0 之后
+                    trimSegmentPadding(tempFile);
+                }
+                file = TrackFile.open(tempFile, storage, segmentBytes, syncer.isDurable());
+                if (file.size() == 0) {
+                    syncer.created(sessionPath);
+                }
+                if (codec == AudioCodec.PCM16) {
+                    if (file.size() == 0) {
+                        file.append(new ByteBuffer[]{RecordingContainer.wavHeader(sampleRate, 1)});
+                    }
+                    dataBytes = file.size() - RecordingContainer.WAV_HEADER_BYTES;
+                    seekIndex = new SeekIndex(sessionPath.resolve(userId + ".idx"));
+                }
+                return true;
+            } catch (IOException e) {
+                log.error("[RecordingHandler] 为用户 {} 在会话 {} 中打开录音文件失败: {}", userId, sessionId, e.getMessage());
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * 会话在上次运行中没有最终化、又开始录音时，由本次运行接着录完，恢复线程不再处理它
+         *
+         * @return 本音轨的临时文件是否是上次运行遗留的
+         */
+        private boolean claimOrphan() {
+            Map<String, Long> previousStarts = orphans.remove(sessionId);
+            if (previousStarts != null) {
+                Map<String, Long> starts = trackStartMicros.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>());
+                previousStarts.forEach((user, startMicros) -> {
+                    if (startMicros >= 0) {
+                        starts.merge(user, startMicros, Math::min);
+                    }
+                });
+                reclaimedTracks.computeIfAbsent(sessionId, k -> new HashSet<>()).addAll(previousStarts.keySet());
+            }
+            Set<String> users = reclaimedTracks.get(sessionId);
+            return users != null && users.remove(userId);
+        }
+
+        void write(List<ByteBuffer> buffers) {
+            try {
+                file.append(buffers.toArray(new ByteBuffer[0]));
+                syncer.written(file);
+            } catch (IOException e) {
+                log.error("[RecordingHandler] 为用户 {} 在会话 {} 中写入音频数据失败: {}", userId, sessionId, e.getMessage());
+                close();
+            }
+        }
+
+        void close() {
+            if (seekIndex != null) {
+                try {
+                    seekIndex.close();
+                } catch (IOException e) {
+                    log.warn("[RecordingHandler] 写入用户 {} 在会话 {} 中的 seek 索引失败: {}", userId, sessionId, e.getMessage());
+                }
+                seekIndex = null;
+            }
+            if (file == null) {
+                return;
+            }
+            try {
+                syncer.closing(file);
+            } catch (IOException e) {
+                log.error("[RecordingHandler] 用户 {} 在会话 {} 中的录音文件落盘失败: {}", userId, sessionId, e.getMessage());
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.warn("[RecordingHandler] 关闭用户 {} 在会话 {} 中的录音文件失败: {}", userId, sessionId, e.getMessage());
+            }
+            file = null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 录音目录下的追加式日志 "recording.journal"，记录哪些会话还有没有最终化的音轨，进程崩溃或重启后据此找回遗留的临时文件。
+ * <p>
+ * 每行一条记录，以制表符分隔：音轨打开时写 "T 会话ID 用户ID 起始采集时间"，会话最终化之后写 "D 会话ID"。
+ * 没有换行结尾的最后一行是崩溃时写了一半的记录，读取时忽略。内存中保存所有未完成会话的音轨，
+ * 已完成的记录累计到 compactEntries 条时把未完成的部分写成新文件原子替换，日志的大小与未完成的会话数成正比。
+ * 各方法加锁，由写线程、最终化线程和恢复线程调用；只在音轨打开和会话结束时写入，不在数据块的路径上。
+ * 追加的记录由 {@link RecordingSyncer} 按落盘策略调用 {@link #force}，压缩时总是先落盘再替换。
+ */
+class RecordingJournal implements Closeable {
+    static final String NAME = "recording.journal";
+
+    private final Path path;
+    private final int compactEntries;
+    // sessionId -> (userId -> 起始采集时间，微秒，未知时为 -1)，按第一次出现的顺序
+    private final Map<String, Map<String, Long>> open = new LinkedHashMap<>();
+    // 上次压缩之后写入的已完成记录数
+    private int finishedSinceCompact;
+    private FileChannel file;
+    // 上次落盘之后是否追加过记录，是否新建或替换过文件
+    private boolean unsynced;
+    private boolean directoryUnsynced;
+
+    RecordingJournal(Path directory, int compactEntries) {
+        this.path = directory.resolve(NAME);
+        this.compactEntries = compactEntries;
+    }
+
+    /**
+     * 读取已有的日志并压缩
+     *
+     * @return 上次运行遗留的未完成会话：sessionId -> (userId -> 起始采集时间)
+     */
+    synchronized Map<String, Map<String, Long>> load() throws IOException {
+        if (!Files.exists(path)) {
+            return new LinkedHashMap<>();
+        }
+        String content = Files.readString(path, StandardCharsets.UTF_8);
+        int lineStart = 0;
+        int lineEnd;
+        while ((lineEnd = content.indexOf('\n', lineStart)) >= 0) {
+            String[] fields = content.substring(lineStart, lineEnd).split("\t");
+            lineStart = lineEnd + 1;
+            if (fields.length == 4 && fields[0].equals("T")) {
+                try {
+                    open.computeIfAbsent(fields[1], k -> new LinkedHashMap<>())
+                            .putIfAbsent(fields[2], Long.parseLong(fields[3]));
+                } catch (NumberFormatException ignored) {
+                    // 损坏的记录
+                }
+            } else if (fields.length == 2 && fields[0].equals("D")) {
+                open.remove(fields[1]);
+            }
+        }
+        compact();
+        Map<String, Map<String, Long>> orphans = new LinkedHashMap<>();
+        open.forEach((sessionId, users) -> orphans.put(sessionId, new LinkedHashMap<>(users)));
+        return orphans;
+    }
+
+    /**
+     * 记录一条打开的音轨，同一音轨只记录一次
+     *
+     * @return 是否可以记录：ID 中含有制表符或换行时不记录
+     */
+    synchronized boolean opened(String sessionId, String userId, long startMicros) throws IOException {
+        if (!isRecordable(sessionId) || !isRecordable(userId)) {
+            return false;
+        }
+        Map<String, Long> users = open.computeIfAbsent(sessionId, k -> new LinkedHashMap<>());
+        if (users.putIfAbsent(userId, startMicros) == null) {
+            append("T\t" + sessionId + "\t" + userId + "\t" + startMicros + "\n");
+        }
+        return true;
+    }
+
+    /**
+     * 记录会话已经最终化，不再需要恢复
+     */
+    synchronized void finished(String sessionId) throws IOException {
+        if (open.remove(sessionId) == null) {
+            return;
+        }
+        append("D\t" + sessionId + "\n");
+        if (++finishedSinceCompact >= compactEntries) {
+            compact();
+        }
+    }
+
+    /**
+     * 把未完成的会话写成新的日志，落盘后原子替换旧文件，断电时不会留下空的日志
+     */
+    synchronized void compact() throws IOException {
+        closeFile();
+        StringBuilder content = new StringBuilder();
+        open.forEach((sessionId, users) -> users.forEach((userId, startMicros) ->
+                content.append("T\t").append(sessionId).append('\t').append(userId).append('\t')
+                        .append(startMicros).append('\n')));
+        Path compacted = path.resolveSibling(NAME + ".compact");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finishedSinceCompact = 0;
+        directoryUnsynced = true;
+    }
+
+    /**
+     * 把追加的记录和新建或替换日志文件的目录项落盘，fsync 时不持有锁，不阻塞写线程记录新的音轨
+     *
+     * @return 是否有需要落盘的内容
+     */
+    boolean force() throws IOException {
+        FileChannel channel;
+        boolean directory;
+        synchronized (this) {
+            channel = unsynced ? file : null;
+            directory = directoryUnsynced;
+            unsynced = false;
+            directoryUnsynced = false;
+        }
+        if (channel != null) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // 同时被压缩替换，压缩时已经落盘
+            }
+        }
+        if (directory) {
+            try (FileChannel parent = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+                parent.force(true);
+            }
+        }
+        return channel != null || directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeFile();
+    }
+
+    private void append(String record) throws IOException {
+        if (file == null) {
+            Files.createDirectories(path.getParent());
+            directoryUnsynced |= !Files.exists(path);
+            file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            file.write(bytes);
+        }
+        unsynced = true;
+    }
+
+    private void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private static boolean isRecordable(String id) {
+        return id.indexOf('\t') < 0 && id.indexOf('\n') < 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 会话混音轨的声道布局
+ */
+public enum RecordingMixdown {
+    /**
+     * 不生成混音轨，只保留每人一条的音轨
+     */
+    NONE,
+    /**
+     * 立体声：第一个说话的人在左声道，第二个在右声道；多人房间按说话顺序交替分配
+     */
+    STEREO,
+    /**
+     * 所有人混成单声道
+     */
+    MONO
+}
@@ -0,0 +1,223 @@
+package com.example.deeptalk.modules.speech.service;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个会话所有 PCM 音轨的流式混音，只在录音写线程中使用，结果是会话目录下的 "mixdown.tmp"（流式 WAV）。
+ * <p>
+ * 以会话第一个数据块的采集时间为零点，每个数据块按采集时间换算成帧位置，叠加进一个固定大小的环形窗口
+ * （mixWindowMs 的采样，饱和相加）。窗口装不下新数据时，把最早的部分写出并清零，所以内存固定，不需要事后整体处理；
+ * 没有任何音轨覆盖的时间自然是静音。同一音轨相邻数据块的采集时间偏差在容差内时紧接上一块，保持音轨本身连续；
+ * 超过容差时按采集时间留出静音。到达太晚、位置已经写出的采样被丢弃并返回给调用者计数。
+ * 采集时间来自客户端，向前跳过超过 maxGapMs 时不按它留出静音（否则一个数据块就能让写线程写出任意长的空白），
+ * 而是把音轨重新锚定到它原来的位置接着写，之后的数据块按新的时钟继续，每次记为一次不连续。
+ * <p>
+ * 各声道对应的用户在关闭时写入 "mixdown.properties"，格式为 "userId=声道"。
+ */
+class RecordingMixer implements Closeable {
+    static final String NAME = "mixdown";
+
+    private final Path sessionPath;
+    private final RecordingStorage storage;
+    private final RecordingSyncer syncer;
+    private final int segmentBytes;
+    private final int sampleRate;
+    private final int channels;
+    private final int blockAlign;
+    private final int windowFrames;
+    private final long toleranceFrames;
+    private final long seekIntervalFrames;
+    private final long maxGapFrames;
+    // 采集时间跳得太远而重新锚定的次数
+    private final Counter discontinuities;
+    // userId -> 音轨，按第一次出现的顺序分配声道
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    private TrackFile file;
+    private SeekIndex seekIndex;
+    // 环形窗口，小端 16 位采样，第一个数据块到达时分配
+    private ByteBuffer window;
+    // 打开时文件中已有的音频数据长度
+    private long dataBase;
+    private long originMicros;
+    // 已写出的帧数，窗口中保存 [flushed, flushed + windowFrames) 的帧
+    private long flushed;
+    // 已混入的最后一帧之后
+    private long end;
+    private long nextSeekFrame;
+    private boolean failed;
+
+    RecordingMixer(Path sessionPath, RecordingStorage storage, RecordingSyncer syncer, int segmentBytes,
+                   int sampleRate, int channels, int windowMs, int toleranceMs, int seekIntervalMs, int maxGapMs,
+                   Counter discontinuities) {
+        this.sessionPath = sessionPath;
+        this.storage = storage;
+        this.syncer = syncer;
+        this.segmentBytes = segmentBytes;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.blockAlign = channels * 2;
+        this.windowFrames = Math.max(1, (int) ((long) sampleRate * windowMs / 1000));
+        this.toleranceFrames = (long) sampleRate * toleranceMs / 1000;
+        this.seekIntervalFrames = Math.max(1, (long) sampleRate * seekIntervalMs / 1000);
+        this.maxGapFrames = (long) sampleRate * maxGapMs / 1000;
+        this.discontinuities = discontinuities;
+    }
+
+    /**
+     * 混入一个单声道 16 位小端 PCM 数据块
+     *
+     * @param captureMicros 数据块的采集时间（微秒）
+     * @return 因为到达太晚而丢弃的帧数
+     */
+    int mix(String userId, byte[] data, int length, long captureMicros) throws IOException {
+        int frames = length / 2;
+        if (failed || frames == 0) {
+            return 0;
+        }
+        if (file == null) {
+            open(captureMicros);
+        }
+        long at = Math.floorDiv((captureMicros - originMicros) * sampleRate, 1_000_000L);
+        Lane lane = lanes.get(userId);
+        if (lane == null) {
+            // 采集时钟比已经写出的部分还早（客户端时钟偏慢），整条音轨后移到能放下的位置
+            lane = new Lane(lanes.size() % channels, Math.max(0, flushed - at));
+            lanes.put(userId, lane);
+        }
+        at += lane.shiftFrames;
+        if (at - end > maxGapFrames) {
+            // 比已混入的部分还晚太多：接在音轨原来的位置（新的音轨接在混音末尾），之后按新的时钟对齐
+            long anchor = lane.next >= 0 ? lane.next : end;
+            lane.shiftFrames += anchor - at;
+            at = anchor;
+            discontinuities.increment();
+        }
+        if (lane.next >= 0 && at - lane.next <= toleranceFrames) {
+            at = lane.next; // 抖动以内或采集时间回退：紧接上一块，同一音轨不重叠
+        }
+        lane.next = at + frames;
+        if (at + frames > flushed + windowFrames) {
+            flushTo(at + frames - windowFrames);
+        }
+        int late = (int) Math.max(0, Math.min(frames, flushed - at));
+        int channelOffset = lane.channel * 2;
+        for (int i = late; i < frames; i++) {
+            int offset = (int) ((at + i) % windowFrames) * blockAlign + channelOffset;
+            int sample = window.getShort(offset) + (short) ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8));
+            window.putShort(offset, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        }
+        end = Math.max(end, at + frames);
+        return late;
+    }
+
+    /**
+     * 写入失败后放弃这个会话的混音，之后的数据块直接忽略
+     */
+    void fail() {
+        failed = true;
+        try {
+            closeFiles();
+        } catch (IOException ignored) {
+            // 已经失败，只释放文件
+        }
+    }
+
+    /**
+     * 写出窗口中剩余的部分和声道对应关系
+     */
+    @Override
+    public void close() throws IOException {
+        if (failed || file == null) {
+            return;
+        }
+        try {
+            flushTo(end);
+            StringBuilder content = new StringBuilder();
+            for (Map.Entry<String, Lane> entry : lanes.entrySet()) {
+                content.append(entry.getKey()).append('=').append(entry.getValue().channel).append('\n');
+            }
+            Files.writeString(sessionPath.resolve(NAME + ".properties"), content);
+        } finally {
+            closeFiles();
+        }
+    }
+
+    private void open(long captureMicros) throws IOException {
+        Files.createDirectories(sessionPath);
+        file = TrackFile.open(sessionPath.resolve(NAME + ".tmp"), storage, segmentBytes, syncer.isDurable());
+        if (file.size() == 0) {
+            file.append(new ByteBuffer[]{RecordingContainer.wavHeader(sampleRate, channels)});
+            syncer.created(sessionPath);
+        }
+        dataBase = file.size() - RecordingContainer.WAV_HEADER_BYTES;
+        seekIndex = new SeekIndex(sessionPath.resolve(NAME + ".idx"));
+        window = ByteBuffer.allocate(windowFrames * blockAlign).order(ByteOrder.LITTLE_ENDIAN);
+        originMicros = captureMicros;
+    }
+
+    /**
+     * 把 target 之前的帧写出并清零，每跨过一个索引间隔记录一个索引项
+     */
+    private void flushTo(long target) throws IOException {
+        if (flushed >= target) {
+            return;
+        }
+        while (flushed < target) {
+            int start = (int) (flushed % windowFrames);
+            int frames = (int) Math.min(target - flushed, windowFrames - start);
+            while (nextSeekFrame < flushed + frames) {
+                seekIndex.add(originMicros + nextSeekFrame * 1_000_000L / sampleRate,
+                        dataBase + nextSeekFrame * blockAlign);
+                nextSeekFrame += seekIntervalFrames;
+            }
+            ByteBuffer piece = window.duplicate();
+            piece.limit((start + frames) * blockAlign).position(start * blockAlign);
+            file.append(new ByteBuffer[]{piece});
+            Arrays.fill(window.array(), start * blockAlign, (start + frames) * blockAlign, (byte) 0);
+            flushed += frames;
+        }
+        syncer.written(file);
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            if (seekIndex != null) {
+                seekIndex.close();
+            }
+        } finally {
+            if (file != null) {
+                try {
+                    syncer.closing(file);
+                } finally {
+                    file.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一名说话者在混音中的声道和位置
+     */
+    private static final class Lane {
+        private final int channel;
+        private long shiftFrames;
+        // 下一块紧接上一块时的位置
+        private long next = -1;
+
+        private Lane(int channel, long shiftFrames) {
+            this.channel = channel;
+            this.shiftFrames = shiftFrames;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 回放已经最终化的会话录音，支持 HTTP Range、ETag 和条件请求。
+ * <p>
+ * 最终化之后的文件不再改变，ETag 由文件长度和修改时间组成。响应体不经过堆：Tomcat 的 NIO 连接器支持 sendfile 时
+ * 只设置文件和区间，由连接器在请求线程之外直接从文件发送到套接字；否则用 {@link FileChannel#transferTo} 分段写入响应流。
+ * 只支持单个区间，多个区间时忽略 Range 返回整个文件。
+ */
+@Service
+@Slf4j
+public class RecordingPlaybackService {
+    // Tomcat 的 sendfile 请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // 更小的区间直接写入更快，与 Tomcat DefaultServlet 的默认阈值相同
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+    // 会话ID和文件名只允许这些字符，且不能以 '.' 开头，不会跳出录音目录
+    private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9._-]*");
+    // 可以回放的扩展名；录音中的 .tmp 和 .idx 不对外提供
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "wav", "audio/wav",
+            "webm", "audio/webm",
+            "ogg", "audio/ogg",
+            "mp4", "audio/mp4",
+            "raw", "application/octet-stream",
+            "properties", "text/plain;charset=UTF-8");
+
+    private final Path artifactBasePath;
+
+    @Autowired
+    public RecordingPlaybackService(SpeechRecordingProperties properties) {
+        this.artifactBasePath = Paths.get(properties.getArtifactPath());
+    }
+
+    /**
+     * 会话目录中可以回放的文件
+     *
+     * @return 每个文件 {name, size, lastModified, contentType}，按文件名排序；会话没有录音目录时返回 null
+     */
+    public List<Map<String, Object>> listRecordings(String sessionId) throws IOException {
+        if (!SAFE_NAME.matcher(sessionId).matches()) {
+            return null;
+        }
+        Path sessionPath = artifactBasePath.resolve(sessionId);
+        if (!Files.isDirectory(sessionPath)) {
+            return null;
+        }
+        List<Path> files;
+        try (var stream = Files.list(sessionPath)) {
+            files = stream.filter(path -> contentType(path.getFileName().toString()) != null)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<Map<String, Object>> recordings = new ArrayList<>();
+        for (Path file : files) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            String name = file.getFileName().toString();
+            Map<String, Object> recording = new LinkedHashMap<>();
+            recording.put("name", name);
+            recording.put("size", attributes.size());
+            recording.put("lastModified", attributes.lastModifiedTime().toMillis());
+            recording.put("contentType", contentType(name));
+            recordings.add(recording);
+        }
+        return recordings;
+    }
+
+    /**
+     * 回放一个录音文件：200 整个文件，206 一个区间，304 ETag 未变，404 不存在，416 区间超出文件
+     */
+    public void serve(String sessionId, String fileName, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String contentType = contentType(fileName);
+        if (contentType == null || !SAFE_NAME.matcher(sessionId).matches()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path file = artifactBasePath.resolve(sessionId).resolve(fileName);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = attributes.size();
+        String etag = "\"" + Long.toHexString(size) + "-"
+                + Long.toHexString(attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS)) + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setDateHeader("Last-Modified", attributes.lastModifiedTime().toMillis());
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds != null && bounds.length == 0) {
+                response.setHeader("Content-Range", "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        response.setContentType(contentType);
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return;
+        }
+
+        if (length >= SENDFILE_MIN_BYTES && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 由连接器发送，结束位置不含
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long sent = channel.transferTo(position, end + 1 - position, out);
+                if (sent <= 0) {
+                    break; // 文件被截短
+                }
+                position += sent;
+            }
+        } catch (IOException e) {
+            // 客户端在传输途中断开（浏览器拖动进度条时很常见）
+            log.debug("[RecordingPlaybackService] 发送 {}/{} 中断: {}", sessionId, fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * 解析单个字节区间 "bytes=a-b"、"bytes=a-" 或 "bytes=-n"
+     *
+     * @return {起点, 终点（含）}；格式不合法或有多个区间时返回 null，按整个文件处理；区间超出文件时返回空数组
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0 || size == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(spec.substring(0, dash));
+            long end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= size) {
+                return new long[0];
+            }
+            return new long[]{start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 可以回放的文件的内容类型，其余返回 null
+     */
+    private static String contentType(String fileName) {
+        if (!SAFE_NAME.matcher(fileName).matches()) {
+            return null;
+        }
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? null : CONTENT_TYPES.get(fileName.substring(dot + 1));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 转发线程和录音写线程之间的多生产者、单消费者环形队列。
+ * <p>
+ * 槽位数固定为 2 的幂，每个槽位持有一块复用的数据缓冲区，第一次使用时分配，之后入队不再分配内存。
+ * 生产者用 CAS 递增 claimed 分配序号，把数据复制进对应的槽位后写入该槽位的发布序号；
+ * 唯一的消费者按序号顺序读取连续已发布的槽位，处理完后推进 consumed，槽位才能被再次分配。
+ * 分配时 claimed 领先 consumed 一整圈即为满，生产者立即得到失败而不是等待，全程不加锁。
+ */
+class RecordingRing {
+    private final Slot[] slots;
+    private final int mask;
+    private final int slotBytes;
+    // 下一个要分配的序号
+    private final AtomicLong claimed = new AtomicLong();
+    // 每个槽位最后一次发布的序号，消费者据此判断槽位中的数据是否已经写好
+    private final AtomicLongArray published;
+    // 消费者已经处理完的序号上界（不含），只由消费者写入
+    private volatile long consumed;
+
+    /**
+     * @param capacity 槽位数，向上取整到 2 的幂
+     * @param slotBytes 每个槽位复用的缓冲区大小，更大的数据块单独分配
+     */
+    RecordingRing(int capacity, int slotBytes) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.slotBytes = slotBytes;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * 分配一个槽位，分配到的槽位必须随后 {@link #publish}
+     *
+     * @return 序号，队列已满时返回 -1
+     */
+    long tryClaim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    Slot slot(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    int getSlotBytes() {
+        return slotBytes;
+    }
+
+    /**
+     * 槽位数据写好，对消费者可见
+     */
+    void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /**
+     * 消费者调用：从 next 开始连续已发布的最后一个序号，一次最多一整圈
+     *
+     * @return 最后一个可读的序号，next 还没有发布时返回 next - 1
+     */
+    long highestPublished(long next) {
+        long last = next - 1;
+        while (last + 1 - next < slots.length && published.get((int) (last + 1) & mask) == last + 1) {
+            last++;
+        }
+        return last;
+    }
+
+    /**
+     * 消费者调用：upTo 之前的槽位已经处理完，可以重新分配
+     */
+    void release(long upTo) {
+        consumed = upTo;
+    }
+
+    /**
+     * 已经分配的序号总数，等于消费者处理完所有数据后的 consumed
+     */
+    long getClaimed() {
+        return claimed.get();
+    }
+
+    /**
+     * 已分配但消费者还没有处理完的槽位数
+     */
+    int getDepth() {
+        return (int) (claimed.get() - consumed);
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * 一个槽位：一个音频数据块，或 closed 不为 null 时关闭 sessionId 所有音轨的请求
+     */
+    static final class Slot {
+        String sessionId;
+        String userId;
+        byte[] data;
+        int length;
+        // 数据块的采集时间（微秒），未知时为 -1
+        long captureMicros;
+        AudioCodec codec;
+        CountDownLatch closed;
+        // 复用的缓冲区
+        private byte[] buffer;
+
+        void fill(String sessionId, String userId, ByteBuffer audio, long captureMicros, AudioCodec codec,
+                  int slotBytes) {
+            int size = audio.remaining();
+            if (size <= slotBytes) {
+                if (buffer == null) {
+                    buffer = new byte[slotBytes];
+                }
+                data = buffer;
+            } else {
+                data = new byte[size];
+            }
+            audio.get(data, 0, size);
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.length = size;
+            this.captureMicros = captureMicros;
+            this.codec = codec;
+            this.closed = null;
+        }
+
+        void close(String sessionId, CountDownLatch closed) {
+            this.sessionId = sessionId;
+            this.userId = null;
+            this.data = null;
+            this.length = 0;
+            this.codec = null;
+            this.closed = closed;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.deeptalk.modules.speech.service;
+
+/**
+ * 录音临时文件的写入方式
+ */
+public enum RecordingStorage {
+    /**
+     * 用文件通道追加，文件随每次写入增长
+     */
+    APPEND,
+    /**
+     * 按固定大小的段扩展文件并通过内存映射写入，写满一段再映射下一段，关闭时截掉最后一段未用的部分
+     */
+    MAPPED
+}
@@ -0,0 +1,202 @@
+package com.example.deeptalk.modules.speech.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按 {@link RecordingDurability} 把录音文件落盘。
+ * <p>
+ * 写线程每次写入音轨后调用 {@link #written}：PER_FRAME 立即 fdatasync；GROUP 只把文件标记为脏并放进队列，
+ * 由一个后台线程每隔一个间隔取走队列中的全部文件逐个 fdatasync，一次落盘覆盖该间隔内所有音轨的写入，
+ * 写线程从不等待磁盘。新建文件所在的目录和录音日志同样按策略落盘，断电后文件和恢复记录都还在。
+ * 关闭音轨前总是落盘一次，最终化的文件是完整的。MAPPED 写入的页由 {@link TrackFile#force} 另行 msync。
+ * 每次 fsync 的耗时记入 speech.recording.fsync。
+ */
+@Slf4j
+class RecordingSyncer {
+    private final RecordingDurability durability;
+    private final long intervalNanos;
+    private final RecordingJournal journal;
+    private final Timer fsyncTimer;
+    // GROUP：上次落盘之后写过的文件和新建了文件的目录
+    private final ConcurrentLinkedQueue<TrackFile> dirtyFiles = new ConcurrentLinkedQueue<>();
+    private final Set<Path> dirtyDirectories = ConcurrentHashMap.newKeySet();
+    private volatile Thread flusher;
+    private volatile boolean stopped;
+
+    RecordingSyncer(RecordingDurability durability, int groupCommitIntervalMs, RecordingJournal journal,
+                    MeterRegistry meterRegistry) {
+        this.durability = durability;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitIntervalMs);
+        this.journal = journal;
+        this.fsyncTimer = Timer.builder("speech.recording.fsync")
+                .description("Time spent in fsync of recording files")
+                .register(meterRegistry);
+    }
+
+    /**
+     * GROUP：启动后台落盘线程，可以重复调用
+     */
+    synchronized void start() {
+        if (durability != RecordingDurability.GROUP || flusher != null || stopped) {
+            return;
+        }
+        Thread thread = new Thread(this::flushLoop, "speech-recording-flusher");
+        thread.setDaemon(true);
+        flusher = thread;
+        thread.start();
+    }
+
+    /**
+     * 是否会对录音文件落盘，即策略不是 NONE
+     */
+    boolean isDurable() {
+        return durability != RecordingDurability.NONE;
+    }
+
+    /**
+     * 写线程写入文件之后调用
+     */
+    void written(TrackFile file) throws IOException {
+        if (durability == RecordingDurability.PER_FRAME) {
+            force(file);
+        } else if (durability == RecordingDurability.GROUP && !file.dirty) {
+            // 落盘线程先清除标记再 fsync，清除之后的写入会重新入队
+            file.dirty = true;
+            dirtyFiles.add(file);
+        }
+    }
+
+    /**
+     * 在 directory 中新建了文件（或新建了 directory 本身，此时传入它的上级目录）
+     */
+    void created(Path directory) {
+        if (durability == RecordingDurability.PER_FRAME) {
+            forceDirectory(directory);
+        } else if (durability == RecordingDurability.GROUP) {
+            dirtyDirectories.add(directory);
+        }
+    }
+
+    /**
+     * 录音日志新增记录之后调用
+     */
+    void journaled() {
+        if (durability == RecordingDurability.PER_FRAME) {
+            forceJournal();
+        }
+    }
+
+    /**
+     * 关闭文件之前调用，除 NONE 外总是落盘
+     */
+    void closing(TrackFile file) throws IOException {
+        if (durability != RecordingDurability.NONE) {
+            force(file);
+        }
+    }
+
+    /**
+     * 会话最终化改名之后调用：目录项落盘后才能在日志中记录会话已完成
+     */
+    void renamed(Path directory) {
+        if (durability != RecordingDurability.NONE) {
+            forceDirectory(directory);
+        }
+    }
+
+    /**
+     * 停止落盘线程，最后落盘一次
+     */
+    void shutdown() {
+        stopped = true;
+        Thread thread = flusher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        long next = System.nanoTime() + intervalNanos;
+        while (!stopped) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            flushGroup();
+            next += intervalNanos;
+            if (next < System.nanoTime()) {
+                next = System.nanoTime() + intervalNanos; // 落盘比间隔还慢时不追赶
+            }
+        }
+        flushGroup();
+    }
+
+    /**
+     * 落盘队列中的全部文件、新建文件的目录和录音日志
+     */
+    private void flushGroup() {
+        TrackFile file;
+        while ((file = dirtyFiles.poll()) != null) {
+            file.dirty = false;
+            try {
+                force(file);
+            } catch (ClosedChannelException e) {
+                // 写线程已经关闭音轨，关闭前已经落盘
+            } catch (IOException e) {
+                log.warn("[RecordingSyncer] 录音文件落盘失败: {}", e.getMessage());
+            }
+        }
+        for (Path directory : dirtyDirectories) {
+            dirtyDirectories.remove(directory);
+            forceDirectory(directory);
+        }
+        forceJournal();
+    }
+
+    private void force(TrackFile file) throws IOException {
+        long start = System.nanoTime();
+        file.force();
+        fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void forceJournal() {
+        try {
+            long start = System.nanoTime();
+            if (journal.force()) {
+                fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        } catch (IOException e) {
+            log.warn("[RecordingSyncer] 录音日志落盘失败: {}", e.getMessage());
+        }
+    }
+
+    private void forceDirectory(Path directory) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+            fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            // 有的平台不能打开目录，只能依赖文件系统自己的顺序
+            log.debug("[RecordingSyncer] 目录 {} 落盘失败: {}", directory, e.getMessage());
+        }
+    }
+}
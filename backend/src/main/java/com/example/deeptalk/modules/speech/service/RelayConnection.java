@@ -0,0 +1,722 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 专用转发监听器上的一个 WebSocket 连接（RFC 6455），实现 {@link WebSocketSession}，
+ * 因此 {@link SpeechWebSocketHandler}、{@link ForwardingService} 和 {@link OutboundQueue} 不区分连接来自哪个监听器。
+ * <p>
+ * 读取和协议解析只在所属事件循环的线程中进行，数据直接在事件循环共享的读缓冲区中解掩码并交给处理器，
+ * 只有跨越两次读取的不完整帧才暂存到连接自己的缓冲区。
+ * 发送可能来自任意线程，由对象锁串行化：先尝试直接写出，写不完的部分暂存，由事件循环在可写时继续写出；
+ * 暂存超过上限时发送方等待，和 Servlet 容器的阻塞发送一样把背压交给 {@link OutboundQueue}。
+ * 事件循环线程自己从不等待，否则同一循环上的所有连接都会停顿：它发送的控制帧（握手响应、pong、关闭帧）
+ * 照常暂存，直到暂存达到上限的两倍；数据帧和超出两倍上限的控制帧以 SESSION_NOT_RELIABLE 关闭连接。
+ */
+@Slf4j
+public class RelayConnection implements WebSocketSession {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_BYTES = 8192;
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private final String id;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    // 所属事件循环的线程
+    private final Thread loopThread;
+    private final RelayServer server;
+    private final SpeechWebSocketHandler handler;
+    private final SpeechRelayProperties.Listener properties;
+    private final AtomicBoolean terminated = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile Map<String, Object> attributes;
+    private URI uri;
+    private HttpHeaders handshakeHeaders = new HttpHeaders();
+
+    // 以下只在事件循环线程中使用
+    private boolean handshakeDone;
+    // 上次读取剩下的不完整数据，写入模式
+    private ByteBuffer partial;
+    // 分片消息的已收部分，写入模式
+    private ByteBuffer fragments;
+    private int fragmentOpcode;
+    // 校验并解码文本消息，遇到非法的 UTF-8 时报错
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+
+    // 以下由 this 保护
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(10);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    // 还没有写出的数据，写入模式
+    private ByteBuffer pendingWrite;
+    private boolean closeAfterFlush;
+    private CloseStatus closingStatus;
+    // 以下两个只在事件循环线程中读写
+    private final long acceptedNanos = System.nanoTime();
+    private long lastReadNanos = acceptedNanos;
+
+    RelayConnection(String id, SocketChannel channel, SelectionKey key, Thread loopThread, RelayServer server,
+                    SpeechWebSocketHandler handler, SpeechRelayProperties.Listener properties) {
+        this.id = id;
+        this.channel = channel;
+        this.key = key;
+        this.loopThread = loopThread;
+        this.server = server;
+        this.handler = handler;
+        this.properties = properties;
+    }
+
+    // ---------------------------------------------------------------- 事件循环
+
+    /**
+     * 读取并处理到达的数据，只在事件循环线程中调用
+     *
+     * @param readBuffer 事件循环共享的读缓冲区
+     */
+    void onReadable(ByteBuffer readBuffer) {
+        readBuffer.clear();
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            terminate(CloseStatus.NO_CLOSE_FRAME);
+            return;
+        }
+        if (read < 0) {
+            terminate(CloseStatus.NO_CLOSE_FRAME);
+            return;
+        }
+        lastReadNanos = System.nanoTime();
+        readBuffer.flip();
+        ByteBuffer in = readBuffer;
+        if (partial != null) {
+            partial = ensureCapacity(partial, readBuffer.remaining());
+            partial.put(readBuffer);
+            partial.flip();
+            in = partial;
+        }
+        try {
+            process(in);
+        } catch (ProtocolViolation e) {
+            log.debug("[RelayConnection] 连接 {} 违反协议: {}", id, e.getMessage());
+            close(e.status);
+            return;
+        }
+        if (!in.hasRemaining() || terminated.get()) {
+            partial = null;
+        } else if (in == partial) {
+            partial.compact();
+        } else {
+            partial = ByteBuffer.allocate(Math.max(4096, in.remaining() * 2));
+            partial.put(in);
+        }
+    }
+
+    /**
+     * 继续写出暂存的数据，只在事件循环线程中调用
+     */
+    synchronized void onWritable() {
+        try {
+            if (pendingWrite != null) {
+                pendingWrite.flip();
+                channel.write(pendingWrite);
+                pendingWrite.compact();
+                if (pendingWrite.position() == 0) {
+                    // 写完后释放暂存缓冲区，空闲连接不占用写缓冲
+                    pendingWrite = null;
+                }
+            }
+            if (pendingWrite == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                if (closeAfterFlush) {
+                    terminate(closingStatus);
+                }
+            }
+        } catch (IOException e) {
+            terminate(CloseStatus.NO_CLOSE_FRAME);
+        } finally {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 检查握手和空闲期限，只在事件循环线程中调用。
+     * <p>
+     * 握手期限从接受连接时算起，逐字节发送请求头也不能延长；空闲的连接先发送关闭帧，
+     * 关闭帧再过一个空闲期限仍未写出（对方不读）时直接断开
+     */
+    void checkDeadlines(long now) {
+        if (terminated.get()) {
+            return;
+        }
+        if (!handshakeDone) {
+            long limit = properties.getHandshakeTimeoutMs();
+            if (limit > 0 && now - acceptedNanos > TimeUnit.MILLISECONDS.toNanos(limit)) {
+                log.debug("[RelayConnection] 连接 {} 未在 {} ms 内完成握手", id, limit);
+                terminate(CloseStatus.PROTOCOL_ERROR);
+            }
+            return;
+        }
+        long limit = properties.getIdleTimeoutMs();
+        if (limit > 0 && now - lastReadNanos > TimeUnit.MILLISECONDS.toNanos(limit)) {
+            if (open) {
+                log.debug("[RelayConnection] 连接 {} 空闲超过 {} ms", id, limit);
+                lastReadNanos = now;
+                close(CloseStatus.GOING_AWAY);
+            } else {
+                terminate(CloseStatus.GOING_AWAY);
+            }
+        }
+    }
+
+    private void process(ByteBuffer in) throws ProtocolViolation {
+        while (in.hasRemaining() && !terminated.get()) {
+            if (!handshakeDone) {
+                if (!readHandshake(in)) {
+                    return;
+                }
+            } else if (!readFrame(in)) {
+                return;
+            }
+        }
+    }
+
+    private boolean readHandshake(ByteBuffer in) {
+        int end = -1;
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i + 4;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.remaining() > MAX_HANDSHAKE_BYTES) {
+                reject("431 Request Header Fields Too Large");
+            }
+            return false;
+        }
+        byte[] bytes = new byte[end - in.position()];
+        in.get(bytes);
+        String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        HttpHeaders headers = new HttpHeaders();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        String target = requestLine.length == 3 ? requestLine[1] : "";
+        int query = target.indexOf('?');
+        String path = query < 0 ? target : target.substring(0, query);
+        String key = headers.getFirst("Sec-WebSocket-Key");
+        if (!"GET".equals(requestLine[0]) || !RelayServer.PATH.equals(path)
+                || !"websocket".equalsIgnoreCase(headers.getUpgrade()) || key == null
+                || !"13".equals(headers.getFirst("Sec-WebSocket-Version"))) {
+            reject("400 Bad Request");
+            return false;
+        }
+        this.handshakeHeaders = headers;
+        this.uri = URI.create("ws://" + (headers.getFirst(HttpHeaders.HOST) != null
+                ? headers.getFirst(HttpHeaders.HOST) : "localhost") + target);
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+        try {
+            write(null, ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            terminate(CloseStatus.NO_CLOSE_FRAME);
+            return false;
+        }
+        handshakeDone = true;
+        open = true;
+        try {
+            handler.afterConnectionEstablished(this);
+        } catch (Exception e) {
+            log.error("[RelayConnection] 处理新连接 {} 失败: {}", id, e.getMessage(), e);
+        }
+        return true;
+    }
+
+    private void reject(String status) {
+        try {
+            write(null, ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: 0\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            // 连接马上关闭
+        }
+        terminate(CloseStatus.PROTOCOL_ERROR);
+    }
+
+    /**
+     * 解析一个完整的帧，数据不完整时返回 false 且不移动 position
+     */
+    private boolean readFrame(ByteBuffer in) throws ProtocolViolation {
+        int start = in.position();
+        if (in.remaining() < 2) {
+            return false;
+        }
+        int b0 = in.get(start) & 0xFF;
+        int b1 = in.get(start + 1) & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        if ((b0 & 0x70) != 0) {
+            throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "reserved bits set");
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "client frame is not masked");
+        }
+        long length = b1 & 0x7F;
+        int headerLength = 2;
+        if (length == 126) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            length = in.getShort(start + 2) & 0xFFFF;
+            headerLength = 4;
+        } else if (length == 127) {
+            if (in.remaining() < 10) {
+                return false;
+            }
+            length = in.getLong(start + 2);
+            headerLength = 10;
+        }
+        if (length < 0 || length > properties.getMaxMessageBytes()) {
+            throw new ProtocolViolation(CloseStatus.TOO_BIG_TO_PROCESS, "frame of " + length + " bytes");
+        }
+        boolean control = (opcode & 0x8) != 0;
+        if (control && (!fin || length > 125)) {
+            throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "invalid control frame");
+        }
+        headerLength += 4;
+        if (in.remaining() < headerLength + length) {
+            return false;
+        }
+        int maskKey = in.getInt(start + headerLength - 4);
+        int payloadStart = start + headerLength;
+        int payloadEnd = payloadStart + (int) length;
+        unmask(in, payloadStart, payloadEnd, maskKey);
+        in.position(payloadEnd);
+        ByteBuffer payload = in.slice(payloadStart, (int) length);
+        dispatch(fin, opcode, payload);
+        return true;
+    }
+
+    private void dispatch(boolean fin, int opcode, ByteBuffer payload) throws ProtocolViolation {
+        switch (opcode) {
+            case OP_TEXT:
+            case OP_BINARY:
+                if (fragments != null) {
+                    throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "new message inside a fragmented one");
+                }
+                if (fin) {
+                    deliver(opcode, payload);
+                } else {
+                    fragmentOpcode = opcode;
+                    fragments = ByteBuffer.allocate(Math.max(4096, payload.remaining() * 2));
+                    fragments.put(payload);
+                }
+                break;
+            case OP_CONTINUATION:
+                if (fragments == null) {
+                    throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "unexpected continuation");
+                }
+                if (fragments.position() + payload.remaining() > properties.getMaxMessageBytes()) {
+                    throw new ProtocolViolation(CloseStatus.TOO_BIG_TO_PROCESS, "fragmented message too big");
+                }
+                fragments = ensureCapacity(fragments, payload.remaining());
+                fragments.put(payload);
+                if (fin) {
+                    ByteBuffer message = fragments.flip();
+                    fragments = null;
+                    deliver(fragmentOpcode, message);
+                }
+                break;
+            case OP_PING:
+                try {
+                    write(OP_PONG, payload);
+                } catch (IOException e) {
+                    terminate(CloseStatus.NO_CLOSE_FRAME);
+                }
+                break;
+            case OP_PONG:
+                break;
+            case OP_CLOSE:
+                CloseStatus status = CloseStatus.NO_STATUS_CODE;
+                if (payload.remaining() >= 2) {
+                    int code = payload.getShort(0) & 0xFFFF;
+                    status = code >= 1000 && code < 5000 ? new CloseStatus(code) : CloseStatus.PROTOCOL_ERROR;
+                }
+                close(status);
+                break;
+            default:
+                throw new ProtocolViolation(CloseStatus.PROTOCOL_ERROR, "unknown opcode " + opcode);
+        }
+    }
+
+    /**
+     * 把完整的消息交给处理器；文本消息不是合法的 UTF-8 时以 1007 关闭连接（RFC 6455 8.1）
+     */
+    private void deliver(int opcode, ByteBuffer payload) throws ProtocolViolation {
+        WebSocketMessage<?> message;
+        if (opcode == OP_BINARY) {
+            message = new BinaryMessage(payload);
+        } else {
+            try {
+                message = new TextMessage(utf8.decode(payload));
+            } catch (CharacterCodingException e) {
+                throw new ProtocolViolation(CloseStatus.BAD_DATA, "text message is not valid UTF-8");
+            }
+        }
+        try {
+            handler.handleMessage(this, message);
+        } catch (Exception e) {
+            log.error("[RelayConnection] 连接 {} 处理消息失败: {}", id, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按 4 字节掩码原地解掩码，每次处理 8 字节
+     */
+    static void unmask(ByteBuffer buffer, int from, int to, int maskKey) {
+        long mask = ((long) maskKey << 32) | (maskKey & 0xFFFFFFFFL);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            buffer.putLong(i, buffer.getLong(i) ^ mask);
+        }
+        for (; i < to; i++) {
+            buffer.put(i, (byte) (buffer.get(i) ^ (maskKey >>> (24 - 8 * ((i - from) & 3)))));
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------- 发送
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (!open) {
+            throw new IOException("Connection " + id + " is closed");
+        }
+        if (message instanceof BinaryMessage) {
+            write(OP_BINARY, ((BinaryMessage) message).getPayload());
+        } else if (message instanceof TextMessage) {
+            write(OP_TEXT, ByteBuffer.wrap(((TextMessage) message).asBytes()));
+        } else if (message instanceof PingMessage) {
+            write(OP_PING, ((PingMessage) message).getPayload());
+        } else if (message instanceof PongMessage) {
+            write(OP_PONG, ((PongMessage) message).getPayload());
+        } else {
+            throw new IllegalArgumentException("Unsupported message type: " + message.getClass());
+        }
+    }
+
+    /**
+     * 写出一帧（opcode 为 null 时写出原始字节），写不完的部分暂存。payload 在返回时已被完全消费。
+     */
+    private synchronized void write(Integer opcode, ByteBuffer payload) throws IOException {
+        awaitPendingBelowLimit(opcode == null || (opcode & 0x8) != 0);
+        frameHeader.clear();
+        if (opcode != null) {
+            int length = payload.remaining();
+            frameHeader.put((byte) (0x80 | opcode));
+            if (length < 126) {
+                frameHeader.put((byte) length);
+            } else if (length <= 0xFFFF) {
+                frameHeader.put((byte) 126);
+                frameHeader.putShort((short) length);
+            } else {
+                frameHeader.put((byte) 127);
+                frameHeader.putLong(length);
+            }
+        }
+        frameHeader.flip();
+        try {
+            if (pendingWrite == null) {
+                gather[0] = frameHeader;
+                gather[1] = payload;
+                try {
+                    channel.write(gather);
+                } finally {
+                    gather[1] = null;
+                }
+                if (!frameHeader.hasRemaining() && !payload.hasRemaining()) {
+                    return;
+                }
+            }
+            appendPending(frameHeader);
+            appendPending(payload);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        } catch (IOException | RuntimeException e) {
+            terminate(CloseStatus.NO_CLOSE_FRAME);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private void appendPending(ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        if (pendingWrite == null) {
+            pendingWrite = ByteBuffer.allocate(Math.max(4096, data.remaining() * 2));
+        }
+        pendingWrite = ensureCapacity(pendingWrite, data.remaining());
+        pendingWrite.put(data);
+    }
+
+    /**
+     * 暂存达到上限时在其他线程中等待事件循环写出，超时关闭连接；事件循环线程不等待
+     *
+     * @param control 是否是控制帧或原始字节
+     */
+    private void awaitPendingBelowLimit(boolean control) throws IOException {
+        if (pendingWrite == null || pendingWrite.position() < properties.getMaxPendingWriteBytes()) {
+            return;
+        }
+        if (Thread.currentThread() == loopThread) {
+            if (control && pendingWrite.position() < 2L * properties.getMaxPendingWriteBytes()) {
+                return;
+            }
+            terminate(CloseStatus.SESSION_NOT_RELIABLE);
+            throw new IOException("Send buffer of connection " + id + " is full");
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getSendTimeoutMs());
+        while (pendingWrite != null && pendingWrite.position() >= properties.getMaxPendingWriteBytes()
+                && !terminated.get()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                terminate(CloseStatus.SESSION_NOT_RELIABLE);
+                throw new IOException("Send to connection " + id + " timed out");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending to connection " + id);
+            }
+        }
+        if (terminated.get()) {
+            throw new IOException("Connection " + id + " is closed");
+        }
+    }
+
+    // ---------------------------------------------------------------- 关闭
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    /**
+     * 发送关闭帧，写出后关闭连接；可以在任意线程中调用
+     */
+    @Override
+    public void close(CloseStatus status) {
+        synchronized (this) {
+            if (!open || terminated.get()) {
+                if (!handshakeDone) {
+                    terminate(status);
+                }
+                return;
+            }
+            open = false;
+            closingStatus = status;
+            ByteBuffer payload = ByteBuffer.allocate(2);
+            if (status.getCode() != CloseStatus.NO_STATUS_CODE.getCode()
+                    && status.getCode() != CloseStatus.NO_CLOSE_FRAME.getCode()) {
+                payload.putShort((short) status.getCode());
+            }
+            payload.flip();
+            try {
+                write(OP_CLOSE, payload);
+            } catch (IOException e) {
+                return;
+            }
+            if (pendingWrite != null) {
+                closeAfterFlush = true;
+                return;
+            }
+        }
+        terminate(status);
+    }
+
+    /**
+     * 关闭底层连接并通知处理器，只执行一次
+     */
+    void terminate(CloseStatus status) {
+        if (!terminated.compareAndSet(false, true)) {
+            return;
+        }
+        boolean established = handshakeDone;
+        open = false;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        synchronized (this) {
+            pendingWrite = null;
+            notifyAll();
+        }
+        server.onTerminated(this);
+        if (established) {
+            try {
+                handler.afterConnectionClosed(this, status);
+            } catch (Exception e) {
+                log.error("[RelayConnection] 连接 {} 关闭处理失败: {}", id, e.getMessage(), e);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- WebSocketSession
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return handshakeHeaders;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        Map<String, Object> map = attributes;
+        if (map == null) {
+            synchronized (this) {
+                if (attributes == null) {
+                    attributes = new ConcurrentHashMap<>();
+                }
+                map = attributes;
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        try {
+            return (InetSocketAddress) channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return properties.getMaxMessageBytes();
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return properties.getMaxMessageBytes();
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    private static final class ProtocolViolation extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient CloseStatus status;
+
+        ProtocolViolation(CloseStatus status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+}
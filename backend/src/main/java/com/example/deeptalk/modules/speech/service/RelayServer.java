@@ -0,0 +1,270 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 独立端口上的专用音频转发监听器，与 Servlet 容器中的 /api/speech/ws 并存，使用相同的处理器和协议。
+ * <p>
+ * 一个接受线程加上固定数量的事件循环线程，每个事件循环用一个 {@link Selector} 管理一批连接，
+ * 并持有一块共享的直接内存读缓冲区；连接不占用线程，也不持有常驻的读写缓冲区，
+ * 因此连接数只受文件描述符和内存限制，而不是线程数。
+ * <p>
+ * 连接数有上限；事件循环定期检查握手和空闲期限，不完成握手或不发数据的连接不会一直占着名额。
+ */
+@Slf4j
+public class RelayServer {
+    public static final String PATH = "/api/speech/ws";
+    private static final byte[] REFUSED = "HTTP/1.1 503 Service Unavailable\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    private final SpeechWebSocketHandler handler;
+    private final SpeechRelayProperties.Listener properties;
+    private final Set<RelayConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connectionIds = new AtomicLong();
+    // 已接受但还没有结束的连接，包括还在排队等待事件循环注册的
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicLong refused = new AtomicLong();
+    private final List<EventLoop> loops = new ArrayList<>();
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public RelayServer(SpeechWebSocketHandler handler, SpeechRelayProperties.Listener properties) {
+        this.handler = handler;
+        this.properties = properties;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        int loopCount = properties.getEventLoops() > 0
+                ? properties.getEventLoops() : Runtime.getRuntime().availableProcessors();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(properties.getPort()), 1024);
+        running = true;
+        for (int i = 0; i < loopCount; i++) {
+            EventLoop loop = new EventLoop(i);
+            loops.add(loop);
+            loop.thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "speech-listener-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("[RelayServer] 专用转发监听器已启动: port={}, eventLoops={}", getPort(), loopCount);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.warn("[RelayServer] 关闭监听端口失败: {}", e.getMessage());
+        }
+        for (RelayConnection connection : connections) {
+            connection.close(CloseStatus.GOING_AWAY);
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        try {
+            acceptor.join(1000);
+            for (EventLoop loop : loops) {
+                loop.thread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (RelayConnection connection : connections) {
+            connection.terminate(CloseStatus.GOING_AWAY);
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.selector.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+        loops.clear();
+        log.info("[RelayServer] 专用转发监听器已停止");
+    }
+
+    /**
+     * @return 实际监听的端口，配置为 0 时由系统分配
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return 因达到连接数上限而拒绝的连接数
+     */
+    public long getRefusedCount() {
+        return refused.get();
+    }
+
+    void onTerminated(RelayConnection connection) {
+        if (connections.remove(connection)) {
+            admitted.decrementAndGet();
+        }
+    }
+
+    /**
+     * 检查期限的间隔：最短期限的四分之一，不超过 1 秒；两个期限都不限制时为 0，不检查
+     */
+    private long checkInterval() {
+        long shortest = Long.MAX_VALUE;
+        for (long limit : new long[]{properties.getHandshakeTimeoutMs(), properties.getIdleTimeoutMs()}) {
+            if (limit > 0) {
+                shortest = Math.min(shortest, limit);
+            }
+        }
+        return shortest == Long.MAX_VALUE ? 0 : Math.max(10, Math.min(1000, shortest / 4));
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                if (admitted.incrementAndGet() > properties.getMaxConnections()) {
+                    admitted.decrementAndGet();
+                    refuse(channel);
+                    continue;
+                }
+                channel.socket().setTcpNoDelay(true);
+                loops.get(next).register(channel);
+                next = (next + 1) % loops.size();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("[RelayServer] 接受连接失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 达到连接数上限时回复 503 后关闭；新连接的发送缓冲区是空的，非阻塞写一次即可写完
+     */
+    private void refuse(SocketChannel channel) {
+        long count = refused.incrementAndGet();
+        log.debug("[RelayServer] 连接数达到上限 {}，拒绝新连接，累计 {}", properties.getMaxConnections(), count);
+        try (channel) {
+            channel.write(ByteBuffer.wrap(REFUSED));
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer;
+        private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private final long checkIntervalMs = checkInterval();
+        private long nextCheckNanos;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.readBuffer = ByteBuffer.allocateDirect(properties.getReadBufferBytes());
+            this.thread = new Thread(this, "speech-listener-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(this::onSelected, checkIntervalMs);
+                    registerAccepted();
+                    checkDeadlines();
+                } catch (ClosedSelectorException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    log.error("[RelayServer] 事件循环异常: {}", e.getMessage(), e);
+                }
+            }
+        }
+
+        private void onSelected(SelectionKey key) {
+            RelayConnection connection = (RelayConnection) key.attachment();
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+        }
+
+        private void checkDeadlines() {
+            if (checkIntervalMs == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - nextCheckNanos < 0) {
+                return;
+            }
+            nextCheckNanos = now + TimeUnit.MILLISECONDS.toNanos(checkIntervalMs);
+            for (SelectionKey key : selector.keys()) {
+                RelayConnection connection = (RelayConnection) key.attachment();
+                if (connection != null) {
+                    connection.checkDeadlines(now);
+                }
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    RelayConnection connection = new RelayConnection("relay-" + connectionIds.incrementAndGet(),
+                            channel, key, thread, RelayServer.this, handler, properties);
+                    key.attach(connection);
+                    connections.add(connection);
+                } catch (IOException e) {
+                    log.warn("[RelayServer] 注册连接失败: {}", e.getMessage());
+                    admitted.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // 忽略
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一名说话者最近转发的音频，供断线重连的接收者补发错过的部分。
+ * <p>
+ * 字节数组从空开始按需倍增，到达容量上限后不再分配，断线后对方一直没说话时几乎不占内存；
+ * 数据按记录首尾相接写入环形的数组，空间不够时覆盖最早的记录，记录可以跨过数组末尾。
+ * 写入只复制数据，不产生新的对象；补发只在重连时发生，允许分配。
+ * 每条记录为 {@value #RECORD_HEADER} 字节的记录头（长度 i32、序号 i32、采集时间 i64、编码 u8）加音频数据。
+ * 写入在说话者的转发线程中，读取在重连的注册线程中，由对象锁串行化。
+ */
+public class ReplayBuffer {
+    static final int RECORD_HEADER = 17;
+
+    private static final int INITIAL_BYTES = 4096;
+
+    private final int capacity;
+    private byte[] data = new byte[0];
+    // 最早一条记录的起点、下一条记录的写入位置、已用字节数
+    private int head;
+    private int tail;
+    private int used;
+    private int records;
+
+    public ReplayBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 追加一帧，不改变 payload 的 position；单帧超过容量时不保存
+     */
+    public synchronized void write(ByteBuffer payload, AudioCodec codec, int sequence, long captureMicros) {
+        int length = payload.remaining();
+        int recordBytes = RECORD_HEADER + length;
+        if (recordBytes > capacity) {
+            return;
+        }
+        while (data.length - used < recordBytes) {
+            if (data.length < capacity) {
+                grow(Math.min(capacity, Math.max(Math.max(INITIAL_BYTES, data.length * 2), used + recordBytes)));
+                continue;
+            }
+            int evicted = RECORD_HEADER + getInt(head);
+            head = wrap(head + evicted);
+            used -= evicted;
+            records--;
+        }
+        putInt(tail, length);
+        putInt(tail + 4, sequence);
+        putLong(tail + 8, captureMicros);
+        data[wrap(tail + 16)] = (byte) codec.getId();
+        int at = wrap(tail + RECORD_HEADER);
+        int first = Math.min(length, data.length - at);
+        payload.get(payload.position(), data, at, first);
+        if (first < length) {
+            payload.get(payload.position() + first, data, 0, length - first);
+        }
+        tail = wrap(at + length);
+        used += recordBytes;
+        records++;
+    }
+
+    /**
+     * 按写入顺序回调序号在 afterSequence 之后的记录
+     *
+     * @param afterSequence 接收者已经收到的最后一个序号，null 表示全部补发
+     * @return 回调的记录数
+     */
+    public synchronized int replay(Integer afterSequence, Consumer consumer) {
+        int at = head;
+        int replayed = 0;
+        for (int i = 0; i < records; i++) {
+            int length = getInt(at);
+            int sequence = getInt(at + 4);
+            if (afterSequence == null || sequence - afterSequence > 0) {
+                byte[] payload = new byte[length];
+                int start = wrap(at + RECORD_HEADER);
+                int first = Math.min(length, data.length - start);
+                System.arraycopy(data, start, payload, 0, first);
+                System.arraycopy(data, 0, payload, first, length - first);
+                consumer.accept(AudioCodec.fromId(data[wrap(at + 16)] & 0xFF), sequence, getLong(at + 8),
+                        ByteBuffer.wrap(payload));
+                replayed++;
+            }
+            at = wrap(at + RECORD_HEADER + length);
+        }
+        return replayed;
+    }
+
+    public synchronized int getRecordCount() {
+        return records;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 换成更大的数组，已有记录按顺序搬到开头
+     */
+    private void grow(int length) {
+        byte[] grown = new byte[length];
+        int first = Math.min(used, data.length - head);
+        System.arraycopy(data, head, grown, 0, first);
+        System.arraycopy(data, 0, grown, first, used - first);
+        data = grown;
+        head = 0;
+        tail = used;
+    }
+
+    private int wrap(int index) {
+        return index >= data.length ? index - data.length : index;
+    }
+
+    private void putInt(int at, int value) {
+        for (int i = 0; i < 4; i++) {
+            data[wrap(at + i)] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    private int getInt(int at) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (data[wrap(at + i)] & 0xFF);
+        }
+        return value;
+    }
+
+    private void putLong(int at, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[wrap(at + i)] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private long getLong(int at) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[wrap(at + i)] & 0xFF);
+        }
+        return value;
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        /**
+         * @param payload 记录数据的副本
+         */
+        void accept(AudioCodec codec, int sequence, long captureMicros, ByteBuffer payload);
+    }
+}
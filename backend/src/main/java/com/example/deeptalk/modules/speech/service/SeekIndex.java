@@ -0,0 +1,67 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 一条 WAV 音轨录音期间的 seek 索引文件，只在录音写线程中使用。
+ * <p>
+ * 索引项攒在固定大小的缓冲区中，写满或关闭时追加到文件，第一次写出时才创建文件；
+ * 会话结束时由 {@link RecordingContainer#finish} 整体拷贝进 WAV 的 seek 块。
+ */
+class SeekIndex implements Closeable {
+    // 缓冲的索引项数
+    private static final int BUFFER_ENTRIES = 256;
+
+    private final Path path;
+    private final ByteBuffer entries = ByteBuffer.allocate(BUFFER_ENTRIES * RecordingContainer.SEEK_ENTRY_BYTES);
+    private FileChannel file;
+
+    SeekIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @param dataOffset 该采集时间的数据在音频数据中的偏移（不含 WAV 头）
+     */
+    void add(long captureMicros, long dataOffset) throws IOException {
+        RecordingContainer.putSeekEntry(entries, captureMicros, dataOffset);
+        if (!entries.hasRemaining()) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        entries.flip();
+        try {
+            if (file == null) {
+                file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            while (entries.hasRemaining()) {
+                file.write(entries);
+            }
+        } finally {
+            // 写入失败时丢弃这些索引项，索引只用于定位
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (entries.position() > 0) {
+                flush();
+            }
+        } finally {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无全局锁的分片匹配器（FIFO 模式，不考虑英语水平）。
+ * <p>
+ * 每个分片是一个只能停放一名等待者的槽位（深度为 1 的队列）：FIFO 匹配下任何两名用户都可以配对，
+ * 所以只要有人在等，新到达的用户就会直接带走他，系统里长期等待的用户不会超过分片数。
+ * 配对只依赖对槽位的 CAS，一名等待者只能被一次 CAS 从槽位中取走，因此不会被重复配对。
+ * 用户到匹配状态的索引保存在 {@link ConcurrentHashMap} 中，查询为 O(1)。
+ */
+@Slf4j
+public class ShardedMatchmaker implements Matchmaker {
+    // 槽位之间的间隔（以引用为单位），避免相邻分片落在同一缓存行上产生伪共享
+    private static final int SLOT_STRIDE = 16;
+
+    private final int shardCount;
+    private final AtomicReferenceArray<Ticket> slots;
+    // userId -> 正在匹配中的票据
+    private final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final MatchListener listener;
+
+    public ShardedMatchmaker(MatchListener listener) {
+        this(Runtime.getRuntime().availableProcessors(), listener);
+    }
+
+    public ShardedMatchmaker(int shardCount, MatchListener listener) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        this.shardCount = shardCount;
+        this.slots = new AtomicReferenceArray<>(shardCount * SLOT_STRIDE);
+        this.listener = listener;
+    }
+
+    /**
+     * 为用户发起匹配。
+     * 若当前有其他用户在等待，则立即在调用线程中与其配对（调用方成为主动方）；
+     * 否则将用户停放在某个分片上，等待之后到达的用户把他带走。
+     */
+    @Override
+    public void enqueue(String userId, EnglishLevel level) {
+        Ticket me = new Ticket(userId, ThreadLocalRandom.current().nextInt(shardCount));
+        if (tickets.putIfAbsent(userId, me) != null) {
+            throw new IllegalStateException("User is already pending: " + userId);
+        }
+
+        while (true) {
+            Ticket opponent = takeWaiting(me.shard);
+            if (opponent != null) {
+                pair(me, opponent);
+                return;
+            }
+            if (!slots.compareAndSet(slotIndex(me.shard), null, me)) {
+                // 本分片刚被其他人占用，重新扫描时就能把他带走
+                Thread.onSpinWait();
+                continue;
+            }
+            // 发布之后必须再检查一次：两个用户可能同时扫描到空分片，再分别停放在不同分片上。
+            // 后发布者的复查一定能看到先发布者，所以不会出现双方互相看不见而一起超时。
+            if (findWaiting(me.shard) < 0) {
+                return;
+            }
+            if (!slots.compareAndSet(slotIndex(me.shard), me, null)) {
+                // 已经被别人带走，对方会负责回调
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public boolean cancel(String userId) {
+        Ticket ticket = tickets.get(userId);
+        if (ticket == null) {
+            return false;
+        }
+        // 只有仍停放在槽位上的票据可以被取消，否则说明已经被配对者取走
+        if (slots.compareAndSet(slotIndex(ticket.shard), ticket, null)) {
+            tickets.remove(userId, ticket);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isPending(String userId) {
+        return tickets.containsKey(userId);
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    private Ticket takeWaiting(int home) {
+        for (int i = 0; i < shardCount; i++) {
+            int slot = slotIndex((home + i) % shardCount);
+            Ticket waiting = slots.get(slot);
+            if (waiting != null && slots.compareAndSet(slot, waiting, null)) {
+                return waiting;
+            }
+        }
+        return null;
+    }
+
+    private int findWaiting(int home) {
+        for (int i = 1; i < shardCount; i++) {
+            int shard = (home + i) % shardCount;
+            if (slots.get(slotIndex(shard)) != null) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    private void pair(Ticket initiator, Ticket waiting) {
+        tickets.remove(initiator.userId, initiator);
+        tickets.remove(waiting.userId, waiting);
+        log.debug("[ShardedMatchmaker] 配对成功: {} <-> {}", initiator.userId, waiting.userId);
+        listener.onMatched(initiator.userId, waiting.userId, UUID.randomUUID().toString());
+    }
+
+    private static int slotIndex(int shard) {
+        return shard * SLOT_STRIDE;
+    }
+
+    private static class Ticket {
+        private final String userId;
+        private final int shard;
+
+        Ticket(String userId, int shard) {
+            this.userId = userId;
+            this.shard = shard;
+        }
+    }
+}
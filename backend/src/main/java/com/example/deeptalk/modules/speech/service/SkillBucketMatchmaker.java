@@ -0,0 +1,225 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按英语水平分桶的匹配器。
+ * <p>
+ * 每个等级对应一个 FIFO 桶。等待者可接受的等级差（半径）随等待时间增长而放宽，
+ * 两名用户的等级差不超过双方半径中的较大者即可配对。由于同一个桶内越早到达的用户半径越大，
+ * 只需检查每个桶的队首即可判断整个桶能否提供对手，所以寻找对手的代价只与等级数有关，与排队人数无关。
+ * <p>
+ * 新到达的用户会立即尝试配对；后台任务定期为各桶队首重新匹配，使放宽后的半径生效，
+ * 同时也处理两名用户同时入队而互相错过的情况。
+ */
+@Slf4j
+public class SkillBucketMatchmaker implements Matchmaker {
+    private static final int LEVELS = EnglishLevel.values().length;
+    // 等级未知的用户放在中间的桶里，并且接受任意等级的对手
+    private static final int DEFAULT_BUCKET = LEVELS / 2;
+
+    private static final int WAITING = 0;
+    private static final int RESERVED = 1; // 后台任务正在为其寻找对手，期间不能被其他人配对
+    private static final int MATCHED = 2;
+    private static final int CANCELLED = 3;
+
+    private final List<ConcurrentLinkedQueue<Ticket>> buckets;
+    // userId -> 正在匹配中的票据
+    private final ConcurrentHashMap<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final MatchListener listener;
+    private final long widenStepNanos;
+    private final int maxRadius;
+    private final ScheduledFuture<?> sweeper;
+
+    public SkillBucketMatchmaker(MatchListener listener, ScheduledExecutorService scheduler,
+                                 long widenStepMillis, int maxRadius, long sweepIntervalMillis) {
+        this.listener = listener;
+        this.widenStepNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, widenStepMillis));
+        this.maxRadius = Math.min(Math.max(0, maxRadius), LEVELS - 1);
+        this.buckets = new ArrayList<>(LEVELS);
+        for (int i = 0; i < LEVELS; i++) {
+            buckets.add(new ConcurrentLinkedQueue<>());
+        }
+        this.sweeper = scheduler.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void enqueue(String userId, EnglishLevel level) {
+        Ticket me = new Ticket(userId, level, System.nanoTime());
+        if (tickets.putIfAbsent(userId, me) != null) {
+            throw new IllegalStateException("User is already pending: " + userId);
+        }
+        // 新票据尚未发布，其他线程看不到它，只需要抢占对手即可
+        Ticket partner = claimPartner(me, me.enqueuedAt);
+        if (partner != null) {
+            me.state.set(MATCHED);
+            pair(me, partner);
+            return;
+        }
+        buckets.get(me.bucket).add(me);
+    }
+
+    @Override
+    public boolean cancel(String userId) {
+        Ticket ticket = tickets.get(userId);
+        if (ticket == null) {
+            return false;
+        }
+        while (true) {
+            int state = ticket.state.get();
+            if (state == WAITING) {
+                if (ticket.state.compareAndSet(WAITING, CANCELLED)) {
+                    // 票据留在桶中，等到达队首时再被清理
+                    tickets.remove(userId, ticket);
+                    return true;
+                }
+            } else if (state == RESERVED) {
+                // 后台任务只会短暂持有，马上就有结果
+                Thread.onSpinWait();
+            } else {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public boolean isPending(String userId) {
+        return tickets.containsKey(userId);
+    }
+
+    @Override
+    public void shutdown() {
+        sweeper.cancel(false);
+    }
+
+    /**
+     * 为各桶队首重新匹配。只在单个后台线程中执行。
+     */
+    void sweep() {
+        try {
+            long now = System.nanoTime();
+            for (int i = 0; i < LEVELS; i++) {
+                Ticket head;
+                while ((head = firstAvailable(i, null)) != null) {
+                    if (!head.state.compareAndSet(WAITING, RESERVED)) {
+                        continue;
+                    }
+                    Ticket partner = claimPartner(head, now);
+                    if (partner == null) {
+                        // 队首找不到对手，桶里更晚到达的用户半径更小，同样找不到
+                        head.state.set(WAITING);
+                        break;
+                    }
+                    head.state.set(MATCHED);
+                    pair(head, partner);
+                }
+            }
+        } catch (Exception e) {
+            log.error("[SkillBucketMatchmaker] 后台匹配失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按等级差由小到大寻找并抢占一个可接受的对手。
+     *
+     * @param me  需要配对的票据，调用方保证其他线程此时不会配对它
+     * @param now 当前时间
+     * @return 已抢占的对手，找不到时返回 null
+     */
+    private Ticket claimPartner(Ticket me, long now) {
+        int myRadius = radius(me, now);
+        for (int d = 0; d <= maxRadius; d++) {
+            Ticket best = candidate(me.bucket - d, me, myRadius, d, now);
+            if (d > 0) {
+                Ticket upper = candidate(me.bucket + d, me, myRadius, d, now);
+                if (best == null || (upper != null && upper.enqueuedAt < best.enqueuedAt)) {
+                    best = upper;
+                }
+            }
+            if (best != null) {
+                if (best.state.compareAndSet(WAITING, MATCHED)) {
+                    return best;
+                }
+                // 被其他线程抢先，重新检查同一等级差
+                d--;
+            }
+        }
+        return null;
+    }
+
+    private Ticket candidate(int bucket, Ticket me, int myRadius, int distance, long now) {
+        if (bucket < 0 || bucket >= LEVELS) {
+            return null;
+        }
+        Ticket candidate = firstAvailable(bucket, me);
+        if (candidate == null || distance > Math.max(myRadius, radius(candidate, now))) {
+            return null;
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回桶中第一个可以配对的票据，顺便清理队首已经失效的票据。
+     */
+    private Ticket firstAvailable(int bucket, Ticket exclude) {
+        Iterator<Ticket> it = buckets.get(bucket).iterator();
+        boolean prefix = true;
+        while (it.hasNext()) {
+            Ticket ticket = it.next();
+            int state = ticket.state.get();
+            if (state == MATCHED || state == CANCELLED) {
+                if (prefix) {
+                    it.remove();
+                }
+                continue;
+            }
+            prefix = false;
+            if (state == WAITING && ticket != exclude) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private int radius(Ticket ticket, long now) {
+        if (ticket.level == null) {
+            return maxRadius;
+        }
+        return (int) Math.min(maxRadius, (now - ticket.enqueuedAt) / widenStepNanos);
+    }
+
+    private void pair(Ticket initiator, Ticket waiting) {
+        tickets.remove(initiator.userId, initiator);
+        tickets.remove(waiting.userId, waiting);
+        log.debug("[SkillBucketMatchmaker] 配对成功: {}({}) <-> {}({})",
+                initiator.userId, initiator.level, waiting.userId, waiting.level);
+        listener.onMatched(initiator.userId, waiting.userId, UUID.randomUUID().toString());
+    }
+
+    private static class Ticket {
+        private final String userId;
+        private final EnglishLevel level;
+        private final int bucket;
+        private final long enqueuedAt;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(String userId, EnglishLevel level, long enqueuedAt) {
+            this.userId = userId;
+            this.level = level;
+            this.bucket = level == null ? DEFAULT_BUCKET : level.ordinal();
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 语音 WebSocket 的二进制分帧协议。每条二进制消息以 16 字节的帧头开始（大端）：
+ * <pre>
+ *  0      magic 0xA5
+ *  1      type    1=AUDIO 2=REGISTER 3=PING 4=PONG
+ *  2      codec   {@link AudioCodec#getId()}
+ *  3      source  说话者在会话中的序号，客户端发出的帧填 0
+ *  4..7   sequence 无符号 32 位，每个说话者的音频帧逐一递增
+ *  8..15  capture timestamp 采集时间，Unix 纪元起的微秒数
+ * </pre>
+ * AUDIO 的数据为音频；REGISTER 的数据为 [receiveCodec u8][userId 长度 u8][userId][sessionId 长度 u8][sessionId]，
+ * 帧头的 codec 为客户端上传的编码；PING 没有数据，服务器立即回复 PONG，
+ * 帧头与 PING 相同，数据为服务器收到 PING 的时间（微秒，i64）。
+ * <p>
+ * 客户端用 REGISTER 帧注册即表示使用本协议，之后双向的音频都带帧头；用 JSON 注册的客户端仍然收发裸音频。
+ * 解析只使用缓冲区的绝对读，不移动 position，也不经过 Jackson。
+ */
+public final class SpeechFrame {
+    public static final int HEADER_BYTES = 16;
+    public static final int MAGIC = 0xA5;
+
+    public static final int TYPE_AUDIO = 1;
+    public static final int TYPE_REGISTER = 2;
+    public static final int TYPE_PING = 3;
+    public static final int TYPE_PONG = 4;
+
+    /** 房间之外或未知的说话者序号 */
+    public static final int NO_SOURCE = 0xFF;
+
+    private SpeechFrame() {
+    }
+
+    /**
+     * 消息是否以合法的帧头开始
+     */
+    public static boolean isFramed(ByteBuffer message) {
+        return message.remaining() >= HEADER_BYTES && (message.get(message.position()) & 0xFF) == MAGIC;
+    }
+
+    public static int type(ByteBuffer message) {
+        return message.get(message.position() + 1) & 0xFF;
+    }
+
+    /**
+     * @return 帧头中的编码，无法识别时返回 null
+     */
+    public static AudioCodec codec(ByteBuffer message) {
+        return AudioCodec.fromId(message.get(message.position() + 2) & 0xFF);
+    }
+
+    public static int sequence(ByteBuffer message) {
+        return message.getInt(message.position() + 4);
+    }
+
+    public static long captureMicros(ByteBuffer message) {
+        return message.getLong(message.position() + 8);
+    }
+
+    /**
+     * 帧头之后的数据，与 message 共享内容
+     */
+    public static ByteBuffer payload(ByteBuffer message) {
+        return message.slice(message.position() + HEADER_BYTES, message.remaining() - HEADER_BYTES);
+    }
+
+    /**
+     * 在 buffer 的 offset 处写入帧头，不移动 position
+     */
+    public static void writeHeader(ByteBuffer buffer, int offset, int type, AudioCodec codec, int source,
+                                   int sequence, long captureMicros) {
+        buffer.put(offset, (byte) MAGIC);
+        buffer.put(offset + 1, (byte) type);
+        buffer.put(offset + 2, (byte) (codec == null ? AudioCodec.RAW.getId() : codec.getId()));
+        buffer.put(offset + 3, (byte) source);
+        buffer.putInt(offset + 4, sequence);
+        buffer.putLong(offset + 8, captureMicros);
+    }
+
+    /**
+     * 生成 REGISTER 帧，供客户端和测试使用
+     */
+    public static ByteBuffer register(String userId, String sessionId, AudioCodec sendCodec, AudioCodec receiveCodec) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] session = sessionId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 3 + user.length + session.length);
+        writeHeader(buffer, 0, TYPE_REGISTER, sendCodec, 0, 0, 0);
+        buffer.position(HEADER_BYTES);
+        buffer.put((byte) receiveCodec.getId());
+        buffer.put((byte) user.length).put(user);
+        buffer.put((byte) session.length).put(session);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 解析后的 REGISTER 帧，只在注册时创建
+     */
+    public static final class Register {
+        private final String userId;
+        private final String sessionId;
+        private final AudioCodec sendCodec;
+        private final AudioCodec receiveCodec;
+
+        private Register(String userId, String sessionId, AudioCodec sendCodec, AudioCodec receiveCodec) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.sendCodec = sendCodec;
+            this.receiveCodec = receiveCodec;
+        }
+
+        /**
+         * @return 解析结果，不是 REGISTER 帧或格式错误时返回 null
+         */
+        public static Register parse(ByteBuffer message) {
+            if (!isFramed(message) || type(message) != TYPE_REGISTER) {
+                return null;
+            }
+            int position = message.position() + HEADER_BYTES;
+            int end = message.limit();
+            if (position + 2 > end) {
+                return null;
+            }
+            AudioCodec receiveCodec = AudioCodec.fromId(message.get(position++) & 0xFF);
+            int userLength = message.get(position++) & 0xFF;
+            if (position + userLength + 1 > end) {
+                return null;
+            }
+            String userId = utf8(message, position, userLength);
+            position += userLength;
+            int sessionLength = message.get(position++) & 0xFF;
+            if (position + sessionLength != end || userLength == 0) {
+                return null;
+            }
+            String sessionId = utf8(message, position, sessionLength);
+            AudioCodec sendCodec = codec(message);
+            return new Register(userId, sessionId,
+                    sendCodec != null ? sendCodec : AudioCodec.RAW, receiveCodec != null ? receiveCodec : AudioCodec.RAW);
+        }
+
+        private static String utf8(ByteBuffer message, int offset, int length) {
+            byte[] bytes = new byte[length];
+            message.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public AudioCodec getSendCodec() {
+            return sendCodec;
+        }
+
+        public AudioCodec getReceiveCodec() {
+            return receiveCodec;
+        }
+    }
+}
@@ -1,67 +1,194 @@
 package com.example.deeptalk.modules.speech.service;
 
+import com.example.deeptalk.modules.speech.config.SpeechMatchingProperties;
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
 import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
-import com.example.deeptalk.modules.speech.entity.SpeechUserInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.*;
 
-import static com.example.deeptalk.modules.speech.config.SpeechWebSocketConfig.speechWebSocketHandler;
-
 /**
  * The type Speech service.
  */
 @Service
 @Slf4j
 public class SpeechService {
-    private final static ForwardingService forwardingService = speechWebSocketHandler.getForwardingService();
+    private final static int MAX_PENDING_TIME = 10; // maximum waiting time, in seconds
+    private final static String MATCH_WAIT_METRIC = "speech.match.wait";
+    private final static String UNKNOWN_LEVEL = "UNKNOWN";
 
-    private final static ConcurrentLinkedQueue<String> pendingUsers = new ConcurrentLinkedQueue<>();
-    private final static ConcurrentLinkedQueue<String> connectedUsers = new ConcurrentLinkedQueue<>();
-    private final static ConcurrentHashMap<String, SpeechSessionInfo> sessions = new ConcurrentHashMap<>();
+    // userId -> 等待中的连接请求，在用户进入匹配之前创建，保证配对后一定能找到它
+    private final ConcurrentHashMap<String, PendingConnect> pendingConnects = new ConcurrentHashMap<>();
+    // 所有等待中的请求共享的定时器，负责超时和匹配器的后台任务，等待期间不占用任何请求线程
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "speech-matching");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SpeechSessionRegistry sessionRegistry;
+    private final ForwardingService forwardingService;
+    private final MeterRegistry meterRegistry;
+    private final Matchmaker matchmaker;
+
+    @Autowired
+    public SpeechService(SpeechMatchingProperties properties, SpeechSessionRegistry sessionRegistry,
+                         ForwardingService forwardingService, MeterRegistry meterRegistry,
+                         @Nullable MatchBroker matchBroker) {
+        this.sessionRegistry = sessionRegistry;
+        this.forwardingService = forwardingService;
+        this.meterRegistry = meterRegistry;
+        this.matchmaker = createMatchmaker(properties, matchBroker);
+        log.info("[SpeechService] 匹配模式: {}", properties.getMode());
+    }
+
+    private Matchmaker createMatchmaker(SpeechMatchingProperties properties, MatchBroker matchBroker) {
+        switch (properties.getMode()) {
+            case "skill":
+                SpeechMatchingProperties.Skill skill = properties.getSkill();
+                return new SkillBucketMatchmaker(this::onMatched, scheduler,
+                        skill.getWidenStepMs(), skill.getMaxRadius(), skill.getSweepIntervalMs());
+            case "batch":
+                return new BatchMatchmaker(this::onMatched, properties.getBatch().getTickMs());
+            case "broker":
+                if (matchBroker == null) {
+                    throw new IllegalStateException("speech.matching.mode=broker requires a MatchBroker");
+                }
+                String nodeId = properties.getNodeId() == null || properties.getNodeId().isEmpty()
+                        ? UUID.randomUUID().toString() : properties.getNodeId();
+                log.info("[SpeechService] 节点ID: {}", nodeId);
+                return new BrokeredMatchmaker(nodeId, matchBroker, this::onMatched);
+            case "fifo":
+                int shards = properties.getShards() > 0 ? properties.getShards() : Runtime.getRuntime().availableProcessors();
+                return new ShardedMatchmaker(shards, this::onMatched);
+            default:
+                throw new IllegalArgumentException("Unknown speech.matching.mode: " + properties.getMode());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        matchmaker.shutdown();
+        scheduler.shutdownNow();
+    }
 
-    private final static int MAX_PENDING_TIME = 10; // maximum waiting time, in seconds
-    private final static ConcurrentHashMap<String, CompletableFuture<String>> pendingNotifier = new ConcurrentHashMap<>();
     /**
-     * 为用户进行匹配，该函数包含具体的匹配逻辑
-     * 这一操作是原子的，因为我们不希望同时有多个用户被匹配到同一个对手
+     * 为用户发起匹配并建立语音会话，整个过程是异步的
+     * 配对由 {@link Matchmaker} 原子完成，不需要全局锁，同一个对手不会被多个用户同时匹配到
+     * 配对成功后由主动方创建会话，并同时通知双方；
+     * 若一直没有合适的对手，则在 {@link #MAX_PENDING_TIME} 秒后超时
      *
-     * @param userId 发起匹配请求的用户ID
-     * @return 返回匹配的对手ID，如果没有找到匹配的对手，则返回null
+     * @param userId       发起匹配请求的用户ID
+     * @param englishLevel 用户的英语水平，可以为 null
+     * @return 以会话信息完成的 future；匹配超时或会话创建失败时以 null 完成；
+     * 用户已经在匹配中时以 {@link IllegalStateException} 异常完成
      */
-    public static synchronized String findMatching(String userId) {
-        log.debug("[SpeechService] findMatching userId: {}", userId);
-
-        String opponentId = null;
-        if (!pendingUsers.isEmpty()) {
-            // 选择队首的用户作为对手
-            opponentId = pendingUsers.poll();
-            // 通知对手已经匹配成功
-            CompletableFuture<String> opponentFuture = pendingNotifier.get(opponentId);
-            opponentFuture.complete(userId);
+    public CompletableFuture<SpeechSessionInfo> connect(String userId, String englishLevel) {
+        log.debug("[SpeechService] connect userId: {}, level: {}", userId, englishLevel);
+
+        EnglishLevel level = EnglishLevel.parse(englishLevel);
+        PendingConnect pending = new PendingConnect(level, System.nanoTime());
+        if (pendingConnects.putIfAbsent(userId, pending) != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("User is already pending: " + userId));
         }
-        return opponentId;
+
+        try {
+            matchmaker.enqueue(userId, level);
+        } catch (RuntimeException e) {
+            // 已在匹配中，或者共享等待池不可用
+            pendingConnects.remove(userId, pending);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // 取消失败说明恰好在超时时刻被配对，结果会由配对回调给出
+        CompletableFuture<SpeechSessionInfo> result = pending.future;
+        if (!result.isDone()) {
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+                if (matchmaker.cancel(userId)) {
+                    pendingConnects.remove(userId, pending);
+                    result.complete(null);
+                }
+            }, MAX_PENDING_TIME, TimeUnit.SECONDS);
+            result.whenComplete((session, e) -> timeout.cancel(false));
+        }
+        return result;
     }
 
-    public static String pendMatching(String userId) {
-        log.debug("[SpeechService] pending userId: {}", userId);
+    /**
+     * 匹配器的配对回调：创建实际的session，并将其发送给双方
+     * broker 模式下双方所在的节点都会收到回调，各自用同一个会话ID创建会话，只完成本节点上的请求
+     */
+    private void onMatched(String initiatorId, String waitingId, String sessionId) {
+        SpeechSessionInfo session = makeConnection(sessionId, initiatorId, waitingId);
+        completePending(initiatorId, session);
+        completePending(waitingId, session);
+    }
 
-        pendingUsers.add(userId);
-        String has_matching = null;
-        try {
-            CompletableFuture<String> future = new CompletableFuture<>();
-            pendingNotifier.put(userId, future);
-            has_matching = future.get(MAX_PENDING_TIME, TimeUnit.SECONDS);
-        } catch(InterruptedException | ExecutionException e){
-            System.err.println(e.getMessage());
-        } catch (TimeoutException e) {
-            // 超时未匹配成功，手动移除用户
-            pendingUsers.remove(userId);
+    private void completePending(String userId, SpeechSessionInfo session) {
+        PendingConnect pending = pendingConnects.remove(userId);
+        if (pending == null) {
+            return;
+        }
+        String levelTag = pending.level == null ? UNKNOWN_LEVEL : pending.level.name();
+        Timer.builder(MATCH_WAIT_METRIC)
+                .description("Time from /connect until a partner is found")
+                .tag("level", levelTag)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry)
+                .record(System.nanoTime() - pending.startNanos, TimeUnit.NANOSECONDS);
+        pending.future.complete(session);
+    }
+
+    /**
+     * 各英语水平的匹配等待时间统计，用于调整等级差放宽的速度
+     *
+     * @return level -> {count, p50Ms, p90Ms, p99Ms, maxMs}
+     */
+    public Map<String, Map<String, Object>> getMatchWaitStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        for (Timer timer : meterRegistry.find(MATCH_WAIT_METRIC).timers()) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put("count", snapshot.count());
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                bucket.put("p" + Math.round(percentile.percentile() * 100) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+            }
+            bucket.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+            stats.put(timer.getId().getTag("level"), bucket);
         }
-        // 无论匹配成功与否，均需要移除新建的Future
-        pendingNotifier.remove(userId);
-        return has_matching;
+        return stats;
+    }
+
+    /**
+     * 各连接发送队列的统计，用于观察慢连接和丢帧
+     *
+     * @return {connections, queuedFrames, maxDepth, dropped, pooledBuffers, lostFrames, lateFrames}
+     */
+    public Map<String, Object> getRelayStats() {
+        return forwardingService.getRelayStats();
+    }
+
+    /**
+     * 会话录音最终化的状态
+     *
+     * @param sessionId the session id
+     * @return the status, or null if unknown
+     */
+    public Map<String, Object> getRecordingStatus(String sessionId) {
+        return forwardingService.getRecordingStatus(sessionId);
     }
 
     /**
@@ -70,8 +197,8 @@ public class SpeechService {
      * @param userId the user id
      * @return the boolean
      */
-    public static Boolean checkIsPending(String userId) {
-        return pendingUsers.contains(userId);
+    public Boolean checkIsPending(String userId) {
+        return matchmaker.isPending(userId);
     }
 
     /**
@@ -80,61 +207,81 @@ public class SpeechService {
      * @param userId the user id
      * @return the boolean
      */
-    public static Boolean checkIsConnected(String userId) {
-        return connectedUsers.contains(userId);
+    public Boolean checkIsConnected(String userId) {
+        return sessionRegistry.isConnected(userId);
     }
 
     /**
      * Make connection string.
      *
+     * @param sessionId the session id assigned by the matchmaker
      * @param userId the user 1 id
      * @param opponentId the user 2 id
      * @return the string
      */
-    public static SpeechSessionInfo makeConnection(String userId, String opponentId) {
-        // 由于选定的对手可能已经连接了其他用户，因此需要检查是否可以连接
-        if (connectedUsers.contains(userId) || connectedUsers.contains(opponentId)) {
-            return null; // 无法连接，返回null
-        }
-        connectedUsers.add(userId);
-        connectedUsers.add(opponentId);
-        // 生成一个连接token
-        SpeechSessionInfo session = forwardingService.makeConnection(userId, opponentId); // TODO: create websocket session
+    public SpeechSessionInfo makeConnection(String sessionId, String userId, String opponentId) {
+        // 由于选定的对手可能已经连接了其他用户，注册表会拒绝为已连接的用户创建会话
+        SpeechSessionInfo session = forwardingService.makeConnection(sessionId, userId, opponentId);
 
         if (session == null) {
             System.err.println("Unable to create session");
             return null;
         }
-        sessions.put(session.getSessionId(), session);
         return session;
     }
 
+    /**
+     * 为一组用户直接创建多人房间，不经过匹配
+     *
+     * @param userIds 参与者
+     * @return 新房间；有用户已经在其他会话中时返回 null
+     * @throws IllegalArgumentException 人数不合法或有重复的用户
+     * @throws IllegalStateException 有用户正在匹配中
+     */
+    public SpeechSessionInfo createRoom(List<String> userIds) {
+        for (String userId : userIds) {
+            if (matchmaker.isPending(userId)) {
+                throw new IllegalStateException("User is already pending: " + userId);
+            }
+        }
+        return forwardingService.makeRoom(UUID.randomUUID().toString(), userIds);
+    }
+
     /**
      * Disconnect.
+     * 双人会话中任一方断开即结束会话；房间中只有该用户离开，剩下不到两人时结束房间。
+     * 不加全局锁：注册表的移除是原子的，只有第一次移除会话的调用者结束会话，录音最终化在后台执行
      *
      * @param userId the user id
      */
-    public static synchronized void disconnect(String userId, String sessionId) {
+    public void disconnect(String userId, String sessionId) {
         // 断开连接，移除用户
-        if (!connectedUsers.contains(userId)) {
+        SpeechSessionInfo session = sessionRegistry.getSessionByUser(userId);
+        if (session == null) {
             System.err.println("User is not connected: " + userId);
             return; // 如果用户未连接，则直接返回
         }
-
-        connectedUsers.remove(userId);
-
-        if (sessionId == null) {
-            System.err.println("Session ID is null for userId: " + userId);
-            return; // 如果会话ID为null，则直接返回
-        }
-        SpeechSessionInfo session = sessions.get(sessionId);
-        if (session == null) {
+        if (sessionId != null && !sessionId.equals(session.getSessionId())) {
             System.err.println("Session not found for sessionId: " + sessionId);
-            return; // 如果会话不存在，则直接返回
+            return; // 如果用户不在该会话中，则直接返回
+        }
+
+        if (session.isRoom()) {
+            forwardingService.leaveRoom(session.getSessionId(), userId);
+            return;
         }
+        // 移除会话，双方用户都会从注册表中移除
+        forwardingService.terminateConnection(session.getSessionId());
+    }
+
+    private static class PendingConnect {
+        private final CompletableFuture<SpeechSessionInfo> future = new CompletableFuture<>();
+        private final EnglishLevel level;
+        private final long startNanos;
 
-        // 直接移除会话，后面的对手将会在session==null处返回
-        forwardingService.terminateConnection(sessionId);
-        sessions.remove(session.getSessionId());
+        PendingConnect(EnglishLevel level, long startNanos) {
+            this.level = level;
+            this.startNanos = startNanos;
+        }
     }
 }
@@ -0,0 +1,165 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import com.example.deeptalk.modules.speech.entity.SpeechUserInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 语音会话注册表，是会话状态的唯一来源。
+ * 同时按 sessionId、userId 和 WebSocket 连接 ID 建立索引，所有查询均为 O(1)。
+ */
+@Component
+@Slf4j
+public class SpeechSessionRegistry {
+    // sessionId -> 会话
+    private final ConcurrentHashMap<String, SpeechSessionInfo> sessionsById = new ConcurrentHashMap<>();
+    // userId -> 用户当前所在的会话
+    private final ConcurrentHashMap<String, SpeechSessionInfo> sessionsByUser = new ConcurrentHashMap<>();
+    // wsSessionId -> 使用该连接的用户
+    private final ConcurrentHashMap<String, SpeechUserInfo> usersByWsId = new ConcurrentHashMap<>();
+
+    /**
+     * 为两名用户创建会话。任一用户已经在其他会话中时创建失败。
+     *
+     * @param sessionId 会话ID，由匹配器分配
+     * @return 新会话，失败时返回 null
+     */
+    public SpeechSessionInfo create(String sessionId, String user1Id, String user2Id) {
+        return create(sessionId, List.of(user1Id, user2Id));
+    }
+
+    /**
+     * 为一组用户创建会话（双人会话或多人房间）。任一用户已经在其他会话中时创建失败，已登记的用户会被回滚。
+     *
+     * @param sessionId 会话ID
+     * @param userIds 参与者，不能重复
+     * @return 新会话，失败时返回 null
+     */
+    public SpeechSessionInfo create(String sessionId, List<String> userIds) {
+        SpeechSessionInfo session = new SpeechSessionInfo(sessionId, userIds);
+        for (int i = 0; i < userIds.size(); i++) {
+            if (sessionsByUser.putIfAbsent(userIds.get(i), session) != null) {
+                rollback(session, userIds.subList(0, i));
+                return null;
+            }
+        }
+        if (sessionsById.putIfAbsent(sessionId, session) != null) {
+            rollback(session, userIds);
+            return null;
+        }
+        return session;
+    }
+
+    private void rollback(SpeechSessionInfo session, List<String> userIds) {
+        for (String userId : userIds) {
+            sessionsByUser.remove(userId, session);
+        }
+    }
+
+    public SpeechSessionInfo getSession(String sessionId) {
+        return sessionId == null ? null : sessionsById.get(sessionId);
+    }
+
+    public SpeechSessionInfo getSessionByUser(String userId) {
+        return userId == null ? null : sessionsByUser.get(userId);
+    }
+
+    public boolean isConnected(String userId) {
+        return userId != null && sessionsByUser.containsKey(userId);
+    }
+
+    public SpeechUserInfo getUserByWsId(String wsSessionId) {
+        return usersByWsId.get(wsSessionId);
+    }
+
+    public Collection<SpeechSessionInfo> getSessions() {
+        return sessionsById.values();
+    }
+
+    /**
+     * 将 WebSocket 连接绑定到会话中的用户。
+     *
+     * @return 绑定的用户信息，会话或用户不存在时返回 null
+     */
+    public SpeechUserInfo bindWebSocket(String userId, String sessionId, WebSocketSession wsSession) {
+        SpeechSessionInfo session = getSession(sessionId);
+        if (session == null || sessionsByUser.get(userId) != session) {
+            // 会话不存在，或者用户已经离开了该房间
+            return null;
+        }
+        SpeechUserInfo userInfo = session.getUserInfo(userId);
+        synchronized (userInfo) {
+            userInfo.setWsSession(wsSession);
+        }
+        usersByWsId.put(wsSession.getId(), userInfo);
+        session.touch();
+        return userInfo;
+    }
+
+    /**
+     * 解除 WebSocket 连接的绑定，按连接 ID 直接定位用户，与在线人数无关。
+     * 用户已经换用新连接时，只移除旧连接的索引，不影响新连接。
+     *
+     * @return 之前绑定到该连接的用户，没有时返回 null
+     */
+    public SpeechUserInfo unbindWebSocket(WebSocketSession wsSession) {
+        SpeechUserInfo userInfo = usersByWsId.remove(wsSession.getId());
+        if (userInfo != null) {
+            synchronized (userInfo) {
+                if (userInfo.getWsSession() == wsSession) {
+                    userInfo.setWsSession(null);
+                }
+            }
+        }
+        return userInfo;
+    }
+
+    /**
+     * 房间中的一名参与者离开：移除该用户的索引并做标记，会话本身保留
+     *
+     * @return 离开的参与者，用户不在该会话中或已经离开时返回 null
+     */
+    public SpeechUserInfo leave(SpeechSessionInfo session, String userId) {
+        if (!sessionsByUser.remove(userId, session)) {
+            return null;
+        }
+        SpeechUserInfo userInfo = session.getUserInfo(userId);
+        userInfo.setLeft(true);
+        WebSocketSession wsSession = userInfo.getWsSession();
+        if (wsSession != null) {
+            usersByWsId.remove(wsSession.getId(), userInfo);
+        }
+        return userInfo;
+    }
+
+    /**
+     * 移除会话及其所有索引。对同一会话只有第一次调用会返回会话。
+     *
+     * @return 被移除的会话，不存在时返回 null
+     */
+    public SpeechSessionInfo remove(String sessionId) {
+        SpeechSessionInfo session = sessionId == null ? null : sessionsById.remove(sessionId);
+        if (session == null) {
+            return null;
+        }
+        session.markClosed();
+        for (SpeechUserInfo userInfo : session.getParticipants()) {
+            sessionsByUser.remove(userInfo.getUserId(), session);
+            WebSocketSession wsSession = userInfo.getWsSession();
+            if (wsSession != null) {
+                usersByWsId.remove(wsSession.getId(), userInfo);
+            }
+        }
+        return session;
+    }
+
+    public int size() {
+        return sessionsById.size();
+    }
+}
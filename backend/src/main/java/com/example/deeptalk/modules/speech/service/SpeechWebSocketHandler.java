@@ -1,5 +1,6 @@
 package com.example.deeptalk.modules.speech.service;
 
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
@@ -46,9 +47,17 @@ public class SpeechWebSocketHandler extends AbstractWebSocketHandler {
                 String userId = (String) jsonMap.get("userId");
                 String sessionId = (String) jsonMap.get("sessionId");
                 if (userId != null) {
-                    forwardingService.registerUserSession(userId, sessionId, wsSession);
+                    AudioCodec sendCodec = parseCodec(jsonMap.get("sendCodec"), wsSession);
+                    AudioCodec receiveCodec = parseCodec(jsonMap.get("receiveCodec"), wsSession);
+                    forwardingService.registerUserSession(userId, sessionId, wsSession, sendCodec, receiveCodec);
                     log.info("[SpeechWebSocketHandler] 用户注册成功: userId={}, sessionId={}", userId, sessionId);
                 }
+            } else if ("spectate".equals(type)) {
+                // 只收听会话中所有人的音频，例如老师旁听学生的辩论
+                String sessionId = (String) jsonMap.get("sessionId");
+                if (sessionId != null) {
+                    forwardingService.registerSpectator(sessionId, wsSession);
+                }
             }
         } catch (IOException e) {
             log.error("[SpeechWebSocketHandler] 无法解析消息: {}, payload={}", wsSession.getId(), message.getPayload(), e);
@@ -56,20 +65,35 @@ public class SpeechWebSocketHandler extends AbstractWebSocketHandler {
     }
 
     /**
-     * 处理二进制消息（音频流），直接委托给服务层处理。
+     * 解析注册消息中的传输编码，未声明时返回 null，无法识别时退回原样转发
+     */
+    private AudioCodec parseCodec(Object value, WebSocketSession wsSession) {
+        if (value == null) {
+            return null;
+        }
+        AudioCodec codec = AudioCodec.parse(value.toString());
+        if (codec == null) {
+            log.warn("[SpeechWebSocketHandler] 连接 {} 声明了不支持的音频编码 {}，改为原样转发", wsSession.getId(), value);
+            return AudioCodec.RAW;
+        }
+        return codec;
+    }
+
+    /**
+     * 处理二进制消息（音频流或分帧协议的 REGISTER/PING），直接委托给服务层处理。
+     * 负载缓冲区原样交给服务层，不取出 byte[]；它只在本方法返回前有效。
      */
     @Override
     protected void handleBinaryMessage(WebSocketSession wsSession, BinaryMessage message) {
         // 将转发任务委托给服务层
-        log.info("[SpeechWebSocketHandler] 收到二进制消息: {}", wsSession.getId());
-        forwardingService.forwardAudioStream(wsSession.getId(), message.getPayload().array());
+        forwardingService.receiveBinary(wsSession, message.getPayload());
     }
 
     @Override
     public void afterConnectionClosed(@NonNull WebSocketSession wsSession, @NonNull CloseStatus status) {
         // 将清理任务委托给服务层
         forwardingService.removeUserSession(wsSession);
-        System.out.println("处理器: 连接 " + wsSession.getId() + " 已关闭。");
+        log.debug("[SpeechWebSocketHandler] 连接 {} 已关闭: {}", wsSession.getId(), status);
     }
 
     @Override
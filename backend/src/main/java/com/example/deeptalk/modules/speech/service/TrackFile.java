@@ -0,0 +1,139 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 一条音轨的临时文件，只在录音写线程中使用，数据追加在已有内容之后。
+ * <p>
+ * {@link RecordingStorage#APPEND} 直接用通道的聚集写入追加；{@link RecordingStorage#MAPPED} 每次把文件扩展一整段
+ * （segmentBytes），通过 {@link MappedByteBuffer} 复制写入，写满后映射下一段，文件的大小和元数据只在换段时变化。
+ * 映射的段在关闭前是文件的一部分，未写的部分为 0；关闭时把文件截到实际写入的长度。
+ * 通过映射写入的页不保证随通道的 fsync 写回，需要落盘时（durable）{@link #force} 对写满还没落盘的段和当前段逐个
+ * {@link MappedByteBuffer#force}，写满的段在落盘之前一直保留在队列中。
+ */
+class TrackFile implements Closeable {
+    private final FileChannel channel;
+    private final RecordingStorage storage;
+    private final int segmentBytes;
+    // 是否会被落盘：MAPPED 时决定写满的段是否留待落盘
+    private final boolean durable;
+    // 已写入的字节数，即数据的逻辑长度
+    private long written;
+    // MAPPED：当前映射的段，写满后映射下一段；落盘线程也会读取
+    private volatile MappedByteBuffer segment;
+    // MAPPED 且 durable：已经写满、还没有落盘的段
+    private final ConcurrentLinkedQueue<MappedByteBuffer> filled = new ConcurrentLinkedQueue<>();
+    // GROUP 落盘：是否有还没落盘的写入，见 RecordingSyncer
+    volatile boolean dirty;
+
+    private TrackFile(FileChannel channel, RecordingStorage storage, int segmentBytes, boolean durable, long written) {
+        this.channel = channel;
+        this.storage = storage;
+        this.segmentBytes = segmentBytes;
+        this.durable = durable;
+        this.written = written;
+    }
+
+    /**
+     * @param durable 是否会调用 {@link #force} 落盘
+     */
+    static TrackFile open(Path path, RecordingStorage storage, int segmentBytes, boolean durable) throws IOException {
+        FileChannel channel = storage == RecordingStorage.MAPPED
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new TrackFile(channel, storage, segmentBytes, durable, channel.size());
+    }
+
+    /**
+     * 按顺序追加 buffers 中的全部数据
+     */
+    void append(ByteBuffer[] buffers) throws IOException {
+        if (storage == RecordingStorage.APPEND) {
+            int offset = 0;
+            while (offset < buffers.length) {
+                written += channel.write(buffers, offset, buffers.length - offset);
+                while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                    offset++;
+                }
+            }
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                if (segment == null || !segment.hasRemaining()) {
+                    mapNextSegment();
+                }
+                int length = Math.min(buffer.remaining(), segment.remaining());
+                segment.put(segment.position(), buffer, buffer.position(), length);
+                segment.position(segment.position() + length);
+                buffer.position(buffer.position() + length);
+                written += length;
+            }
+        }
+    }
+
+    long size() {
+        return written;
+    }
+
+    /**
+     * 把已写入的数据落盘：MAPPED 先对写满的段和当前段 msync，再对文件 fdatasync（换段时扩展了文件长度）。
+     * 可以在落盘线程中与写线程的追加同时调用，只读取段的映射范围，不改变写线程使用的位置；文件已关闭时抛出
+     * ClosedChannelException
+     */
+    void force() throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (storage == RecordingStorage.MAPPED) {
+            try {
+                MappedByteBuffer full;
+                while ((full = filled.poll()) != null) {
+                    full.force(0, full.capacity());
+                }
+                MappedByteBuffer current = segment;
+                if (current != null) {
+                    current.force(0, current.capacity());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        channel.force(false);
+    }
+
+    /**
+     * MAPPED：截掉最后一段未写的部分后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (storage == RecordingStorage.MAPPED && channel.size() > written) {
+                segment = null;
+                filled.clear();
+                channel.truncate(written);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 从数据末尾开始映射一整段，超出文件末尾的部分由 map 扩展文件
+     */
+    private void mapNextSegment() throws IOException {
+        if (durable && segment != null) {
+            filled.add(segment);
+        }
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, written, segmentBytes);
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.entity.EnglishLevel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量匹配：突发到达时所有人都被配对且只配对一次，奇数剩下的人留到下一个节拍，取消与节拍竞争时结果一致
+ */
+public class BatchMatchmakerTest {
+
+    private static final int USERS = 10_000;
+    private static final int THREADS = 8;
+
+    @Test
+    void burstOfArrivalsIsPairedExactlyOnce() throws Exception {
+        Map<String, String> opponents = new ConcurrentHashMap<>();
+        Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        BatchMatchmaker matchmaker = new BatchMatchmaker((initiatorId, waitingId, sessionId) -> {
+            if (opponents.putIfAbsent(initiatorId, waitingId) != null
+                    | opponents.putIfAbsent(waitingId, initiatorId) != null
+                    | !sessionIds.add(sessionId)) {
+                duplicates.incrementAndGet();
+            }
+        }, 5);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        EnglishLevel[] levels = EnglishLevel.values();
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int i = thread; i < USERS; i += THREADS) {
+                        // 一部分用户等级未知
+                        matchmaker.enqueue("u" + i, i % 5 == 0 ? null : levels[i % levels.length]);
+                    }
+                }, pool));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            awaitSize(opponents, USERS);
+        } finally {
+            pool.shutdown();
+            matchmaker.shutdown();
+        }
+
+        assertEquals(0, duplicates.get(), "有用户被重复配对");
+        assertEquals(USERS, opponents.size());
+        assertEquals(USERS / 2, sessionIds.size());
+        for (Map.Entry<String, String> entry : opponents.entrySet()) {
+            assertEquals(entry.getKey(), opponents.get(entry.getValue()), "配对关系不一致: " + entry.getKey());
+            assertFalse(matchmaker.isPending(entry.getKey()));
+        }
+    }
+
+    @Test
+    void oddUserIsCarriedOverToTheNextTick() {
+        List<String[]> pairs = new ArrayList<>();
+        // 节拍足够长，由测试线程直接调用 tick
+        BatchMatchmaker matchmaker = new BatchMatchmaker(
+                (initiatorId, waitingId, sessionId) -> pairs.add(new String[]{initiatorId, waitingId}),
+                TimeUnit.HOURS.toMillis(1));
+        try {
+            matchmaker.enqueue("a", EnglishLevel.B1);
+            matchmaker.enqueue("b", EnglishLevel.B1);
+            matchmaker.enqueue("c", null);
+            matchmaker.tick();
+            assertEquals(1, pairs.size());
+            assertTrue(matchmaker.isPending("c"));
+
+            // 空批次时留下的人继续等待
+            matchmaker.tick();
+            assertEquals(1, pairs.size());
+            assertTrue(matchmaker.isPending("c"));
+
+            matchmaker.enqueue("d", null);
+            matchmaker.tick();
+            assertEquals(2, pairs.size());
+            assertEquals(Set.of("c", "d"), Set.of(pairs.get(1)));
+            assertFalse(matchmaker.isPending("c"));
+            assertFalse(matchmaker.isPending("d"));
+
+            // 留到下一节拍的人在下一节拍之前被取消，不会再被配对
+            matchmaker.enqueue("e", null);
+            matchmaker.tick();
+            assertTrue(matchmaker.cancel("e"));
+            matchmaker.enqueue("f", null);
+            matchmaker.tick();
+            assertEquals(2, pairs.size());
+            assertTrue(matchmaker.isPending("f"));
+            assertFalse(matchmaker.isPending("e"));
+        } finally {
+            matchmaker.shutdown();
+        }
+    }
+
+    @Test
+    void cancelRacingTicksNeverLosesOrDoublePairsAUser() throws Exception {
+        Map<String, String> opponents = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        BatchMatchmaker matchmaker = new BatchMatchmaker((initiatorId, waitingId, sessionId) -> {
+            if (opponents.putIfAbsent(initiatorId, waitingId) != null
+                    | opponents.putIfAbsent(waitingId, initiatorId) != null) {
+                duplicates.incrementAndGet();
+            }
+        }, 1);
+        Set<String> cancelled = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int i = thread; i < USERS; i += THREADS) {
+                        String userId = "u" + i;
+                        matchmaker.enqueue(userId, null);
+                        if (ThreadLocalRandom.current().nextBoolean()) {
+                            // 随机等一会儿再取消，和匹配线程的节拍交错
+                            if (ThreadLocalRandom.current().nextInt(4) == 0) {
+                                Thread.yield();
+                            }
+                            if (matchmaker.cancel(userId)) {
+                                cancelled.add(userId);
+                            }
+                        }
+                    }
+                }, pool));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            // 剩下的人数为奇数时最后一人一直等待
+            int expected = USERS - cancelled.size();
+            awaitSize(opponents, expected - expected % 2);
+            Thread.sleep(20);
+        } finally {
+            pool.shutdown();
+            matchmaker.shutdown();
+        }
+
+        assertEquals(0, duplicates.get(), "有用户被重复配对");
+        int pending = 0;
+        for (int i = 0; i < USERS; i++) {
+            String userId = "u" + i;
+            if (cancelled.contains(userId)) {
+                // 取消成功的用户不会再被配对
+                assertNull(opponents.get(userId), "已取消的用户 " + userId + " 被配对");
+                assertFalse(matchmaker.isPending(userId));
+            } else if (opponents.containsKey(userId)) {
+                assertEquals(userId, opponents.get(opponents.get(userId)));
+            } else {
+                assertTrue(matchmaker.isPending(userId), "用户 " + userId + " 既没有配对也不在等待");
+                pending++;
+            }
+        }
+        assertTrue(pending <= 1, pending + " 个用户没有配对");
+    }
+
+    private static void awaitSize(Map<?, ?> map, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (map.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, map.size());
+    }
+}
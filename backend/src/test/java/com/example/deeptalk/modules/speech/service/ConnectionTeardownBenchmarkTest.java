@@ -0,0 +1,72 @@
+package com.example.deeptalk.modules.speech.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 大量连接同时断开时，每次关闭的开销应当与在线连接数无关。
+ * 默认不运行，用 {@code mvn test -Pbenchmark} 运行；关闭后的状态检查在 {@link ConnectionTeardownTest} 中
+ */
+@Slf4j
+@Tag("benchmark")
+public class ConnectionTeardownBenchmarkTest {
+
+    @Test
+    void closeFiftyThousandConnections() throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ((Logger) LoggerFactory.getLogger(ConnectionTeardownBenchmarkTest.class)).setLevel(Level.INFO);
+        long smallNanos = closeAll(10_000);
+        long largeNanos = closeAll(50_000);
+        log.info("[ConnectionTeardownBenchmarkTest] 关闭 10k 连接每次 {} ns, 关闭 50k 连接每次 {} ns",
+                smallNanos / 10_000, largeNanos / 50_000);
+        // O(1) 的关闭在连接数增加 5 倍时单次耗时基本不变，按连接数线性扫描时会增加约 5 倍
+        assertTrue(largeNanos / 50_000 < 3 * (smallNanos / 10_000) + 2_000);
+    }
+
+    private long closeAll(int connections) throws Exception {
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, new RecordingHandler(),
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        int sessions = connections / 2;
+        StubWebSocketSession[] first = new StubWebSocketSession[sessions];
+        StubWebSocketSession[] second = new StubWebSocketSession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            String sessionId = "s" + i;
+            forwardingService.makeConnection(sessionId, "a" + i, "b" + i);
+            first[i] = new StubWebSocketSession("ws-a" + i);
+            second[i] = new StubWebSocketSession("ws-b" + i);
+            forwardingService.registerUserSession("a" + i, sessionId, first[i]);
+            forwardingService.registerUserSession("b" + i, sessionId, second[i]);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            first[i].close(CloseStatus.GOING_AWAY);
+            handler.afterConnectionClosed(first[i], CloseStatus.GOING_AWAY);
+        }
+        for (int i = 0; i < sessions; i++) {
+            second[i].close(CloseStatus.GOING_AWAY);
+            handler.afterConnectionClosed(second[i], CloseStatus.GOING_AWAY);
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("[ConnectionTeardownBenchmarkTest] {} 个连接全部关闭耗时 {} ms",
+                connections, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        assertEquals(0, ((Number) forwardingService.getRelayStats().get("connections")).intValue());
+        forwardingService.shutdown();
+        return elapsed;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 连接断开：连接从会话中摘除而会话保留，对方收到断线通知
+ */
+public class ConnectionTeardownTest {
+
+    @Test
+    void closedConnectionsAreDetachedFromTheirSessions() throws Exception {
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, new RecordingHandler(),
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        int sessions = 500;
+        StubWebSocketSession[] first = new StubWebSocketSession[sessions];
+        StubWebSocketSession[] second = new StubWebSocketSession[sessions];
+        for (int i = 0; i < sessions; i++) {
+            String sessionId = "s" + i;
+            forwardingService.makeConnection(sessionId, "a" + i, "b" + i);
+            first[i] = new StubWebSocketSession("ws-a" + i);
+            second[i] = new StubWebSocketSession("ws-b" + i);
+            forwardingService.registerUserSession("a" + i, sessionId, first[i]);
+            forwardingService.registerUserSession("b" + i, sessionId, second[i]);
+        }
+
+        for (int i = 0; i < sessions; i++) {
+            first[i].close(CloseStatus.GOING_AWAY);
+            handler.afterConnectionClosed(first[i], CloseStatus.GOING_AWAY);
+            second[i].close(CloseStatus.GOING_AWAY);
+            handler.afterConnectionClosed(second[i], CloseStatus.GOING_AWAY);
+        }
+
+        assertEquals(0, ((Number) forwardingService.getRelayStats().get("connections")).intValue());
+        for (int i = 0; i < sessions; i++) {
+            SpeechSessionInfo session = registry.getSession("s" + i);
+            assertNull(session.getUser1Info().getWsSession());
+            assertNull(session.getUser2Info().getWsSession());
+            assertNull(registry.getUserByWsId(first[i].getId()));
+            assertNull(registry.getUserByWsId(second[i].getId()));
+        }
+        forwardingService.shutdown();
+    }
+
+    @Test
+    void opponentIsNotifiedWhenConnectionCloses() throws Exception {
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, new RecordingHandler(),
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession alice = new StubWebSocketSession("ws-alice");
+        StubWebSocketSession bob = new StubWebSocketSession("ws-bob");
+        forwardingService.makeConnection("s", "alice", "bob");
+        forwardingService.registerUserSession("alice", "s", alice);
+        forwardingService.registerUserSession("bob", "s", bob);
+
+        alice.close(CloseStatus.GOING_AWAY);
+        handler.afterConnectionClosed(alice, CloseStatus.GOING_AWAY);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bob.getTextMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        List<String> messages = bob.getTextMessages();
+        assertEquals(1, messages.size());
+        // 连接断开后先进入恢复宽限期
+        assertTrue(messages.get(0).contains("\"type\":\"opponent-reconnecting\""));
+        assertTrue(messages.get(0).contains("\"userId\":\"alice\""));
+        assertNull(registry.getSession("s").getUserInfo("alice").getWsSession());
+        assertEquals(bob, registry.getSession("s").getUserInfo("bob").getWsSession());
+        forwardingService.shutdown();
+    }
+}
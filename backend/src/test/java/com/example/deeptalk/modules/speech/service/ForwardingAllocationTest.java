@@ -0,0 +1,122 @@
+package com.example.deeptalk.modules.speech.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 测量音频转发路径上每个数据块的内存分配量（不含磁盘 IO），包括发送线程上的分配
+ */
+public class ForwardingAllocationTest {
+
+    private static final int CHUNK_BYTES = 640; // 16kHz 16bit 单声道 20ms
+    private static final int WARMUP = 200_000;
+    private static final int CHUNKS = 1_000_000;
+
+    @Test
+    void forwardingDoesNotCopyAudio() throws Exception {
+        // 与线上相同的日志级别，逐块的调试日志不会产生分配
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+
+        CountingRecorder recorder = new CountingRecorder();
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        SpeechRelayProperties relayProperties = new SpeechRelayProperties();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, recorder,
+                new SpeechSessionProperties(), relayProperties, meterRegistry);
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession speaker = new StubWebSocketSession("ws-a");
+        StubWebSocketSession listener = new StubWebSocketSession("ws-b");
+        forwardingService.makeConnection("session", "a", "b");
+        forwardingService.registerUserSession("a", "session", speaker);
+        forwardingService.registerUserSession("b", "session", listener);
+
+        Counter dropped = meterRegistry.get("speech.relay.dropped").counter();
+        ByteBuffer payload = ByteBuffer.allocate(CHUNK_BYTES);
+        BinaryMessage message = new BinaryMessage(payload);
+        for (int i = 0; i < WARMUP; i++) {
+            handler.handleMessage(speaker, message);
+            pace(listener, dropped, i);
+        }
+        awaitDrained(forwardingService, listener, meterRegistry, WARMUP);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = totalAllocatedBytes(threads);
+        for (int i = 0; i < CHUNKS; i++) {
+            handler.handleMessage(speaker, message);
+            pace(listener, dropped, WARMUP + i);
+        }
+        awaitDrained(forwardingService, listener, meterRegistry, WARMUP + CHUNKS);
+        long allocated = totalAllocatedBytes(threads) - allocatedBefore;
+        forwardingService.shutdown();
+
+        double bytesPerChunk = (double) allocated / CHUNKS;
+
+        // 容器的缓冲区没有被消费，录音收到了完整的数据，每一帧要么发出要么按策略丢弃
+        assertEquals(0, payload.position());
+        assertEquals((long) (WARMUP + CHUNKS) * CHUNK_BYTES, recorder.bytes);
+        assertEquals(WARMUP + CHUNKS, listener.getMessagesSent() + (long) dropped.count());
+        // 帧缓冲区来自缓冲池，每块只有视图和队列、消息对象
+        assertTrue(bytesPerChunk < CHUNK_BYTES / 2.0, "每块分配 " + bytesPerChunk + " 字节");
+    }
+
+    /**
+     * 不让转发线程远远跑在发送线程前面，否则大部分帧会在队列满时被丢弃，测不到发送路径
+     */
+    private static void pace(StubWebSocketSession listener, Counter dropped, int index) {
+        if ((index & 15) != 15) {
+            return;
+        }
+        while (listener.getMessagesSent() + (long) dropped.count() < index - 16) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void awaitDrained(ForwardingService forwardingService, StubWebSocketSession listener,
+                                     SimpleMeterRegistry meterRegistry, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            long dropped = (long) meterRegistry.get("speech.relay.dropped").counter().count();
+            if (listener.getMessagesSent() + dropped >= expected
+                    && ((Number) forwardingService.getRelayStats().get("queuedFrames")).intValue() == 0) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static long totalAllocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long bytes = threads.getThreadAllocatedBytes(id);
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static class CountingRecorder extends RecordingHandler {
+        private long bytes;
+
+        @Override
+        public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                AudioCodec codec) {
+            bytes += audio.remaining();
+            audio.position(audio.limit());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 抖动缓冲把零碎的数据块拼成固定大小的帧，不满一帧的数据按截止时间输出
+ */
+public class FrameCoalescerTest {
+
+    @Test
+    void smallChunksAreCoalescedIntoFullFramesInOrder() {
+        AudioFramePool pool = new AudioFramePool(4096, 16);
+        List<byte[]> frames = new ArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(100, 1000, pool, frame -> frames.add(toBytes(frame)));
+
+        // 7 个 30 字节的数据块，共 210 字节，内容为递增序号
+        byte[] all = new byte[210];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        for (int i = 0; i < 7; i++) {
+            ByteBuffer chunk = ByteBuffer.wrap(all, i * 30, 30);
+            coalescer.append(chunk, 0);
+            // 不改变调用方缓冲区的 position
+            assertEquals(i * 30, chunk.position());
+        }
+        assertEquals(2, frames.size());
+        assertEquals(100, frames.get(0).length);
+        assertEquals(100, frames.get(1).length);
+
+        coalescer.close(true);
+        assertEquals(3, frames.size());
+        byte[] joined = new byte[210];
+        int offset = 0;
+        for (byte[] frame : frames) {
+            System.arraycopy(frame, 0, joined, offset, frame.length);
+            offset += frame.length;
+        }
+        assertArrayEquals(all, joined);
+        // 所有帧都回到了缓冲池
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    void partialFrameIsFlushedAfterMaxDelay() {
+        List<byte[]> frames = new ArrayList<>();
+        FrameCoalescer coalescer = new FrameCoalescer(100, 40, new AudioFramePool(4096, 16),
+                frame -> frames.add(toBytes(frame)));
+        coalescer.append(ByteBuffer.allocate(30), 0);
+        coalescer.flushIfDue(System.nanoTime());
+        assertEquals(0, frames.size());
+
+        coalescer.flushIfDue(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(1, frames.size());
+        assertEquals(30, frames.get(0).length);
+
+        // 关闭时不输出则直接丢弃
+        coalescer.append(ByteBuffer.allocate(30), 0);
+        coalescer.close(false);
+        coalescer.append(ByteBuffer.allocate(300), 0);
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    void forwardingSendsOneMessagePerFrame() throws Exception {
+        SpeechRelayProperties relayProperties = new SpeechRelayProperties();
+        relayProperties.getCoalesce().setEnabled(true);
+        relayProperties.getCoalesce().setFrameMs(40);
+        relayProperties.getCoalesce().setBytesPerMs(32);
+        ForwardingService forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, new SpeechSessionProperties(), relayProperties, new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession speaker = new StubWebSocketSession("speaker");
+        StubWebSocketSession listener = new StubWebSocketSession("listener");
+        forwardingService.makeConnection("s", "a", "b");
+        forwardingService.registerUserSession("a", "s", speaker);
+        forwardingService.registerUserSession("b", "s", listener);
+
+        // 客户端每 10ms 发送一块（320 字节），共 1 秒的音频，最后多出半块
+        int chunks = 100;
+        for (int i = 0; i < chunks; i++) {
+            handler.handleMessage(speaker, new BinaryMessage(ByteBuffer.allocate(320)));
+        }
+        handler.handleMessage(speaker, new BinaryMessage(ByteBuffer.allocate(160)));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.getBytesSent() < chunks * 320 + 160 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(chunks * 320 + 160, listener.getBytesSent());
+        // 25 个 40ms 的完整帧，加上截止时间到期后输出的半块
+        assertEquals(26, listener.getMessagesSent());
+        assertTrue(forwardingService.getRelayStats().get("dropped").equals(0L));
+        forwardingService.shutdown();
+    }
+
+    private static byte[] toBytes(AudioFrame frame) {
+        ByteBuffer view = frame.view();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechMatchingProperties;
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 在同一个 JVM 中启动多个应用上下文模拟多个后端副本，它们只通过父上下文中的共享等待池互相配对
+ */
+public class MultiNodeMatchingTest {
+
+    private static final int NODES = 3;
+    private static final int USERS = 3000;
+
+    private AnnotationConfigApplicationContext shared;
+    private final List<AnnotationConfigApplicationContext> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void startNodes() {
+        shared = new AnnotationConfigApplicationContext();
+        shared.registerBean(MatchBroker.class, InMemoryMatchBroker::new);
+        shared.refresh();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(startNode("node-" + i));
+        }
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(AnnotationConfigApplicationContext::close);
+        nodes.clear();
+        shared.close();
+    }
+
+    private AnnotationConfigApplicationContext startNode(String nodeId) {
+        SpeechMatchingProperties properties = new SpeechMatchingProperties();
+        properties.setMode("broker");
+        properties.setNodeId(nodeId);
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.setParent(shared);
+        context.registerBean(SpeechMatchingProperties.class, () -> properties);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(SpeechSessionProperties.class, SpeechRelayProperties.class, SpeechRecordingProperties.class,
+                SpeechSessionRegistry.class, RecordingHandler.class, ForwardingService.class, SpeechService.class);
+        context.refresh();
+        return context;
+    }
+
+    @Test
+    void usersOnDifferentNodesArePaired() throws Exception {
+        SpeechService node0 = nodes.get(0).getBean(SpeechService.class);
+        SpeechService node1 = nodes.get(1).getBean(SpeechService.class);
+
+        CompletableFuture<SpeechSessionInfo> alice = node0.connect("alice", "B1");
+        assertTrue(node0.checkIsPending("alice"));
+        CompletableFuture<SpeechSessionInfo> bob = node1.connect("bob", "B2");
+
+        SpeechSessionInfo aliceSession = alice.get(5, TimeUnit.SECONDS);
+        SpeechSessionInfo bobSession = bob.get(5, TimeUnit.SECONDS);
+        assertNotNull(aliceSession);
+        assertNotNull(bobSession);
+        // 两个节点各自持有会话，会话ID相同
+        assertEquals(aliceSession.getSessionId(), bobSession.getSessionId());
+        assertEquals("bob", aliceSession.getOpponentInfo("alice").getUserId());
+        assertEquals("alice", bobSession.getOpponentInfo("bob").getUserId());
+        assertTrue(node0.checkIsConnected("alice"));
+        assertTrue(node1.checkIsConnected("bob"));
+        assertFalse(node0.checkIsPending("alice"));
+        assertEquals(0, ((InMemoryMatchBroker) shared.getBean(MatchBroker.class)).getWaitingCount());
+    }
+
+    @Test
+    void concurrentConnectsAcrossNodes() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        Map<String, SpeechSessionInfo> sessionsByUser = new ConcurrentHashMap<>();
+        Map<String, Integer> nodeByUser = new ConcurrentHashMap<>();
+        List<CompletableFuture<SpeechSessionInfo>> futures = new ArrayList<>();
+
+        for (int i = 0; i < USERS; i++) {
+            String userId = prefix + "-" + i;
+            int node = i % NODES;
+            nodeByUser.put(userId, node);
+            SpeechService speechService = nodes.get(node).getBean(SpeechService.class);
+            CompletableFuture<SpeechSessionInfo> future = new CompletableFuture<>();
+            futures.add(future);
+            pool.execute(() -> speechService.connect(userId, null).whenComplete((session, e) -> {
+                if (session != null) {
+                    sessionsByUser.put(userId, session);
+                }
+                future.complete(session);
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertEquals(USERS, sessionsByUser.size());
+        AtomicInteger crossNode = new AtomicInteger();
+        for (Map.Entry<String, SpeechSessionInfo> entry : sessionsByUser.entrySet()) {
+            String userId = entry.getKey();
+            String opponentId = entry.getValue().getOpponentInfo(userId).getUserId();
+            SpeechSessionInfo opponentSession = sessionsByUser.get(opponentId);
+            assertNotNull(opponentSession);
+            assertEquals(entry.getValue().getSessionId(), opponentSession.getSessionId(), "用户 " + userId + " 被重复配对");
+            assertEquals(userId, opponentSession.getOpponentInfo(opponentId).getUserId());
+            if (!nodeByUser.get(userId).equals(nodeByUser.get(opponentId))) {
+                crossNode.incrementAndGet();
+            }
+        }
+        assertTrue(crossNode.get() > 0);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.deeptalk.modules.speech.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个 broker 实例（相当于两个后端副本）共用一个数据库，同时发布大量用户时每个用户只被配对一次；
+ * 崩溃节点留下的等待者不会被配给在线用户。
+ * <p>
+ * 需要一个可以随意清空的 PostgreSQL 数据库，默认不运行：
+ * {@code mvn test -Dtest=PostgresMatchBrokerTest -Dspeech.test.postgres-url=jdbc:postgresql://localhost/speech_test?user=...&password=...}
+ */
+@EnabledIfSystemProperty(named = "speech.test.postgres-url", matches = ".+")
+public class PostgresMatchBrokerTest {
+
+    private static final int USERS = 2000;
+    private static final int THREADS = 8;
+
+    @Test
+    void twoBrokersOnOneDatabaseNeverPairAUserTwice() throws Exception {
+        PGSimpleDataSource dataSource = dataSource();
+        // sessionId -> 配对中的用户；userId -> sessionId
+        Map<String, Set<String>> sessions = new ConcurrentHashMap<>();
+        Map<String, String> sessionByUser = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        MatchListener listener = (initiatorId, waitingId, sessionId) -> {
+            // 双方在不同节点时两个节点各收到一次同样的结果
+            for (String userId : new String[]{initiatorId, waitingId}) {
+                String previous = sessionByUser.putIfAbsent(userId, sessionId);
+                if (previous != null && !previous.equals(sessionId)) {
+                    duplicates.incrementAndGet();
+                }
+                sessions.computeIfAbsent(sessionId, k -> ConcurrentHashMap.newKeySet()).add(userId);
+            }
+        };
+
+        PostgresMatchBroker first = new PostgresMatchBroker(dataSource, 50, 10_000, 60_000);
+        PostgresMatchBroker second = new PostgresMatchBroker(dataSource, 50, 10_000, 60_000);
+        clear(dataSource);
+        first.register("node-a", listener);
+        second.register("node-b", listener);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = thread; i < USERS; i += THREADS) {
+                        // 偶数号用户在 node-a 发布，奇数号在 node-b
+                        if (i % 2 == 0) {
+                            first.offer("node-a", "u" + i, null);
+                        } else {
+                            second.offer("node-b", "u" + i, null);
+                        }
+                    }
+                }, pool));
+            }
+            go.countDown();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+            // 同时发布而互相没看到的用户由后台线程补充配对
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (sessionByUser.size() < USERS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            pool.shutdown();
+            first.unregister("node-a");
+            second.unregister("node-b");
+            first.shutdown();
+            second.shutdown();
+        }
+
+        assertEquals(0, duplicates.get(), "有用户被重复配对");
+        assertEquals(USERS, sessionByUser.size());
+        assertEquals(USERS / 2, sessions.size());
+        for (Map.Entry<String, Set<String>> session : sessions.entrySet()) {
+            assertEquals(2, session.getValue().size(), "会话 " + session.getKey() + " 的用户 " + session.getValue());
+        }
+    }
+
+    @Test
+    void waitersLeftByACrashedNodeAreNeverPaired() throws Exception {
+        PGSimpleDataSource dataSource = dataSource();
+        PostgresMatchBroker crashed = new PostgresMatchBroker(dataSource, 50, 300, 60_000);
+        clear(dataSource);
+        List<String[]> pairs = new CopyOnWriteArrayList<>();
+        crashed.register("node-dead", (initiatorId, waitingId, sessionId) -> pairs.add(new String[]{initiatorId, waitingId}));
+        crashed.offer("node-dead", "ghost", null);
+        // 不注销就停止：行留在表里，租约不再续约
+        crashed.shutdown();
+        Thread.sleep(1000);
+
+        PostgresMatchBroker live = new PostgresMatchBroker(dataSource, 50, 300, 60_000);
+        try {
+            live.register("node-b", (initiatorId, waitingId, sessionId) -> pairs.add(new String[]{initiatorId, waitingId}));
+            live.offer("node-b", "u1", null);
+            // 崩溃节点上的用户在本节点重新等待，不会因为旧行而被拒绝
+            live.offer("node-b", "ghost", null);
+            assertEquals(1, pairs.size());
+            assertEquals(Set.of("u1", "ghost"), Set.of(pairs.get(0)));
+
+            live.offer("node-b", "u2", null);
+            live.offer("node-b", "u3", null);
+            assertEquals(2, pairs.size());
+            assertEquals(Set.of("u2", "u3"), Set.of(pairs.get(1)));
+        } finally {
+            live.unregister("node-b");
+            live.shutdown();
+        }
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT count(*) FROM speech_match_node WHERE node_id = 'node-dead'")) {
+            assertTrue(rs.next());
+            // 过期一个租约以上的节点被清理
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    private static PGSimpleDataSource dataSource() {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setURL(System.getProperty("speech.test.postgres-url"));
+        return dataSource;
+    }
+
+    private static void clear(PGSimpleDataSource dataSource) throws Exception {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("DELETE FROM speech_match_queue");
+            st.execute("DELETE FROM speech_match_mailbox");
+            st.execute("DELETE FROM speech_match_node");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 录音文件的容器：PCM 音轨写成带 seek 索引的 WAV，客户端封装的音频原样保存并按魔数命名
+ */
+public class RecordingContainerTest {
+    private static final int CHUNK_BYTES = 640; // 20ms 的 16kHz 16 位单声道 PCM
+    private static final long CHUNK_MICROS = 20_000;
+    private static final long START_MICROS = 1_000_000_000L;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void pcmTracksBecomePlayableWavWithSeekIndex() throws Exception {
+        for (RecordingStorage storage : RecordingStorage.values()) {
+            int chunks = 3000; // 60 秒
+            RecordingHandler handler = newHandler(storage, chunks);
+            try {
+                for (int i = 0; i < chunks; i++) {
+                    handler.recordAudioChunk("s", "alice", chunk(i), START_MICROS + i * CHUNK_MICROS,
+                            AudioCodec.PCM16);
+                }
+                handler.finalizeSessionRecordings("s");
+            } finally {
+                handler.shutdown();
+            }
+            Path wav = root.resolve(storage.name()).resolve("s").resolve("alice-s.wav");
+            assertFalse(Files.exists(wav.resolveSibling("alice.idx")));
+
+            // 标准的 WAV 解析器能读出格式和全部采样
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(wav.toFile())) {
+                AudioFormat format = in.getFormat();
+                assertEquals(16000f, format.getSampleRate());
+                assertEquals(1, format.getChannels());
+                assertEquals(16, format.getSampleSizeInBits());
+                assertEquals(chunks * CHUNK_BYTES / 2, in.getFrameLength());
+                byte[] samples = in.readAllBytes();
+                assertEquals(chunks * CHUNK_BYTES, samples.length);
+                assertArrayEquals(chunk(1234).array(),
+                        Arrays.copyOfRange(samples, 1234 * CHUNK_BYTES, 1235 * CHUNK_BYTES));
+            }
+
+            // data 之后是每秒一项的 seek 块，长度字段已回填
+            ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(wav)).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(file.capacity() - 8, file.getInt(4));
+            int seekChunk = RecordingContainer.WAV_HEADER_BYTES + chunks * CHUNK_BYTES;
+            assertEquals(0x6b656573, file.getInt(seekChunk));
+            assertEquals(60 * RecordingContainer.SEEK_ENTRY_BYTES, file.getInt(seekChunk + 4));
+
+            try (FileChannel channel = FileChannel.open(wav, StandardOpenOption.READ)) {
+                // 30.5 秒落在第 30 秒的索引项上
+                assertEquals(RecordingContainer.WAV_HEADER_BYTES + 1500L * CHUNK_BYTES,
+                        RecordingContainer.seek(channel, START_MICROS + 30_500_000));
+                assertEquals(RecordingContainer.WAV_HEADER_BYTES,
+                        RecordingContainer.seek(channel, START_MICROS - 1));
+                assertEquals(RecordingContainer.WAV_HEADER_BYTES + 2950L * CHUNK_BYTES,
+                        RecordingContainer.seek(channel, Long.MAX_VALUE));
+            }
+
+            // 已经结束的文件再次结束保持不变
+            byte[] finished = Files.readAllBytes(wav);
+            assertEquals("wav", RecordingContainer.finish(wav, wav.resolveSibling("alice.idx")));
+            assertArrayEquals(finished, Files.readAllBytes(wav));
+        }
+    }
+
+    @Test
+    void clientContainersAreKeptAsIs() throws Exception {
+        RecordingHandler handler = newHandler(RecordingStorage.APPEND, 16);
+        byte[] webm = {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 1, 2, 3};
+        byte[] ogg = {'O', 'g', 'g', 'S', 0, 2, 0, 0, 0};
+        byte[] opaque = {5, 6, 7};
+        try {
+            handler.recordAudioChunk("s", "alice", ByteBuffer.wrap(webm));
+            handler.recordAudioChunk("s", "bob", ByteBuffer.wrap(ogg), START_MICROS, AudioCodec.RAW);
+            handler.recordAudioChunk("s", "carol", ByteBuffer.wrap(opaque));
+            handler.finalizeSessionRecordings("s");
+        } finally {
+            handler.shutdown();
+        }
+        Path session = root.resolve(RecordingStorage.APPEND.name()).resolve("s");
+        assertArrayEquals(webm, Files.readAllBytes(session.resolve("alice-s.webm")));
+        assertArrayEquals(ogg, Files.readAllBytes(session.resolve("bob-s.ogg")));
+        assertArrayEquals(opaque, Files.readAllBytes(session.resolve("carol-s.raw")));
+    }
+
+    @Test
+    void finishingAgainAfterACrashMidwayKeepsOneSeekChunk() throws Exception {
+        Path track = root.resolve("alice.tmp");
+        Path index = root.resolve("alice.idx");
+        // 奇数长度的数据，seek 块之前有一个对齐字节
+        int dataBytes = 3 * CHUNK_BYTES + 1;
+        writeStreamingTrack(track, index, dataBytes);
+        RecordingContainer.finish(track, index);
+        byte[] finished = Files.readAllBytes(track);
+        long seekChunk = RecordingContainer.WAV_HEADER_BYTES + dataBytes + 1;
+        assertEquals(seekChunk + 8 + 3 * RecordingContainer.SEEK_ENTRY_BYTES, finished.length);
+
+        // 崩溃在回填 RIFF 长度之前的三个位置：只回填了 data 长度、seek 块写了一半、seek 块已写完
+        for (long crashedAt : new long[]{RecordingContainer.WAV_HEADER_BYTES + dataBytes, seekChunk + 13,
+                finished.length}) {
+            byte[] crashed = Arrays.copyOf(finished, (int) crashedAt);
+            ByteBuffer.wrap(crashed).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 0xFFFFFFFF);
+            Files.write(track, crashed);
+            writeIndex(index);
+            RecordingContainer.finish(track, index);
+            assertArrayEquals(finished, Files.readAllBytes(track), "崩溃于 " + crashedAt);
+            assertFalse(Files.exists(index));
+        }
+
+        // 已经结束的文件再结束一次保持不变
+        RecordingContainer.finish(track, index);
+        assertArrayEquals(finished, Files.readAllBytes(track));
+        try (FileChannel channel = FileChannel.open(track, StandardOpenOption.READ)) {
+            assertEquals(RecordingContainer.WAV_HEADER_BYTES + CHUNK_BYTES,
+                    RecordingContainer.seek(channel, START_MICROS + CHUNK_MICROS));
+        }
+    }
+
+    private static void writeStreamingTrack(Path track, Path index, int dataBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(track, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(RecordingContainer.wavHeader(16000, 1));
+            channel.write(ByteBuffer.allocate(dataBytes));
+        }
+        writeIndex(index);
+    }
+
+    private static void writeIndex(Path index) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(3 * RecordingContainer.SEEK_ENTRY_BYTES);
+        for (int i = 0; i < 3; i++) {
+            RecordingContainer.putSeekEntry(entries, START_MICROS + i * CHUNK_MICROS, (long) i * CHUNK_BYTES);
+        }
+        Files.write(index, entries.array());
+    }
+
+    private RecordingHandler newHandler(RecordingStorage storage, int ringSlots) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.resolve(storage.name()).toString());
+        properties.setStorage(storage);
+        properties.setSegmentBytes(64 * 1024);
+        properties.setRingSlots(ringSlots);
+        return new RecordingHandler(properties, new SimpleMeterRegistry());
+    }
+
+    private static ByteBuffer chunk(int index) {
+        byte[] data = new byte[CHUNK_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index * 31 + i);
+        }
+        return ByteBuffer.wrap(data);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 三种落盘策略的代价：不限速写入的吞吐，以及按实时节奏录音时调用方的延迟、写线程的积压和 fsync 的耗时。
+ * 只输出测量结果，默认的 {@code mvn test} 不运行，用 {@code mvn test -Pbenchmark} 运行；
+ * 落盘次数和文件内容的检查在 {@link RecordingDurabilityTest} 中
+ */
+@Slf4j
+@Tag("benchmark")
+public class RecordingDurabilityBenchmarkTest {
+    private static final int CHUNK_BYTES = 640; // 20ms 的 16kHz 16 位单声道
+    private static final int THROUGHPUT_SESSIONS = 200;
+    private static final int THROUGHPUT_CHUNKS_PER_TRACK = 50;
+    private static final int PACED_SESSIONS = 100;
+    private static final int PACED_TICKS = 100; // 2 秒
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void throughputOfEachDurabilityMode() {
+        throughput(root.resolve("warmup"), RecordingDurability.NONE, 20);
+        int chunks = THROUGHPUT_SESSIONS * 2 * THROUGHPUT_CHUNKS_PER_TRACK;
+        for (RecordingDurability durability : RecordingDurability.values()) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            long nanos = throughput(root.resolve(durability.name()), durability, THROUGHPUT_SESSIONS, meterRegistry);
+            Timer fsync = meterRegistry.timer("speech.recording.fsync");
+            log.info("[RecordingDurabilityBenchmarkTest] 吞吐 {} {} 个会话 {} 块: {} 块/秒, fsync {} 次",
+                    durability, THROUGHPUT_SESSIONS, chunks, String.format("%.0f", chunks / (nanos / 1e9)), fsync.count());
+        }
+    }
+
+    @Test
+    void latencyAndBacklogAtRealTimePace() {
+        for (RecordingDurability durability : RecordingDurability.values()) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            SpeechRecordingProperties properties = properties(root.resolve("paced-" + durability), durability);
+            properties.setGroupCommitIntervalMs(200);
+            RecordingHandler handler = new RecordingHandler(properties, meterRegistry);
+            long[] callNanos = new long[PACED_TICKS * PACED_SESSIONS * 2];
+            int calls = 0;
+            double maxDepth = 0;
+            try {
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                long next = System.nanoTime();
+                for (int tick = 0; tick < PACED_TICKS; tick++) {
+                    for (int s = 0; s < PACED_SESSIONS; s++) {
+                        for (String user : new String[]{"alice", "bob"}) {
+                            long start = System.nanoTime();
+                            handler.recordAudioChunk("s" + s, user, chunk.clear(), tick * 20_000L, AudioCodec.RAW);
+                            callNanos[calls++] = System.nanoTime() - start;
+                        }
+                    }
+                    maxDepth = Math.max(maxDepth, meterRegistry.get("speech.recording.ring.depth").gauge().value());
+                    next += TICK_NANOS;
+                    LockSupport.parkNanos(next - System.nanoTime());
+                }
+                // 把积压写完，不最终化：等待时间就是写线程在实时节奏下落后的程度
+                long drainStart = System.nanoTime();
+                while (meterRegistry.get("speech.recording.ring.depth").gauge().value() > 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                long drainNanos = System.nanoTime() - drainStart;
+
+                Arrays.sort(callNanos, 0, calls);
+                Timer fsync = meterRegistry.timer("speech.recording.fsync");
+                log.info(String.format("[RecordingDurabilityBenchmarkTest] 实时 %-9s %d 路: 调用 p50 %.1f us p99 %.1f us, "
+                                + "最大积压 %.0f 块, 结束后积压 %.0f ms, 丢弃 %d 块, fsync %d 次 平均 %.2f ms 最长 %.2f ms",
+                        durability, PACED_SESSIONS * 2, callNanos[calls / 2] / 1e3, callNanos[calls * 99 / 100] / 1e3,
+                        maxDepth, drainNanos / 1e6, handler.getDroppedChunks(), fsync.count(),
+                        fsync.mean(TimeUnit.MILLISECONDS), fsync.max(TimeUnit.MILLISECONDS)));
+            } finally {
+                handler.shutdown();
+            }
+        }
+    }
+
+    private long throughput(Path base, RecordingDurability durability, int sessions) {
+        return throughput(base, durability, sessions, new SimpleMeterRegistry());
+    }
+
+    /**
+     * 所有数据块一次入队，计时到所有会话最终化完成
+     */
+    private long throughput(Path base, RecordingDurability durability, int sessions, SimpleMeterRegistry meterRegistry) {
+        SpeechRecordingProperties properties = properties(base, durability);
+        properties.setRingSlots(sessions * 2 * THROUGHPUT_CHUNKS_PER_TRACK);
+        RecordingHandler handler = new RecordingHandler(properties, meterRegistry);
+        try {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+            long start = System.nanoTime();
+            for (int i = 0; i < THROUGHPUT_CHUNKS_PER_TRACK; i++) {
+                for (int s = 0; s < sessions; s++) {
+                    handler.recordAudioChunk("s" + s, "alice", chunk.clear());
+                    handler.recordAudioChunk("s" + s, "bob", chunk.clear());
+                }
+            }
+            for (int s = 0; s < sessions; s++) {
+                handler.finalizeSessionRecordings("s" + s);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(0, handler.getDroppedChunks());
+            return elapsed;
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static SpeechRecordingProperties properties(Path base, RecordingDurability durability) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(base.toString());
+        properties.setDurability(durability);
+        properties.setMixdown(RecordingMixdown.NONE);
+        properties.setSlotBytes(CHUNK_BYTES);
+        return properties;
+    }
+}
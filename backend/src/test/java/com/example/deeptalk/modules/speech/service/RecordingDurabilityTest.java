@@ -0,0 +1,100 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 三种落盘策略：NONE 从不 fsync，其余至少在每条音轨关闭前落盘一次；MAPPED 音轨换段后之前的段也被落盘；
+ * 落盘不改变写出的内容
+ */
+public class RecordingDurabilityTest {
+    private static final int CHUNK_BYTES = 640; // 20ms 的 16kHz 16 位单声道
+    private static final int SESSIONS = 20;
+    private static final int CHUNKS_PER_TRACK = 10;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void fsyncCountFollowsTheDurabilityMode() {
+        for (RecordingDurability durability : RecordingDurability.values()) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            SpeechRecordingProperties properties = properties(root.resolve(durability.name()), durability);
+            properties.setRingSlots(SESSIONS * 2 * CHUNKS_PER_TRACK);
+            RecordingHandler handler = new RecordingHandler(properties, meterRegistry);
+            try {
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                for (int i = 0; i < CHUNKS_PER_TRACK; i++) {
+                    for (int s = 0; s < SESSIONS; s++) {
+                        handler.recordAudioChunk("s" + s, "alice", chunk.clear());
+                        handler.recordAudioChunk("s" + s, "bob", chunk.clear());
+                    }
+                }
+                for (int s = 0; s < SESSIONS; s++) {
+                    handler.finalizeSessionRecordings("s" + s);
+                }
+                assertEquals(0, handler.getDroppedChunks());
+            } finally {
+                handler.shutdown();
+            }
+            long fsyncs = meterRegistry.timer("speech.recording.fsync").count();
+            if (durability == RecordingDurability.NONE) {
+                assertEquals(0, fsyncs);
+            } else {
+                assertTrue(fsyncs >= SESSIONS * 2, durability + " 落盘 " + fsyncs + " 次");
+            }
+            for (int s = 0; s < SESSIONS; s++) {
+                Path track = root.resolve(durability.name()).resolve("s" + s).resolve("alice-s" + s + ".raw");
+                assertEquals((long) CHUNKS_PER_TRACK * CHUNK_BYTES, track.toFile().length());
+            }
+        }
+    }
+
+    @Test
+    void mappedTracksAreForcedAcrossSegments() {
+        for (RecordingDurability durability : new RecordingDurability[]{RecordingDurability.GROUP,
+                RecordingDurability.PER_FRAME}) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            SpeechRecordingProperties properties = properties(root.resolve("mapped-" + durability), durability);
+            properties.setStorage(RecordingStorage.MAPPED);
+            properties.setSegmentBytes(4096); // 每 6 块多换一段
+            properties.setGroupCommitIntervalMs(5);
+            RecordingHandler handler = new RecordingHandler(properties, meterRegistry);
+            try {
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                for (int i = 0; i < 100; i++) {
+                    handler.recordAudioChunk("s", "alice", chunk.clear());
+                    if (i % 10 == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10)); // 让落盘线程与写入交错
+                    }
+                }
+                handler.finalizeSessionRecordings("s");
+                assertEquals(0, handler.getDroppedChunks());
+            } finally {
+                handler.shutdown();
+            }
+            assertTrue(meterRegistry.timer("speech.recording.fsync").count() > 0);
+            Path track = root.resolve("mapped-" + durability).resolve("s").resolve("alice-s.raw");
+            assertEquals(100L * CHUNK_BYTES, track.toFile().length());
+        }
+    }
+
+    private static SpeechRecordingProperties properties(Path base, RecordingDurability durability) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(base.toString());
+        properties.setDurability(durability);
+        properties.setMixdown(RecordingMixdown.NONE);
+        properties.setSlotBytes(CHUNK_BYTES);
+        return properties;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechMatchingProperties;
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 会话录音的最终化在后台有界队列中执行：/disconnect 不等待文件系统，每个会话的进度可以查询
+ */
+public class RecordingFinalizationTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void disconnectsReturnWhileFinalizationStalls() throws Exception {
+        // 用命名管道模拟卡住的磁盘：没有读者时写线程打开音轨文件会一直阻塞，最终化等待写线程
+        Path fifo = Files.createDirectories(root.resolve("stall")).resolve("alice.tmp");
+        assumeTrue(mkfifo(fifo), "需要 mkfifo");
+
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.toString());
+        properties.setFinalizeThreads(1);
+        properties.setFinalizeQueueSize(1);
+        RecordingHandler recordingHandler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, recordingHandler,
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechService speechService = new SpeechService(new SpeechMatchingProperties(), registry, forwardingService,
+                new SimpleMeterRegistry(), new InMemoryMatchBroker());
+        Thread reader = null;
+        try {
+            forwardingService.makeConnection("stall", "alice", "bob");
+            forwardingService.makeConnection("queued", "carol", "dave");
+            forwardingService.makeConnection("rejected", "erin", "frank");
+            recordingHandler.recordAudioChunk("stall", "alice", ByteBuffer.wrap(new byte[64]));
+            recordingHandler.recordAudioChunk("queued", "carol", ByteBuffer.wrap(new byte[64]));
+            recordingHandler.recordAudioChunk("rejected", "erin", ByteBuffer.wrap(new byte[64]));
+
+            // 第一个会话的最终化卡在磁盘上，之后的断开请求都不等待它
+            long slowest = 0;
+            for (String userId : new String[]{"alice", "carol", "erin"}) {
+                long start = System.nanoTime();
+                speechService.disconnect(userId, null);
+                slowest = Math.max(slowest, System.nanoTime() - start);
+                if (userId.equals("alice")) {
+                    awaitState(forwardingService, "stall", FinalizeState.RUNNING);
+                }
+            }
+            assertTrue(slowest < TimeUnit.MILLISECONDS.toNanos(500), "断开连接不应等待录音最终化");
+            assertFalse(speechService.checkIsConnected("bob"));
+            assertFalse(speechService.checkIsConnected("frank"));
+
+            // 一个线程正在执行，队列只能容纳一个会话，第三个被拒绝
+            assertEquals(FinalizeState.QUEUED, state(forwardingService, "queued"));
+            assertEquals(FinalizeState.REJECTED, state(forwardingService, "rejected"));
+            assertNull(forwardingService.getRecordingStatus("unknown"));
+
+            // 磁盘恢复后排队的会话依次完成
+            reader = new Thread(() -> {
+                try (InputStream in = Files.newInputStream(fifo)) {
+                    in.readAllBytes();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            reader.start();
+            awaitState(forwardingService, "stall", FinalizeState.COMPLETED);
+            awaitState(forwardingService, "queued", FinalizeState.COMPLETED);
+            assertEquals(List.of("alice-stall.raw"), forwardingService.getRecordingStatus("stall").get("files"));
+            assertEquals(List.of("carol-queued.raw"), forwardingService.getRecordingStatus("queued").get("files"));
+            assertTrue(Files.exists(root.resolve("queued").resolve("carol-queued.raw")));
+
+            // 被拒绝的会话只推迟改名，写线程照样关闭它的音轨文件
+            Path rejected = root.resolve("rejected").resolve("erin.tmp");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (isOpen(rejected) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(isOpen(rejected), "被拒绝的会话不应保留打开的音轨文件");
+            assertEquals(64, Files.size(rejected));
+        } finally {
+            if (reader == null) {
+                // 让卡住的写线程退出
+                InputStream drain = Files.newInputStream(fifo);
+                try {
+                    recordingHandler.finalizeSessionRecordings("stall");
+                } finally {
+                    drain.close();
+                }
+            }
+            speechService.shutdown();
+            forwardingService.shutdown();
+            recordingHandler.shutdown();
+        }
+    }
+
+    @Test
+    void onlyRecentStatusesAreRetained() {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.toString());
+        properties.setFinalizeRetainedStatuses(3);
+        RecordingHandler recordingHandler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            for (int i = 0; i < 5; i++) {
+                // 没有录音的会话立即完成
+                assertEquals(FinalizeState.COMPLETED, recordingHandler.submitFinalization("s" + i));
+            }
+            assertNull(recordingHandler.getFinalizationStatus("s0"));
+            assertNull(recordingHandler.getFinalizationStatus("s1"));
+            for (int i = 2; i < 5; i++) {
+                Map<String, Object> status = recordingHandler.getFinalizationStatus("s" + i);
+                assertEquals(FinalizeState.COMPLETED, status.get("state"));
+                assertEquals(List.of(), status.get("files"));
+            }
+        } finally {
+            recordingHandler.shutdown();
+        }
+    }
+
+    private static FinalizeState state(ForwardingService forwardingService, String sessionId) {
+        return (FinalizeState) forwardingService.getRecordingStatus(sessionId).get("state");
+    }
+
+    private static void awaitState(ForwardingService forwardingService, String sessionId, FinalizeState expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (state(forwardingService, sessionId) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, state(forwardingService, sessionId));
+    }
+
+    /**
+     * 本进程是否还打开着 file（Linux 的 /proc/self/fd）
+     */
+    private static boolean isOpen(Path file) throws IOException {
+        Path target = file.toRealPath();
+        try (Stream<Path> fds = Files.list(Path.of("/proc/self/fd"))) {
+            return fds.anyMatch(fd -> {
+                try {
+                    return Files.readSymbolicLink(fd).equals(target);
+                } catch (IOException e) {
+                    return false; // 列出之后已经关闭
+                }
+            });
+        }
+    }
+
+    private static boolean mkfifo(Path path) {
+        try {
+            return new ProcessBuilder("mkfifo", path.toString()).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 会话混音：按采集时间对齐各说话者，缺失的部分是静音，窗口固定，迟到太久的采样被丢弃并计数
+ */
+public class RecordingMixdownTest {
+    private static final int CHUNK_FRAMES = 320; // 20ms 的 16kHz 单声道
+    private static final long CHUNK_MICROS = 20_000;
+    private static final long T0 = 5_000_000_000L;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void stereoAlignsSpeakersByCaptureTimeAndFillsGaps() throws Exception {
+        // alice 说 0~600ms 和 1000~2000ms，bob 说 300~2300ms；采集时间带 ±2ms 抖动，按时间交错到达
+        List<long[]> chunks = new ArrayList<>(); // {说话者, 采集时间}
+        for (long ms = 0; ms < 2000; ms += 20) {
+            if (ms < 600 || ms >= 1000) {
+                chunks.add(new long[]{0, ms});
+            }
+        }
+        for (long ms = 300; ms < 2300; ms += 20) {
+            chunks.add(new long[]{1, ms});
+        }
+        chunks.sort(Comparator.comparingLong(chunk -> chunk[1]));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RecordingHandler handler = newHandler(RecordingMixdown.STEREO, meterRegistry);
+        try {
+            int index = 0;
+            for (long[] chunk : chunks) {
+                boolean alice = chunk[0] == 0;
+                // 每人的第一块没有抖动，便于断言总长度
+                long jitter = chunk[1] == (alice ? 0 : 300) ? 0 : (index++ % 2 == 0 ? 2000 : -2000);
+                handler.recordAudioChunk("s", alice ? "alice" : "bob", pcm(alice ? 1000 : -2000),
+                        T0 + chunk[1] * 1000 + jitter, AudioCodec.PCM16);
+            }
+            handler.finalizeSessionRecordings("s");
+        } finally {
+            handler.shutdown();
+        }
+
+        Path mixdown = root.resolve("s").resolve("mixdown-s.wav");
+        ShortBuffer samples;
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(mixdown.toFile())) {
+            assertEquals(2, in.getFormat().getChannels());
+            assertEquals(2300 * 16, in.getFrameLength());
+            samples = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        }
+        assertFrame(samples, 100, 1000, 0);
+        assertFrame(samples, 400, 1000, -2000);
+        assertFrame(samples, 800, 0, -2000); // alice 的停顿填静音
+        assertFrame(samples, 1500, 1000, -2000);
+        assertFrame(samples, 2200, 0, -2000);
+
+        // 每个采样恰好出现一次：抖动没有造成重叠或空隙
+        int left = 0;
+        int right = 0;
+        for (int frame = 0; frame < samples.limit() / 2; frame++) {
+            left += samples.get(frame * 2) != 0 ? 1 : 0;
+            right += samples.get(frame * 2 + 1) != 0 ? 1 : 0;
+        }
+        assertEquals(80 * CHUNK_FRAMES, left);
+        assertEquals(100 * CHUNK_FRAMES, right);
+        assertEquals(0.0, meterRegistry.counter("speech.recording.mixdown.late").count());
+
+        assertEquals("alice=0\nbob=1\n", Files.readString(root.resolve("s").resolve("mixdown.properties")));
+        try (FileChannel channel = FileChannel.open(mixdown, StandardOpenOption.READ)) {
+            assertEquals(RecordingContainer.WAV_HEADER_BYTES + 16000 * 4,
+                    RecordingContainer.seek(channel, T0 + 1_000_000));
+        }
+    }
+
+    @Test
+    void monoSumsSpeakersWithSaturation() throws Exception {
+        RecordingHandler handler = newHandler(RecordingMixdown.MONO, new SimpleMeterRegistry());
+        try {
+            for (int i = 0; i < 10; i++) {
+                handler.recordAudioChunk("s", "alice", pcm(30000), T0 + i * CHUNK_MICROS, AudioCodec.PCM16);
+                handler.recordAudioChunk("s", "bob", pcm(i < 5 ? 30000 : -1000), T0 + i * CHUNK_MICROS,
+                        AudioCodec.PCM16);
+            }
+            handler.finalizeSessionRecordings("s");
+        } finally {
+            handler.shutdown();
+        }
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(root.resolve("s").resolve("mixdown-s.wav").toFile())) {
+            assertEquals(1, in.getFormat().getChannels());
+            ShortBuffer samples = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            assertEquals(10 * CHUNK_FRAMES, samples.limit());
+            assertEquals(Short.MAX_VALUE, samples.get(CHUNK_FRAMES * 2));
+            assertEquals(29000, samples.get(CHUNK_FRAMES * 7));
+        }
+    }
+
+    @Test
+    void samplesArrivingAfterTheWindowAreDroppedAndCounted() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RecordingHandler handler = newHandler(RecordingMixdown.STEREO, meterRegistry);
+        try {
+            handler.recordAudioChunk("s", "bob", pcm(-2000), T0, AudioCodec.PCM16);
+            for (int i = 0; i < 100; i++) {
+                handler.recordAudioChunk("s", "alice", pcm(1000), T0 + i * CHUNK_MICROS, AudioCodec.PCM16);
+            }
+            // bob 的下一块落后 alice 远超 500ms 的窗口，对应位置已经写出
+            handler.recordAudioChunk("s", "bob", pcm(-2000), T0 + CHUNK_MICROS, AudioCodec.PCM16);
+            handler.finalizeSessionRecordings("s");
+        } finally {
+            handler.shutdown();
+        }
+        assertEquals(CHUNK_FRAMES, (long) meterRegistry.counter("speech.recording.mixdown.late").count());
+        // 单独的音轨不受影响
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(root.resolve("s").resolve("bob-s.wav").toFile())) {
+            assertEquals(2 * CHUNK_FRAMES, in.getFrameLength());
+        }
+    }
+
+    @Test
+    void captureClockJumpDoesNotWriteHoursOfSilence() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RecordingHandler handler = newHandler(RecordingMixdown.MONO, meterRegistry);
+        long hour = 3_600_000_000L;
+        try {
+            handler.recordAudioChunk("s", "alice", pcm(1000), T0, AudioCodec.PCM16);
+            // 客户端时钟向前跳了一小时，之后按新的时钟连续
+            handler.recordAudioChunk("s", "alice", pcm(2000), T0 + hour, AudioCodec.PCM16);
+            handler.recordAudioChunk("s", "alice", pcm(3000), T0 + hour + CHUNK_MICROS, AudioCodec.PCM16);
+            // 跳变之后在上限之内的间隔照常留出静音
+            handler.recordAudioChunk("s", "alice", pcm(4000), T0 + hour + 6 * CHUNK_MICROS, AudioCodec.PCM16);
+            handler.finalizeSessionRecordings("s");
+        } finally {
+            handler.shutdown();
+        }
+        assertEquals(1, (long) meterRegistry.counter("speech.recording.mixdown.discontinuity").count());
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(root.resolve("s").resolve("mixdown-s.wav").toFile())) {
+            ShortBuffer samples = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            assertEquals(8 * CHUNK_FRAMES, samples.limit());
+            assertEquals(1000, samples.get(0));
+            assertEquals(2000, samples.get(CHUNK_FRAMES));
+            assertEquals(3000, samples.get(2 * CHUNK_FRAMES));
+            assertEquals(0, samples.get(3 * CHUNK_FRAMES));
+            assertEquals(0, samples.get(7 * CHUNK_FRAMES - 1));
+            assertEquals(4000, samples.get(7 * CHUNK_FRAMES));
+        }
+    }
+
+    private RecordingHandler newHandler(RecordingMixdown mixdown, SimpleMeterRegistry meterRegistry) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.toString());
+        properties.setMixdown(mixdown);
+        properties.setRingSlots(1024);
+        return new RecordingHandler(properties, meterRegistry);
+    }
+
+    private static void assertFrame(ShortBuffer samples, int ms, int left, int right) {
+        int frame = ms * 16;
+        assertEquals(left, samples.get(frame * 2), "左声道 " + ms + "ms");
+        assertEquals(right, samples.get(frame * 2 + 1), "右声道 " + ms + "ms");
+    }
+
+    private static ByteBuffer pcm(int value) {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_FRAMES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            chunk.putShort((short) value);
+        }
+        return chunk.flip();
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 录音回放：Range、ETag 和条件请求的语义，以及大量并发区间读取时 sendfile 和 transferTo 两种发送方式的吞吐
+ * （默认不运行，用 {@code mvn test -Pbenchmark} 运行）
+ */
+@Slf4j
+public class RecordingPlaybackTest {
+    private static final int FILE_BYTES = 8 * 1024 * 1024;
+    private static final int READERS = 16;
+    private static final int REQUESTS_PER_READER = 25;
+
+    @TempDir
+    Path root;
+    private byte[] content;
+    private RecordingPlaybackService playbackService;
+    private Tomcat tomcat;
+    private String baseUrl;
+    private final AtomicInteger sendfileResponses = new AtomicInteger();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @BeforeEach
+    void createRecording() throws IOException {
+        content = new byte[FILE_BYTES];
+        new Random(42).nextBytes(content);
+        Path session = Files.createDirectories(root.resolve("artifact").resolve("s1"));
+        Files.write(session.resolve("alice-s1.wav"), content);
+        Files.write(session.resolve("bob.tmp"), new byte[16]);
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.resolve("artifact").toString());
+        playbackService = new RecordingPlaybackService(properties);
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        if (tomcat != null) {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    @Test
+    void rangesEtagsAndConditionalRequests() throws Exception {
+        startServer(true);
+        String url = baseUrl + "/s1/alice-s1.wav";
+
+        HttpResponse<byte[]> full = get(url);
+        assertEquals(200, full.statusCode());
+        assertArrayEquals(content, full.body());
+        assertEquals("bytes", full.headers().firstValue("Accept-Ranges").orElse(null));
+        assertEquals("audio/wav", full.headers().firstValue("Content-Type").orElse(null));
+        String etag = full.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> middle = get(url, "Range", "bytes=100-199");
+        assertEquals(206, middle.statusCode());
+        assertEquals("bytes 100-199/" + FILE_BYTES, middle.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 200), middle.body());
+
+        HttpResponse<byte[]> suffix = get(url, "Range", "bytes=-500");
+        assertEquals(206, suffix.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_BYTES - 500, FILE_BYTES), suffix.body());
+
+        HttpResponse<byte[]> open = get(url, "Range", "bytes=" + (FILE_BYTES - 100_000) + "-");
+        assertEquals(206, open.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, FILE_BYTES - 100_000, FILE_BYTES), open.body());
+
+        HttpResponse<byte[]> beyond = get(url, "Range", "bytes=" + FILE_BYTES + "-");
+        assertEquals(416, beyond.statusCode());
+        assertEquals("bytes */" + FILE_BYTES, beyond.headers().firstValue("Content-Range").orElse(null));
+
+        assertEquals(304, get(url, "If-None-Match", etag).statusCode());
+        // 文件已经变化时 If-Range 不匹配，返回整个文件
+        HttpResponse<byte[]> stale = get(url, "Range", "bytes=0-9", "If-Range", "\"0-0\"");
+        assertEquals(200, stale.statusCode());
+        assertEquals(FILE_BYTES, stale.body().length);
+        assertEquals(206, get(url, "Range", "bytes=0-9", "If-Range", etag).statusCode());
+
+        HttpResponse<byte[]> head = client.send(HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()).header("Range", "bytes=0-99").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, head.statusCode());
+        assertEquals("100", head.headers().firstValue("Content-Length").orElse(null));
+        assertEquals(0, head.body().length);
+
+        // 录音中的临时文件、隐藏文件和不存在的文件都不可见
+        assertEquals(404, get(baseUrl + "/s1/bob.tmp").statusCode());
+        assertEquals(404, get(baseUrl + "/s1/.alice-s1.wav").statusCode());
+        assertEquals(404, get(baseUrl + "/s1/missing.wav").statusCode());
+        assertEquals(404, get(baseUrl + "/missing/alice-s1.wav").statusCode());
+
+        List<Map<String, Object>> listing = playbackService.listRecordings("s1");
+        assertEquals(1, listing.size());
+        assertEquals("alice-s1.wav", listing.get(0).get("name"));
+        assertEquals((long) FILE_BYTES, listing.get(0).get("size"));
+        assertNull(playbackService.listRecordings(".."));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void concurrentRangeReadersSendfileVersusTransferTo() throws Exception {
+        long transferToNanos = readConcurrently(false);
+        assertEquals(0, sendfileResponses.get());
+        stopTomcat();
+        long sendfileNanos = readConcurrently(true);
+        assertTrue(sendfileResponses.get() > 0, "连接器支持时应使用 sendfile");
+
+        int requests = READERS * REQUESTS_PER_READER;
+        log.info(String.format("[RecordingPlaybackTest] %d 个并发读者 %d 个区间请求: transferTo %.0f 请求/秒, sendfile %.0f 请求/秒",
+                READERS, requests, requests / (transferToNanos / 1e9), requests / (sendfileNanos / 1e9)));
+    }
+
+    /**
+     * 每个读者按随机区间读取整个文件中的片段，像浏览器拖动进度条一样，校验每个区间的内容
+     */
+    private long readConcurrently(boolean sendfile) throws Exception {
+        startServer(sendfile);
+        String url = baseUrl + "/s1/alice-s1.wav";
+        // 预热
+        for (int i = 0; i < 20; i++) {
+            get(url, "Range", "bytes=0-65535");
+        }
+        sendfileResponses.set(0);
+        ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int r = 0; r < READERS; r++) {
+                Random random = new Random(r);
+                futures.add(readers.submit(() -> {
+                    for (int i = 0; i < REQUESTS_PER_READER; i++) {
+                        int length = 64 * 1024 + random.nextInt(1024 * 1024 - 64 * 1024);
+                        int offset = random.nextInt(FILE_BYTES - length);
+                        HttpResponse<byte[]> response = get(url, "Range",
+                                "bytes=" + offset + "-" + (offset + length - 1));
+                        assertEquals(206, response.statusCode());
+                        assertEquals(-1, Arrays.mismatch(response.body(), 0, length, content, offset, offset + length));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            readers.shutdown();
+        }
+    }
+
+    private HttpResponse<byte[]> get(String url, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url));
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private void startServer(boolean sendfile) throws LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(root.resolve("tomcat").toString());
+        tomcat.setPort(0);
+        Connector connector = tomcat.getConnector();
+        connector.setProperty("useSendfile", String.valueOf(sendfile));
+        Context context = tomcat.addContext("", root.toString());
+        Tomcat.addServlet(context, "playback", new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                String[] parts = request.getPathInfo().split("/");
+                if (parts.length != 3) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+                playbackService.serve(parts[1], parts[2], request, response);
+                if (request.getAttribute("org.apache.tomcat.sendfile.filename") != null) {
+                    sendfileResponses.incrementAndGet();
+                }
+            }
+        });
+        context.addServletMappingDecoded("/*", "playback");
+        tomcat.start();
+        assertNotNull(connector);
+        baseUrl = "http://localhost:" + connector.getLocalPort();
+    }
+
+    private void stopTomcat() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+        tomcat = null;
+    }
+}
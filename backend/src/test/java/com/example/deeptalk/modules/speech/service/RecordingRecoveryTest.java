@@ -0,0 +1,251 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 崩溃恢复：录音日志记录未最终化的会话，重启后在后台并行最终化遗留的音轨，无法最终化的移入隔离目录
+ */
+public class RecordingRecoveryTest {
+    private static final int CHUNK_FRAMES = 320;
+    private static final long CHUNK_MICROS = 20_000;
+    private static final long T0 = 5_000_000_000L;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void sessionsLeftOpenByARestartAreFinalizedOrQuarantined() throws Exception {
+        SpeechRecordingProperties properties = properties(RecordingStorage.APPEND);
+        properties.setMixdown(RecordingMixdown.NONE);
+        RecordingHandler before = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            for (int i = 0; i < 50; i++) {
+                before.recordAudioChunk("open", "alice", pcm(1000), T0 + i * CHUNK_MICROS, AudioCodec.PCM16);
+            }
+            before.recordAudioChunk("open", "bob", ByteBuffer.wrap(new byte[]{0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 1, 2}));
+            before.recordAudioChunk("closed", "carol", pcm(1000), T0, AudioCodec.PCM16);
+            before.finalizeSessionRecordings("closed");
+        } finally {
+            // 会话 "open" 没有结束就停止，相当于进程重启
+            before.shutdown();
+        }
+        Path open = root.resolve("open");
+        Files.createFile(open.resolve("dave.tmp")); // 打开后还没写入就崩溃的音轨
+        assertTrue(Files.exists(open.resolve("alice.tmp")));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RecordingHandler after = new RecordingHandler(properties, meterRegistry);
+        try {
+            after.recoverOrphanedRecordings();
+            assertTrue(after.awaitRecovery(10, TimeUnit.SECONDS));
+        } finally {
+            after.shutdown();
+        }
+
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(open.resolve("alice-open.wav").toFile())) {
+            assertEquals(50 * CHUNK_FRAMES, in.getFrameLength());
+        }
+        assertEquals(6, Files.size(open.resolve("bob-open.webm")));
+        assertEquals("alice=" + T0 + "\n", Files.readString(open.resolve("tracks.properties")));
+        assertTrue(Files.exists(root.resolve(RecordingHandler.QUARANTINE_DIR).resolve("open").resolve("dave.tmp")));
+        assertFalse(Files.exists(open.resolve("dave.tmp")));
+        assertEquals(2, (long) meterRegistry.counter("speech.recording.recovery.finalized").count());
+        assertEquals(1, (long) meterRegistry.counter("speech.recording.recovery.quarantined").count());
+        assertTrue(Files.exists(root.resolve("closed").resolve("carol-closed.wav")));
+
+        // 恢复之后日志中没有未完成的会话，再次启动什么也不做
+        assertEquals("", Files.readString(root.resolve(RecordingJournal.NAME)));
+        assertTrue(new RecordingJournal(root, 10).load().isEmpty());
+    }
+
+    @Test
+    void sessionRecordingAgainAfterRestartIsNotRecovered() throws Exception {
+        SpeechRecordingProperties properties = properties(RecordingStorage.APPEND);
+        properties.setMixdown(RecordingMixdown.NONE);
+        RecordingHandler before = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            for (int i = 0; i < 10; i++) {
+                before.recordAudioChunk("s", "alice", pcm(1000), T0 + i * CHUNK_MICROS, AudioCodec.PCM16);
+            }
+        } finally {
+            before.shutdown();
+        }
+
+        RecordingHandler after = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            for (int i = 10; i < 20; i++) {
+                after.recordAudioChunk("s", "alice", pcm(1000), T0 + i * CHUNK_MICROS, AudioCodec.PCM16);
+            }
+            after.finalizeSessionRecordings("other"); // 等写线程处理完前面的数据块
+            after.recoverOrphanedRecordings();
+            assertTrue(after.awaitRecovery(10, TimeUnit.SECONDS));
+            assertTrue(Files.exists(root.resolve("s").resolve("alice.tmp")));
+            after.finalizeSessionRecordings("s");
+        } finally {
+            after.shutdown();
+        }
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(root.resolve("s").resolve("alice-s.wav").toFile())) {
+            assertEquals(20 * CHUNK_FRAMES, in.getFrameLength());
+        }
+        assertEquals("alice=" + T0 + "\n", Files.readString(root.resolve("s").resolve("tracks.properties")));
+    }
+
+    @Test
+    void mappedSegmentPaddingIsTrimmedAfterACrash() throws Exception {
+        // MAPPED 方式崩溃时文件停在整段的长度，末尾是未写的 0；日志最后一行只写了一半
+        Path session = Files.createDirectories(root.resolve("s"));
+        try (FileChannel channel = FileChannel.open(session.resolve("alice.tmp"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            channel.write(RecordingContainer.wavHeader(16000, 1));
+            channel.write(pcm(1000));
+            channel.write(ByteBuffer.allocate(64 * 1024 - RecordingContainer.WAV_HEADER_BYTES - CHUNK_FRAMES * 2));
+        }
+        Files.writeString(root.resolve(RecordingJournal.NAME), "T\ts\talice\t" + T0 + "\nT\ts\tbo");
+
+        SpeechRecordingProperties properties = properties(RecordingStorage.MAPPED);
+        properties.setSegmentBytes(64 * 1024);
+        RecordingHandler handler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            handler.recoverOrphanedRecordings();
+            assertTrue(handler.awaitRecovery(10, TimeUnit.SECONDS));
+        } finally {
+            handler.shutdown();
+        }
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(session.resolve("alice-s.wav").toFile())) {
+            assertEquals(CHUNK_FRAMES, in.getFrameLength());
+        }
+    }
+
+    @Test
+    void mappedOrphanRecordingAgainContinuesAfterItsRealData() throws Exception {
+        Path session = Files.createDirectories(root.resolve("s"));
+        writeCrashedSegment(session.resolve("alice.tmp"), RecordingContainer.wavHeader(16000, 1), pcm(1000));
+        // 客户端封装的数据以 0 结尾，不能当作未写的部分截掉
+        ByteBuffer webm = ByteBuffer.wrap(new byte[]{0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 1, 0, 0, 0});
+        writeCrashedSegment(session.resolve("bob.tmp"), webm);
+        Files.writeString(root.resolve(RecordingJournal.NAME),
+                "T\ts\talice\t" + T0 + "\nT\ts\tbob\t-1\n");
+
+        SpeechRecordingProperties properties = properties(RecordingStorage.MAPPED);
+        properties.setSegmentBytes(64 * 1024);
+        properties.setMixdown(RecordingMixdown.NONE);
+        RecordingHandler handler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            // 恢复线程处理之前会话又开始录音，写线程接着录完
+            handler.recordAudioChunk("s", "alice", pcm(2000), T0 + CHUNK_MICROS, AudioCodec.PCM16);
+            handler.finalizeSessionRecordings("s");
+            handler.recoverOrphanedRecordings();
+            assertTrue(handler.awaitRecovery(10, TimeUnit.SECONDS));
+        } finally {
+            handler.shutdown();
+        }
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(session.resolve("alice-s.wav").toFile())) {
+            assertEquals(2 * CHUNK_FRAMES, in.getFrameLength());
+            ByteBuffer samples = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(1000, samples.getShort((CHUNK_FRAMES - 1) * 2));
+            assertEquals(2000, samples.getShort(CHUNK_FRAMES * 2));
+        }
+    }
+
+    @Test
+    void recoveryKeepsTrailingZerosOfClientContainers() throws Exception {
+        Path session = Files.createDirectories(root.resolve("s"));
+        byte[] webm = {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 1, 0, 0, 0};
+        Files.write(session.resolve("bob.tmp"), webm);
+        Files.writeString(root.resolve(RecordingJournal.NAME), "T\ts\tbob\t-1\n");
+
+        RecordingHandler handler = new RecordingHandler(properties(RecordingStorage.MAPPED), new SimpleMeterRegistry());
+        try {
+            handler.recoverOrphanedRecordings();
+            assertTrue(handler.awaitRecovery(10, TimeUnit.SECONDS));
+        } finally {
+            handler.shutdown();
+        }
+        assertArrayEquals(webm, Files.readAllBytes(session.resolve("bob-s.webm")));
+    }
+
+    /**
+     * MAPPED 方式崩溃时的临时文件：数据之后是一整段中未写的 0
+     */
+    private static void writeCrashedSegment(Path path, ByteBuffer... data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long written = channel.write(data);
+            channel.write(ByteBuffer.allocate((int) (64 * 1024 - written)));
+        }
+    }
+
+    @Test
+    void thousandsOfOrphansRecoverInTheBackground() throws Exception {
+        int sessions = 3000;
+        StringBuilder journal = new StringBuilder();
+        ByteBuffer index = ByteBuffer.allocate(RecordingContainer.SEEK_ENTRY_BYTES);
+        for (int i = 0; i < sessions; i++) {
+            String sessionId = "s" + i;
+            Path session = Files.createDirectories(root.resolve(sessionId));
+            try (FileChannel channel = FileChannel.open(session.resolve("alice.tmp"), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                channel.write(new ByteBuffer[]{RecordingContainer.wavHeader(16000, 1), pcm(1000), pcm(1000)});
+            }
+            RecordingContainer.putSeekEntry(index.clear(), T0, 0);
+            Files.write(session.resolve("alice.idx"), index.array());
+            journal.append("T\t").append(sessionId).append("\talice\t").append(T0).append('\n');
+        }
+        Files.writeString(root.resolve(RecordingJournal.NAME), journal);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        long start = System.nanoTime();
+        RecordingHandler handler = new RecordingHandler(properties(RecordingStorage.APPEND), meterRegistry);
+        try {
+            handler.recoverOrphanedRecordings();
+            long startupNanos = System.nanoTime() - start;
+            assertTrue(handler.awaitRecovery(60, TimeUnit.SECONDS));
+            long recoveryNanos = System.nanoTime() - start;
+            // 启动只读取日志，与遗留会话的处理时间无关
+            assertTrue(startupNanos < recoveryNanos, "启动不应等待恢复");
+        } finally {
+            handler.shutdown();
+        }
+        assertEquals(sessions, (long) meterRegistry.counter("speech.recording.recovery.finalized").count());
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(
+                root.resolve("s" + (sessions - 1)).resolve("alice-s" + (sessions - 1) + ".wav").toFile())) {
+            assertEquals(2 * CHUNK_FRAMES, in.getFrameLength());
+        }
+        assertEquals("", Files.readString(root.resolve(RecordingJournal.NAME)));
+    }
+
+    private SpeechRecordingProperties properties(RecordingStorage storage) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.toString());
+        properties.setStorage(storage);
+        properties.setRingSlots(1024);
+        return properties;
+    }
+
+    private static ByteBuffer pcm(int value) {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_FRAMES * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            chunk.putShort((short) value);
+        }
+        return chunk.flip();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 转发线程和录音写线程之间的环形队列：多个生产者不加锁地入队，写线程卡住时丢弃并计数而不是让转发线程等待
+ */
+public class RecordingRingTest {
+    private static final int CHUNK_BYTES = 64;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void producersKeepPerTrackOrder() throws Exception {
+        int producers = 8;
+        int chunks = 5000;
+        RecordingHandler handler = newHandler(1 << 16);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                String userId = "u" + p;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < chunks; i++) {
+                        handler.recordAudioChunk("s", userId, chunk(i));
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            handler.finalizeSessionRecordings("s");
+            assertEquals(0, handler.getDroppedChunks());
+            for (int p = 0; p < producers; p++) {
+                ByteBuffer written = ByteBuffer.wrap(Files.readAllBytes(root.resolve("s").resolve("u" + p + "-s.raw")));
+                assertEquals(chunks * CHUNK_BYTES, written.remaining());
+                for (int i = 0; i < chunks; i++) {
+                    assertEquals(i, written.getInt(i * CHUNK_BYTES));
+                }
+            }
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    void stalledWriterDropsInsteadOfBlocking() throws Exception {
+        // 用命名管道模拟卡住的磁盘：没有读者时写线程打开音轨文件会一直阻塞
+        Path sessionPath = Files.createDirectories(root.resolve("stall"));
+        Path fifo = sessionPath.resolve("alice.tmp");
+        assumeTrue(mkfifo(fifo), "需要 mkfifo");
+        RecordingHandler handler = newHandler(16);
+        try {
+            int chunks = 2000;
+            long slowest = 0;
+            for (int i = 0; i < chunks; i++) {
+                long start = System.nanoTime();
+                handler.recordAudioChunk("stall", "alice", chunk(i));
+                slowest = Math.max(slowest, System.nanoTime() - start);
+            }
+            long dropped = handler.getDroppedChunks();
+            // 队列只能容纳 16 块，其余的立即丢弃
+            assertTrue(dropped >= chunks - 16);
+            assertTrue(slowest < 50_000_000L, "转发线程不应等待磁盘");
+
+            // 磁盘恢复后队列中的数据按顺序写出
+            AtomicLong read = new AtomicLong();
+            List<Integer> indexes = new ArrayList<>();
+            Thread reader = new Thread(() -> {
+                try (InputStream in = Files.newInputStream(fifo)) {
+                    byte[] chunk;
+                    while ((chunk = in.readNBytes(CHUNK_BYTES)).length == CHUNK_BYTES) {
+                        indexes.add(ByteBuffer.wrap(chunk).getInt());
+                        read.addAndGet(chunk.length);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            reader.start();
+            handler.finalizeSessionRecordings("stall");
+            reader.join(5000);
+            assertEquals((chunks - dropped) * CHUNK_BYTES, read.get());
+            for (int i = 1; i < indexes.size(); i++) {
+                assertTrue(indexes.get(i) > indexes.get(i - 1));
+            }
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private RecordingHandler newHandler(int ringSlots) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(root.toString());
+        properties.setRingSlots(ringSlots);
+        return new RecordingHandler(properties, new SimpleMeterRegistry());
+    }
+
+    private static boolean mkfifo(Path path) {
+        try {
+            return new ProcessBuilder("mkfifo", path.toString()).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static ByteBuffer chunk(int index) {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+        chunk.putInt(0, index);
+        return chunk;
+    }
+}
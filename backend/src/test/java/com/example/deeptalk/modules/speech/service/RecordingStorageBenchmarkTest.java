@@ -0,0 +1,81 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 录音临时文件的两种写入方式：通道追加和预分配段的内存映射，1000 个会话同时录音时的吞吐。
+ * 默认不运行，用 {@code mvn test -Pbenchmark} 运行；写出内容的检查在 {@link RecordingStorageTest} 中
+ */
+@Slf4j
+@Tag("benchmark")
+public class RecordingStorageBenchmarkTest {
+    private static final int SESSIONS = 1000;
+    private static final int CHUNKS_PER_TRACK = 40;
+    private static final int CHUNK_BYTES = 640;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void mappedSegmentsVersusChannelAppends() throws Exception {
+        // 预热
+        record(root.resolve("warmup-append"), RecordingStorage.APPEND, 100);
+        record(root.resolve("warmup-mapped"), RecordingStorage.MAPPED, 100);
+
+        long appendNanos = record(root.resolve("append"), RecordingStorage.APPEND, SESSIONS);
+        long mappedNanos = record(root.resolve("mapped"), RecordingStorage.MAPPED, SESSIONS);
+
+        int chunks = SESSIONS * 2 * CHUNKS_PER_TRACK;
+        log.info(String.format("[RecordingStorageBenchmarkTest] %d 个会话 %d 块: 通道追加 %.0f 块/秒, 内存映射 %.0f 块/秒",
+                SESSIONS, chunks, chunks / (appendNanos / 1e9), chunks / (mappedNanos / 1e9)));
+    }
+
+    /**
+     * 每个会话两条音轨，数据块在所有音轨之间交错到达；计时包括结束所有会话
+     */
+    private static long record(Path base, RecordingStorage storage, int sessions) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(base.toString());
+        properties.setStorage(storage);
+        // 每段 16KB，每条音轨换段一次
+        properties.setSegmentBytes(16 * 1024);
+        properties.setRingSlots(sessions * 2 * CHUNKS_PER_TRACK);
+        properties.setSlotBytes(CHUNK_BYTES);
+        RecordingHandler handler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < CHUNKS_PER_TRACK; i++) {
+                for (int s = 0; s < sessions; s++) {
+                    handler.recordAudioChunk("s" + s, "alice", chunk(i));
+                    handler.recordAudioChunk("s" + s, "bob", chunk(i + 1));
+                }
+            }
+            for (int s = 0; s < sessions; s++) {
+                handler.finalizeSessionRecordings("s" + s);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(0, handler.getDroppedChunks());
+            return elapsed;
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static ByteBuffer chunk(int index) {
+        byte[] data = new byte[CHUNK_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index * 7 + i);
+        }
+        return ByteBuffer.wrap(data);
+    }
+}
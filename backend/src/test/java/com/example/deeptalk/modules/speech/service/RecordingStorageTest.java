@@ -0,0 +1,102 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 录音临时文件的两种写入方式写出相同的内容：内存映射的数据块跨段写入，最后一段截到实际长度，重新打开时接着写
+ */
+public class RecordingStorageTest {
+    private static final int SESSIONS = 20;
+    private static final int CHUNKS_PER_TRACK = 40;
+    private static final int CHUNK_BYTES = 640;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void mappedSegmentsMatchChannelAppends() throws Exception {
+        record(root.resolve("append"), RecordingStorage.APPEND);
+        record(root.resolve("mapped"), RecordingStorage.MAPPED);
+
+        for (int s = 0; s < SESSIONS; s++) {
+            for (String user : new String[]{"alice", "bob"}) {
+                String name = user + "-s" + s + ".raw";
+                byte[] appended = Files.readAllBytes(root.resolve("append").resolve("s" + s).resolve(name));
+                byte[] mapped = Files.readAllBytes(root.resolve("mapped").resolve("s" + s).resolve(name));
+                assertEquals(CHUNKS_PER_TRACK * CHUNK_BYTES, mapped.length);
+                assertArrayEquals(appended, mapped);
+            }
+        }
+    }
+
+    @Test
+    void chunksSpanSegmentBoundaries() throws Exception {
+        // 段大小不是数据块大小的整数倍，数据块跨段写入；中途落盘覆盖写满的段和当前段
+        TrackFile file = TrackFile.open(root.resolve("track.tmp"), RecordingStorage.MAPPED, 1000, true);
+        ByteBuffer expected = ByteBuffer.allocate(7 * CHUNK_BYTES);
+        for (int i = 0; i < 7; i++) {
+            ByteBuffer chunk = chunk(i);
+            expected.put(chunk.duplicate());
+            file.append(new ByteBuffer[]{chunk});
+            if (i == 4) {
+                file.force();
+            }
+        }
+        file.force();
+        assertEquals(5000, Files.size(root.resolve("track.tmp")));
+        file.close();
+        assertArrayEquals(expected.array(), Files.readAllBytes(root.resolve("track.tmp")));
+
+        // 重新打开时接在已有数据之后
+        file = TrackFile.open(root.resolve("track.tmp"), RecordingStorage.MAPPED, 1000, false);
+        file.append(new ByteBuffer[]{chunk(7)});
+        file.close();
+        assertEquals(8 * CHUNK_BYTES, Files.size(root.resolve("track.tmp")));
+    }
+
+    /**
+     * 每个会话两条音轨，数据块在所有音轨之间交错到达
+     */
+    private static void record(Path base, RecordingStorage storage) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(base.toString());
+        properties.setStorage(storage);
+        // 每段 16KB，每条音轨换段一次
+        properties.setSegmentBytes(16 * 1024);
+        properties.setRingSlots(SESSIONS * 2 * CHUNKS_PER_TRACK);
+        properties.setSlotBytes(CHUNK_BYTES);
+        RecordingHandler handler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            for (int i = 0; i < CHUNKS_PER_TRACK; i++) {
+                for (int s = 0; s < SESSIONS; s++) {
+                    handler.recordAudioChunk("s" + s, "alice", chunk(i));
+                    handler.recordAudioChunk("s" + s, "bob", chunk(i + 1));
+                }
+            }
+            for (int s = 0; s < SESSIONS; s++) {
+                handler.finalizeSessionRecordings("s" + s);
+            }
+            assertEquals(0, handler.getDroppedChunks());
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static ByteBuffer chunk(int index) {
+        byte[] data = new byte[CHUNK_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index * 7 + i);
+        }
+        return ByteBuffer.wrap(data);
+    }
+}
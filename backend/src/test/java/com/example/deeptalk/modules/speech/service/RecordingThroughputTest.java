@@ -0,0 +1,121 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRecordingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 录音写入吞吐：每个数据块打开、追加、关闭一次文件，对比常驻的文件通道加后台批量写线程
+ * 默认不运行，用 {@code mvn test -Pbenchmark} 运行
+ */
+@Slf4j
+@Tag("benchmark")
+public class RecordingThroughputTest {
+    private static final int SESSIONS = 10;
+    private static final int CHUNKS_PER_TRACK = 1000;
+    private static final int CHUNK_BYTES = 640;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void persistentChannelsOutrunPerChunkOpenClose() throws Exception {
+        // 预热两条路径
+        appendPerChunk(root.resolve("warmup-old"), 200);
+        recordWithHandler(root.resolve("warmup-new"), 200);
+
+        long perChunkNanos = appendPerChunk(root.resolve("old"), CHUNKS_PER_TRACK);
+        long handlerNanos = recordWithHandler(root.resolve("new"), CHUNKS_PER_TRACK);
+
+        int chunks = SESSIONS * 2 * CHUNKS_PER_TRACK;
+        double before = chunks / (perChunkNanos / 1e9);
+        double after = chunks / (handlerNanos / 1e9);
+        log.info(String.format("[RecordingThroughputTest] %d 个 %d 字节数据块: 逐块打开关闭 %.0f 块/秒, 常驻通道加后台写线程 %.0f 块/秒 (%.1f 倍)",
+                chunks, CHUNK_BYTES, before, after, after / before));
+
+        // 两种方式写出的内容相同
+        for (int s = 0; s < SESSIONS; s++) {
+            for (String user : new String[]{"alice", "bob"}) {
+                byte[] expected = Files.readAllBytes(root.resolve("old").resolve("s" + s).resolve(user + ".tmp"));
+                byte[] actual = Files.readAllBytes(root.resolve("new").resolve("s" + s)
+                        .resolve(user + "-s" + s + ".raw"));
+                assertEquals(CHUNKS_PER_TRACK * CHUNK_BYTES, actual.length);
+                assertArrayEquals(expected, actual);
+            }
+        }
+        assertTrue(after > before * 2, "后台写线程应明显快于逐块打开关闭文件");
+    }
+
+    /**
+     * 原来的写法：每个数据块创建目录、打开文件、追加、关闭
+     */
+    private static long appendPerChunk(Path base, int chunksPerTrack) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < chunksPerTrack; i++) {
+            for (int s = 0; s < SESSIONS; s++) {
+                for (String user : new String[]{"alice", "bob"}) {
+                    Path sessionPath = base.resolve("s" + s);
+                    Files.createDirectories(sessionPath);
+                    try (FileChannel channel = FileChannel.open(sessionPath.resolve(user + ".tmp"),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                        ByteBuffer audio = chunk(i);
+                        while (audio.hasRemaining()) {
+                            channel.write(audio);
+                        }
+                    }
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 计时包括会话结束时等待数据全部写入文件
+     */
+    private static long recordWithHandler(Path base, int chunksPerTrack) {
+        SpeechRecordingProperties properties = new SpeechRecordingProperties();
+        properties.setArtifactPath(base.toString());
+        // 队列容纳全部数据块，只比较写入速度，不丢弃
+        properties.setRingSlots(SESSIONS * 2 * chunksPerTrack);
+        RecordingHandler handler = new RecordingHandler(properties, new SimpleMeterRegistry());
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < chunksPerTrack; i++) {
+                for (int s = 0; s < SESSIONS; s++) {
+                    handler.recordAudioChunk("s" + s, "alice", chunk(i));
+                    handler.recordAudioChunk("s" + s, "bob", chunk(i));
+                }
+            }
+            for (int s = 0; s < SESSIONS; s++) {
+                handler.finalizeSessionRecordings("s" + s);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(0, handler.getDroppedChunks());
+            return elapsed;
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static ByteBuffer chunk(int index) {
+        byte[] data = new byte[CHUNK_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index + i);
+        }
+        return ByteBuffer.wrap(data);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.deeptalk.modules.speech.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.config.SpeechWebSocketConfig;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tomcat.websocket.server.WsSci;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 专用转发监听器与 Servlet 容器（Tomcat）中的同一端点并排比较建立连接的时间、转发吞吐与延迟、
+ * 服务端线程数和每个连接的内存。默认不运行，用 {@code mvn test -Pbenchmark} 运行；
+ * 协议正确性的检查在 {@link RelayServerTest} 中
+ */
+@Slf4j
+@Tag("benchmark")
+public class RelayListenerBenchmarkTest {
+
+    private static final int PAIRS = 200;
+    private static final int ROUNDS = 200;
+    private static final int FRAME_BYTES = 640;
+
+    private ForwardingService forwardingService;
+    private SpeechWebSocketHandler handler;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+
+    @BeforeEach
+    void start() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        ((Logger) LoggerFactory.getLogger(RelayListenerBenchmarkTest.class)).setLevel(Level.INFO);
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        handler = new SpeechWebSocketHandler(forwardingService);
+        clientExecutor = Executors.newFixedThreadPool(4);
+        client = HttpClient.newBuilder().executor(clientExecutor).build();
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+        clientExecutor.shutdownNow();
+    }
+
+    @Test
+    void relayListenerVersusServletContainer() throws Exception {
+        Result tomcat;
+        AnnotationConfigServletWebServerApplicationContext context = startTomcat();
+        try {
+            tomcat = run("tomcat", context.getWebServer().getPort(), "http-nio");
+        } finally {
+            context.close();
+        }
+        Result relay;
+        RelayServer server = startRelay(listener -> {
+        });
+        try {
+            relay = run("relay", server.getPort(), "speech-listener");
+        } finally {
+            server.stop();
+        }
+        for (Result result : new Result[]{tomcat, relay}) {
+            log.info(String.format("[RelayListenerBenchmarkTest] %-6s: %d 个连接, 建立连接 %d ms, 转发 %.0f 帧/秒, "
+                            + "延迟 p50 %.2f ms p99 %.2f ms, 服务端线程 %d, 每个连接约 %.1f KB 堆内存（含客户端）",
+                    result.name, PAIRS * 2, result.connectMillis, result.framesPerSecond,
+                    result.p50Micros / 1000.0, result.p99Micros / 1000.0, result.serverThreads, result.heapPerConnection / 1024.0));
+        }
+        assertEquals((long) PAIRS * ROUNDS, relay.delivered);
+        assertEquals((long) PAIRS * ROUNDS, tomcat.delivered);
+        // 事件循环和接受线程之外没有按连接或按请求增加的线程
+        assertTrue(relay.serverThreads <= Runtime.getRuntime().availableProcessors() + 1);
+    }
+
+    private Result run(String name, int port, String serverThreadPrefix) throws Exception {
+        Result result = new Result(name);
+        for (int i = 0; i < PAIRS; i++) {
+            forwardingService.makeConnection(name + "-" + i, name + "-a" + i, name + "-b" + i);
+        }
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        List<WebSocketTestClient> speakers = new ArrayList<>();
+        List<WebSocketTestClient> listeners = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++) {
+            speakers.add(connect(port, name + "-a" + i, name + "-" + i));
+            listeners.add(connect(port, name + "-b" + i, name + "-" + i));
+        }
+        result.connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        result.heapPerConnection = (double) (usedHeap() - heapBefore) / (PAIRS * 2);
+
+        AtomicLong delivered = new AtomicLong();
+        long[] latencies = new long[PAIRS * ROUNDS];
+        AtomicInteger latencyCount = new AtomicInteger();
+        for (WebSocketTestClient listener : listeners) {
+            listener.onAudio = sentNanos -> {
+                int index = latencyCount.getAndIncrement();
+                if (index < latencies.length) {
+                    latencies[index] = (System.nanoTime() - sentNanos) / 1000;
+                }
+                delivered.incrementAndGet();
+            };
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (WebSocketTestClient speaker : speakers) {
+                frame.clear();
+                frame.putLong(0, System.nanoTime());
+                speaker.socket.sendBinary(frame, true).join();
+            }
+            // 最多领先 4 轮，不让发送队列溢出丢帧
+            long expected = (long) (round - 3) * PAIRS;
+            while (delivered.get() < expected) {
+                Thread.onSpinWait();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (delivered.get() < (long) PAIRS * ROUNDS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        result.delivered = delivered.get();
+        result.framesPerSecond = delivered.get() * 1e9 / elapsed;
+        result.serverThreads = countThreads(serverThreadPrefix);
+        long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount.get(), latencies.length));
+        Arrays.sort(sorted);
+        result.p50Micros = sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+        result.p99Micros = sorted.length == 0 ? 0 : sorted[(int) (sorted.length * 0.99)];
+
+        for (WebSocketTestClient c : speakers) {
+            c.socket.abort();
+        }
+        for (WebSocketTestClient c : listeners) {
+            c.socket.abort();
+        }
+        return result;
+    }
+
+    private RelayServer startRelay(java.util.function.Consumer<SpeechRelayProperties.Listener> customizer) throws Exception {
+        SpeechRelayProperties.Listener listener = new SpeechRelayProperties.Listener();
+        listener.setPort(0);
+        customizer.accept(listener);
+        RelayServer server = new RelayServer(handler, listener);
+        server.start();
+        return server;
+    }
+
+    private AnnotationConfigServletWebServerApplicationContext startTomcat() {
+        AnnotationConfigServletWebServerApplicationContext context = new AnnotationConfigServletWebServerApplicationContext();
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        factory.addContextCustomizers(c -> c.addServletContainerInitializer(new WsSci(), null));
+        context.registerBean(TomcatServletWebServerFactory.class, () -> factory);
+        context.registerBean("dispatcherServlet", DispatcherServlet.class, () -> new DispatcherServlet());
+        context.registerBean(SpeechWebSocketHandler.class, () -> handler);
+        context.register(SpeechWebSocketConfig.class);
+        context.refresh();
+        return context;
+    }
+
+    private WebSocketTestClient connect(int port, String userId, String sessionId) throws Exception {
+        return WebSocketTestClient.connect(client, port, userId, sessionId);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (java.lang.management.ThreadInfo info : ManagementFactory.getThreadMXBean()
+                .getThreadInfo(ManagementFactory.getThreadMXBean().getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class Result {
+        private final String name;
+        private long connectMillis;
+        private double heapPerConnection;
+        private long delivered;
+        private double framesPerSecond;
+        private long p50Micros;
+        private long p99Micros;
+        private int serverThreads;
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+}
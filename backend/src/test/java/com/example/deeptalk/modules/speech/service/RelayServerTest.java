@@ -0,0 +1,259 @@
+package com.example.deeptalk.modules.speech.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 专用转发监听器的协议正确性：转发与分片、消息长度上限、非法握手和文本，
+ * 不读数据的客户端不拖住事件循环，握手和空闲期限以及连接数上限
+ */
+public class RelayServerTest {
+
+    private static final byte[] HANDSHAKE = ("GET /api/speech/ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+            + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+            + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+
+    private ForwardingService forwardingService;
+    private SpeechWebSocketHandler handler;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+
+    @BeforeEach
+    void start() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        handler = new SpeechWebSocketHandler(forwardingService);
+        clientExecutor = Executors.newFixedThreadPool(4);
+        client = HttpClient.newBuilder().executor(clientExecutor).build();
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+        clientExecutor.shutdownNow();
+    }
+
+    @Test
+    void relayListenerSpeaksWebSocket() throws Exception {
+        RelayServer server = startRelay(listener -> listener.setMaxMessageBytes(70_000));
+        try {
+            forwardingService.makeConnection("s", "alice", "bob");
+            WebSocketTestClient alice = connect(server.getPort(), "alice", "s");
+            WebSocketTestClient bob = connect(server.getPort(), "bob", "s");
+
+            // 小帧、16 位长度、分片消息都原样转发
+            byte[] small = pattern(100);
+            byte[] medium = pattern(5000);
+            alice.socket.sendBinary(ByteBuffer.wrap(small), true).join();
+            alice.socket.sendBinary(ByteBuffer.wrap(medium, 0, 3000), false).join();
+            alice.socket.sendBinary(ByteBuffer.wrap(medium, 3000, 2000), true).join();
+            bob.awaitBinary(2);
+            assertArrayEquals(small, bob.binary.get(0));
+            assertArrayEquals(medium, bob.binary.get(1));
+
+            // 超过上限的消息以 1009 关闭连接，对方收到断线通知
+            // 服务器读到帧头就关闭连接，客户端可能还没写完，发送结果不检查
+            alice.socket.sendBinary(ByteBuffer.wrap(new byte[80_000]), true).handle((ws, e) -> null).join();
+            assertEquals(1009, (int) alice.closeCode.get(5, TimeUnit.SECONDS));
+            bob.awaitText(2);
+            assertTrue(bob.text.get(1).contains("opponent-reconnecting"));
+
+            // 其他路径的握手被拒绝
+            CompletableFuture<WebSocket> wrongPath = client.newWebSocketBuilder()
+                    .buildAsync(URI.create("ws://localhost:" + server.getPort() + "/other"), new WebSocketTestClient());
+            assertTrue(wrongPath.handle((ws, e) -> e != null).get(5, TimeUnit.SECONDS));
+        } finally {
+            server.stop();
+        }
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    void pingFloodFromAClientThatNeverReadsDoesNotStallTheEventLoop() throws Exception {
+        // 一个事件循环；pong 暂存满之后如果事件循环等待发送超时，同一循环上的其他连接会停顿 30 秒
+        RelayServer server = startRelay(listener -> {
+            listener.setEventLoops(1);
+            listener.setMaxPendingWriteBytes(4096);
+            listener.setSendTimeoutMs(30_000);
+        });
+        ExecutorService flooder = Executors.newSingleThreadExecutor();
+        try (java.net.Socket socket = new java.net.Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new java.net.InetSocketAddress("localhost", server.getPort()));
+            java.io.OutputStream out = socket.getOutputStream();
+            out.write(HANDSHAKE);
+            // 掩码为 0 的 125 字节 ping，之后不再读取
+            byte[] ping = new byte[2 + 4 + 125];
+            ping[0] = (byte) 0x89;
+            ping[1] = (byte) (0x80 | 125);
+            Future<Boolean> flood = flooder.submit(() -> {
+                try {
+                    while (true) {
+                        out.write(ping);
+                    }
+                } catch (java.io.IOException e) {
+                    return true; // 服务端关闭了连接
+                }
+            });
+            assertTrue(flood.get(10, TimeUnit.SECONDS));
+
+            forwardingService.makeConnection("s", "alice", "bob");
+            long start = System.nanoTime();
+            connect(server.getPort(), "alice", "s");
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        } finally {
+            flooder.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    void invalidUtf8TextClosesWithBadData() throws Exception {
+        RelayServer server = startRelay(listener -> {
+        });
+        try (java.net.Socket socket = new java.net.Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(HANDSHAKE);
+            // 掩码为 0 的文本帧，0xC3 之后不是续字节
+            socket.getOutputStream().write(new byte[]{(byte) 0x81, (byte) 0x82, 0, 0, 0, 0, (byte) 0xC3, 0x28});
+            byte[] received = socket.getInputStream().readAllBytes();
+            String response = new String(received, java.nio.charset.StandardCharsets.ISO_8859_1);
+            int frame = response.indexOf("\r\n\r\n") + 4;
+            assertTrue(response.startsWith("HTTP/1.1 101"));
+            assertEquals(0x88, received[frame] & 0xFF);
+            assertEquals(1007, ((received[frame + 2] & 0xFF) << 8) | (received[frame + 3] & 0xFF));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void handshakeSentByteByByteIsCutOffAtTheDeadline() throws Exception {
+        RelayServer server = startRelay(listener -> listener.setHandshakeTimeoutMs(300));
+        try (java.net.Socket socket = new java.net.Socket("localhost", server.getPort())) {
+            long start = System.nanoTime();
+            // 每 50 ms 发送一个字节，读到数据也不延长期限
+            try {
+                for (int i = 0; i < HANDSHAKE.length - 1; i++) {
+                    socket.getOutputStream().write(HANDSHAKE[i]);
+                    Thread.sleep(50);
+                    if (server.getConnectionCount() == 0) {
+                        break;
+                    }
+                }
+            } catch (java.io.IOException e) {
+                // 服务端关闭了连接
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals(0, server.getConnectionCount());
+            assertTrue(elapsedMs < 2000, "握手期限过后 " + elapsedMs + " ms 仍未关闭");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void idleConnectionIsClosedWithGoingAway() throws Exception {
+        RelayServer server = startRelay(listener -> listener.setIdleTimeoutMs(300));
+        try (java.net.Socket socket = new java.net.Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(HANDSHAKE);
+            byte[] received = socket.getInputStream().readAllBytes();
+            String response = new String(received, java.nio.charset.StandardCharsets.ISO_8859_1);
+            int frame = response.indexOf("\r\n\r\n") + 4;
+            assertTrue(response.startsWith("HTTP/1.1 101"));
+            assertEquals(0x88, received[frame] & 0xFF);
+            assertEquals(1001, ((received[frame + 2] & 0xFF) << 8) | (received[frame + 3] & 0xFF));
+        } finally {
+            server.stop();
+        }
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    @Test
+    void connectionsOverTheCapAreRefused() throws Exception {
+        RelayServer server = startRelay(listener -> {
+            listener.setMaxConnections(2);
+            listener.setHandshakeTimeoutMs(0);
+        });
+        try (java.net.Socket first = new java.net.Socket("localhost", server.getPort());
+             java.net.Socket second = new java.net.Socket("localhost", server.getPort())) {
+            try (java.net.Socket third = new java.net.Socket("localhost", server.getPort())) {
+                third.setSoTimeout(5000);
+                String response = new String(third.getInputStream().readAllBytes(),
+                        java.nio.charset.StandardCharsets.ISO_8859_1);
+                assertTrue(response.startsWith("HTTP/1.1 503"), response);
+            }
+            assertEquals(1, server.getRefusedCount());
+
+            // 有连接结束后名额空出来
+            awaitConnectionCount(server, 2);
+            first.close();
+            awaitConnectionCount(server, 1);
+            try (java.net.Socket fourth = new java.net.Socket("localhost", server.getPort())) {
+                fourth.setSoTimeout(5000);
+                fourth.getOutputStream().write(HANDSHAKE);
+                byte[] status = fourth.getInputStream().readNBytes(12);
+                assertEquals("HTTP/1.1 101", new String(status, java.nio.charset.StandardCharsets.ISO_8859_1));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void awaitConnectionCount(RelayServer server, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getConnectionCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, server.getConnectionCount());
+    }
+
+    private RelayServer startRelay(java.util.function.Consumer<SpeechRelayProperties.Listener> customizer) throws Exception {
+        SpeechRelayProperties.Listener listener = new SpeechRelayProperties.Listener();
+        listener.setPort(0);
+        customizer.accept(listener);
+        RelayServer server = new RelayServer(handler, listener);
+        server.start();
+        return server;
+    }
+
+    private WebSocketTestClient connect(int port, String userId, String sessionId) throws Exception {
+        return WebSocketTestClient.connect(client, port, userId, sessionId);
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+}
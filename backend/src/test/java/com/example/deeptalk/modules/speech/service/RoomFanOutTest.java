@@ -0,0 +1,181 @@
+package com.example.deeptalk.modules.speech.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多人房间：每帧转发给其他所有人，共享同一个缓冲区，开销随人数线性增长
+ */
+public class RoomFanOutTest {
+
+    private static final int CHUNK_BYTES = 1920;
+    private static final int WARMUP = 5_000;
+    private static final int FRAMES = 20_000;
+
+    @Test
+    void fanOutSharesOneBufferAcrossRecipients() throws Exception {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        for (int size : new int[]{2, 4, 8}) {
+            fanOut(size);
+        }
+    }
+
+    private void fanOut(int size) throws Exception {
+        CapturingRecorder recorder = new CapturingRecorder();
+        ForwardingService forwardingService = new ForwardingService(new SpeechSessionRegistry(), recorder,
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession[] sockets = join(forwardingService, "room", size);
+        BinaryMessage message = new BinaryMessage(ByteBuffer.allocate(CHUNK_BYTES));
+
+        send(handler, sockets, message, 0, WARMUP);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = totalAllocatedBytes(threads);
+        send(handler, sockets, message, WARMUP, FRAMES);
+        long allocated = totalAllocatedBytes(threads) - allocatedBefore;
+        forwardingService.shutdown();
+
+        int recipients = size - 1;
+        double bytesPerDelivery = (double) allocated / FRAMES / recipients;
+        // 说话者自己收不到，其他人都收到全部的帧；录音只有说话者一条音轨
+        assertEquals(0, sockets[0].getMessagesSent());
+        for (int i = 1; i < size; i++) {
+            assertEquals(WARMUP + FRAMES, sockets[i].getMessagesSent());
+        }
+        assertEquals(1, recorder.bytesByUser.size());
+        assertEquals((long) (WARMUP + FRAMES) * CHUNK_BYTES, recorder.bytesByUser.get("room-0").get());
+        // 每个接收者只有视图和消息对象，没有复制帧数据
+        assertTrue(bytesPerDelivery < CHUNK_BYTES / 4.0, "每个接收者分配 " + bytesPerDelivery + " 字节");
+    }
+
+    @Test
+    void everyParticipantGetsOwnTrackAndLeavingKeepsRoomOpen() throws Exception {
+        CapturingRecorder recorder = new CapturingRecorder();
+        SpeechSessionRegistry registry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(registry, recorder,
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession[] sockets = join(forwardingService, "debate", 3);
+        for (int i = 0; i < 3; i++) {
+            handler.handleMessage(sockets[i], new BinaryMessage(ByteBuffer.allocate(100 * (i + 1))));
+        }
+        awaitMessages(sockets[0], 2);
+        assertEquals(100, recorder.bytesByUser.get("debate-0").get());
+        assertEquals(200, recorder.bytesByUser.get("debate-1").get());
+        assertEquals(300, recorder.bytesByUser.get("debate-2").get());
+
+        // 一人离开，其余两人收到通知并继续对话
+        forwardingService.leaveRoom("room-debate", "debate-2");
+        awaitMessages(sockets[0], 3);
+        assertTrue(sockets[0].getTextMessages().get(0).contains("\"type\":\"participant-left\""));
+        assertNull(registry.getSessionByUser("debate-2"));
+        handler.handleMessage(sockets[2], new BinaryMessage(ByteBuffer.allocate(50)));
+        handler.handleMessage(sockets[1], new BinaryMessage(ByteBuffer.allocate(50)));
+        awaitMessages(sockets[0], 4);
+        assertEquals(300, recorder.bytesByUser.get("debate-2").get());
+        assertEquals(250, recorder.bytesByUser.get("debate-1").get());
+
+        // 剩下不到两人时房间结束
+        forwardingService.leaveRoom("room-debate", "debate-1");
+        assertNull(registry.getSession("room-debate"));
+        assertNull(registry.getSessionByUser("debate-0"));
+        forwardingService.shutdown();
+    }
+
+    @Test
+    void roomSizeIsBounded() {
+        SpeechSessionProperties sessionProperties = new SpeechSessionProperties();
+        sessionProperties.setMaxRoomSize(3);
+        ForwardingService forwardingService = new ForwardingService(new SpeechSessionRegistry(), new CapturingRecorder(),
+                sessionProperties, new SpeechRelayProperties(), new SimpleMeterRegistry());
+        assertThrows(IllegalArgumentException.class, () -> forwardingService.makeRoom("r", List.of("a", "b", "c", "d")));
+        assertThrows(IllegalArgumentException.class, () -> forwardingService.makeRoom("r", List.of("a", "a")));
+        SpeechSessionInfo room = forwardingService.makeRoom("r", List.of("a", "b", "c"));
+        assertEquals(List.of("a", "b", "c"), room.getParticipantIds());
+        // 已在房间中的用户不能再加入其他会话
+        assertNull(forwardingService.makeConnection("s", "c", "e"));
+        assertThrows(IllegalStateException.class, () -> room.getOpponentInfo("a"));
+        forwardingService.shutdown();
+    }
+
+    private static StubWebSocketSession[] join(ForwardingService forwardingService, String name, int size) {
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            userIds.add(name + "-" + i);
+        }
+        forwardingService.makeRoom("room-" + name, userIds);
+        StubWebSocketSession[] sockets = new StubWebSocketSession[size];
+        for (int i = 0; i < size; i++) {
+            sockets[i] = new StubWebSocketSession("ws-" + name + "-" + i);
+            forwardingService.registerUserSession(userIds.get(i), "room-" + name, sockets[i]);
+        }
+        return sockets;
+    }
+
+    /**
+     * 每 16 帧等待最慢的接收者跟上，不让发送队列溢出
+     */
+    private static void send(SpeechWebSocketHandler handler, StubWebSocketSession[] sockets, BinaryMessage message,
+                             int sent, int frames) throws Exception {
+        for (int i = 0; i < frames; i++) {
+            handler.handleMessage(sockets[0], message);
+            if ((i & 15) == 15 || i == frames - 1) {
+                for (int r = 1; r < sockets.length; r++) {
+                    while (sockets[r].getMessagesSent() < sent + i + 1) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void awaitMessages(StubWebSocketSession socket, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (socket.getMessagesSent() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, socket.getMessagesSent());
+    }
+
+    private static long totalAllocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long id : threads.getAllThreadIds()) {
+            long bytes = threads.getThreadAllocatedBytes(id);
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static class CapturingRecorder extends RecordingHandler {
+        private final Map<String, AtomicLong> bytesByUser = new ConcurrentHashMap<>();
+
+        @Override
+        public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                AudioCodec codec) {
+            bytesByUser.computeIfAbsent(userId, k -> new AtomicLong()).addAndGet(audio.remaining());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 会话恢复：宽限期内用新连接重新注册回到原会话，补发断线期间错过的音频
+ */
+public class SessionResumeTest {
+    private static final int FRAME_BYTES = 320;
+
+    private ForwardingService forwardingService;
+    private SpeechWebSocketHandler handler;
+    private StubWebSocketSession alice;
+    private StubWebSocketSession bob;
+    private int frameIndex;
+
+    private void start(long graceMs, long replayMs) {
+        SpeechSessionProperties sessionProperties = new SpeechSessionProperties();
+        sessionProperties.setResumeGraceMs(graceMs);
+        sessionProperties.setReplayMs(replayMs);
+        SpeechRelayProperties relayProperties = new SpeechRelayProperties();
+        relayProperties.setQueueCapacity(1000);
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, sessionProperties, relayProperties, new SimpleMeterRegistry());
+        handler = new SpeechWebSocketHandler(forwardingService);
+        forwardingService.makeConnection("debate", "alice", "bob");
+        alice = new StubWebSocketSession("ws-alice");
+        bob = new StubWebSocketSession("ws-bob");
+        bob.setCaptureBinary(true);
+        forwardingService.registerUserSession("alice", "debate", alice);
+        forwardingService.registerUserSession("bob", "debate", bob);
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+    }
+
+    @Test
+    void reconnectWithinGraceReplaysMissedAudio() throws Exception {
+        start(5000, 3000);
+        speak(10);
+        awaitBinary(bob, 10);
+
+        // 网络抖动：连接断开，对手收到等待重连的通知
+        bob.close(CloseStatus.GOING_AWAY);
+        handler.afterConnectionClosed(bob, CloseStatus.GOING_AWAY);
+        awaitText(alice, 1);
+        assertTrue(alice.getTextMessages().get(0).contains("\"type\":\"opponent-reconnecting\""));
+        byte[] missed = speak(20);
+
+        StubWebSocketSession resumed = new StubWebSocketSession("ws-bob-2");
+        resumed.setCaptureBinary(true);
+        forwardingService.registerUserSession("bob", "debate", resumed);
+        awaitText(resumed, 1);
+        String ack = resumed.getTextMessages().get(0);
+        assertTrue(ack.contains("\"type\":\"resumed\""));
+        // 4096 字节的池化帧放得下 12 条 320 字节的记录，20 条合并成 2 帧
+        assertTrue(ack.contains("\"replayFrames\":2"));
+        List<byte[]> replayed = awaitBinary(resumed, 2);
+        assertArrayEquals(missed, concat(replayed));
+
+        // 之后的音频直接转发，排在补发之后
+        byte[] live = speak(1);
+        List<byte[]> received = awaitBinary(resumed, 3);
+        assertArrayEquals(live, received.get(2));
+        awaitText(alice, 2);
+        assertTrue(alice.getTextMessages().get(1).contains("\"type\":\"opponent-resumed\""));
+        assertEquals(1L, forwardingService.getRelayStats().get("resumed"));
+    }
+
+    @Test
+    void opponentLeavesWhenGraceExpires() throws Exception {
+        start(100, 3000);
+        handler.afterConnectionClosed(bob, CloseStatus.GOING_AWAY);
+        speak(5);
+        awaitText(alice, 2);
+        assertTrue(alice.getTextMessages().get(0).contains("\"type\":\"opponent-reconnecting\""));
+        assertTrue(alice.getTextMessages().get(0).contains("\"graceMs\":100"));
+        assertTrue(alice.getTextMessages().get(1).contains("\"type\":\"opponent-left\""));
+        assertEquals(1L, forwardingService.getRelayStats().get("resumeExpired"));
+
+        // 到期之后再注册是普通的注册，没有补发
+        StubWebSocketSession late = new StubWebSocketSession("ws-bob-2");
+        late.setCaptureBinary(true);
+        forwardingService.registerUserSession("bob", "debate", late);
+        Thread.sleep(50);
+        assertTrue(late.getTextMessages().isEmpty());
+        assertTrue(late.getBinaryMessages().isEmpty());
+        assertEquals(0L, forwardingService.getRelayStats().get("resumed"));
+    }
+
+    @Test
+    void replayIsBoundedByRingCapacity() throws Exception {
+        // 100ms × 32 字节/ms = 3200 字节，放得下 9 条 17 + 320 字节的记录
+        start(5000, 100);
+        handler.afterConnectionClosed(bob, CloseStatus.GOING_AWAY);
+        byte[] missed = speak(50);
+
+        StubWebSocketSession resumed = new StubWebSocketSession("ws-bob-2");
+        resumed.setCaptureBinary(true);
+        forwardingService.registerUserSession("bob", "debate", resumed);
+        awaitText(resumed, 1);
+        assertTrue(resumed.getTextMessages().get(0).contains("\"replayFrames\":1"));
+        byte[] replayed = concat(awaitBinary(resumed, 1));
+        int kept = 3200 / (ReplayBuffer.RECORD_HEADER + FRAME_BYTES) * FRAME_BYTES;
+        assertArrayEquals(Arrays.copyOfRange(missed, missed.length - kept, missed.length), replayed);
+    }
+
+    /**
+     * alice 说 count 帧，每帧内容不同
+     *
+     * @return 所有帧拼起来的数据
+     */
+    private byte[] speak(int count) throws Exception {
+        ByteArrayOutputStream spoken = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[FRAME_BYTES];
+            Arrays.fill(frame, (byte) frameIndex++);
+            frame[0] = (byte) (frameIndex >> 8);
+            handler.handleMessage(alice, new BinaryMessage(frame));
+            spoken.write(frame);
+        }
+        return spoken.toByteArray();
+    }
+
+    private static byte[] concat(List<byte[]> frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            out.writeBytes(frame);
+        }
+        return out.toByteArray();
+    }
+
+    private static void awaitText(StubWebSocketSession ws, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getTextMessages().size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        assertEquals(expected, ws.getTextMessages().size());
+    }
+
+    private static List<byte[]> awaitBinary(StubWebSocketSession ws, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getBinaryMessages().size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        List<byte[]> messages = ws.getBinaryMessages();
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.deeptalk.modules.speech.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片匹配：多个线程同时发起匹配时每个用户只被配对一次，没有人在有对手可配时一直等待，取消与配对竞争时结果一致
+ */
+public class ShardedMatchmakerTest {
+
+    private static final int USERS = 20_000;
+    private static final int THREADS = 8;
+
+    @Test
+    void concurrentArrivalsArePairedExactlyOnce() throws Exception {
+        for (int shards : new int[]{1, 4, 64}) {
+            Map<String, String> opponents = new ConcurrentHashMap<>();
+            AtomicInteger duplicates = new AtomicInteger();
+            ShardedMatchmaker matchmaker = new ShardedMatchmaker(shards, (initiatorId, waitingId, sessionId) -> {
+                if (opponents.putIfAbsent(initiatorId, waitingId) != null
+                        | opponents.putIfAbsent(waitingId, initiatorId) != null) {
+                    duplicates.incrementAndGet();
+                }
+            });
+            run(THREADS, userId -> matchmaker.enqueue(userId, null));
+
+            assertEquals(0, duplicates.get(), shards + " 个分片时有用户被重复配对");
+            // 配对在 enqueue 中同步完成；用户数为偶数，发布后的复查保证不会剩下两个互相看不见的等待者
+            assertEquals(USERS, opponents.size());
+            for (Map.Entry<String, String> entry : opponents.entrySet()) {
+                assertEquals(entry.getKey(), opponents.get(entry.getValue()), "配对关系不一致: " + entry.getKey());
+                assertFalse(matchmaker.isPending(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void cancelRacingPairingNeverLosesOrDoublePairsAUser() throws Exception {
+        Map<String, String> opponents = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        ShardedMatchmaker matchmaker = new ShardedMatchmaker(4, (initiatorId, waitingId, sessionId) -> {
+            if (opponents.putIfAbsent(initiatorId, waitingId) != null
+                    | opponents.putIfAbsent(waitingId, initiatorId) != null) {
+                duplicates.incrementAndGet();
+            }
+        });
+        Set<String> cancelled = ConcurrentHashMap.newKeySet();
+        run(THREADS, userId -> {
+            matchmaker.enqueue(userId, null);
+            if (ThreadLocalRandom.current().nextBoolean() && matchmaker.cancel(userId)) {
+                cancelled.add(userId);
+            }
+        });
+
+        assertEquals(0, duplicates.get(), "有用户被重复配对");
+        int pending = 0;
+        for (int i = 0; i < USERS; i++) {
+            String userId = "u" + i;
+            if (cancelled.contains(userId)) {
+                assertNull(opponents.get(userId), "已取消的用户 " + userId + " 被配对");
+                assertFalse(matchmaker.isPending(userId));
+            } else if (opponents.containsKey(userId)) {
+                assertEquals(userId, opponents.get(opponents.get(userId)));
+            } else {
+                assertTrue(matchmaker.isPending(userId), "用户 " + userId + " 既没有配对也不在等待");
+                pending++;
+            }
+        }
+        assertTrue(pending <= 1, pending + " 个用户没有配对");
+    }
+
+    /**
+     * 所有线程就绪后同时开始，为 u0 .. u(USERS-1) 执行 action
+     */
+    private static void run(int threads, java.util.function.Consumer<String> action) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = thread; i < USERS; i += threads) {
+                        action.accept("u" + i);
+                    }
+                }, pool));
+            }
+            assertTrue(ready.await(10, TimeUnit.SECONDS));
+            go.countDown();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
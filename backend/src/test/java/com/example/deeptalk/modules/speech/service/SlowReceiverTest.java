@@ -0,0 +1,113 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 一个慢客户端不能拖慢说话的一方，也不能拖慢其他会话
+ */
+public class SlowReceiverTest {
+
+    private static final int FRAMES = 500;
+    private static final int CAPACITY = 20;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private ForwardingService forwardingService;
+
+    private SpeechWebSocketHandler start(OverflowPolicy policy) {
+        SpeechRelayProperties relayProperties = new SpeechRelayProperties();
+        relayProperties.setQueueCapacity(CAPACITY);
+        relayProperties.setOverflowPolicy(policy);
+        relayProperties.setSendThreads(2);
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new NoopRecorder(),
+                new SpeechSessionProperties(), relayProperties, new SimpleMeterRegistry());
+        return new SpeechWebSocketHandler(forwardingService);
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+    }
+
+    private StubWebSocketSession[] connect(String sessionId) {
+        StubWebSocketSession speaker = new StubWebSocketSession(sessionId + "-speaker");
+        StubWebSocketSession listener = new StubWebSocketSession(sessionId + "-listener");
+        forwardingService.makeConnection(sessionId, sessionId + "-a", sessionId + "-b");
+        forwardingService.registerUserSession(sessionId + "-a", sessionId, speaker);
+        forwardingService.registerUserSession(sessionId + "-b", sessionId, listener);
+        return new StubWebSocketSession[]{speaker, listener};
+    }
+
+    @Test
+    void slowListenerDoesNotBlockSpeakerOrOtherSessions() throws Exception {
+        SpeechWebSocketHandler handler = start(OverflowPolicy.DROP_OLDEST);
+        StubWebSocketSession[] slow = connect("slow");
+        StubWebSocketSession[] fast = connect("fast");
+        slow[1].setSendDelayMillis(20);
+        BinaryMessage message = new BinaryMessage(ByteBuffer.allocate(640));
+
+        long maxForwardNanos = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            long t = System.nanoTime();
+            handler.handleMessage(slow[0], message);
+            handler.handleMessage(fast[0], message);
+            maxForwardNanos = Math.max(maxForwardNanos, System.nanoTime() - t);
+            // 以 10 倍于实时的速度发送（实际每 20ms 一帧）
+            LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast[1].getMessagesSent() < FRAMES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        // 说话方不等待发送；慢连接每帧 20ms，如果同步发送需要 10 秒以上
+        assertTrue(elapsedMs < 3000, "转发耗时 " + elapsedMs + " ms");
+        // 同一个线程池中的快连接收到了全部数据
+        assertEquals(FRAMES, fast[1].getMessagesSent());
+        // 慢连接的队列不超过上限，多出的帧被丢弃
+        Object dropped = forwardingService.getRelayStats().get("dropped");
+        assertTrue(((Number) dropped).longValue() > 0);
+        assertTrue(((Number) forwardingService.getRelayStats().get("maxDepth")).intValue() <= CAPACITY);
+    }
+
+    @Test
+    void closePolicyDisconnectsSlowListener() throws Exception {
+        SpeechWebSocketHandler handler = start(OverflowPolicy.CLOSE);
+        StubWebSocketSession[] slow = connect("slow");
+        slow[1].setSendDelayMillis(20);
+        BinaryMessage message = new BinaryMessage(ByteBuffer.allocate(640));
+        for (int i = 0; i < FRAMES; i++) {
+            handler.handleMessage(slow[0], message);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (slow[1].isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(slow[1].isOpen());
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, slow[1].getCloseStatus());
+    }
+
+    private static class NoopRecorder extends RecordingHandler {
+        @Override
+        public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                AudioCodec codec) {
+        }
+    }
+}
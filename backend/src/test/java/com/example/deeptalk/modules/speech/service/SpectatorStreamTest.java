@@ -0,0 +1,169 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 旁听：只收听会话中所有人的音频，人数有上限，跟不上的旁听者只丢自己的帧
+ */
+public class SpectatorStreamTest {
+
+    private ForwardingService forwardingService;
+    private SpeechWebSocketHandler handler;
+    private StubWebSocketSession alice;
+    private StubWebSocketSession bob;
+
+    @BeforeEach
+    void start() {
+        SpeechSessionProperties sessionProperties = new SpeechSessionProperties();
+        sessionProperties.setMaxSpectators(2);
+        SpeechRelayProperties relayProperties = new SpeechRelayProperties();
+        relayProperties.setQueueCapacity(1000);
+        relayProperties.setSpectatorQueueCapacity(10);
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, sessionProperties, relayProperties, new SimpleMeterRegistry());
+        handler = new SpeechWebSocketHandler(forwardingService);
+        forwardingService.makeConnection("debate", "alice", "bob");
+        alice = new StubWebSocketSession("ws-alice");
+        bob = new StubWebSocketSession("ws-bob");
+        forwardingService.registerUserSession("alice", "debate", alice);
+        forwardingService.registerUserSession("bob", "debate", bob);
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+    }
+
+    @Test
+    void spectatorHearsBothSpeakersAndCannotTalk() throws Exception {
+        StubWebSocketSession teacher = spectate("ws-teacher");
+        assertTrue(teacher.getTextMessages().get(0).contains("\"participants\":[\"alice\",\"bob\"]"));
+
+        handler.handleMessage(alice, new BinaryMessage(new byte[]{1, 1}));
+        handler.handleMessage(bob, new BinaryMessage(new byte[]{2, 2, 2}));
+        List<byte[]> heard = awaitBinary(teacher, 2);
+        Set<Integer> sources = new HashSet<>();
+        for (byte[] frame : heard) {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            assertTrue(SpeechFrame.isFramed(buffer));
+            sources.add(buffer.get(3) & 0xFF);
+            // 说话者序号对应音频内容
+            assertEquals((buffer.get(3) & 0xFF) + 1, buffer.get(SpeechFrame.HEADER_BYTES));
+        }
+        assertEquals(Set.of(0, 1), sources);
+
+        // 旁听者发出的音频不会转发给参与者
+        handler.handleMessage(teacher, new BinaryMessage(new byte[]{9}));
+        Thread.sleep(50);
+        assertEquals(1, alice.getMessagesSent());
+        assertEquals(1, bob.getMessagesSent());
+
+        // 参与者断线的通知同样发给旁听者
+        forwardingService.removeUserSession(bob);
+        awaitText(teacher, 2);
+        assertTrue(teacher.getTextMessages().get(1).contains("opponent-reconnecting"));
+
+        // 会话结束时旁听连接被关闭
+        forwardingService.terminateConnection("debate");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (teacher.isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        assertFalse(teacher.isOpen());
+        assertEquals(0, forwardingService.getRelayStats().get("spectators"));
+    }
+
+    @Test
+    void spectatorsPerSessionAreLimited() throws Exception {
+        spectate("ws-1");
+        StubWebSocketSession second = spectate("ws-2");
+        StubWebSocketSession third = new StubWebSocketSession("ws-3");
+        handler.handleMessage(third, new TextMessage("{\"type\":\"spectate\",\"sessionId\":\"debate\"}"));
+        assertTrue(third.getTextMessages().get(0).contains("spectator-limit"));
+        assertFalse(third.isOpen());
+
+        // 有人离开后可以再加入
+        handler.afterConnectionClosed(second, CloseStatus.NORMAL);
+        spectate("ws-4");
+        assertEquals(2, forwardingService.getRelayStats().get("spectators"));
+
+        StubWebSocketSession unknown = new StubWebSocketSession("ws-5");
+        handler.handleMessage(unknown, new TextMessage("{\"type\":\"spectate\",\"sessionId\":\"nope\"}"));
+        assertTrue(unknown.getTextMessages().get(0).contains("session-not-found"));
+    }
+
+    @Test
+    void slowSpectatorDropsOnlyItsOwnFrames() throws Exception {
+        StubWebSocketSession slow = spectate("ws-slow");
+        StubWebSocketSession fast = spectate("ws-fast");
+        slow.setSendDelayMillis(20);
+        int frames = 200;
+        for (int i = 0; i < frames; i++) {
+            handler.handleMessage(alice, new BinaryMessage(ByteBuffer.allocate(640)));
+            // 说话的节奏远快于慢旁听者每帧 20ms 的发送
+            Thread.sleep(1);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((bob.getMessagesSent() < frames || fast.getBinaryMessages().size() < frames)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        Map<String, Object> stats = forwardingService.getRelayStats();
+        // 参与者和正常的旁听者收到全部的帧
+        assertEquals(frames, bob.getMessagesSent());
+        assertEquals(frames, fast.getBinaryMessages().size());
+        assertEquals(0L, stats.get("dropped"));
+        // 慢旁听者只保留最近的帧
+        assertTrue((Long) stats.get("spectatorDropped") > frames / 2);
+    }
+
+    private StubWebSocketSession spectate(String id) throws Exception {
+        StubWebSocketSession ws = new StubWebSocketSession(id);
+        ws.setCaptureBinary(true);
+        handler.handleMessage(ws, new TextMessage("{\"type\":\"spectate\",\"sessionId\":\"debate\"}"));
+        awaitText(ws, 1);
+        assertTrue(ws.getTextMessages().get(0).contains("\"type\":\"spectating\""));
+        return ws;
+    }
+
+    private static void awaitText(StubWebSocketSession ws, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getTextMessages().size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        assertEquals(expected, ws.getTextMessages().size());
+    }
+
+    private static List<byte[]> awaitBinary(StubWebSocketSession ws, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getBinaryMessages().size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        List<byte[]> messages = ws.getBinaryMessages();
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+}
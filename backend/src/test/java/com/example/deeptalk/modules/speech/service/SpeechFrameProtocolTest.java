@@ -0,0 +1,212 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 二进制分帧协议：帧头的解析、序号检测、PING/PONG，以及与裸音频客户端的互通；
+ * 与 JSON 的解析耗时比较默认不运行，用 {@code mvn test -Pbenchmark} 运行
+ */
+@Slf4j
+public class SpeechFrameProtocolTest {
+
+    private ForwardingService forwardingService;
+    private SpeechWebSocketHandler handler;
+
+    @BeforeEach
+    void start() {
+        forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        handler = new SpeechWebSocketHandler(forwardingService);
+        forwardingService.makeConnection("s", "alice", "bob");
+    }
+
+    @AfterEach
+    void stop() {
+        forwardingService.shutdown();
+    }
+
+    @Test
+    void framedAudioCarriesSequenceTimestampAndSource() throws Exception {
+        StubWebSocketSession alice = registerFramed("alice");
+        StubWebSocketSession bob = registerFramed("bob");
+        long captureMicros = 1_700_000_000_000_000L;
+        for (int seq = 0; seq < 3; seq++) {
+            handler.handleMessage(alice, new BinaryMessage(audio(seq, captureMicros + seq * 20_000L, new byte[]{1, 2, (byte) seq})));
+        }
+        List<byte[]> received = awaitBinary(bob, 3);
+        for (int seq = 0; seq < 3; seq++) {
+            ByteBuffer frame = ByteBuffer.wrap(received.get(seq));
+            assertTrue(SpeechFrame.isFramed(frame));
+            assertEquals(SpeechFrame.TYPE_AUDIO, SpeechFrame.type(frame));
+            assertEquals(AudioCodec.PCM16, SpeechFrame.codec(frame));
+            assertEquals(0, frame.get(3)); // alice 是会话中的第一个参与者
+            assertEquals(seq, SpeechFrame.sequence(frame));
+            assertEquals(captureMicros + seq * 20_000L, SpeechFrame.captureMicros(frame));
+            byte[] payload = new byte[frame.remaining() - SpeechFrame.HEADER_BYTES];
+            SpeechFrame.payload(frame).get(payload);
+            assertArrayEquals(new byte[]{1, 2, (byte) seq}, payload);
+        }
+    }
+
+    @Test
+    void lostAndLateFramesAreCounted() throws Exception {
+        StubWebSocketSession alice = registerFramed("alice");
+        StubWebSocketSession bob = registerFramed("bob");
+        for (int seq : new int[]{0, 1, 4, 2, 5, 5}) {
+            handler.handleMessage(alice, new BinaryMessage(audio(seq, 0, new byte[8])));
+        }
+        List<byte[]> received = awaitBinary(bob, 4);
+        Map<String, Object> stats = forwardingService.getRelayStats();
+        // 2、3 缺失；迟到的 2 和重复的 5 被丢弃
+        assertEquals(2L, stats.get("lostFrames"));
+        assertEquals(2L, stats.get("lateFrames"));
+        // 转发时重新编号，接收方看到连续的序号
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(i, SpeechFrame.sequence(ByteBuffer.wrap(received.get(i))));
+        }
+    }
+
+    @Test
+    void pingIsAnsweredWithPong() throws Exception {
+        StubWebSocketSession alice = registerFramed("alice");
+        ByteBuffer ping = ByteBuffer.allocate(SpeechFrame.HEADER_BYTES);
+        SpeechFrame.writeHeader(ping, 0, SpeechFrame.TYPE_PING, AudioCodec.RAW, 0, 42, 123_456L);
+        long before = System.currentTimeMillis() * 1000;
+        handler.handleMessage(alice, new BinaryMessage(ping));
+        ByteBuffer pong = ByteBuffer.wrap(awaitBinary(alice, 1).get(0));
+        assertEquals(SpeechFrame.TYPE_PONG, SpeechFrame.type(pong));
+        assertEquals(42, SpeechFrame.sequence(pong));
+        assertEquals(123_456L, SpeechFrame.captureMicros(pong));
+        assertTrue(pong.getLong(SpeechFrame.HEADER_BYTES) >= before);
+    }
+
+    @Test
+    void framedAndLegacyClientsInteroperate() throws Exception {
+        StubWebSocketSession alice = registerFramed("alice");
+        StubWebSocketSession bob = new StubWebSocketSession("ws-bob");
+        bob.setCaptureBinary(true);
+        handler.handleMessage(bob, new TextMessage("{\"type\":\"register\",\"userId\":\"bob\",\"sessionId\":\"s\"}"));
+
+        // 分帧的一方发出的音频，裸音频的一方收到时没有帧头
+        handler.handleMessage(alice, new BinaryMessage(audio(0, 0, new byte[]{7, 7, 7})));
+        assertArrayEquals(new byte[]{7, 7, 7}, awaitBinary(bob, 1).get(0));
+
+        // 裸音频的一方发出的音频，由服务器补上序号和收到的时间
+        long before = System.currentTimeMillis() * 1000;
+        handler.handleMessage(bob, new BinaryMessage(new byte[]{9, 9}));
+        handler.handleMessage(bob, new BinaryMessage(new byte[]{9, 9}));
+        List<byte[]> received = awaitBinary(alice, 2);
+        ByteBuffer second = ByteBuffer.wrap(received.get(1));
+        assertEquals(1, SpeechFrame.sequence(second));
+        assertEquals(AudioCodec.RAW, SpeechFrame.codec(second));
+        assertEquals(1, second.get(3));
+        assertTrue(SpeechFrame.captureMicros(second) >= before);
+    }
+
+    @Test
+    void malformedRegisterIsIgnored() throws Exception {
+        ByteBuffer register = SpeechFrame.register("alice", "s", AudioCodec.PCM16, AudioCodec.PCM16);
+        ByteBuffer truncated = register.duplicate();
+        truncated.limit(truncated.limit() - 1);
+        assertNull(SpeechFrame.Register.parse(truncated));
+        assertNull(SpeechFrame.Register.parse(ByteBuffer.wrap(new byte[]{(byte) 0xA5, 2, 0})));
+        SpeechFrame.Register parsed = SpeechFrame.Register.parse(register);
+        assertNotNull(parsed);
+        assertEquals("alice", parsed.getUserId());
+        assertEquals("s", parsed.getSessionId());
+        assertEquals(0, register.position());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void headerParsingIsCheaperThanJson() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ByteBuffer frame = audio(12345, 1_700_000_000_000_000L, new byte[640]);
+        String json = "{\"type\":\"audio\",\"seq\":12345,\"ts\":1700000000000000,\"codec\":\"pcm\"}";
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        int iterations = 500_000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += parseHeader(frame);
+            sink += ((Number) objectMapper.readValue(jsonBytes, Map.class).get("seq")).longValue();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += parseHeader(frame);
+        }
+        long headerNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += ((Number) objectMapper.readValue(jsonBytes, Map.class).get("seq")).longValue();
+        }
+        long jsonNanos = System.nanoTime() - start;
+        log.info(String.format("[SpeechFrameProtocolTest] 解析帧头 %.1f ns, 解析同样内容的 JSON %.1f ns (%d)",
+                (double) headerNanos / iterations, (double) jsonNanos / iterations, sink & 1));
+        assertTrue(headerNanos < jsonNanos);
+    }
+
+    private static long parseHeader(ByteBuffer frame) {
+        if (!SpeechFrame.isFramed(frame) || SpeechFrame.type(frame) != SpeechFrame.TYPE_AUDIO) {
+            return -1;
+        }
+        return SpeechFrame.sequence(frame) + SpeechFrame.captureMicros(frame) + SpeechFrame.codec(frame).ordinal();
+    }
+
+    private StubWebSocketSession registerFramed(String userId) throws Exception {
+        StubWebSocketSession ws = new StubWebSocketSession("ws-" + userId);
+        ws.setCaptureBinary(true);
+        handler.handleMessage(ws, new BinaryMessage(SpeechFrame.register(userId, "s", AudioCodec.PCM16, AudioCodec.PCM16)));
+        // 注册结果以文本控制消息返回
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getTextMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        assertTrue(ws.getTextMessages().get(0).contains("\"type\":\"codec\""));
+        return ws;
+    }
+
+    private static ByteBuffer audio(int sequence, long captureMicros, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(SpeechFrame.HEADER_BYTES + payload.length);
+        SpeechFrame.writeHeader(frame, 0, SpeechFrame.TYPE_AUDIO, AudioCodec.PCM16, 0, sequence, captureMicros);
+        frame.position(SpeechFrame.HEADER_BYTES);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    private static List<byte[]> awaitBinary(StubWebSocketSession ws, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ws.getBinaryMessages().size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        List<byte[]> messages = ws.getBinaryMessages();
+        assertEquals(expected, messages.size());
+        return messages;
+    }
+}
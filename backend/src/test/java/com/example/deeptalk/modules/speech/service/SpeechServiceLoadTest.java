@@ -0,0 +1,79 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechMatchingProperties;
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.SpeechSessionInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpeechServiceLoadTest {
+
+    private static final int USERS = 5000;
+    private static final int POOL_SIZE = 4;
+
+    @Test
+    void thousandsOfConcurrentConnectsOnSmallPool() throws Exception {
+        SpeechSessionRegistry sessionRegistry = new SpeechSessionRegistry();
+        ForwardingService forwardingService = new ForwardingService(sessionRegistry, new RecordingHandler(),
+                new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechService speechService = new SpeechService(new SpeechMatchingProperties(), sessionRegistry, forwardingService, new SimpleMeterRegistry(),
+                new InMemoryMatchBroker());
+        String prefix = UUID.randomUUID().toString();
+        ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+        List<CompletableFuture<SpeechSessionInfo>> futures = new ArrayList<>();
+        Map<String, SpeechSessionInfo> sessionsByUser = new ConcurrentHashMap<>();
+        CountDownLatch submitted = new CountDownLatch(USERS);
+        int threadsBefore = Thread.activeCount();
+
+        for (int i = 0; i < USERS; i++) {
+            String userId = prefix + "-" + i;
+            CompletableFuture<SpeechSessionInfo> future = new CompletableFuture<>();
+            futures.add(future);
+            pool.execute(() -> {
+                // connect 不会阻塞调用线程，4 个线程就能让所有请求同时处于等待中
+                speechService.connect(userId, null).whenComplete((session, e) -> {
+                    if (session != null) {
+                        sessionsByUser.put(userId, session);
+                    }
+                    future.complete(session);
+                });
+                submitted.countDown();
+            });
+        }
+        assertTrue(submitted.await(10, TimeUnit.SECONDS), "提交请求时线程池被阻塞");
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        int threadsAfter = Thread.activeCount();
+        pool.shutdown();
+        speechService.shutdown();
+        forwardingService.shutdown();
+
+
+        // 用户数为偶数，所有人都应当配对成功，且配对关系双向一致
+        assertEquals(USERS, sessionsByUser.size());
+        for (Map.Entry<String, SpeechSessionInfo> entry : sessionsByUser.entrySet()) {
+            String userId = entry.getKey();
+            SpeechSessionInfo session = entry.getValue();
+            String opponentId = session.getOpponentInfo(userId).getUserId();
+            assertNotNull(opponentId);
+            assertEquals(session, sessionsByUser.get(opponentId), "用户 " + userId + " 被重复配对");
+        }
+        // 等待中的请求不应额外占用线程
+        assertTrue(threadsAfter - threadsBefore <= POOL_SIZE + 2);
+    }
+}
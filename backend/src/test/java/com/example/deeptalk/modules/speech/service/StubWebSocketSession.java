@@ -0,0 +1,173 @@
+package com.example.deeptalk.modules.speech.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 测试用的 WebSocket 连接，只统计收到的消息，不做任何网络 IO
+ */
+class StubWebSocketSession implements WebSocketSession {
+    private final String id;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile boolean open = true;
+    private volatile CloseStatus closeStatus;
+    // 模拟慢客户端：每次发送阻塞的时间
+    private volatile long sendDelayMillis;
+    private long messagesSent;
+    private long bytesSent;
+    private final List<String> textMessages = new ArrayList<>();
+    // 开启后保存收到的二进制消息内容
+    private volatile boolean captureBinary;
+    private final List<byte[]> binaryMessages = new ArrayList<>();
+
+    StubWebSocketSession(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return null;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return HttpHeaders.EMPTY;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return 0;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized void sendMessage(WebSocketMessage<?> message) {
+        if (sendDelayMillis > 0) {
+            try {
+                Thread.sleep(sendDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        messagesSent++;
+        if (message instanceof BinaryMessage) {
+            // 像真实容器一样读完负载
+            ByteBuffer payload = ((BinaryMessage) message).getPayload();
+            bytesSent += payload.remaining();
+            if (captureBinary) {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                binaryMessages.add(bytes);
+            }
+            payload.position(payload.limit());
+        } else if (message instanceof TextMessage) {
+            textMessages.add(((TextMessage) message).getPayload());
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        close(CloseStatus.NORMAL);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        closeStatus = status;
+        open = false;
+    }
+
+    void setSendDelayMillis(long sendDelayMillis) {
+        this.sendDelayMillis = sendDelayMillis;
+    }
+
+    synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+
+    synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    synchronized List<String> getTextMessages() {
+        return new ArrayList<>(textMessages);
+    }
+
+    void setCaptureBinary(boolean captureBinary) {
+        this.captureBinary = captureBinary;
+    }
+
+    synchronized List<byte[]> getBinaryMessages() {
+        return new ArrayList<>(binaryMessages);
+    }
+
+    CloseStatus getCloseStatus() {
+        return closeStatus;
+    }
+}
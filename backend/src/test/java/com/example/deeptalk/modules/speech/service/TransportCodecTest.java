@@ -0,0 +1,188 @@
+package com.example.deeptalk.modules.speech.service;
+
+import com.example.deeptalk.modules.speech.config.SpeechRelayProperties;
+import com.example.deeptalk.modules.speech.config.SpeechSessionProperties;
+import com.example.deeptalk.modules.speech.entity.AudioCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * µ-law / IMA ADPCM 传输编码的正确性、速度和节省的出口流量
+ */
+public class TransportCodecTest {
+
+    // 16kHz、16bit 单声道 20ms 一帧
+    private static final int FRAME_SAMPLES = 320;
+
+    @Test
+    void muLawRoundTripKeepsSpeechQuality() {
+        ByteBuffer pcm = sine(FRAME_SAMPLES * 50, 440, 12000);
+        ByteBuffer encoded = ByteBuffer.allocate(pcm.remaining() / 2);
+        assertEquals(pcm.remaining() / 2, MuLawCodec.encode(pcm, encoded));
+        encoded.flip();
+        ByteBuffer decoded = ByteBuffer.allocate(pcm.remaining());
+        MuLawCodec.decode(encoded, decoded);
+        decoded.flip();
+        double snr = snr(pcm, decoded);
+        assertTrue(snr > 30, "SNR " + snr);
+    }
+
+    @Test
+    void adpcmFramesDecodeIndependently() {
+        ByteBuffer pcm = sine(FRAME_SAMPLES * 50, 440, 12000);
+        List<ByteBuffer> blocks = new ArrayList<>();
+        int stepIndex = 0;
+        for (int offset = 0; offset < pcm.limit(); offset += FRAME_SAMPLES * 2) {
+            ByteBuffer frame = pcm.duplicate();
+            frame.position(offset).limit(offset + FRAME_SAMPLES * 2);
+            ByteBuffer block = ByteBuffer.allocate(ImaAdpcmCodec.encodedLength(frame.remaining()));
+            stepIndex = ImaAdpcmCodec.encode(frame, block, stepIndex);
+            assertEquals(0, block.remaining());
+            block.flip();
+            blocks.add(block);
+        }
+        // 解码时跳过一帧，模拟发送队列丢帧，其余帧照常解码
+        ByteBuffer decoded = ByteBuffer.allocate(pcm.remaining());
+        ByteBuffer expected = ByteBuffer.allocate(pcm.remaining());
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i == 10) {
+                continue;
+            }
+            assertEquals(FRAME_SAMPLES * 2, ImaAdpcmCodec.decode(blocks.get(i), decoded));
+            ByteBuffer original = pcm.duplicate();
+            original.position(i * FRAME_SAMPLES * 2).limit((i + 1) * FRAME_SAMPLES * 2);
+            expected.put(original);
+        }
+        decoded.flip();
+        expected.flip();
+        double snr = snr(expected, decoded);
+        assertTrue(snr > 20, "SNR " + snr);
+
+        // 奇数个待编码采样时最后半个字节是填充，解码出的采样数与原来一致
+        ByteBuffer odd = sine(4, 440, 12000);
+        ByteBuffer block = ByteBuffer.allocate(ImaAdpcmCodec.encodedLength(odd.remaining()));
+        ImaAdpcmCodec.encode(odd, block, 0);
+        block.flip();
+        assertEquals(8, ImaAdpcmCodec.decode(block, ByteBuffer.allocate(ImaAdpcmCodec.decodedLength(block.remaining()))));
+    }
+
+    @Test
+    void codecsRunWithoutAllocating() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        ByteBuffer pcm = sine(FRAME_SAMPLES, 440, 12000);
+        ByteBuffer mulaw = ByteBuffer.allocate(FRAME_SAMPLES);
+        ByteBuffer adpcm = ByteBuffer.allocate(ImaAdpcmCodec.encodedLength(FRAME_SAMPLES * 2));
+        ByteBuffer out = ByteBuffer.allocate(FRAME_SAMPLES * 2);
+        int iterations = 200_000;
+        int stepIndex = 0;
+        // 预热，让 JIT 完成编译
+        for (int i = 0; i < iterations; i++) {
+            mulaw.clear();
+            MuLawCodec.encode(pcm, mulaw);
+            adpcm.clear();
+            stepIndex = ImaAdpcmCodec.encode(pcm, adpcm, stepIndex);
+        }
+        mulaw.flip();
+        adpcm.flip();
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer target = mulaw.clear();
+            MuLawCodec.encode(pcm, target);
+        }
+        mulaw.flip();
+        for (int i = 0; i < iterations; i++) {
+            MuLawCodec.decode(mulaw, out.clear());
+        }
+        for (int i = 0; i < iterations; i++) {
+            stepIndex = ImaAdpcmCodec.encode(pcm, adpcm.clear(), stepIndex);
+        }
+        adpcm.flip();
+        for (int i = 0; i < iterations; i++) {
+            ImaAdpcmCodec.decode(adpcm, out.clear());
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // 测量本身会分配少量字节，与迭代次数无关
+        assertTrue(allocated < 4096, "allocated " + allocated);
+    }
+
+    @Test
+    void negotiatedCodecReducesEgress() throws Exception {
+        long raw = relay(null);
+        long mulaw = relay(AudioCodec.MULAW);
+        long adpcm = relay(AudioCodec.IMA_ADPCM);
+        assertEquals(raw / 2, mulaw);
+        assertTrue(raw / adpcm >= 3, "adpcm " + adpcm);
+    }
+
+    private long relay(AudioCodec receiveCodec) throws Exception {
+        ForwardingService forwardingService = new ForwardingService(new SpeechSessionRegistry(), new RecordingHandler() {
+            @Override
+            public void recordAudioChunk(String sessionId, String userId, ByteBuffer audio, long captureMicros,
+                    AudioCodec codec) {
+            }
+        }, new SpeechSessionProperties(), new SpeechRelayProperties(), new SimpleMeterRegistry());
+        SpeechWebSocketHandler handler = new SpeechWebSocketHandler(forwardingService);
+        StubWebSocketSession speaker = new StubWebSocketSession("speaker");
+        StubWebSocketSession listener = new StubWebSocketSession("listener");
+        forwardingService.makeConnection("s", "a", "b");
+        handler.handleMessage(speaker, new TextMessage("{\"type\":\"register\",\"userId\":\"a\",\"sessionId\":\"s\",\"sendCodec\":\"pcm\"}"));
+        handler.handleMessage(listener, new TextMessage("{\"type\":\"register\",\"userId\":\"b\",\"sessionId\":\"s\""
+                + (receiveCodec != null ? ",\"receiveCodec\":\"" + receiveCodec.getWireName() + "\"" : "") + "}"));
+
+        ByteBuffer pcm = sine(FRAME_SAMPLES * 50, 440, 12000);
+        for (int offset = 0; offset < pcm.limit(); offset += FRAME_SAMPLES * 2) {
+            ByteBuffer frame = pcm.duplicate();
+            frame.position(offset).limit(offset + FRAME_SAMPLES * 2);
+            handler.handleMessage(speaker, new BinaryMessage(frame.slice()));
+        }
+        // 声明了编码的连接先收到一条协商结果
+        long expectedMessages = 50 + (receiveCodec != null ? 1 : 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.getMessagesSent() < expectedMessages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expectedMessages, listener.getMessagesSent());
+        if (receiveCodec != null) {
+            assertTrue(listener.getTextMessages().get(0).contains("\"receiveCodec\":\"" + receiveCodec.getWireName() + "\""));
+        }
+        forwardingService.shutdown();
+        return listener.getBytesSent();
+    }
+
+    private static ByteBuffer sine(int samples, double hz, int amplitude) {
+        ByteBuffer pcm = ByteBuffer.allocate(samples * 2);
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (amplitude * Math.sin(2 * Math.PI * hz * i / 16000));
+            pcm.put((byte) sample);
+            pcm.put((byte) (sample >> 8));
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    private static double snr(ByteBuffer expected, ByteBuffer actual) {
+        assertEquals(expected.remaining(), actual.remaining());
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < expected.remaining(); i += 2) {
+            int e = (short) ((expected.get(expected.position() + i) & 0xFF) | (expected.get(expected.position() + i + 1) << 8));
+            int a = (short) ((actual.get(actual.position() + i) & 0xFF) | (actual.get(actual.position() + i + 1) << 8));
+            signal += (double) e * e;
+            noise += (double) (e - a) * (e - a);
+        }
+        return 10 * Math.log10(signal / Math.max(1, noise));
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.deeptalk.modules.speech.service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 测试用的 WebSocket 客户端，记录收到的文本和二进制消息以及关闭码；设置 onAudio 后二进制消息只回调发送时间
+ */
+class WebSocketTestClient implements WebSocket.Listener {
+    final List<String> text = new java.util.concurrent.CopyOnWriteArrayList<>();
+    final List<byte[]> binary = new java.util.concurrent.CopyOnWriteArrayList<>();
+    final CompletableFuture<Integer> closeCode = new CompletableFuture<>();
+    volatile java.util.function.LongConsumer onAudio;
+    WebSocket socket;
+    private StringBuilder textPart = new StringBuilder();
+    private java.io.ByteArrayOutputStream binaryPart = new java.io.ByteArrayOutputStream();
+    private boolean inMessage;
+
+    /**
+     * 连接到 port 上的 /api/speech/ws 并以 userId 注册到会话，等待服务端的第一条文本消息
+     */
+    static WebSocketTestClient connect(HttpClient client, int port, String userId, String sessionId) throws Exception {
+        WebSocketTestClient c = new WebSocketTestClient();
+        c.socket = client.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/api/speech/ws"), c).get(10, TimeUnit.SECONDS);
+        c.socket.sendText("{\"type\":\"register\",\"userId\":\"" + userId + "\",\"sessionId\":\"" + sessionId
+                + "\",\"sendCodec\":\"raw\"}", true).join();
+        c.awaitText(1);
+        return c;
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        textPart.append(data);
+        if (last) {
+            text.add(textPart.toString());
+            textPart = new StringBuilder();
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        java.util.function.LongConsumer callback = onAudio;
+        if (callback != null) {
+            // 发送时间在每条消息的开头
+            if (!inMessage && data.remaining() >= 8) {
+                callback.accept(data.getLong(data.position()));
+            }
+            inMessage = !last;
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            binaryPart.writeBytes(bytes);
+            if (last) {
+                binary.add(binaryPart.toByteArray());
+                binaryPart.reset();
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        closeCode.complete(statusCode);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        closeCode.complete(-1);
+    }
+
+    void awaitText(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (text.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, text.size());
+    }
+
+    void awaitBinary(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (binary.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, binary.size());
+    }
+}